@@ -0,0 +1,91 @@
+package com.mail.request;
+
+import com.mail.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the URLEncoder/StringBuilder MailGun payload with the form encoder that writes straight into the connection, on multi megabyte texts.
+ * Run it with -prof gc, the legacy path allocates several copies of the text per payload while the streamed one stays flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LargeMailGunRequestBenchmark {
+
+    @Param({"1000000", "4000000"})
+    private int bodySize;
+
+    private MailGunRequest request;
+    // Stands in for the socket, it only counts the bytes so the benchmark measures the encoding alone
+    private final CountingStream connection = new CountingStream();
+
+    @Setup
+    public void setUp() {
+        request = new MailGunRequest.Builder("whoami@example.org", BenchmarkData.recipients(10, "user"), "Test Email!", BenchmarkData.body(bodySize))
+                .cc(new String[]{"copy@example.org"})
+                .type("text/plain")
+                .build();
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        connection.count = 0;
+        request.writeTo(connection);
+        return connection.count;
+    }
+
+    @Benchmark
+    public byte[] buffered() throws IOException {
+        return request.getBody();
+    }
+
+    @Benchmark
+    public byte[] legacy() throws IOException {
+        // The payload as the service built it before the form encoder, then turned into bytes for the connection
+        StringBuilder sb = new StringBuilder();
+        sb.append("from=").append(URLEncoder.encode(request.getFrom(), StandardCharsets.UTF_8.name()));
+        for (String recipient : request.getTo()) {
+            sb.append("&to=").append(URLEncoder.encode(recipient, StandardCharsets.UTF_8.name()));
+        }
+        for (String recipient : request.getCc()) {
+            sb.append("&cc=").append(URLEncoder.encode(recipient, StandardCharsets.UTF_8.name()));
+        }
+        sb.append("&subject=").append(URLEncoder.encode(request.getSubject(), StandardCharsets.UTF_8.name()));
+        sb.append("&text=").append(URLEncoder.encode(request.getText(), StandardCharsets.UTF_8.name()));
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class CountingStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.mail.request;
+
+import com.mail.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the MailGun form payload for a growing number of recipients and body sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MailGunRequestBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int recipients;
+
+    @Param({"100", "10000"})
+    private int bodySize;
+
+    private MailGunRequest request;
+
+    @Setup
+    public void setUp() {
+        request = new MailGunRequest.Builder("whoami@example.org", BenchmarkData.recipients(recipients, "user"), "Test Email!", BenchmarkData.body(bodySize))
+                .cc(new String[]{"copy@example.org"})
+                .type("text/plain")
+                .build();
+    }
+
+    @Benchmark
+    public byte[] getBody() throws Exception {
+        return request.getBody();
+    }
+}
@@ -0,0 +1,66 @@
+package com.mail.request;
+
+import com.mail.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming SendGrid payload writer with the object-model serializer it replaced.
+ * Run it with -prof gc to see the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per payload).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendGridRequestBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int recipients;
+
+    @Param({"100", "10000"})
+    private int bodySize;
+
+    private SendGridRequest streaming;
+    private LegacySendGridRequest legacy;
+
+    @Setup
+    public void setUp() {
+        String[] to = BenchmarkData.recipients(recipients, "user");
+        String[] cc = {"copy@example.org"};
+        String text = BenchmarkData.body(bodySize);
+
+        streaming = new SendGridRequest.Builder("whoami@example.org", to, "Test Email!", text)
+                .cc(cc)
+                .type("text/plain")
+                .build();
+        legacy = new LegacySendGridRequest.Builder("whoami@example.org", to, "Test Email!", text)
+                .cc(cc)
+                .type("text/plain")
+                .build();
+    }
+
+    @Benchmark
+    public byte[] streaming() throws Exception {
+        return streaming.getBody();
+    }
+
+    @Benchmark
+    public byte[] legacy() throws Exception {
+        // The service used to turn the JSON string into bytes as well
+        return legacy.getData().getBytes(StandardCharsets.UTF_8);
+    }
+}
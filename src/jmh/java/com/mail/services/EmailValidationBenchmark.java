@@ -0,0 +1,71 @@
+package com.mail.services;
+
+import com.mail.dto.MailMessageDto;
+import com.mail.support.BenchmarkData;
+import com.mail.support.TestConfigurations;
+import com.mail.validation.EmailAddressValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The validation pipeline of EmailServiceImpl as a whole and its two steps on their own
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailValidationBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int recipients;
+
+    private EmailServiceImpl service;
+    private MailMessageDto message;
+    private EmailAddressValidator validator;
+
+    @Setup
+    public void setUp() {
+        // Validation doesn't touch any of the collaborators
+        validator = new EmailAddressValidator(500000, TimeUnit.HOURS.toMillis(1), Clock.systemUTC());
+        service = new EmailServiceImpl(null, null, null, null, null, null, null, TestConfigurations.transport(), null, null, validator,
+                TestConfigurations.validation(), null, null, null, null, null);
+        message = BenchmarkData.message(recipients, 100);
+    }
+
+    @Benchmark
+    public List<String> validate() {
+        return service.validate(message);
+    }
+
+    @Benchmark
+    public List<String> checkDuplicateRecipients() {
+        List<String> errors = new ArrayList<>();
+        service.checkDuplicateRecipients(errors, message);
+        return errors;
+    }
+
+    @Benchmark
+    public List<String> checkEmailFormat() {
+        List<String> errors = new ArrayList<>();
+        service.checkEmailFormat(errors, validator, message.getTo(), "to");
+        service.checkEmailFormat(errors, validator, message.getCc(), "cc");
+        service.checkEmailFormat(errors, validator, message.getBcc(), "bcc");
+        return errors;
+    }
+}
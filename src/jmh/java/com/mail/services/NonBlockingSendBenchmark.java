@@ -0,0 +1,155 @@
+package com.mail.services;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.auth.ProviderCredentials;
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import com.mail.config.TransportConfiguration;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.metrics.StageMetrics;
+import com.mail.outbox.MailOutbox;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.HedgePolicy;
+import com.mail.routing.ProviderRouter;
+import com.mail.routing.RoutingStrategy;
+import com.mail.support.BenchmarkData;
+import com.mail.support.StubMailProvider;
+import com.mail.support.TestConfigurations;
+import com.mail.template.TemplateEngine;
+import com.mail.transport.PooledMailTransport;
+import com.mail.validation.EmailAddressValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of concurrent sends against a stub provider answering after a delay, the blocking path is given a fixed
+ * number of request threads like the servlet container while the non-blocking path only waits on the event loop.
+ * Each operation is the whole burst, the time per operation is the time the last email of the burst took.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NonBlockingSendBenchmark {
+
+    @Param({"blocking", "non-blocking"})
+    private String mode;
+
+    @Param({"0", "20"})
+    private int providerLatencyMs;
+
+    // Stays below the accept backlog of the stub provider, the connections of a larger burst are refused and retried
+    @Param({"100"})
+    private int concurrentSends;
+
+    @Param({"50"})
+    private int requestThreads;
+
+    private StubMailProvider sendGrid;
+    private StubMailProvider mailGun;
+    private PooledMailTransport transport;
+    private ExecutorService requestExecutor;
+    private EmailServiceImpl service;
+    private MailMessageDto message;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quietLogging();
+        sendGrid = new StubMailProvider(concurrentSends);
+        mailGun = new StubMailProvider(8);
+        sendGrid.setInspector(request -> {
+            try {
+                Thread.sleep(providerLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        requestExecutor = Executors.newFixedThreadPool(requestThreads);
+
+        // Both paths get enough connections, the difference is in the threads waiting on them
+        TransportConfiguration transportConfig = TestConfigurations.transport();
+        ReflectionTestUtils.setField(transportConfig, "maxConnectionsPerProvider", concurrentSends);
+        StageMetrics stageMetrics = new StageMetrics("sendgrid", "mailgun");
+        transport = new PooledMailTransport(transportConfig, stageMetrics);
+
+        SendGridHttpConfiguration sendGridConfig = TestConfigurations.sendGrid(sendGrid.getUrl());
+        MailGunHttpConfiguration mailGunConfig = TestConfigurations.mailGun(mailGun.getUrl());
+        ProviderRegistry providers = new ProviderRegistry(sendGridConfig, mailGunConfig);
+        ProviderHealthMonitor healthMonitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), providers);
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(), Clock.systemUTC(), "sendgrid", "mailgun");
+        ProviderRouter router = new ProviderRouter(TestConfigurations.routing(RoutingStrategy.PRIORITY), healthMonitor,
+                circuitBreakers, providers);
+
+        service = new EmailServiceImpl(providers, router, circuitBreakers, transport,
+                new MailOutbox(TestConfigurations.disabledOutbox()), TestConfigurations.batch(), stageMetrics, transportConfig,
+                new AttachmentStore(TestConfigurations.attachment(System.getProperty("java.io.tmpdir"))),
+                new TemplateEngine(TestConfigurations.template("classpath:templates/"), new DefaultResourceLoader()), new EmailAddressValidator(1000, 60000, Clock.systemUTC()),
+                TestConfigurations.validation(), new RateLimiter(TestConfigurations.rateLimit(0, 0)),
+                new ProviderCredentials(TestConfigurations.credentials(""), providers),
+                new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)),
+                new ResolvedEndpointCache(TestConfigurations.redirect(), providers));
+        message = BenchmarkData.message(1, 100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestExecutor.shutdownNow();
+        transport.close();
+        sendGrid.close();
+        mailGun.close();
+    }
+
+    @Benchmark
+    public List<EmailResponseDto> sendBurst() throws Exception {
+        List<CompletableFuture<EmailResponseDto>> sends = new ArrayList<>(concurrentSends);
+        for (int i = 0; i < concurrentSends; i++) {
+            if ("blocking".equals(mode)) {
+                sends.add(CompletableFuture.supplyAsync(this::sendEmail, requestExecutor));
+            } else {
+                sends.add(service.sendEmailAsync(message));
+            }
+        }
+
+        List<EmailResponseDto> responses = new ArrayList<>(concurrentSends);
+        for (CompletableFuture<EmailResponseDto> send : sends) {
+            responses.add(send.get());
+        }
+        return responses;
+    }
+
+    private EmailResponseDto sendEmail() {
+        try {
+            return service.sendEmail(message);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
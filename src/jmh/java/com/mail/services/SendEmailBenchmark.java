@@ -0,0 +1,112 @@
+package com.mail.services;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.auth.ProviderCredentials;
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.metrics.StageMetrics;
+import com.mail.outbox.MailOutbox;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.HedgePolicy;
+import com.mail.routing.ProviderRouter;
+import com.mail.routing.RoutingStrategy;
+import com.mail.support.BenchmarkData;
+import com.mail.support.StubMailProvider;
+import com.mail.support.TestConfigurations;
+import com.mail.template.TemplateEngine;
+import com.mail.transport.PooledMailTransport;
+import com.mail.validation.EmailAddressValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sendEmail end to end against an in-process stub provider: validation, routing, payload and the pooled HTTP call.
+ * SampleTime reports the latency percentiles, run it with -bm thrpt for the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SendEmailBenchmark {
+
+    @Param({"sendgrid", "mailgun"})
+    private String provider;
+
+    @Param({"1", "10"})
+    private int recipients;
+
+    @Param({"100", "100000"})
+    private int bodySize;
+
+    private StubMailProvider sendGrid;
+    private StubMailProvider mailGun;
+    private PooledMailTransport transport;
+    private EmailServiceImpl service;
+    private MailMessageDto message;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quietLogging();
+        sendGrid = new StubMailProvider(8);
+        mailGun = new StubMailProvider(8);
+        StageMetrics stageMetrics = new StageMetrics("sendgrid", "mailgun");
+        transport = new PooledMailTransport(TestConfigurations.transport(), stageMetrics);
+
+        SendGridHttpConfiguration sendGridConfig = TestConfigurations.sendGrid(sendGrid.getUrl());
+        MailGunHttpConfiguration mailGunConfig = TestConfigurations.mailGun(mailGun.getUrl());
+        ProviderRegistry providers = new ProviderRegistry(sendGridConfig, mailGunConfig);
+        ProviderHealthMonitor healthMonitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), providers);
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(), Clock.systemUTC(), "sendgrid", "mailgun");
+        // All the traffic goes to the provider under test
+        String weights = "sendgrid".equals(provider) ? "sendgrid:1,mailgun:0" : "sendgrid:0,mailgun:1";
+        ProviderRouter router = new ProviderRouter(TestConfigurations.routing(RoutingStrategy.WEIGHTED, weights.split(",")), healthMonitor,
+                circuitBreakers, providers);
+
+        service = new EmailServiceImpl(providers, router, circuitBreakers, transport,
+                new MailOutbox(TestConfigurations.disabledOutbox()), TestConfigurations.batch(), stageMetrics, TestConfigurations.transport(),
+                new AttachmentStore(TestConfigurations.attachment(System.getProperty("java.io.tmpdir"))),
+                new TemplateEngine(TestConfigurations.template("classpath:templates/"), new DefaultResourceLoader()), new EmailAddressValidator(1000, 60000, Clock.systemUTC()),
+                TestConfigurations.validation(), new RateLimiter(TestConfigurations.rateLimit(0, 0)),
+                new ProviderCredentials(TestConfigurations.credentials(""), providers),
+                new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)),
+                new ResolvedEndpointCache(TestConfigurations.redirect(), providers));
+        message = BenchmarkData.message(recipients, bodySize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+        sendGrid.close();
+        mailGun.close();
+    }
+
+    @Benchmark
+    public EmailResponseDto sendEmail() throws Exception {
+        return service.sendEmail(message);
+    }
+}
@@ -0,0 +1,59 @@
+package com.mail.support;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.mail.dto.MailMessageDto;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inputs shared by the benchmarks
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    public static String[] recipients(int count, String prefix) {
+        String[] recipients = new String[count];
+        for (int i = 0; i < count; i++) {
+            recipients[i] = prefix + i + "@example.org";
+        }
+        return recipients;
+    }
+
+    /**
+     * @param size Number of characters
+     * @return Text made of words and line breaks like a real email body
+     */
+    public static String body(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        String words = "Hi!!! This is a test email, it has some text & a few special characters like = and %.\n";
+        while (sb.length() < size) {
+            sb.append(words, 0, Math.min(words.length(), size - sb.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return Message with the recipients split over 'to', 'cc' and 'bcc'
+     */
+    public static MailMessageDto message(int recipients, int bodySize) {
+        int cc = recipients / 4;
+        int bcc = recipients / 4;
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("whoami@example.org");
+        dto.setTo(recipients(recipients - cc - bcc, "to"));
+        dto.setCc(recipients(cc, "cc"));
+        dto.setBcc(recipients(bcc, "bcc"));
+        dto.setSubject("Test Email!");
+        dto.setText(body(bodySize));
+        return dto;
+    }
+
+    /**
+     * The tests log the HTTP client at debug level, which would dominate the end to end timings
+     */
+    public static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+}
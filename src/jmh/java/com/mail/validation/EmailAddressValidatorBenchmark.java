@@ -0,0 +1,71 @@
+package com.mail.validation;
+
+import org.apache.commons.validator.routines.EmailValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation throughput of Commons Validator, the fast path without the cache and the cached validator on a mix of
+ * valid and invalid addresses. Run it with -prof gc to compare the allocations as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailAddressValidatorBenchmark {
+
+    private static final String[] ADDRESSES = {
+            "recipient0@example.com",
+            "first.last@mail.example.co.uk",
+            "user+tag@sub.domain.org",
+            "someone@localhost",
+            "no-at-sign.example.com",
+            "double..dot@example.com",
+            "trailing@example.com.",
+            "bad@-example.com"
+    };
+
+    private EmailValidator commons;
+    private EmailAddressValidator validator;
+
+    @Setup
+    public void setUp() {
+        commons = EmailValidator.getInstance();
+        validator = new EmailAddressValidator(1000, TimeUnit.HOURS.toMillis(1), Clock.systemUTC());
+    }
+
+    @Benchmark
+    public void commons(Blackhole blackhole) {
+        for (String address : ADDRESSES) {
+            blackhole.consume(commons.isValid(address));
+        }
+    }
+
+    @Benchmark
+    public void fastPath(Blackhole blackhole) {
+        for (String address : ADDRESSES) {
+            blackhole.consume(validator.check(address));
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole blackhole) {
+        for (String address : ADDRESSES) {
+            blackhole.consume(validator.isValid(address));
+        }
+    }
+}
@@ -1,30 +1,326 @@
 package com.mail.api;
 
+import com.mail.attachment.AttachmentStore;
+import com.mail.config.BatchConfiguration;
+import com.mail.config.DispatchConfiguration;
+import com.mail.config.TransportConfiguration;
+import com.mail.dispatch.DispatchQueueFullException;
+import com.mail.dispatch.EmailDispatcher;
+import com.mail.dto.AttachmentDto;
+import com.mail.dto.BatchMailMessageDto;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
 import com.mail.dto.MailMessageDto;
+import com.mail.idempotency.IdempotencyRecord;
+import com.mail.idempotency.IdempotencyStore;
+import com.mail.idempotency.MessageFingerprint;
+import com.mail.ratelimit.RateLimiter;
 import com.mail.services.EmailService;
+import com.mail.services.SendCapacityExceededException;
+import com.mail.services.VirtualThreadExecutor;
+import com.mail.tracking.DeliveryTracker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class EmailResource {
 
     private final EmailService emailService;
+    private final EmailDispatcher emailDispatcher;
+    private final DispatchConfiguration dispatchConfig;
+    private final BatchConfiguration batchConfig;
+    private final AttachmentStore attachmentStore;
+    private final RateLimiter rateLimiter;
+    private final IdempotencyStore idempotencyStore;
+    private final TransportConfiguration transportConfig;
+    private final VirtualThreadExecutor virtualThreads;
+    private final DeliveryTracker deliveryTracker;
 
     @Autowired
-    public EmailResource(EmailService emailService) {
+    public EmailResource(EmailService emailService, EmailDispatcher emailDispatcher, DispatchConfiguration dispatchConfig, BatchConfiguration batchConfig, AttachmentStore attachmentStore, RateLimiter rateLimiter, IdempotencyStore idempotencyStore, TransportConfiguration transportConfig, VirtualThreadExecutor virtualThreads, DeliveryTracker deliveryTracker) {
         this.emailService = emailService;
+        this.emailDispatcher = emailDispatcher;
+        this.dispatchConfig = dispatchConfig;
+        this.batchConfig = batchConfig;
+        this.attachmentStore = attachmentStore;
+        this.rateLimiter = rateLimiter;
+        this.idempotencyStore = idempotencyStore;
+        this.transportConfig = transportConfig;
+        this.virtualThreads = virtualThreads;
+        this.deliveryTracker = deliveryTracker;
     }
 
     @RequestMapping(value = "/api/emails", method = RequestMethod.POST, consumes = MediaType.ALL_VALUE)
-    public ResponseEntity<?> sendEmail(MailMessageDto mailMessage) throws Exception {
+    public CompletableFuture<ResponseEntity<?>> sendEmail(MailMessageDto mailMessage,
+                                       @RequestParam(value = "attachment", required = false) MultipartFile[] attachments,
+                                       @RequestParam(value = "inline", required = false) MultipartFile[] inline,
+                                       HttpServletRequest request) throws Exception {
+        // A retried request with the key of an earlier one gets the original response, the email isn't sent twice
+        String key = null;
+        String header = request.getHeader(idempotencyStore.getHeader());
+        if (idempotencyStore.isEnabled() && ((header != null && !header.isEmpty()) || idempotencyStore.isHashContent())) {
+            String fingerprint = MessageFingerprint.of(mailMessage, uploads(attachments, inline));
+            // The keys of the clients are kept apart, the same key sent by two clients are two emails
+            key = client(request) + " " + (header != null && !header.isEmpty() ? header : fingerprint);
+            IdempotencyRecord original = idempotencyStore.claim(key, fingerprint);
+            if (original != null) {
+                return completed(replay(original, fingerprint));
+            }
+        }
+
+        CompletableFuture<ResponseEntity<?>> response;
+        try {
+            response = send(mailMessage, attachments, inline, request);
+        } catch (Exception e) {
+            if (key != null) {
+                idempotencyStore.abandon(key);
+            }
+            throw e;
+        }
+
+        if (key == null) {
+            return response;
+        }
+        // The key is settled once the email has been sent, on the event loop of the transport in non-blocking mode
+        String claimed = key;
+        return response.whenComplete((sent, error) -> remember(claimed, sent));
+    }
+
+    /**
+     * Only an accepted email is remembered, a failed or refused one can be retried with the same key
+     *
+     * @param key      Idempotency key claimed by the request
+     * @param response Response of the request, null if it failed with an exception
+     */
+    private void remember(String key, ResponseEntity<?> response) {
+        Object body = response == null ? null : response.getBody();
+        DeliveryStatus status = body instanceof EmailResponseDto ? ((EmailResponseDto) body).getStatus() : null;
+        if (body instanceof EmailResponseDto && status != DeliveryStatus.FAILED && status != DeliveryStatus.REJECTED) {
+            idempotencyStore.complete(key, response.getStatusCode().value(), (EmailResponseDto) body);
+        } else {
+            idempotencyStore.abandon(key);
+        }
+    }
+
+    /**
+     * Sends or queues an email that isn't a replay
+     *
+     * @param mailMessage Mail message from the client
+     * @param attachments Regular attachments
+     * @param inline      Files referenced from the body
+     * @param request     HTTP request
+     * @return Response to be sent back to the caller, completed once the provider has answered in non-blocking mode
+     * @throws Exception If the email can't be sent
+     */
+    private CompletableFuture<ResponseEntity<?>> send(MailMessageDto mailMessage, MultipartFile[] attachments, MultipartFile[] inline, HttpServletRequest request) throws Exception {
+        long retryAfterMs = rateLimiter.tryAcquire(client(request), mailMessage.getFrom());
+        if (retryAfterMs > 0) {
+            return completed(tooManyRequests(retryAfterMs));
+        }
+
+        // Only the files uploaded with this request can be attached, never a path sent by the client
+        mailMessage.setAttachments(null);
+        List<String> errors = attachmentStore.validate(uploads(attachments, inline));
+        if (!errors.isEmpty()) {
+            return completed(ResponseFactory.createError(HttpStatus.BAD_REQUEST, errors.toArray(new String[errors.size()])));
+        }
+        mailMessage.setAttachments(spool(attachments, inline));
+
+    	if (dispatchConfig.isAsyncEnabled()) {
+    		return completed(queueEmail(mailMessage));
+    	}
+
+        // The request thread is given back to the container while the provider is answering. The attachments are
+        // streamed from their spool files into the connection, which only the blocking send can do
+        if (transportConfig.isNonBlocking() && mailMessage.getAttachments().length == 0) {
+            try {
+                return emailService.sendEmailAsync(mailMessage).thenApply(response -> new ResponseEntity<>(deliveryTracker.track(response), HttpStatus.CREATED));
+            } catch (SendCapacityExceededException e) {
+                return completed(serviceUnavailable(e.getMessage()));
+            }
+        }
+        // The same blocking send, parked on a virtual thread while the provider is answering
+        if (virtualThreads.isEnabled()) {
+            return virtualThreads.submit(() -> new ResponseEntity<>(deliveryTracker.track(emailService.sendEmail(mailMessage)), HttpStatus.CREATED));
+        }
     	
-    	ResponseEntity<?> re = new ResponseEntity<>(emailService.sendEmail(mailMessage), HttpStatus.CREATED);
+    	ResponseEntity<?> re = new ResponseEntity<>(deliveryTracker.track(emailService.sendEmail(mailMessage)), HttpStatus.CREATED);
     	
-        return re;
+        return completed(re);
+    }
+
+    @RequestMapping(value = "/api/emails/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> sendBatch(@RequestBody BatchMailMessageDto batch, HttpServletRequest request) throws Exception {
+        List<MailMessageDto> messages = batch.toMessages();
+        if (messages.isEmpty()) {
+            return ResponseFactory.createError(HttpStatus.BAD_REQUEST, "The batch does not contain any messages");
+        } else if (messages.size() > batchConfig.getMaxMessages()) {
+            return ResponseFactory.createError(HttpStatus.BAD_REQUEST, "The batch can not contain more than " + batchConfig.getMaxMessages() + " messages");
+        }
+
+        // Every message of the batch counts against the limits of the client and of its sender
+        List<String> senders = new ArrayList<>(messages.size());
+        for (MailMessageDto message : messages) {
+            senders.add(message.getFrom());
+        }
+        long retryAfterMs = rateLimiter.tryAcquire(client(request), senders);
+        if (retryAfterMs > 0) {
+            return tooManyRequests(retryAfterMs);
+        }
+
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            for (String error : emailService.validate(messages.get(i))) {
+                errors.add("messages[" + i + "] - " + error);
+            }
+            if (messages.get(i).getAttachments().length > 0) {
+                errors.add("messages[" + i + "] - Attachments can only be sent with POST /api/emails");
+            }
+        }
+        if (!errors.isEmpty()) {
+            return ResponseFactory.createError(HttpStatus.BAD_REQUEST, errors.toArray(new String[errors.size()]));
+        }
+
+        return ResponseFactory.createResponse(deliveryTracker.track(emailService.sendBatch(messages)), HttpStatus.CREATED);
+    }
+
+    @RequestMapping(value = "/api/emails/{id}", method = RequestMethod.GET)
+    public ResponseEntity<?> getEmail(@PathVariable("id") String id) {
+        EmailResponseDto status = emailDispatcher.getStatus(id);
+        if (status == null) {
+            return ResponseFactory.createError(HttpStatus.NOT_FOUND, "Unknown email id - " + id);
+        }
+
+        return ResponseFactory.createResponse(status);
+    }
+
+    /**
+     * @param request HTTP request
+     * @return API client named in the client header, the remote address if the header isn't set
+     */
+    private String client(HttpServletRequest request) {
+        String client = request.getHeader(rateLimiter.getClientHeader());
+        return client != null && !client.isEmpty() ? client : request.getRemoteAddr();
+    }
+
+    /**
+     * @param retryAfterMs Time after which the request would be admitted
+     * @return 429 with the seconds to wait in Retry-After
+     */
+    private ResponseEntity<?> tooManyRequests(long retryAfterMs) {
+        long seconds = Math.max(1, (retryAfterMs + 999) / 1000);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+
+        return ResponseFactory.createError(HttpStatus.TOO_MANY_REQUESTS, "Too many emails, please retry in " + seconds + " seconds", headers);
+    }
+
+    /**
+     * @param original    Record of the first request sent with the key
+     * @param fingerprint Fingerprint of the email of this request
+     * @return The original response, 409 while the first request is in flight or 422 if the key was used for another email
+     */
+    private ResponseEntity<?> replay(IdempotencyRecord original, String fingerprint) {
+        if (!original.isCompleted()) {
+            return ResponseFactory.createError(HttpStatus.CONFLICT, "An email with this idempotency key is still being sent, please retry later");
+        } else if (!original.getFingerprint().equals(fingerprint)) {
+            return ResponseFactory.createError(HttpStatus.UNPROCESSABLE_ENTITY, "The idempotency key has already been used for a different email");
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Idempotent-Replayed", "true");
+        return new ResponseEntity<>(original.getResponse(), headers, HttpStatus.valueOf(original.getHttpStatus()));
+    }
+
+    /**
+     * Validates the email and puts it on the dispatch queue, the caller gets the id straight away
+     *
+     * @param mailMessage Mail message from the client
+     * @return 202 with the email id, 400 if the email is invalid or 503 if the queue is full
+     */
+    private ResponseEntity<?> queueEmail(MailMessageDto mailMessage) {
+        List<String> errors = emailService.validate(mailMessage);
+        if (!errors.isEmpty()) {
+            attachmentStore.release(mailMessage);
+            return ResponseFactory.createError(HttpStatus.BAD_REQUEST, errors.toArray(new String[errors.size()]));
+        }
+
+        try {
+            return ResponseFactory.createResponse(emailDispatcher.submit(mailMessage), HttpStatus.ACCEPTED);
+        } catch (DispatchQueueFullException e) {
+            attachmentStore.release(mailMessage);
+            return serviceUnavailable(e.getMessage());
+        }
+    }
+
+    /**
+     * @param message Reason the email can't be taken
+     * @return 503 with the seconds to wait in Retry-After
+     */
+    private ResponseEntity<?> serviceUnavailable(String message) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(dispatchConfig.getRetryAfterSeconds()));
+
+        return ResponseFactory.createError(HttpStatus.SERVICE_UNAVAILABLE, message, headers);
+    }
+
+    private static CompletableFuture<ResponseEntity<?>> completed(ResponseEntity<?> response) {
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private static List<MultipartFile> uploads(MultipartFile[] attachments, MultipartFile[] inline) {
+        List<MultipartFile> uploads = new ArrayList<>();
+        if (attachments != null) {
+            uploads.addAll(Arrays.asList(attachments));
+        }
+        if (inline != null) {
+            uploads.addAll(Arrays.asList(inline));
+        }
+
+        return uploads;
+    }
+
+    /**
+     * Moves the uploads into spool files, nothing is kept if one of them can't be written
+     *
+     * @param attachments Regular attachments
+     * @param inline      Files referenced from the body
+     * @return Spooled attachments of the email
+     * @throws IOException If an upload can't be spooled
+     */
+    private AttachmentDto[] spool(MultipartFile[] attachments, MultipartFile[] inline) throws IOException {
+        List<AttachmentDto> files = new ArrayList<>();
+        try {
+            for (MultipartFile upload : uploads(attachments, null)) {
+                files.add(attachmentStore.spool(upload, false));
+            }
+            for (MultipartFile upload : uploads(null, inline)) {
+                files.add(attachmentStore.spool(upload, true));
+            }
+        } catch (IOException e) {
+            MailMessageDto spooled = new MailMessageDto();
+            spooled.setAttachments(files.toArray(new AttachmentDto[files.size()]));
+            attachmentStore.release(spooled);
+            throw e;
+        }
+
+        return files.toArray(new AttachmentDto[files.size()]);
     }
 }
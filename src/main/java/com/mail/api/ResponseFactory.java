@@ -1,6 +1,7 @@
 package com.mail.api;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
@@ -52,6 +53,12 @@ public class ResponseFactory {
         return createError(status.getReasonPhrase(), errorMessage, status);
     }
 
+    public static ResponseEntity<Object> createError(HttpStatus status, String errorMessage, HttpHeaders headers) {
+        ResponseEntity<Object> error = createError(status, errorMessage);
+
+        return new ResponseEntity<Object>(error.getBody(), headers, status);
+    }
+
     /**
      * The list response, it has the data and total
      *
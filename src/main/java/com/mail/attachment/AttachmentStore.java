@@ -0,0 +1,156 @@
+package com.mail.attachment;
+
+import com.mail.config.AttachmentConfiguration;
+import com.mail.dto.AttachmentDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.request.Attachment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spools the uploaded attachments to files so they never sit in the heap, the providers read them back while the request is
+ * written. The files are deleted once the email has been sent, failed for good or dropped from the outbox.
+ */
+@Component
+public class AttachmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+    private final AttachmentConfiguration config;
+    private final Path directory;
+
+    @Autowired
+    public AttachmentStore(AttachmentConfiguration config) {
+        this.config = config;
+        this.directory = Paths.get(config.getSpoolDirectory()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Checks the uploads against the limits before anything is written to disk
+     *
+     * @param uploads Uploaded files, regular and inline
+     * @return List of errors
+     */
+    public List<String> validate(List<MultipartFile> uploads) {
+        List<String> errors = new ArrayList<>();
+        if (uploads.size() > config.getMaxCount()) {
+            errors.add("An email can not have more than " + config.getMaxCount() + " attachments");
+        }
+        for (MultipartFile upload : uploads) {
+            if (upload.getSize() > config.getMaxSizeBytes()) {
+                errors.add(String.format("Attachment is larger than %d bytes - %s", config.getMaxSizeBytes(), upload.getOriginalFilename()));
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Copies the upload into a spool file, the servlet container already keeps large uploads on disk so the content is streamed
+     *
+     * @param upload Uploaded file
+     * @param inline True if the file is referenced from the body
+     * @return Attachment pointing to the spool file
+     * @throws IOException If the spool file can't be written
+     */
+    public AttachmentDto spool(MultipartFile upload, boolean inline) throws IOException {
+        Files.createDirectories(directory);
+        Path file = Files.createTempFile(directory, "attachment-", ".bin");
+        try (InputStream in = upload.getInputStream()) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+
+        String filename = filename(upload);
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setFilename(filename);
+        attachment.setContentType(upload.getContentType());
+        attachment.setInline(inline);
+        // Inline images are referenced as cid:<filename> from the html body
+        attachment.setContentId(inline ? filename : null);
+        attachment.setPath(file.toString());
+        attachment.setSize(Files.size(file));
+
+        return attachment;
+    }
+
+    /**
+     * @param dto Mail message with spooled attachments
+     * @return Attachments of the provider request
+     * @throws IOException If an attachment is not a spool file of this store or it doesn't exist anymore
+     */
+    public List<Attachment> open(MailMessageDto dto) throws IOException {
+        if (dto.getAttachments().length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Attachment> attachments = new ArrayList<>(dto.getAttachments().length);
+        for (AttachmentDto attachment : dto.getAttachments()) {
+            Path file = resolve(attachment);
+            if (file == null || !Files.isRegularFile(file)) {
+                throw new IOException("Attachment is not available anymore - " + attachment.getFilename());
+            }
+            attachments.add(new Attachment(attachment.getFilename(), attachment.getContentType(), attachment.isInline(), attachment.getContentId(), file));
+        }
+
+        return attachments;
+    }
+
+    /**
+     * Deletes the spool files of the email
+     *
+     * @param dto Mail message that won't be sent again
+     */
+    public void release(MailMessageDto dto) {
+        for (AttachmentDto attachment : dto.getAttachments()) {
+            Path file = resolve(attachment);
+            if (file == null) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Could not delete the attachment " + file + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return The spool file, null if the path points outside of the spool directory
+     */
+    private Path resolve(AttachmentDto attachment) {
+        if (attachment.getPath() == null) {
+            return null;
+        }
+
+        Path file = Paths.get(attachment.getPath()).toAbsolutePath().normalize();
+        return file.getParent() != null && file.getParent().equals(directory) ? file : null;
+    }
+
+    /**
+     * @return Name of the upload without any client side directory, quotes and line breaks would break the provider headers
+     */
+    private static String filename(MultipartFile upload) {
+        String name = upload.getOriginalFilename();
+        if (name == null || name.isEmpty()) {
+            name = upload.getName();
+        }
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+
+        return name.replaceAll("[\"\\r\\n]", "_");
+    }
+}
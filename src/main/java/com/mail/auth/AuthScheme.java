@@ -0,0 +1,37 @@
+package com.mail.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * How a provider expects its key in the Authorization header
+ */
+public enum AuthScheme {
+
+    /**
+     * Basic user:key, used by MailGun with the user api
+     */
+    BASIC {
+        @Override
+        public String authorization(String user, String key) {
+            return "Basic " + Base64.getEncoder().encodeToString((user + ":" + key).getBytes(StandardCharsets.UTF_8));
+        }
+    },
+
+    /**
+     * Bearer key, used by SendGrid
+     */
+    BEARER {
+        @Override
+        public String authorization(String user, String key) {
+            return "Bearer " + key;
+        }
+    };
+
+    /**
+     * @param user User sent with the key, ignored by the schemes that only send the key
+     * @param key  API key of the provider
+     * @return Value of the Authorization header
+     */
+    public abstract String authorization(String user, String key);
+}
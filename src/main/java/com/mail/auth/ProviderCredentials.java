@@ -0,0 +1,160 @@
+package com.mail.auth;
+
+import com.mail.config.CredentialsConfiguration;
+import com.mail.provider.MailProvider;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ProviderSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Authorization headers of the providers, built once when the keys are loaded so a send only looks its header up.
+ * The keys come from the provider properties and can be overridden by mail.credentials.file, which is watched so a
+ * rotated key is used by the next send without a restart. The headers are sent with the first request, no JVM wide
+ * state is touched and there's no 401 challenge round trip.
+ */
+@Component
+public class ProviderCredentials {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderCredentials.class);
+    private final Map<String, Credential> credentials = new LinkedHashMap<>();
+    private final Path file;
+    private final boolean watch;
+    // Replaced as a whole on every reload, a send never sees the keys of two versions of the file
+    private volatile Map<String, String> authorizations = Collections.emptyMap();
+    private WatchService watchService;
+    private Thread watcher;
+
+    @Autowired
+    public ProviderCredentials(CredentialsConfiguration config, ProviderRegistry providers) {
+        this.file = config.getFile() == null || config.getFile().isEmpty() ? null : Paths.get(config.getFile());
+        this.watch = config.isWatch();
+        for (MailProvider provider : providers.getProviders()) {
+            ProviderSettings settings = provider.getSettings();
+            register(provider.getName(), settings.getType().getAuthScheme(), settings.getUser(), settings.getKey());
+        }
+        reload();
+    }
+
+    private void register(String provider, AuthScheme scheme, String user, String key) {
+        credentials.put(provider, new Credential(scheme, user, key));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (file == null || !watch) {
+            return;
+        }
+
+        Path directory = file.toAbsolutePath().getParent();
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            // The whole directory is watched, a mounted secret is replaced through a symbolic link and not written in place
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.error("Could not watch the credentials in " + directory + ", the keys won't be reloaded - " + e.getMessage());
+            return;
+        }
+
+        watcher = new Thread(this::watch, "provider-credentials-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Value of the Authorization header of the provider, null for an unknown provider
+     */
+    public String getAuthorization(String provider) {
+        return authorizations.get(provider);
+    }
+
+    /**
+     * Loads the keys again and swaps all the headers at once, the current headers are kept if the file can't be read
+     *
+     * @return True if the headers have been replaced
+     */
+    public boolean reload() {
+        Properties overrides = new Properties();
+        if (file != null && Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                overrides.load(reader);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("Could not read the credentials file " + file + ", keeping the current keys - " + e.getMessage());
+                return false;
+            }
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+            String provider = entry.getKey();
+            Credential credential = entry.getValue();
+            String key = overrides.getProperty(provider + ".key", credential.key);
+            String user = overrides.getProperty(provider + ".user", credential.user);
+            headers.put(provider, credential.scheme.authorization(user, key));
+        }
+        authorizations = Collections.unmodifiableMap(headers);
+
+        if (file != null) {
+            logger.info("Loaded the provider credentials from " + file);
+        }
+        return true;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // Every event of the directory reloads the file, a few spurious reloads are cheap
+                key.pollEvents();
+                reload();
+                if (!key.reset()) {
+                    logger.warn("The directory of the credentials file is gone, the keys won't be reloaded anymore");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private static final class Credential {
+        private final AuthScheme scheme;
+        private final String user;
+        private final String key;
+
+        Credential(AuthScheme scheme, String user, String key) {
+            this.scheme = scheme;
+            this.user = user;
+            this.key = key;
+        }
+    }
+}
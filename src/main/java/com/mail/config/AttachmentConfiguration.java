@@ -0,0 +1,27 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AttachmentConfiguration {
+
+    @Value("${mail.attachment.spool-directory:${java.io.tmpdir}/email-service/attachments}")
+    private String spoolDirectory;
+    @Value("${mail.attachment.max-count:10}")
+    private int maxCount;
+    @Value("${mail.attachment.max-size-bytes:26214400}")
+    private long maxSizeBytes;
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+}
@@ -0,0 +1,21 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BatchConfiguration {
+
+    @Value("${mail.batch.max-messages:10000}")
+    private int maxMessages;
+    @Value("${mail.batch.max-recipients-per-call:1000}")
+    private int maxRecipientsPerCall;
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public int getMaxRecipientsPerCall() {
+        return maxRecipientsPerCall;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CircuitBreakerConfiguration {
+
+    @Value("${mail.circuit-breaker.window-ms:10000}")
+    private long windowMs;
+    @Value("${mail.circuit-breaker.buckets:10}")
+    private int buckets;
+    @Value("${mail.circuit-breaker.minimum-requests:20}")
+    private int minimumRequests;
+    @Value("${mail.circuit-breaker.failure-rate-threshold:50}")
+    private int failureRateThreshold;
+    @Value("${mail.circuit-breaker.slow-call-ms:5000}")
+    private long slowCallMs;
+    @Value("${mail.circuit-breaker.slow-call-rate-threshold:80}")
+    private int slowCallRateThreshold;
+    @Value("${mail.circuit-breaker.open-duration-ms:30000}")
+    private long openDurationMs;
+    @Value("${mail.circuit-breaker.half-open-trials:3}")
+    private int halfOpenTrials;
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public long getSlowCallMs() {
+        return slowCallMs;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public long getOpenDurationMs() {
+        return openDurationMs;
+    }
+
+    public int getHalfOpenTrials() {
+        return halfOpenTrials;
+    }
+}
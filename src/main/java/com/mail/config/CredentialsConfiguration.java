@@ -0,0 +1,27 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CredentialsConfiguration {
+
+    @Value("${mail.credentials.file:}")
+    private String file;
+    @Value("${mail.credentials.watch:true}")
+    private boolean watch;
+
+    /**
+     * @return Properties file with the keys of the providers as provider.key, empty to use the keys of the provider properties
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return True if the file is watched and the keys are reloaded when it changes
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DispatchConfiguration {
+
+    @Value("${mail.dispatch.async-enabled:false}")
+    private boolean asyncEnabled;
+    @Value("${mail.dispatch.queue-capacity:1000}")
+    private int queueCapacity;
+    @Value("${mail.dispatch.workers:4}")
+    private int workers;
+    @Value("${mail.dispatch.status-retention:100000}")
+    private int statusRetention;
+    @Value("${mail.dispatch.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    public boolean isAsyncEnabled() {
+        return asyncEnabled;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getStatusRetention() {
+        return statusRetention;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class HealthCheckConfiguration {
+
+    @Value("${mail.health-check.interval-ms:10000}")
+    private long intervalMs;
+    @Value("${mail.health-check.jitter-ms:2000}")
+    private long jitterMs;
+    @Value("${mail.health-check.timeout-ms:3000}")
+    private int timeoutMs;
+    @Value("${mail.health-check.healthy-threshold:2}")
+    private int healthyThreshold;
+    @Value("${mail.health-check.unhealthy-threshold:3}")
+    private int unhealthyThreshold;
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public long getJitterMs() {
+        return jitterMs;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getHealthyThreshold() {
+        return healthyThreshold;
+    }
+
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+}
@@ -0,0 +1,70 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class HedgeConfiguration {
+
+    @Value("${mail.hedge.enabled:false}")
+    private boolean enabled;
+    @Value("${mail.hedge.percentile:95}")
+    private double percentile;
+    @Value("${mail.hedge.window-size:200}")
+    private int windowSize;
+    @Value("${mail.hedge.initial-delay-ms:1000}")
+    private long initialDelayMs;
+    @Value("${mail.hedge.min-delay-ms:50}")
+    private long minDelayMs;
+    @Value("${mail.hedge.budget-percent:5}")
+    private double budgetPercent;
+    @Value("${mail.hedge.max-burst:10}")
+    private int maxBurst;
+
+    /**
+     * @return True if the slow sends are hedged. A hedged email may be delivered twice, the providers don't deduplicate
+     * the copies, only the count of the duplicates is kept
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Percentile of the response times of the primary provider the hedge waits for
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @return Number of responses the percentile is computed over, the delay is refreshed after each window
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return Delay used until the first window of a provider is complete
+     */
+    public long getInitialDelayMs() {
+        return initialDelayMs;
+    }
+
+    public long getMinDelayMs() {
+        return minDelayMs;
+    }
+
+    /**
+     * @return Hedges allowed for every hundred sends
+     */
+    public double getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    /**
+     * @return Hedges that can be saved up and fired in a row
+     */
+    public int getMaxBurst() {
+        return maxBurst;
+    }
+}
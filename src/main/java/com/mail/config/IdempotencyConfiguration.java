@@ -0,0 +1,45 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdempotencyConfiguration {
+
+    @Value("${mail.idempotency.enabled:true}")
+    private boolean enabled;
+    @Value("${mail.idempotency.header:Idempotency-Key}")
+    private String header;
+    @Value("${mail.idempotency.hash-content:false}")
+    private boolean hashContent;
+    @Value("${mail.idempotency.max-entries:100000}")
+    private int maxEntries;
+    @Value("${mail.idempotency.ttl-ms:86400000}")
+    private long ttlMs;
+    @Value("${mail.idempotency.file:}")
+    private String file;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public boolean isHashContent() {
+        return hashContent;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public String getFile() {
+        return file;
+    }
+}
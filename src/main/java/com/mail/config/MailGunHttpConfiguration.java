@@ -27,8 +27,6 @@ public class MailGunHttpConfiguration {
     @Value("${second.mail.http-api.accept-type}")
     private String acceptType;
 
-    private String redirectUrl;
-
     public String getProvider() {
         return provider;
     }
@@ -56,12 +54,4 @@ public class MailGunHttpConfiguration {
     public String getAcceptType() {
         return acceptType;
     }
-
-    public String getRedirectUrl() {
-        return redirectUrl;
-    }
-
-    public void setRedirectUrl(String redirectUrl) {
-        this.redirectUrl = redirectUrl;
-    }
 }
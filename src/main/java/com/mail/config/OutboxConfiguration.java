@@ -0,0 +1,63 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class OutboxConfiguration {
+
+    @Value("${mail.outbox.enabled:true}")
+    private boolean enabled;
+    @Value("${mail.outbox.directory:${java.io.tmpdir}/email-service/outbox}")
+    private String directory;
+    @Value("${mail.outbox.segment-size-bytes:16777216}")
+    private int segmentSizeBytes;
+    @Value("${mail.outbox.fsync:false}")
+    private boolean fsync;
+    @Value("${mail.outbox.write-ahead:false}")
+    private boolean writeAhead;
+    @Value("${mail.outbox.replay-interval-ms:5000}")
+    private long replayIntervalMs;
+    @Value("${mail.outbox.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+    @Value("${mail.outbox.max-backoff-ms:300000}")
+    private long maxBackoffMs;
+    @Value("${mail.outbox.max-attempts:20}")
+    private int maxAttempts;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    public boolean isWriteAhead() {
+        return writeAhead;
+    }
+
+    public long getReplayIntervalMs() {
+        return replayIntervalMs;
+    }
+
+    public long getInitialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,19 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ProvidersConfiguration {
+
+    @Value("${mail.providers:}")
+    private String[] names;
+
+    /**
+     * @return Names of the providers in the order they are registered, empty for the SendGrid and MailGun properties.
+     * Every provider is set with mail.provider.name.*, sendgrid and mailgun can also be left to their property files.
+     */
+    public String[] getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RateLimitConfiguration {
+
+    @Value("${mail.rate-limit.enabled:true}")
+    private boolean enabled;
+    @Value("${mail.rate-limit.client-header:X-Api-Client}")
+    private String clientHeader;
+    @Value("${mail.rate-limit.client-per-second:50}")
+    private double clientPerSecond;
+    @Value("${mail.rate-limit.client-burst:100}")
+    private int clientBurst;
+    @Value("${mail.rate-limit.sender-per-second:10}")
+    private double senderPerSecond;
+    @Value("${mail.rate-limit.sender-burst:20}")
+    private int senderBurst;
+    @Value("${mail.rate-limit.provider-per-second:sendgrid:100,mailgun:100}")
+    private String[] providerPerSecond;
+    @Value("${mail.rate-limit.max-keys:100000}")
+    private int maxKeys;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getClientHeader() {
+        return clientHeader;
+    }
+
+    public double getClientPerSecond() {
+        return clientPerSecond;
+    }
+
+    public int getClientBurst() {
+        return clientBurst;
+    }
+
+    public double getSenderPerSecond() {
+        return senderPerSecond;
+    }
+
+    public int getSenderBurst() {
+        return senderBurst;
+    }
+
+    public String[] getProviderPerSecond() {
+        return providerPerSecond;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+}
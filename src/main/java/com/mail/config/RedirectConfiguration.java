@@ -0,0 +1,27 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RedirectConfiguration {
+
+    @Value("${mail.redirect.permanent-ttl-ms:3600000}")
+    private long permanentTtlMs;
+    @Value("${mail.redirect.temporary-ttl-ms:0}")
+    private long temporaryTtlMs;
+
+    /**
+     * @return Time a 301 or 308 is followed without asking the configured url again, unless it has a max-age
+     */
+    public long getPermanentTtlMs() {
+        return permanentTtlMs;
+    }
+
+    /**
+     * @return Time a 302 or 307 is followed without asking the configured url again, unless it has a max-age
+     */
+    public long getTemporaryTtlMs() {
+        return temporaryTtlMs;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RetryConfiguration {
+
+    @Value("${mail.retry.enabled:true}")
+    private boolean enabled;
+    @Value("${mail.retry.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${mail.retry.base-delay-ms:100}")
+    private long baseDelayMs;
+    @Value("${mail.retry.max-delay-ms:2000}")
+    private long maxDelayMs;
+    @Value("${mail.retry.max-retry-after-ms:5000}")
+    private long maxRetryAfterMs;
+    @Value("${mail.retry.budget-ratio:0.1}")
+    private double budgetRatio;
+    @Value("${mail.retry.budget-min-per-second:1}")
+    private double budgetMinPerSecond;
+    @Value("${mail.retry.budget-max-burst:20}")
+    private int budgetMaxBurst;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Rounds of provider attempts of a send, the first one included
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMs() {
+        return baseDelayMs;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * @return Longest Retry-After a provider can ask for, the email is not retried when it asks for more
+     */
+    public long getMaxRetryAfterMs() {
+        return maxRetryAfterMs;
+    }
+
+    /**
+     * @return Retries allowed for every successful send
+     */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * @return Retries allowed every second whatever the success rate, a quiet service can still retry
+     */
+    public double getBudgetMinPerSecond() {
+        return budgetMinPerSecond;
+    }
+
+    /**
+     * @return Retries the budget can save up while the providers are healthy
+     */
+    public int getBudgetMaxBurst() {
+        return budgetMaxBurst;
+    }
+}
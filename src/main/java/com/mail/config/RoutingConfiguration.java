@@ -0,0 +1,34 @@
+package com.mail.config;
+
+import com.mail.routing.RoutingStrategy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RoutingConfiguration {
+
+    @Value("${mail.routing.strategy:PRIORITY}")
+    private RoutingStrategy strategy;
+    @Value("${mail.routing.priority:sendgrid,mailgun}")
+    private String[] priority;
+    @Value("${mail.routing.weights:sendgrid:1,mailgun:1}")
+    private String[] weights;
+    @Value("${mail.routing.latency-smoothing:0.2}")
+    private double latencySmoothing;
+
+    public RoutingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public String[] getPriority() {
+        return priority;
+    }
+
+    public String[] getWeights() {
+        return weights;
+    }
+
+    public double getLatencySmoothing() {
+        return latencySmoothing;
+    }
+}
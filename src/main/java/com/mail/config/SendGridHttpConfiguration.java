@@ -27,8 +27,6 @@ public class SendGridHttpConfiguration {
     @Value("${mail.http-api.accept-type}")
     private String acceptType;
 
-    private String redirectUrl;
-
     public String getProvider() {
         return provider;
     }
@@ -57,12 +55,4 @@ public class SendGridHttpConfiguration {
         return acceptType;
     }
 
-    public String getRedirectUrl() {
-        return redirectUrl;
-    }
-
-    public void setRedirectUrl(String redirectUrl) {
-        this.redirectUrl = redirectUrl;
-    }
-
 }
@@ -0,0 +1,21 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TemplateConfiguration {
+
+    @Value("${mail.template.location:classpath:templates/}")
+    private String location;
+    @Value("${mail.template.cache-size:500}")
+    private int cacheSize;
+
+    public String getLocation() {
+        return location;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+}
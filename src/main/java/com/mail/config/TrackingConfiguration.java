@@ -0,0 +1,33 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TrackingConfiguration {
+
+    @Value("${mail.tracking.enabled:true}")
+    private boolean enabled;
+    @Value("${mail.tracking.max-entries:1000000}")
+    private int maxEntries;
+    @Value("${mail.tracking.average-id-bytes:64}")
+    private int averageIdBytes;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Number of emails whose status is kept, the oldest half is forgotten once it's reached
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return Space reserved for each message id of the providers, in bytes of UTF-8
+     */
+    public int getAverageIdBytes() {
+        return averageIdBytes;
+    }
+}
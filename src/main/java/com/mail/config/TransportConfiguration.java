@@ -0,0 +1,85 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TransportConfiguration {
+
+    @Value("${mail.transport.connect-timeout-ms:3000}")
+    private int connectTimeoutMs;
+    @Value("${mail.transport.read-timeout-ms:10000}")
+    private int readTimeoutMs;
+    @Value("${mail.transport.idle-timeout-ms:30000}")
+    private long idleTimeoutMs;
+    @Value("${mail.transport.pool-wait-timeout-ms:1000}")
+    private int poolWaitTimeoutMs;
+    @Value("${mail.transport.max-connections-per-provider:20}")
+    private int maxConnectionsPerProvider;
+    @Value("${mail.transport.stream-threshold-bytes:262144}")
+    private int streamThresholdBytes;
+    @Value("${mail.transport.non-blocking:false}")
+    private boolean nonBlocking;
+    @Value("${mail.transport.io-threads:2}")
+    private int ioThreads;
+    @Value("${mail.transport.max-in-flight:10000}")
+    private int maxInFlight;
+    @Value("${mail.transport.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public int getPoolWaitTimeoutMs() {
+        return poolWaitTimeoutMs;
+    }
+
+    public int getMaxConnectionsPerProvider() {
+        return maxConnectionsPerProvider;
+    }
+
+    /**
+     * @return Size of the mail text from which the body is written straight into the connection with chunked transfer encoding
+     * instead of being built in memory first
+     */
+    public int getStreamThresholdBytes() {
+        return streamThresholdBytes;
+    }
+
+    /**
+     * @return True if POST /api/emails sends over the non-blocking client and frees the request thread while the provider answers
+     */
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    /**
+     * @return Event loop threads of the non-blocking client of each provider
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @return Emails the non-blocking path sends at the same time, the next ones get a 503 until one completes
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return True if POST /api/emails sends on a virtual thread instead of the request thread, needs Java 21
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+}
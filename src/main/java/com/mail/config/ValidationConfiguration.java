@@ -0,0 +1,39 @@
+package com.mail.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ValidationConfiguration {
+
+    @Value("${mail.validation.cache-size:500000}")
+    private int cacheSize;
+    @Value("${mail.validation.cache-ttl-ms:3600000}")
+    private long cacheTtlMs;
+    @Value("${mail.validation.max-recipients-per-field:10}")
+    private int maxRecipientsPerField;
+    @Value("${mail.validation.lowercase-local-part:false}")
+    private boolean lowercaseLocalPart;
+    @Value("${mail.validation.strip-plus-tag:false}")
+    private boolean stripPlusTag;
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getCacheTtlMs() {
+        return cacheTtlMs;
+    }
+
+    public int getMaxRecipientsPerField() {
+        return maxRecipientsPerField;
+    }
+
+    public boolean isLowercaseLocalPart() {
+        return lowercaseLocalPart;
+    }
+
+    public boolean isStripPlusTag() {
+        return stripPlusTag;
+    }
+}
@@ -0,0 +1,11 @@
+package com.mail.dispatch;
+
+/**
+ * Thrown when the dispatch queue cannot take any more emails
+ */
+public class DispatchQueueFullException extends RuntimeException {
+
+    public DispatchQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,196 @@
+package com.mail.dispatch;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.config.DispatchConfiguration;
+import com.mail.config.OutboxConfiguration;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.outbox.MailOutbox;
+import com.mail.services.EmailService;
+import com.mail.tracking.DeliveryTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Puts the emails on a bounded in-memory queue that a pool of workers drains against the providers,
+ * so the caller doesn't have to wait for the provider round trip.
+ * With the outbox write-ahead enabled the email is written to the outbox before it's queued, so it's
+ * re-attempted after a restart if the process dies before the email was dispatched.
+ */
+@Component
+public class EmailDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailDispatcher.class);
+    private final EmailService emailService;
+    private final DispatchConfiguration config;
+    private final MailOutbox mailOutbox;
+    private final DeliveryTracker deliveryTracker;
+    private final AttachmentStore attachmentStore;
+    private final boolean writeAhead;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, EmailResponseDto> statuses = new ConcurrentHashMap<>();
+    private final Queue<String> statusOrder = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    public EmailDispatcher(EmailService emailService, DispatchConfiguration config, MailOutbox mailOutbox, OutboxConfiguration outboxConfig, DeliveryTracker deliveryTracker, AttachmentStore attachmentStore) {
+        this.emailService = emailService;
+        this.config = config;
+        this.mailOutbox = mailOutbox;
+        this.deliveryTracker = deliveryTracker;
+        this.attachmentStore = attachmentStore;
+        this.writeAhead = outboxConfig.isWriteAhead();
+        this.executor = new ThreadPoolExecutor(config.getWorkers(), config.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()), new WorkerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queues the email for delivery, the message should have been validated before
+     *
+     * @param dto Mail message from the client
+     * @return Response with the id to check the delivery status
+     * @throws DispatchQueueFullException When the queue is full
+     */
+    public EmailResponseDto submit(MailMessageDto dto) {
+        String id = UUID.randomUUID().toString();
+        EmailResponseDto queued = new EmailResponseDto(id, DeliveryStatus.QUEUED, "Your email has been queued", new Date().getTime());
+        track(queued);
+
+        Long outboxId = writeAhead(dto);
+        try {
+            executor.execute(() -> dispatch(id, outboxId, dto));
+        } catch (RejectedExecutionException e) {
+            statuses.remove(id);
+            // The caller is told to retry so the email must not be replayed
+            ackOutbox(outboxId);
+            logger.warn("Dispatch queue is full, rejecting the email");
+            throw new DispatchQueueFullException("The email queue is full, please try again later");
+        }
+
+        return queued;
+    }
+
+    /**
+     * Returns the latest delivery status of a queued email
+     *
+     * @param id Id returned when the email was queued
+     * @return Status or null if the id is unknown or expired
+     */
+    public EmailResponseDto getStatus(String id) {
+        EmailResponseDto status = statuses.get(id);
+        return status != null ? status : deliveryTracker.get(id);
+    }
+
+    /**
+     * @return Number of emails waiting for a worker
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn(executor.getQueue().size() + " queued emails have not been dispatched before shutdown");
+            executor.shutdownNow();
+        }
+    }
+
+    private void dispatch(String id, Long outboxId, MailMessageDto dto) {
+        statuses.computeIfPresent(id, (key, status) -> new EmailResponseDto(id, DeliveryStatus.SENDING, status.getMessage(), new Date().getTime()));
+
+        EmailResponseDto result;
+        try {
+            result = emailService.sendEmail(dto);
+            // The email has been sent or saved again in the outbox by the service
+            ackOutbox(outboxId);
+        } catch (Exception e) {
+            logger.error("Could not dispatch the email " + id + " - " + e.getMessage());
+            if (outboxId != null) {
+                mailOutbox.release(outboxId);
+                result = new EmailResponseDto(DeliveryStatus.QUEUED, "Your email has not been sent yet, it has been put into the queue and will be re-attempted", new Date().getTime());
+            } else {
+                // Nothing will send the email again, its spooled attachments aren't needed anymore
+                attachmentStore.release(dto);
+                result = new EmailResponseDto(DeliveryStatus.FAILED, "Sorry, Your email has not been sent!!", new Date().getTime());
+            }
+        }
+
+        DeliveryStatus status = result.getStatus() == null ? DeliveryStatus.SENT : result.getStatus();
+        EmailResponseDto dispatched = new EmailResponseDto(id, status, result.getMessage(), result.getTimestamp());
+        dispatched.setProvider(result.getProvider());
+        dispatched.setProviderMessageId(result.getProviderMessageId());
+        // A status dropped by the retention while the email was sent isn't added back, nothing would ever drop it again
+        statuses.computeIfPresent(id, (key, queued) -> dispatched);
+        // The status outlives the retention of the dispatcher in the tracker
+        deliveryTracker.put(UUID.fromString(id), dispatched);
+    }
+
+    private Long writeAhead(MailMessageDto dto) {
+        if (!writeAhead || !mailOutbox.isEnabled()) {
+            return null;
+        }
+
+        try {
+            return mailOutbox.addInFlight(dto);
+        } catch (IOException e) {
+            logger.error("Could not write the email to the outbox before dispatching it - " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void ackOutbox(Long outboxId) {
+        if (outboxId == null) {
+            return;
+        }
+
+        try {
+            mailOutbox.ack(outboxId);
+        } catch (IOException e) {
+            logger.error("Could not acknowledge the outbox entry " + outboxId + " - " + e.getMessage());
+        }
+    }
+
+    private void track(EmailResponseDto status) {
+        statuses.put(status.getId(), status);
+        statusOrder.add(status.getId());
+
+        // Forget the oldest statuses so the map doesn't grow forever
+        while (statuses.size() > config.getStatusRetention()) {
+            String oldest = statusOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            statuses.remove(oldest);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "email-dispatcher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
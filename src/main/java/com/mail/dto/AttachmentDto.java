@@ -0,0 +1,68 @@
+package com.mail.dto;
+
+/**
+ * A file attached to an email, the content itself stays in the spool file until the email has been sent
+ */
+public class AttachmentDto {
+
+    private String filename;
+    private String contentType;
+    private boolean inline;
+    private String contentId;
+    private String path;
+    private long size;
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return True if the file is shown in the body (referenced with cid:contentId) instead of being listed as an attachment
+     */
+    public boolean isInline() {
+        return inline;
+    }
+
+    public void setInline(boolean inline) {
+        this.inline = inline;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public void setContentId(String contentId) {
+        this.contentId = contentId;
+    }
+
+    /**
+     * @return Spool file holding the content
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+}
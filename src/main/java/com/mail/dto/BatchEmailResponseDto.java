@@ -0,0 +1,44 @@
+package com.mail.dto;
+
+/**
+ * Response that we return to the caller of the batch api, results are in the same order as the messages
+ */
+public class BatchEmailResponseDto {
+
+    private int messages;
+    private int providerCalls;
+    private EmailResponseDto[] results;
+
+    public BatchEmailResponseDto() {
+    }
+
+    public BatchEmailResponseDto(int messages, int providerCalls, EmailResponseDto[] results) {
+        this.messages = messages;
+        this.providerCalls = providerCalls;
+        this.results = results;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public void setMessages(int messages) {
+        this.messages = messages;
+    }
+
+    public int getProviderCalls() {
+        return providerCalls;
+    }
+
+    public void setProviderCalls(int providerCalls) {
+        this.providerCalls = providerCalls;
+    }
+
+    public EmailResponseDto[] getResults() {
+        return results;
+    }
+
+    public void setResults(EmailResponseDto[] results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,78 @@
+package com.mail.dto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This is the object that the client sends to our batch api, it either carries a list of complete messages or a single
+ * message that is sent separately to each one of the recipients, or both
+ */
+public class BatchMailMessageDto {
+
+    private MailMessageDto[] messages;
+    private MailMessageDto message;
+    private String[] recipients;
+
+    public MailMessageDto[] getMessages() {
+        if (messages == null) {
+            messages = new MailMessageDto[0];
+        }
+
+        return messages;
+    }
+
+    public void setMessages(MailMessageDto[] messages) {
+        this.messages = messages;
+    }
+
+    public MailMessageDto getMessage() {
+        return message;
+    }
+
+    public void setMessage(MailMessageDto message) {
+        this.message = message;
+    }
+
+    public String[] getRecipients() {
+        if (recipients == null) {
+            recipients = new String[0];
+        }
+
+        return recipients;
+    }
+
+    public void setRecipients(String[] recipients) {
+        this.recipients = recipients;
+    }
+
+    /**
+     * Flattens the batch into one message per email, the shared message is copied for every recipient with its own
+     * copy of the template variables
+     *
+     * @return Messages in the order they were given
+     */
+    public List<MailMessageDto> toMessages() {
+        List<MailMessageDto> result = new ArrayList<>(getMessages().length + getRecipients().length);
+        for (MailMessageDto dto : getMessages()) {
+            result.add(dto);
+        }
+
+        if (message != null) {
+            for (String recipient : getRecipients()) {
+                MailMessageDto dto = new MailMessageDto();
+                dto.setFrom(message.getFrom());
+                dto.setReplyTo(message.getReplyTo());
+                dto.setTo(new String[]{recipient});
+                dto.setSubject(message.getSubject());
+                dto.setText(message.getText());
+                dto.setType(message.getType());
+                dto.setTemplateId(message.getTemplateId());
+                dto.setVariables(new HashMap<>(message.getVariables()));
+                result.add(dto);
+            }
+        }
+
+        return result;
+    }
+}
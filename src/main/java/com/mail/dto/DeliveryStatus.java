@@ -0,0 +1,18 @@
+package com.mail.dto;
+
+/**
+ * Delivery state of an email
+ */
+public enum DeliveryStatus {
+    QUEUED,
+    SENDING,
+    SENT,
+    /**
+     * No provider could take the email, it's put into the outbox when the outbox is enabled
+     */
+    FAILED,
+    /**
+     * The provider refused the email itself (a 4xx other than a throttle), sending it again would be refused as well
+     */
+    REJECTED
+}
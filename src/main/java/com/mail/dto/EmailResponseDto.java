@@ -1,12 +1,19 @@
 package com.mail.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Email response that we return to the caller that triggers the send email api
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class EmailResponseDto {
 
+    private String id;
+    private DeliveryStatus status;
     private String message;
     private long timestamp;
+    private String provider;
+    private String providerMessageId;
 
     public EmailResponseDto() {
     }
@@ -16,6 +23,35 @@ public class EmailResponseDto {
         this.timestamp = timestamp;
     }
 
+    public EmailResponseDto(DeliveryStatus status, String message, long timestamp) {
+        this.status = status;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    public EmailResponseDto(String id, DeliveryStatus status, String message, long timestamp) {
+        this.id = id;
+        this.status = status;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public DeliveryStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(DeliveryStatus status) {
+        this.status = status;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -32,4 +68,26 @@ public class EmailResponseDto {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return Provider the email has been sent to
+     */
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return Id the provider gave the email, the bounces and events of the provider refer to it
+     */
+    public String getProviderMessageId() {
+        return providerMessageId;
+    }
+
+    public void setProviderMessageId(String providerMessageId) {
+        this.providerMessageId = providerMessageId;
+    }
+
 }
@@ -1,7 +1,8 @@
 package com.mail.dto;
 
 import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Size;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This is the object that the client sends to us via our rest api
@@ -11,13 +12,10 @@ public class MailMessageDto {
     private String from;
     private String replyTo;
 
-    @Size(max = 10)
     private String[] to;
 
-    @Size(max = 10)
     private String[] cc;
 
-    @Size(max = 10)
     private String[] bcc;
 
     @NotNull
@@ -28,6 +26,12 @@ public class MailMessageDto {
 
     private String type = "text/plain";
 
+    private AttachmentDto[] attachments;
+
+    private String templateId;
+
+    private Map<String, String> variables;
+
     public String getFrom() {
         return from;
     }
@@ -104,4 +108,39 @@ public class MailMessageDto {
         this.type = type;
     }
 
+    public AttachmentDto[] getAttachments() {
+        if (attachments == null) {
+            attachments = new AttachmentDto[0];
+        }
+
+        return attachments;
+    }
+
+    public void setAttachments(AttachmentDto[] attachments) {
+        this.attachments = attachments;
+    }
+
+    /**
+     * @return Id of the server side template the text is rendered from, the text of the message is ignored when it is set
+     */
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    public Map<String, String> getVariables() {
+        if (variables == null) {
+            variables = new HashMap<>();
+        }
+
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+
 }
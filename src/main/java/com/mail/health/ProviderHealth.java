@@ -0,0 +1,71 @@
+package com.mail.health;
+
+/**
+ * Cached health state of a single mail provider.
+ * The state only flips after a number of consecutive probe results in the same direction (hysteresis) so a single
+ * slow or lost probe doesn't bounce the traffic between providers.
+ */
+public class ProviderHealth {
+
+    private final String provider;
+    private final String url;
+    private final int healthyThreshold;
+    private final int unhealthyThreshold;
+
+    private volatile boolean healthy = true;
+    private volatile long lastCheckedAt;
+    private int consecutiveSuccesses;
+    private int consecutiveFailures;
+
+    public ProviderHealth(String provider, String url, int healthyThreshold, int unhealthyThreshold) {
+        this.provider = provider;
+        this.url = url;
+        this.healthyThreshold = Math.max(1, healthyThreshold);
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+    }
+
+    /**
+     * Records the result of a probe and updates the cached state once the threshold is reached
+     *
+     * @param success   True if the provider responded to the probe
+     * @param checkedAt Time of the probe in millis
+     * @return True if the cached state has changed
+     */
+    public synchronized boolean record(boolean success, long checkedAt) {
+        lastCheckedAt = checkedAt;
+
+        if (success) {
+            consecutiveFailures = 0;
+            consecutiveSuccesses++;
+            if (!healthy && consecutiveSuccesses >= healthyThreshold) {
+                healthy = true;
+                return true;
+            }
+        } else {
+            consecutiveSuccesses = 0;
+            consecutiveFailures++;
+            if (healthy && consecutiveFailures >= unhealthyThreshold) {
+                healthy = false;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public long getLastCheckedAt() {
+        return lastCheckedAt;
+    }
+}
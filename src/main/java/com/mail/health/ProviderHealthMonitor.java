@@ -0,0 +1,144 @@
+package com.mail.health;
+
+import com.mail.config.HealthCheckConfiguration;
+import com.mail.provider.MailProvider;
+import com.mail.provider.ProviderRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes every mail provider in the background and keeps the latest health state in memory, so the send path
+ * only has to read a flag instead of doing a round trip to the provider.
+ */
+@Component
+public class ProviderHealthMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderHealthMonitor.class);
+    private final HealthCheckConfiguration config;
+    private final Map<String, ProviderHealth> providers = new LinkedHashMap<>();
+    // The probes run one at a time on the scheduler thread, they keep a connection to every provider
+    private final CloseableHttpClient client;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ProviderHealthMonitor(HealthCheckConfiguration config, ProviderRegistry providers) {
+        this.config = config;
+        this.client = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(config.getTimeoutMs())
+                        .setSocketTimeout(config.getTimeoutMs())
+                        .build())
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .build();
+        for (MailProvider provider : providers.getProviders()) {
+            register(provider.getName(), provider.getSettings().getUrl());
+        }
+    }
+
+    private void register(String provider, String url) {
+        providers.put(provider, new ProviderHealth(provider, url, config.getHealthyThreshold(), config.getUnhealthyThreshold()));
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "provider-health-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Spread the first probes so the providers aren't hit at the same time
+        for (ProviderHealth health : providers.values()) {
+            schedule(health, nextJitter());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the health check client - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the cached health of the provider, unknown providers are considered unhealthy
+     *
+     * @param provider Provider name
+     * @return True if the provider is healthy
+     */
+    public boolean isHealthy(String provider) {
+        ProviderHealth health = providers.get(provider);
+        return health != null && health.isHealthy();
+    }
+
+    public Collection<ProviderHealth> getProviders() {
+        return Collections.unmodifiableCollection(providers.values());
+    }
+
+    private void schedule(ProviderHealth health, long delayMs) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> check(health), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void check(ProviderHealth health) {
+        try {
+            boolean success = probe(health.getUrl());
+            if (health.record(success, System.currentTimeMillis())) {
+                logger.warn("Mail provider " + health.getProvider() + " is now " + (health.isHealthy() ? "healthy" : "unhealthy"));
+            }
+        } finally {
+            schedule(health, config.getIntervalMs() + nextJitter());
+        }
+    }
+
+    private long nextJitter() {
+        return config.getJitterMs() > 0 ? ThreadLocalRandom.current().nextLong(config.getJitterMs() + 1) : 0;
+    }
+
+    /**
+     * To check if the server is responding
+     *
+     * @param targetUrl The server url
+     * @return True if the server returns HTTP_OK or False if the server cannot be reached
+     */
+    boolean probe(String targetUrl) {
+        try (CloseableHttpResponse response = client.execute(new HttpOptions(targetUrl))) {
+            // Reading the body lets the connection be reused by the next probe
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Couldn't establish a connection to " + e.getMessage());
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.mail.idempotency;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.mail.dto.EmailResponseDto;
+
+/**
+ * The outcome of the first request sent with an idempotency key, the response is null while that request is in flight
+ */
+public class IdempotencyRecord {
+
+    private final String key;
+    private final String fingerprint;
+    private final long createdAt;
+    private volatile int httpStatus;
+    private volatile EmailResponseDto response;
+
+    IdempotencyRecord(String key, String fingerprint, long createdAt) {
+        this.key = key;
+        this.fingerprint = fingerprint;
+        this.createdAt = createdAt;
+    }
+
+    @JsonCreator
+    IdempotencyRecord(@JsonProperty("key") String key, @JsonProperty("fingerprint") String fingerprint, @JsonProperty("createdAt") long createdAt,
+                      @JsonProperty("httpStatus") int httpStatus, @JsonProperty("response") EmailResponseDto response) {
+        this(key, fingerprint, createdAt);
+        this.httpStatus = httpStatus;
+        this.response = response;
+    }
+
+    void complete(int httpStatus, EmailResponseDto response) {
+        // The response is published last, a reader that sees it sees the status as well
+        this.httpStatus = httpStatus;
+        this.response = response;
+    }
+
+    @JsonIgnore
+    public boolean isCompleted() {
+        return response != null;
+    }
+
+    boolean isExpired(long now, long ttlMs) {
+        return now - createdAt >= ttlMs;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return Hash of the email sent with the key, a replay of a different email is refused
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public EmailResponseDto getResponse() {
+        return response;
+    }
+}
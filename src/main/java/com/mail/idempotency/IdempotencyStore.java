@@ -0,0 +1,310 @@
+package com.mail.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mail.config.IdempotencyConfiguration;
+import com.mail.dto.EmailResponseDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the responses of the requests sent with an idempotency key so a retried request gets the original response
+ * instead of sending the email again. The records are kept in two generations of concurrent maps, like the verdicts of
+ * the address validator: a claim is a single putIfAbsent and the store never holds much more than mail.idempotency.max-entries.
+ * With mail.idempotency.file set the completed records are appended to that file and loaded again on start.
+ */
+@Component
+public class IdempotencyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final String header;
+    private final boolean hashContent;
+    private final int maxEntries;
+    private final int generationSize;
+    private final long ttlMs;
+    private final long generationMs;
+    private final Path file;
+    private final Clock clock;
+    // The generations are rotated under their own lock, a rotation never waits for the file
+    private final Object generationLock = new Object();
+    // Not synchronized, a virtual thread waiting on the disk would pin its carrier thread
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private volatile Generation current;
+    private volatile Generation previous;
+    private BufferedWriter writer;
+    private int written;
+
+    @Autowired
+    public IdempotencyStore(IdempotencyConfiguration config) {
+        this(config, Clock.systemUTC());
+    }
+
+    public IdempotencyStore(IdempotencyConfiguration config, Clock clock) {
+        this.enabled = config.isEnabled();
+        this.header = config.getHeader();
+        this.hashContent = config.isHashContent();
+        this.maxEntries = Math.max(2, config.getMaxEntries());
+        this.generationSize = maxEntries / 2;
+        this.ttlMs = Math.max(2, config.getTtlMs());
+        this.generationMs = ttlMs / 2;
+        this.file = config.getFile() == null || config.getFile().isEmpty() ? null : Paths.get(config.getFile());
+        this.clock = clock;
+        this.current = new Generation(clock.millis());
+        this.previous = new Generation(clock.millis());
+    }
+
+    /**
+     * Loads the records that haven't expired from the file and rewrites it with them only
+     */
+    @PostConstruct
+    public void open() {
+        if (!enabled || file == null) {
+            return;
+        }
+
+        fileLock.lock();
+        try {
+            long now = clock.millis();
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        IdempotencyRecord record = read(line);
+                        if (record != null && record.isCompleted() && !record.isExpired(now, ttlMs)) {
+                            current.records.put(record.getKey(), record);
+                        }
+                    }
+                }
+            } else if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+
+            compact();
+            logger.info("Opened the idempotency store " + file + " with " + size() + " records");
+        } catch (IOException e) {
+            logger.error("Could not open the idempotency store, the keys won't survive a restart - " + e.getMessage());
+            writer = null;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        fileLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Request header holding the idempotency key
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return True if the fingerprint of the email is the key of the requests without the header
+     */
+    public boolean isHashContent() {
+        return hashContent;
+    }
+
+    /**
+     * Claims a key for the caller unless a request already used it
+     *
+     * @param key         Idempotency key
+     * @param fingerprint Fingerprint of the email sent with the key
+     * @return Null if the caller owns the key and has to complete or abandon it, otherwise the record of the first request
+     */
+    public IdempotencyRecord claim(String key, String fingerprint) {
+        long now = clock.millis();
+        IdempotencyRecord record = new IdempotencyRecord(key, fingerprint, now);
+        while (true) {
+            Generation generation = current(now);
+            IdempotencyRecord existing = generation.records.putIfAbsent(key, record);
+            if (existing == null) {
+                // The key may still be held by the previous generation
+                IdempotencyRecord older = live(previous, key, now);
+                if (older != null) {
+                    generation.records.remove(key, record);
+                    return older;
+                }
+                if (generation.records.size() >= generationSize) {
+                    rotate(generation);
+                }
+                return null;
+            }
+            if (!existing.isExpired(now, ttlMs)) {
+                return existing;
+            }
+            generation.records.remove(key, existing);
+        }
+    }
+
+    /**
+     * Keeps the response of a claimed key, the next requests with the key get it back
+     *
+     * @param key        Idempotency key claimed by the caller
+     * @param httpStatus HTTP status of the response
+     * @param response   Response of the request
+     */
+    public void complete(String key, int httpStatus, EmailResponseDto response) {
+        IdempotencyRecord record = find(key);
+        if (record == null) {
+            return;
+        }
+
+        record.complete(httpStatus, response);
+        if (file != null) {
+            append(record);
+        }
+    }
+
+    /**
+     * Releases a claimed key without a response, the request can then be retried with the same key
+     *
+     * @param key Idempotency key claimed by the caller
+     */
+    public void abandon(String key) {
+        for (Generation generation : new Generation[]{current, previous}) {
+            IdempotencyRecord record = generation.records.get(key);
+            if (record != null && !record.isCompleted()) {
+                generation.records.remove(key, record);
+            }
+        }
+    }
+
+    public int size() {
+        return current.records.size() + previous.records.size();
+    }
+
+    private IdempotencyRecord find(String key) {
+        IdempotencyRecord record = current.records.get(key);
+        return record != null ? record : previous.records.get(key);
+    }
+
+    private IdempotencyRecord live(Generation generation, String key, long now) {
+        IdempotencyRecord record = generation.records.get(key);
+        return record == null || record.isExpired(now, ttlMs) ? null : record;
+    }
+
+    private Generation current(long now) {
+        Generation generation = current;
+        if (now - generation.createdAt >= generationMs) {
+            rotate(generation);
+            generation = current;
+        }
+
+        return generation;
+    }
+
+    private void rotate(Generation expected) {
+        synchronized (generationLock) {
+            // Another thread may have rotated already
+            if (current != expected) {
+                return;
+            }
+
+            previous = expected;
+            current = new Generation(clock.millis());
+        }
+    }
+
+    private void append(IdempotencyRecord record) {
+        fileLock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+
+            writer.write(objectMapper.writeValueAsString(record));
+            writer.newLine();
+            writer.flush();
+            // The file only has to hold the live records, it is rewritten once it has grown well past them
+            if (++written > 2 * maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Could not write the idempotency key " + record.getKey() + " - " + e.getMessage());
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with the completed records in memory and keeps appending to the new file, called under the file lock
+     */
+    private void compact() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+
+        List<IdempotencyRecord> records = new ArrayList<>(previous.records.values());
+        records.addAll(current.records.values());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (IdempotencyRecord record : records) {
+                if (record.isCompleted()) {
+                    out.write(objectMapper.writeValueAsString(record));
+                    out.newLine();
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        written = records.size();
+    }
+
+    private static IdempotencyRecord read(String line) {
+        try {
+            return objectMapper.readValue(line, IdempotencyRecord.class);
+        } catch (IOException e) {
+            // A record cut short by a crash is skipped
+            logger.warn("Skipping an unreadable idempotency record - " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class Generation {
+        private final ConcurrentMap<String, IdempotencyRecord> records = new ConcurrentHashMap<>();
+        private final long createdAt;
+
+        Generation(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mail.idempotency;
+
+import com.mail.dto.MailMessageDto;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 of everything that makes an email, two requests with the same fingerprint send the same email. The uploaded
+ * files are identified by their name, type and size, their content isn't read.
+ */
+public final class MessageFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private MessageFingerprint() {
+    }
+
+    /**
+     * @param dto     Mail message from the client
+     * @param uploads Files uploaded with the message
+     * @return Fingerprint as a hex string
+     */
+    public static String of(MailMessageDto dto, List<MultipartFile> uploads) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        update(digest, dto.getFrom());
+        update(digest, dto.getReplyTo());
+        update(digest, dto.getTo());
+        update(digest, dto.getCc());
+        update(digest, dto.getBcc());
+        update(digest, dto.getSubject());
+        update(digest, dto.getText());
+        update(digest, dto.getType());
+        update(digest, dto.getTemplateId());
+        // The variables are hashed in key order, the order of the JSON object doesn't matter
+        Map<String, String> variables = new TreeMap<>(dto.getVariables());
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            update(digest, variable.getKey());
+            update(digest, variable.getValue());
+        }
+        for (MultipartFile upload : uploads) {
+            update(digest, upload.getName());
+            update(digest, upload.getOriginalFilename());
+            update(digest, upload.getContentType());
+            update(digest, String.valueOf(upload.getSize()));
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    private static void update(MessageDigest digest, String[] values) {
+        update(digest, String.valueOf(values.length));
+        for (String value : values) {
+            update(digest, value);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // Every value is prefixed with its length so "ab" + "c" and "a" + "bc" don't hash the same, null is -1
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = value == null ? -1 : bytes.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(bytes);
+    }
+}
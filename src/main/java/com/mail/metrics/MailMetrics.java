@@ -0,0 +1,126 @@
+package com.mail.metrics;
+
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreaker;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.HedgePolicy;
+import com.mail.tracking.DeliveryTracker;
+import com.mail.transport.PooledMailTransport;
+import com.mail.transport.TransportPoolMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes the state of the mail providers on the actuator metrics endpoint
+ */
+@Component
+public class MailMetrics implements PublicMetrics {
+
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final StageMetrics stageMetrics;
+    private final RateLimiter rateLimiter;
+    private final HedgePolicy hedgePolicy;
+    private final RetryPolicy retryPolicy;
+    private final ResolvedEndpointCache endpoints;
+    private final DeliveryTracker deliveryTracker;
+    private final PooledMailTransport transport;
+
+    @Autowired
+    public MailMetrics(CircuitBreakerRegistry circuitBreakers, StageMetrics stageMetrics, RateLimiter rateLimiter, HedgePolicy hedgePolicy, RetryPolicy retryPolicy, ResolvedEndpointCache endpoints, DeliveryTracker deliveryTracker, PooledMailTransport transport) {
+        this.circuitBreakers = circuitBreakers;
+        this.stageMetrics = stageMetrics;
+        this.rateLimiter = rateLimiter;
+        this.hedgePolicy = hedgePolicy;
+        this.retryPolicy = retryPolicy;
+        this.endpoints = endpoints;
+        this.deliveryTracker = deliveryTracker;
+        this.transport = transport;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        for (CircuitBreaker breaker : circuitBreakers.getBreakers()) {
+            String prefix = "mail.circuit." + breaker.getProvider() + ".";
+            // 0 closed, 1 open and 2 half-open
+            metrics.add(new Metric<>(prefix + "state", breaker.getState().ordinal()));
+            metrics.add(new Metric<>(prefix + "requests", breaker.getRequests()));
+            metrics.add(new Metric<>(prefix + "failure-rate", breaker.getFailureRate()));
+            metrics.add(new Metric<>(prefix + "slow-call-rate", breaker.getSlowCallRate()));
+            metrics.add(new Metric<>(prefix + "transitions", breaker.getTransitions()));
+            metrics.add(new Metric<>(prefix + "rejected", breaker.getRejected()));
+            // Calls held back to stay under the send rate of the provider
+            metrics.add(new Metric<>("mail.rate-limit." + breaker.getProvider() + ".rejected", rateLimiter.getProviderRejected(breaker.getProvider())));
+        }
+        metrics.add(new Metric<>("mail.rate-limit.rejected", rateLimiter.getRejected()));
+        metrics.add(new Metric<>("mail.rate-limit.keys", rateLimiter.getKeys()));
+
+        // Connections of the pool of every provider used so far, fewer opened than requests means the connections are reused
+        for (TransportPoolMetrics pool : transport.getPoolMetrics()) {
+            String prefix = "mail.transport." + pool.getProvider() + ".";
+            metrics.add(new Metric<>(prefix + "leased", pool.getLeased()));
+            metrics.add(new Metric<>(prefix + "available", pool.getAvailable()));
+            metrics.add(new Metric<>(prefix + "pending", pool.getPending()));
+            metrics.add(new Metric<>(prefix + "max", pool.getMax()));
+            metrics.add(new Metric<>(prefix + "requests", pool.getRequests()));
+            metrics.add(new Metric<>(prefix + "connections-opened", pool.getConnectionsOpened()));
+        }
+
+        if (hedgePolicy.isEnabled()) {
+            metrics.add(new Metric<>("mail.hedge.sends", hedgePolicy.getSends()));
+            metrics.add(new Metric<>("mail.hedge.hedges", hedgePolicy.getHedges()));
+            metrics.add(new Metric<>("mail.hedge.wins", hedgePolicy.getWins()));
+            metrics.add(new Metric<>("mail.hedge.win-rate", hedgePolicy.getWinRate()));
+            metrics.add(new Metric<>("mail.hedge.duplicates", hedgePolicy.getDuplicates()));
+            // Hedges that weren't sent because the budget was used up
+            metrics.add(new Metric<>("mail.hedge.budget-exhausted", hedgePolicy.getExhausted()));
+            for (Map.Entry<String, Long> delay : hedgePolicy.getDelays().entrySet()) {
+                metrics.add(new Metric<>("mail.hedge." + delay.getKey() + ".delay-ms", delay.getValue()));
+            }
+        }
+
+        if (retryPolicy.isEnabled()) {
+            metrics.add(new Metric<>("mail.retry.retries", retryPolicy.getRetries()));
+            // Retries that weren't made because the budget was used up or the provider asked to wait too long
+            metrics.add(new Metric<>("mail.retry.budget-exhausted", retryPolicy.getExhausted()));
+            metrics.add(new Metric<>("mail.retry.retry-after-too-long", retryPolicy.getRetryAfterTooLong()));
+            metrics.add(new Metric<>("mail.retry.budget-balance", retryPolicy.getBudgetBalance()));
+        }
+
+        // Requests sent straight to the cached redirect of a provider, and the redirects it answered with
+        for (Map.Entry<String, Long> hits : endpoints.getHits().entrySet()) {
+            metrics.add(new Metric<>("mail.redirect." + hits.getKey() + ".hits", hits.getValue()));
+            metrics.add(new Metric<>("mail.redirect." + hits.getKey() + ".redirects", endpoints.getRedirects(hits.getKey())));
+            metrics.add(new Metric<>("mail.redirect." + hits.getKey() + ".expired", endpoints.getExpired(hits.getKey())));
+        }
+
+        if (deliveryTracker.isEnabled()) {
+            metrics.add(new Metric<>("mail.tracking.entries", deliveryTracker.size()));
+            metrics.add(new Metric<>("mail.tracking.capacity", deliveryTracker.getCapacity()));
+            metrics.add(new Metric<>("mail.tracking.allocated-bytes", deliveryTracker.getAllocatedBytes()));
+        }
+
+        // mail.stage.<stage>.<provider>.<success|failure>.*, the latencies are in microseconds
+        for (StageSnapshot snapshot : stageMetrics.snapshot()) {
+            String prefix = "mail.stage." + snapshot.getStage().name().toLowerCase() + "." + snapshot.getProvider() + "."
+                    + (snapshot.isSuccess() ? "success" : "failure") + ".";
+            metrics.add(new Metric<>(prefix + "count", snapshot.getCount()));
+            metrics.add(new Metric<>(prefix + "p50", snapshot.getP50()));
+            metrics.add(new Metric<>(prefix + "p90", snapshot.getP90()));
+            metrics.add(new Metric<>(prefix + "p99", snapshot.getP99()));
+            metrics.add(new Metric<>(prefix + "p999", snapshot.getP999()));
+            metrics.add(new Metric<>(prefix + "max", snapshot.getMax()));
+        }
+
+        return metrics;
+    }
+}
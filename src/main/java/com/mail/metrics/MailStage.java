@@ -0,0 +1,39 @@
+package com.mail.metrics;
+
+/**
+ * Stages of sending an email that are timed separately
+ */
+public enum MailStage {
+    /**
+     * Checking the message from the client
+     */
+    VALIDATION,
+    /**
+     * Choosing a provider from the cached health state and the circuit breakers
+     */
+    ROUTING,
+    /**
+     * Building the provider payload
+     */
+    PAYLOAD,
+    /**
+     * Opening a new connection to the provider, only recorded when the pool had no connection to reuse
+     */
+    CONNECT,
+    /**
+     * Sending the request headers and body
+     */
+    WRITE,
+    /**
+     * Waiting for the response and reading it
+     */
+    READ,
+    /**
+     * Sending the request again to the url the provider redirected to
+     */
+    REDIRECT,
+    /**
+     * The whole send, from the validation to the response
+     */
+    TOTAL
+}
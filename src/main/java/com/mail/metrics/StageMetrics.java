@@ -0,0 +1,118 @@
+package com.mail.metrics;
+
+import com.mail.provider.ProviderRegistry;
+import com.mail.transport.TransportObserver;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of every stage of a send by provider and outcome. All the recorders are created up front and
+ * recording a value is a wait-free update of a recorder, so it doesn't allocate on the send path. The recorded
+ * intervals are only merged into the totals when the metrics are read.
+ */
+@Component
+public class StageMetrics implements TransportObserver {
+
+    /**
+     * Provider of the stages that happen before a provider is chosen
+     */
+    public static final String NO_PROVIDER = "none";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final String[] providers;
+    // [stage][provider][0 success, 1 failure]
+    private final Cell[][][] cells;
+
+    @Autowired
+    public StageMetrics(ProviderRegistry providers) {
+        this(providers.getNames());
+    }
+
+    public StageMetrics(String... providers) {
+        this.providers = new String[providers.length + 1];
+        this.providers[0] = NO_PROVIDER;
+        System.arraycopy(providers, 0, this.providers, 1, providers.length);
+
+        MailStage[] stages = MailStage.values();
+        cells = new Cell[stages.length][this.providers.length][2];
+        for (int s = 0; s < stages.length; s++) {
+            for (int p = 0; p < this.providers.length; p++) {
+                cells[s][p][0] = new Cell();
+                cells[s][p][1] = new Cell();
+            }
+        }
+    }
+
+    /**
+     * Records the duration of a stage
+     *
+     * @param stage    Stage of the send
+     * @param provider Provider name, an unknown provider or null is recorded as NO_PROVIDER
+     * @param success  Outcome of the stage
+     * @param nanos    Duration in nanoseconds
+     */
+    public void record(MailStage stage, String provider, boolean success, long nanos) {
+        Cell cell = cells[stage.ordinal()][indexOf(provider)][success ? 0 : 1];
+        cell.recorder.recordValue(Math.min(Math.max(nanos / 1000, 0), HIGHEST_TRACKABLE_MICROS));
+    }
+
+    @Override
+    public void onExchange(String provider, boolean success, long connectNanos, long writeNanos, long readNanos) {
+        if (connectNanos > 0) {
+            record(MailStage.CONNECT, provider, success, connectNanos);
+        }
+        record(MailStage.WRITE, provider, success, writeNanos);
+        record(MailStage.READ, provider, success, readNanos);
+    }
+
+    /**
+     * Merges what has been recorded since the last call and returns the distributions that have at least one value
+     *
+     * @return Snapshot of every stage, provider and outcome seen so far
+     */
+    public synchronized List<StageSnapshot> snapshot() {
+        List<StageSnapshot> snapshots = new ArrayList<>();
+        MailStage[] stages = MailStage.values();
+        for (int s = 0; s < stages.length; s++) {
+            for (int p = 0; p < providers.length; p++) {
+                for (int o = 0; o < 2; o++) {
+                    Cell cell = cells[s][p][o];
+                    cell.interval = cell.recorder.getIntervalHistogram(cell.interval);
+                    cell.total.add(cell.interval);
+
+                    Histogram total = cell.total;
+                    if (total.getTotalCount() > 0) {
+                        snapshots.add(new StageSnapshot(stages[s], providers[p], o == 0, total.getTotalCount(),
+                                total.getValueAtPercentile(50), total.getValueAtPercentile(90), total.getValueAtPercentile(99),
+                                total.getValueAtPercentile(99.9), total.getMaxValue()));
+                    }
+                }
+            }
+        }
+
+        return snapshots;
+    }
+
+    private int indexOf(String provider) {
+        for (int i = 1; i < providers.length; i++) {
+            if (providers[i].equals(provider)) {
+                return i;
+            }
+        }
+
+        return 0;
+    }
+
+    private static final class Cell {
+        private final Recorder recorder = new Recorder(1, HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final Histogram total = new Histogram(1, HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+    }
+}
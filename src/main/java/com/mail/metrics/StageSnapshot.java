@@ -0,0 +1,64 @@
+package com.mail.metrics;
+
+/**
+ * Latency distribution of a stage for one provider and outcome since the start, the times are in microseconds
+ */
+public class StageSnapshot {
+    private final MailStage stage;
+    private final String provider;
+    private final boolean success;
+    private final long count;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public StageSnapshot(MailStage stage, String provider, boolean success, long count, long p50, long p90, long p99, long p999, long max) {
+        this.stage = stage;
+        this.provider = provider;
+        this.success = success;
+        this.count = count;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public MailStage getStage() {
+        return stage;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,140 @@
+package com.mail.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mail.config.OutboxConfiguration;
+import com.mail.dto.MailMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the emails that couldn't be delivered yet in the on-disk outbox log so they survive a restart.
+ * Emails added while they're still being dispatched are held back from the replay until they're released.
+ */
+@Component
+public class MailOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailOutbox.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutboxConfiguration config;
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private OutboxLog log;
+
+    @Autowired
+    public MailOutbox(OutboxConfiguration config) {
+        this.config = config;
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        try {
+            log = OutboxLog.open(Paths.get(config.getDirectory()), config.getSegmentSizeBytes(), config.isFsync());
+            logger.info("Opened the outbox " + config.getDirectory() + " with " + log.getPendingCount() + " pending emails");
+        } catch (IOException e) {
+            logger.error("Could not open the outbox, undelivered emails won't be re-attempted - " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return log != null;
+    }
+
+    /**
+     * Adds an email to the outbox, it's picked up by the next replay
+     *
+     * @param dto Mail message from the client
+     * @return Id of the outbox entry
+     * @throws IOException When the email cannot be written or is larger than a segment
+     */
+    public long add(MailMessageDto dto) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(dto);
+        try {
+            return log.append(payload);
+        } catch (IllegalArgumentException e) {
+            // Every caller falls back on its handling of a failed write, an oversize email is just never queued
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds an email that is about to be dispatched, it's only replayed once released or after a restart
+     *
+     * @param dto Mail message from the client
+     * @return Id of the outbox entry
+     * @throws IOException When the email cannot be written
+     */
+    public long addInFlight(MailMessageDto dto) throws IOException {
+        long id = add(dto);
+        inFlight.add(id);
+
+        return id;
+    }
+
+    /**
+     * Hands an in-flight email over to the replay
+     *
+     * @param id Id of the outbox entry
+     */
+    public void release(long id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * Removes an email from the outbox
+     *
+     * @param id Id of the outbox entry
+     * @throws IOException When the acknowledgement cannot be written
+     */
+    public void ack(long id) throws IOException {
+        inFlight.remove(id);
+        log.ack(id);
+    }
+
+    /**
+     * @return Entries waiting to be replayed, oldest first
+     */
+    public List<OutboxEntry> pending() {
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (OutboxEntry entry : log.pending()) {
+            if (!inFlight.contains(entry.getId())) {
+                entries.add(entry);
+            }
+        }
+
+        return entries;
+    }
+
+    public MailMessageDto read(OutboxEntry entry) throws IOException {
+        return objectMapper.readValue(entry.getPayload(), MailMessageDto.class);
+    }
+
+    public int getPendingCount() {
+        return log == null ? 0 : log.getPendingCount();
+    }
+
+    public int getSegmentCount() {
+        return log == null ? 0 : log.getSegmentCount();
+    }
+}
@@ -0,0 +1,27 @@
+package com.mail.outbox;
+
+import com.mail.dto.MailMessageDto;
+
+/**
+ * Re-attempts the delivery of an email taken from the outbox
+ */
+public interface OutboxDelivery {
+
+    /**
+     * Sends the email to a provider without putting it back into the outbox on failure
+     *
+     * @param message Message to be sent to the email recipients
+     * @return True if the email is done with, a provider accepted it or rejected it for good
+     * @throws Exception When exception occurs
+     */
+    boolean deliver(MailMessageDto message) throws Exception;
+
+    /**
+     * Called once the email has been given up, it won't be delivered again
+     *
+     * @param message Message that was dropped from the outbox
+     */
+    default void discard(MailMessageDto message) {
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.mail.outbox;
+
+/**
+ * An entry of the outbox log that hasn't been acknowledged yet, the payload stays in the mapped segment until it's read
+ */
+public class OutboxEntry {
+    private final long id;
+    private final OutboxSegment segment;
+    private final int offset;
+    private final int length;
+
+    OutboxEntry(long id, OutboxSegment segment, int offset, int length) {
+        this.id = id;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public byte[] getPayload() {
+        return segment.read(offset, length);
+    }
+
+    OutboxSegment getSegment() {
+        return segment;
+    }
+}
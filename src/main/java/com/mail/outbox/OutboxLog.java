@@ -0,0 +1,242 @@
+package com.mail.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of pending payloads split in memory-mapped segments.
+ * An entry is appended when a payload has to be kept and an ack record is appended once it's been handled.
+ * Acks are always written in the same or a later segment than their entry, so the oldest segments can be deleted
+ * as soon as all their entries have been acknowledged.
+ */
+public class OutboxLog implements Closeable {
+
+    private static final String LOCK_FILE = "outbox.lock";
+    private static final byte[] EMPTY = new byte[0];
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    // Not synchronized, a virtual thread waiting on the disk would pin its carrier thread
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final List<OutboxSegment> segments = new ArrayList<>();
+    private final Map<Long, OutboxEntry> pending = new LinkedHashMap<>();
+    private long nextId = 1;
+
+    private OutboxLog(Path directory, int segmentSize, boolean fsync, FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the log and replays the existing segments to rebuild the pending entries
+     *
+     * @param directory   Directory of the segments, it's created if it doesn't exist
+     * @param segmentSize Size of a segment in bytes
+     * @param fsync       True to flush the segment to disk after every write
+     * @return The opened log
+     * @throws IOException When the directory cannot be read or is used by another process
+     */
+    public static OutboxLog open(Path directory, int segmentSize, boolean fsync) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The outbox " + directory + " is used by another process");
+        }
+
+        OutboxLog log = new OutboxLog(directory, segmentSize, fsync, lockChannel, lock);
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+
+        return log;
+    }
+
+    /**
+     * Appends a payload to the log
+     *
+     * @param payload Payload to keep
+     * @return Id of the entry
+     * @throws IOException When a new segment cannot be created
+     */
+    public long append(byte[] payload) throws IOException {
+        if (OutboxSegment.recordSize(payload.length) > segmentSize) {
+            throw new IllegalArgumentException("The payload of " + payload.length + " bytes doesn't fit in an outbox segment");
+        }
+
+        stateLock.lock();
+        try {
+            long id = nextId++;
+            OutboxSegment segment = activeSegment(payload.length);
+            int offset = segment.append(OutboxSegment.ENTRY, id, payload);
+            segment.incrementLiveEntries();
+            pending.put(id, new OutboxEntry(id, segment, offset, payload.length));
+            if (fsync) {
+                segment.force();
+            }
+
+            return id;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledges an entry so it won't be returned anymore, fully acknowledged segments are deleted
+     *
+     * @param id Id of the entry
+     * @return False if the entry was unknown or already acknowledged
+     * @throws IOException When a new segment cannot be created
+     */
+    public boolean ack(long id) throws IOException {
+        stateLock.lock();
+        try {
+            OutboxEntry entry = pending.remove(id);
+            if (entry == null) {
+                return false;
+            }
+
+            OutboxSegment segment = activeSegment(0);
+            segment.append(OutboxSegment.ACK, id, EMPTY);
+            entry.getSegment().decrementLiveEntries();
+            if (fsync) {
+                segment.force();
+            }
+            compact();
+
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * @return Snapshot of the pending entries, oldest first
+     */
+    public List<OutboxEntry> pending() {
+        stateLock.lock();
+        try {
+            return new ArrayList<>(pending.values());
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        stateLock.lock();
+        try {
+            return pending.size();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        stateLock.lock();
+        try {
+            return segments.size();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stateLock.lock();
+        try {
+            for (OutboxSegment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            pending.clear();
+            if (lock.isValid()) {
+                lock.release();
+            }
+            lockChannel.close();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (OutboxSegment.isSegment(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(Comparator.comparingLong(OutboxSegment::sequenceOf));
+
+        for (Path path : paths) {
+            OutboxSegment segment = OutboxSegment.open(path);
+            segments.add(segment);
+            segment.recover((type, id, offset, length) -> {
+                if (type == OutboxSegment.ENTRY) {
+                    pending.put(id, new OutboxEntry(id, segment, offset, length));
+                    segment.incrementLiveEntries();
+                } else if (type == OutboxSegment.ACK) {
+                    OutboxEntry entry = pending.remove(id);
+                    if (entry != null) {
+                        entry.getSegment().decrementLiveEntries();
+                    }
+                }
+                nextId = Math.max(nextId, id + 1);
+            });
+        }
+
+        compact();
+    }
+
+    private OutboxSegment activeSegment(int payloadLength) throws IOException {
+        OutboxSegment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || !active.hasRoom(payloadLength)) {
+            long sequence = 1;
+            if (active != null) {
+                active.force();
+                sequence = active.getSequence() + 1;
+            }
+            active = OutboxSegment.create(directory, sequence, segmentSize);
+            segments.add(active);
+        }
+
+        return active;
+    }
+
+    /**
+     * Deletes the oldest segments while all their entries have been acknowledged, the active segment is always kept
+     */
+    private void compact() throws IOException {
+        while (segments.size() > 1 && segments.get(0).getLiveEntries() == 0) {
+            segments.remove(0).delete();
+        }
+    }
+}
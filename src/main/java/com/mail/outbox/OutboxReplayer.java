@@ -0,0 +1,144 @@
+package com.mail.outbox;
+
+import com.mail.config.OutboxConfiguration;
+import com.mail.dto.MailMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goes through the outbox on a schedule and re-attempts the emails, a failed email waits exponentially longer
+ * before its next attempt and is dropped after the maximum number of attempts.
+ */
+@Component
+public class OutboxReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxReplayer.class);
+    private final MailOutbox outbox;
+    private final OutboxDelivery delivery;
+    private final OutboxConfiguration config;
+    private final Map<Long, Attempt> attempts = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public OutboxReplayer(MailOutbox outbox, OutboxDelivery delivery, OutboxConfiguration config) {
+        this.outbox = outbox;
+        this.delivery = delivery;
+        this.config = config;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!outbox.isEnabled()) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                replayDue(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.error("Outbox replay failed - " + e.getMessage());
+            }
+        }, config.getReplayIntervalMs(), config.getReplayIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Re-attempts every outbox entry whose backoff has elapsed
+     *
+     * @param now Current time in millis
+     * @return Number of emails delivered
+     */
+    public int replayDue(long now) {
+        if (!outbox.isEnabled()) {
+            return 0;
+        }
+
+        int delivered = 0;
+        for (OutboxEntry entry : outbox.pending()) {
+            Attempt attempt = attempts.get(entry.getId());
+            if (attempt != null && attempt.nextAttemptAt > now) {
+                continue;
+            }
+
+            boolean sent;
+            MailMessageDto dto = null;
+            try {
+                dto = outbox.read(entry);
+                sent = delivery.deliver(dto);
+            } catch (Exception e) {
+                logger.warn("Could not re-attempt the email " + entry.getId() + " - " + e.getMessage());
+                sent = false;
+            }
+
+            try {
+                if (sent) {
+                    attempts.remove(entry.getId());
+                    outbox.ack(entry.getId());
+                    delivered++;
+                } else {
+                    retryLater(entry.getId(), dto, attempt, now);
+                }
+            } catch (IOException e) {
+                logger.error("Could not update the outbox - " + e.getMessage());
+            }
+        }
+
+        return delivered;
+    }
+
+    private void retryLater(long id, MailMessageDto dto, Attempt previous, long now) throws IOException {
+        int count = previous == null ? 1 : previous.count + 1;
+        if (count >= config.getMaxAttempts()) {
+            logger.error("Giving up the email " + id + " after " + count + " attempts");
+            attempts.remove(id);
+            outbox.ack(id);
+            if (dto != null) {
+                delivery.discard(dto);
+            }
+            return;
+        }
+
+        attempts.put(id, new Attempt(count, now + backoff(count)));
+    }
+
+    /**
+     * @param count Number of failed attempts so far
+     * @return Delay before the next attempt, doubled after every failure up to the maximum backoff
+     */
+    long backoff(int count) {
+        long backoff = config.getInitialBackoffMs() << Math.min(count - 1, 30);
+        return backoff <= 0 ? config.getMaxBackoffMs() : Math.min(backoff, config.getMaxBackoffMs());
+    }
+
+    private static class Attempt {
+        private final int count;
+        private final long nextAttemptAt;
+
+        Attempt(int count, long nextAttemptAt) {
+            this.count = count;
+            this.nextAttemptAt = nextAttemptAt;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.mail.outbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed size, memory-mapped file of the outbox log.
+ * Every record is laid out as [int length][int crc][byte type][long id][payload], the length is written last and a
+ * zero length marks the end of the segment, so a record torn by a crash fails the length or crc check and is dropped.
+ */
+class OutboxSegment {
+
+    static final byte ENTRY = 1;
+    static final byte ACK = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int BODY_HEADER_SIZE = 9;
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".log";
+
+    private final Path path;
+    private final long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int position;
+    private int liveEntries;
+
+    private OutboxSegment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static OutboxSegment create(Path directory, long sequence, int size) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        return new OutboxSegment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    static OutboxSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        return new OutboxSegment(path, sequenceOf(path), channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+    }
+
+    static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static int recordSize(int payloadLength) {
+        return HEADER_SIZE + BODY_HEADER_SIZE + payloadLength;
+    }
+
+    boolean hasRoom(int payloadLength) {
+        return position + recordSize(payloadLength) <= buffer.capacity();
+    }
+
+    /**
+     * Appends a record at the end of the segment
+     *
+     * @param type    ENTRY or ACK
+     * @param id      Id of the entry
+     * @param payload Payload, empty for an ACK
+     * @return Offset of the payload in the segment
+     */
+    int append(byte type, long id, byte[] payload) {
+        int start = position;
+        int bodyLength = BODY_HEADER_SIZE + payload.length;
+
+        buffer.put(start + HEADER_SIZE, type);
+        buffer.putLong(start + HEADER_SIZE + 1, id);
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE + BODY_HEADER_SIZE);
+        body.put(payload);
+
+        buffer.putInt(start + 4, crc(start + HEADER_SIZE, bodyLength));
+        // The length goes last, until it's there the record doesn't exist
+        buffer.putInt(start, bodyLength);
+
+        position = start + HEADER_SIZE + bodyLength;
+        return start + HEADER_SIZE + BODY_HEADER_SIZE;
+    }
+
+    /**
+     * Reads every valid record from the start of the segment and moves the write position after the last one
+     *
+     * @param visitor Called for every record
+     */
+    void recover(RecordVisitor visitor) {
+        int pos = 0;
+        int capacity = buffer.capacity();
+        while (pos + HEADER_SIZE <= capacity) {
+            int bodyLength = buffer.getInt(pos);
+            if (bodyLength < BODY_HEADER_SIZE || pos + HEADER_SIZE + bodyLength > capacity
+                    || buffer.getInt(pos + 4) != crc(pos + HEADER_SIZE, bodyLength)) {
+                break;
+            }
+
+            byte type = buffer.get(pos + HEADER_SIZE);
+            long id = buffer.getLong(pos + HEADER_SIZE + 1);
+            visitor.visit(type, id, pos + HEADER_SIZE + BODY_HEADER_SIZE, bodyLength - BODY_HEADER_SIZE);
+            pos += HEADER_SIZE + bodyLength;
+        }
+        position = pos;
+
+        // Wipe a torn record so the next append starts from a clean tail
+        if (pos + 4 <= capacity && buffer.getInt(pos) != 0) {
+            for (int i = pos; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    byte[] read(int offset, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(payload);
+
+        return payload;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getLiveEntries() {
+        return liveEntries;
+    }
+
+    void incrementLiveEntries() {
+        liveEntries++;
+    }
+
+    void decrementLiveEntries() {
+        liveEntries--;
+    }
+
+    private int crc(int offset, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.position(offset);
+        region.limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(region);
+
+        return (int) crc.getValue();
+    }
+
+    interface RecordVisitor {
+        void visit(byte type, long id, int payloadOffset, int payloadLength);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mail.provider;
+
+import com.mail.transport.TransportBody;
+import com.mail.transport.TransportRequest;
+
+/**
+ * Keeps the settings of a provider, the subclasses build the requests in its format
+ */
+abstract class AbstractMailProvider implements MailProvider {
+
+    private final ProviderSettings settings;
+
+    AbstractMailProvider(ProviderSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public String getName() {
+        return settings.getName();
+    }
+
+    @Override
+    public ProviderSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public String getUrl() {
+        return settings.getUrl();
+    }
+
+    @Override
+    public TransportRequest buildTransportRequest(String url, TransportBody data, String contentType, String authorization) {
+        return newTransportRequest(url, data, contentType, authorization).build();
+    }
+
+    TransportRequest.Builder newTransportRequest(String url, TransportBody data, String contentType, String authorization) {
+        return new TransportRequest.Builder(getName(), url)
+                .method(settings.getRequestMethod())
+                .header("Content-Type", contentType == null ? settings.getContentType() : contentType)
+                // The key is sent with the request instead of waiting for the challenge
+                .header("Authorization", authorization)
+                .body(data);
+    }
+}
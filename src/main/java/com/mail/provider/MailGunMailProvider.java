@@ -0,0 +1,88 @@
+package com.mail.provider;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mail.dto.MailMessageDto;
+import com.mail.request.Attachment;
+import com.mail.request.MailGunRequest;
+import com.mail.request.MailRequest;
+import com.mail.transport.TransportResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MailGun account, the emails are sent as a form and a batch is delivered as a separate copy to each recipient
+ */
+public class MailGunMailProvider extends AbstractMailProvider {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    public MailGunMailProvider(ProviderSettings settings) {
+        super(settings);
+    }
+
+    @Override
+    public boolean isPerRecipientBatch() {
+        return true;
+    }
+
+    @Override
+    public MailRequest buildMailRequest(MailMessageDto dto, List<Attachment> attachments, Map<String, String> headers) {
+        MailGunRequest.Builder builder = new MailGunRequest.Builder(dto.getFrom(), dto.getTo(), dto.getSubject(), dto.getText())
+                .cc(dto.getCc())
+                .bcc(dto.getBcc())
+                .type(dto.getType());
+        for (Attachment attachment : attachments) {
+            builder.attachment(attachment);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public MailRequest buildBatchRequest(List<MailMessageDto> messages, List<Integer> group) {
+        MailMessageDto first = messages.get(group.get(0));
+
+        // Recipient variables make MailGun deliver a separate copy to each recipient instead of one shared email
+        String[] to = new String[group.size()];
+        Map<String, Map<String, String>> recipientVariables = new LinkedHashMap<>();
+        for (int i = 0; i < group.size(); i++) {
+            to[i] = messages.get(group.get(i)).getTo()[0];
+            recipientVariables.put(to[i], Collections.singletonMap("index", String.valueOf(group.get(i))));
+        }
+
+        return new MailGunRequest.Builder(first.getFrom(), to, first.getSubject(), first.getText())
+                .type(first.getType())
+                .recipientVariables(recipientVariables)
+                .build();
+    }
+
+    @Override
+    public String parseMessageId(TransportResponse response) {
+        // The body is {"id": "<...@domain>", "message": "Queued. Thank you."}, the parser stops at the id
+        try (JsonParser parser = jsonFactory.createParser(response.getBody())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(field) && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.mail.provider;
+
+import com.mail.dto.MailMessageDto;
+import com.mail.request.Attachment;
+import com.mail.request.MailRequest;
+import com.mail.transport.TransportBody;
+import com.mail.transport.TransportRequest;
+import com.mail.transport.TransportResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A provider account the emails can be sent through. The provider knows its request format and where to send it,
+ * the routing, circuit breakers, rate limits, health checks and connection pools are kept by name in the service.
+ */
+public interface MailProvider {
+
+    /**
+     * @return Unique name of the provider, used in the routing, metrics and credentials
+     */
+    String getName();
+
+    /**
+     * @return Settings the provider has been registered with
+     */
+    ProviderSettings getSettings();
+
+    /**
+     * @return Configured url of the provider, a redirect is kept in the ResolvedEndpointCache instead
+     */
+    String getUrl();
+
+    /**
+     * @return True if a batch is sent as one copy per 'to' recipient, a batch message must then have a single recipient
+     */
+    boolean isPerRecipientBatch();
+
+    /**
+     * Constructs the request of a single email in the format of the provider
+     *
+     * @param dto         Mail message from the client
+     * @param attachments Opened attachments of the message
+     * @param headers     Headers added to the email itself
+     * @return Provider request
+     */
+    MailRequest buildMailRequest(MailMessageDto dto, List<Attachment> attachments, Map<String, String> headers);
+
+    /**
+     * Constructs a single request for a group of compatible messages
+     *
+     * @param messages Messages of the batch
+     * @param group    Indexes of the messages sent together, at least two
+     * @return Provider request
+     */
+    MailRequest buildBatchRequest(List<MailMessageDto> messages, List<Integer> group);
+
+    /**
+     * @param url           Url the request is sent to, the configured one or the one it has been redirected to
+     * @param data          Request body in the format of the provider
+     * @param contentType   Content type of the body, null for the configured one
+     * @param authorization Value of the Authorization header
+     * @return Request to be sent by the mail transport
+     */
+    TransportRequest buildTransportRequest(String url, TransportBody data, String contentType, String authorization);
+
+    /**
+     * @param response Response of the provider to an accepted email
+     * @return Id the provider gave the email, null if the response doesn't carry one
+     */
+    String parseMessageId(TransportResponse response);
+}
@@ -0,0 +1,136 @@
+package com.mail.provider;
+
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.ProvidersConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All the providers the emails can be sent through, loaded from mail.providers. Each of them is an account of one of
+ * the provider types with its own url and key, so the load can be spread over several accounts or regions of the same
+ * provider. The routing, circuit breakers, health checks, credentials and metrics are created for every provider here.
+ */
+@Component
+public class ProviderRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderRegistry.class);
+    private static final String PREFIX = "mail.provider.";
+    private final Map<String, MailProvider> providers = new LinkedHashMap<>();
+
+    @Autowired
+    public ProviderRegistry(ProvidersConfiguration config, Environment environment, SendGridHttpConfiguration sendGridHttpConfig, MailGunHttpConfiguration mailGunHttpConfig) {
+        Map<String, ProviderSettings> defaults = new LinkedHashMap<>();
+        defaults.put(sendGridHttpConfig.getProvider(), settings(sendGridHttpConfig));
+        defaults.put(mailGunHttpConfig.getProvider(), settings(mailGunHttpConfig));
+
+        List<String> names = new ArrayList<>();
+        for (String name : config.getNames()) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        if (names.isEmpty()) {
+            names.addAll(defaults.keySet());
+        }
+
+        for (String name : names) {
+            String prefix = PREFIX + name + ".";
+            if (environment.containsProperty(prefix + "type")) {
+                register(settings(name, prefix, environment));
+            } else if (defaults.containsKey(name)) {
+                register(defaults.get(name));
+            } else {
+                throw new IllegalStateException("The provider " + name + " is not configured, " + prefix + "type and " + prefix + "url are required");
+            }
+        }
+        logger.info("Registered the mail providers " + providers.keySet());
+    }
+
+    /**
+     * Registers the providers of the SendGrid and MailGun property files
+     */
+    public ProviderRegistry(SendGridHttpConfiguration sendGridHttpConfig, MailGunHttpConfiguration mailGunHttpConfig) {
+        this(ProviderType.SENDGRID.create(settings(sendGridHttpConfig)), ProviderType.MAILGUN.create(settings(mailGunHttpConfig)));
+    }
+
+    public ProviderRegistry(MailProvider... providers) {
+        for (MailProvider provider : providers) {
+            register(provider);
+        }
+    }
+
+    private void register(ProviderSettings settings) {
+        register(settings.getType().create(settings));
+    }
+
+    private void register(MailProvider provider) {
+        if (providers.putIfAbsent(provider.getName(), provider) != null) {
+            throw new IllegalStateException("The provider " + provider.getName() + " is registered twice");
+        }
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Provider or null if there's no provider with the name
+     */
+    public MailProvider get(String provider) {
+        return providers.get(provider);
+    }
+
+    /**
+     * @return Providers in the order they have been registered
+     */
+    public List<MailProvider> getProviders() {
+        return Collections.unmodifiableList(new ArrayList<>(providers.values()));
+    }
+
+    /**
+     * @return Names of the providers in the order they have been registered
+     */
+    public String[] getNames() {
+        return providers.keySet().toArray(new String[0]);
+    }
+
+    private static ProviderSettings settings(String name, String prefix, Environment environment) {
+        String url = environment.getProperty(prefix + "url");
+        if (url == null || url.isEmpty()) {
+            throw new IllegalStateException("The url of the provider " + name + " is missing - " + prefix + "url");
+        }
+
+        return new ProviderSettings.Builder(name, ProviderType.of(environment.getProperty(prefix + "type")), url)
+                .requestMethod(environment.getProperty(prefix + "request-method"))
+                .key(environment.getProperty(prefix + "key"))
+                .user(environment.getProperty(prefix + "user"))
+                .contentType(environment.getProperty(prefix + "content-type"))
+                .acceptType(environment.getProperty(prefix + "accept-type"))
+                .build();
+    }
+
+    private static ProviderSettings settings(SendGridHttpConfiguration config) {
+        return new ProviderSettings.Builder(config.getProvider(), ProviderType.SENDGRID, config.getUrl())
+                .requestMethod(config.getRequestMethod())
+                .key(config.getKey())
+                .contentType(config.getContentType())
+                .acceptType(config.getAcceptType())
+                .build();
+    }
+
+    private static ProviderSettings settings(MailGunHttpConfiguration config) {
+        return new ProviderSettings.Builder(config.getProvider(), ProviderType.MAILGUN, config.getUrl())
+                .requestMethod(config.getRequestMethod())
+                .key(config.getKey())
+                .contentType(config.getContentType())
+                .acceptType(config.getAcceptType())
+                .build();
+    }
+}
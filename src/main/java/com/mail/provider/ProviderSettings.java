@@ -0,0 +1,106 @@
+package com.mail.provider;
+
+/**
+ * Settings of a single provider account, the values that aren't set fall back to the defaults of its type
+ */
+public class ProviderSettings {
+
+    private final String name;
+    private final ProviderType type;
+    private final String url;
+    private final String requestMethod;
+    private final String key;
+    private final String user;
+    private final String contentType;
+    private final String acceptType;
+
+    private ProviderSettings(Builder builder) {
+        this.name = builder.name;
+        this.type = builder.type;
+        this.url = builder.url;
+        this.requestMethod = builder.requestMethod == null ? "POST" : builder.requestMethod;
+        this.key = builder.key;
+        this.user = builder.user == null ? builder.type.getDefaultUser() : builder.user;
+        this.contentType = builder.contentType == null ? builder.type.getDefaultContentType() : builder.contentType;
+        this.acceptType = builder.acceptType == null ? "application/json" : builder.acceptType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ProviderType getType() {
+        return type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getAcceptType() {
+        return acceptType;
+    }
+
+    public static class Builder {
+
+        private final String name;
+        private final ProviderType type;
+        private final String url;
+        private String requestMethod;
+        private String key;
+        private String user;
+        private String contentType;
+        private String acceptType;
+
+        public Builder(String name, ProviderType type, String url) {
+            this.name = name;
+            this.type = type;
+            this.url = url;
+        }
+
+        public Builder requestMethod(String requestMethod) {
+            this.requestMethod = requestMethod;
+            return this;
+        }
+
+        public Builder key(String key) {
+            this.key = key;
+            return this;
+        }
+
+        public Builder user(String user) {
+            this.user = user;
+            return this;
+        }
+
+        public Builder contentType(String contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        public Builder acceptType(String acceptType) {
+            this.acceptType = acceptType;
+            return this;
+        }
+
+        public ProviderSettings build() {
+            return new ProviderSettings(this);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mail.provider;
+
+import com.mail.auth.AuthScheme;
+
+import java.util.Locale;
+
+/**
+ * Request formats the service can speak, every registered provider is an account of one of them. A new format is a new
+ * constant creating its MailProvider, the rest of the service only deals with the provider names.
+ */
+public enum ProviderType {
+
+    SENDGRID(AuthScheme.BEARER, null, "application/json") {
+        @Override
+        public MailProvider create(ProviderSettings settings) {
+            return new SendGridMailProvider(settings);
+        }
+    },
+
+    MAILGUN(AuthScheme.BASIC, "api", "application/x-www-form-urlencoded") {
+        @Override
+        public MailProvider create(ProviderSettings settings) {
+            return new MailGunMailProvider(settings);
+        }
+    };
+
+    private final AuthScheme authScheme;
+    private final String defaultUser;
+    private final String defaultContentType;
+
+    ProviderType(AuthScheme authScheme, String defaultUser, String defaultContentType) {
+        this.authScheme = authScheme;
+        this.defaultUser = defaultUser;
+        this.defaultContentType = defaultContentType;
+    }
+
+    /**
+     * @param settings Settings of the account
+     * @return Provider building its requests in this format
+     */
+    public abstract MailProvider create(ProviderSettings settings);
+
+    public AuthScheme getAuthScheme() {
+        return authScheme;
+    }
+
+    public String getDefaultUser() {
+        return defaultUser;
+    }
+
+    public String getDefaultContentType() {
+        return defaultContentType;
+    }
+
+    /**
+     * @param type Type as written in the properties, case insensitive
+     * @return Provider type
+     * @throws IllegalArgumentException If there's no such type
+     */
+    public static ProviderType of(String type) {
+        try {
+            return valueOf(type.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown provider type - " + type);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.mail.provider;
+
+import com.mail.config.RedirectConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the url every provider redirected to for as long as the redirect can be cached, a permanent redirect for
+ * permanent-ttl-ms and a temporary one for temporary-ttl-ms unless the response has a Cache-Control max-age. Every
+ * provider has its own endpoint swapped atomically, an expired endpoint is only dropped if no newer redirect replaced
+ * it in the meantime. The redirected requests keep their method and body whatever the status, the providers only take
+ * a POST.
+ */
+@Component
+public class ResolvedEndpointCache {
+
+    private static final int PERMANENT_REDIRECT = 308;
+    private static final int TEMPORARY_REDIRECT = 307;
+    private static final Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)");
+
+    private final long permanentTtlMs;
+    private final long temporaryTtlMs;
+    private final Clock clock;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    @Autowired
+    public ResolvedEndpointCache(RedirectConfiguration config, ProviderRegistry providers) {
+        this(config, Clock.systemUTC(), providers.getNames());
+    }
+
+    public ResolvedEndpointCache(RedirectConfiguration config, Clock clock, String... providers) {
+        this.permanentTtlMs = config.getPermanentTtlMs();
+        this.temporaryTtlMs = config.getTemporaryTtlMs();
+        this.clock = clock;
+        for (String provider : providers) {
+            entries.put(provider, new Entry());
+        }
+    }
+
+    /**
+     * @param statusCode Status code of a provider response
+     * @return True if the request has to be sent again to the Location of the response
+     */
+    public static boolean isRedirect(int statusCode) {
+        return statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == HttpURLConnection.HTTP_MOVED_TEMP || statusCode == TEMPORARY_REDIRECT || statusCode == PERMANENT_REDIRECT;
+    }
+
+    /**
+     * @param provider      Provider name
+     * @param configuredUrl Url the provider has been configured with
+     * @return Url the requests of the provider are sent to, the configured one unless a redirect is still cached
+     */
+    public String resolve(String provider, String configuredUrl) {
+        Entry entry = entries.get(provider);
+        Endpoint endpoint = entry == null ? null : entry.endpoint.get();
+        if (endpoint == null) {
+            return configuredUrl;
+        }
+        if (endpoint.expiresAt <= clock.millis()) {
+            if (entry.endpoint.compareAndSet(endpoint, null)) {
+                entry.expired.increment();
+            }
+            return configuredUrl;
+        }
+
+        entry.hits.increment();
+        return endpoint.url;
+    }
+
+    /**
+     * Resolves the Location of a redirect and caches it for the time allowed by the status and its Cache-Control
+     *
+     * @param provider     Provider that redirected the request
+     * @param requestUrl   Url the request was sent to, a relative Location is resolved against it
+     * @param statusCode   Status code of the redirect
+     * @param location     Location header of the redirect
+     * @param cacheControl Cache-Control header of the redirect, null if there was none
+     * @return Url the request has to be sent to, null if the Location isn't a valid url
+     */
+    public String onRedirect(String provider, String requestUrl, int statusCode, String location, String cacheControl) {
+        String url;
+        try {
+            url = location == null ? null : new URI(requestUrl).resolve(location.trim()).toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            url = null;
+        }
+        Entry entry = entries.get(provider);
+        if (url == null || entry == null) {
+            return url;
+        }
+
+        entry.redirects.increment();
+        long ttlMs = ttlMs(statusCode, cacheControl);
+        if (ttlMs > 0) {
+            entry.endpoint.set(new Endpoint(url, clock.millis() + ttlMs));
+        }
+
+        return url;
+    }
+
+    private long ttlMs(int statusCode, String cacheControl) {
+        if (cacheControl != null) {
+            if (cacheControl.contains("no-store") || cacheControl.contains("no-cache")) {
+                return 0;
+            }
+            Matcher maxAge = MAX_AGE.matcher(cacheControl);
+            if (maxAge.find()) {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge.group(1)));
+            }
+        }
+
+        return statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == PERMANENT_REDIRECT ? permanentTtlMs : temporaryTtlMs;
+    }
+
+    /**
+     * @return Requests sent straight to a cached redirect of every provider
+     */
+    public Map<String, Long> getHits() {
+        Map<String, Long> hits = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            hits.put(entry.getKey(), entry.getValue().hits.sum());
+        }
+
+        return Collections.unmodifiableMap(hits);
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Redirects the provider answered with
+     */
+    public long getRedirects(String provider) {
+        Entry entry = entries.get(provider);
+        return entry == null ? 0 : entry.redirects.sum();
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Cached redirects of the provider that expired
+     */
+    public long getExpired(String provider) {
+        Entry entry = entries.get(provider);
+        return entry == null ? 0 : entry.expired.sum();
+    }
+
+    private static final class Entry {
+        private final AtomicReference<Endpoint> endpoint = new AtomicReference<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder redirects = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+    }
+
+    private static final class Endpoint {
+        private final String url;
+        private final long expiresAt;
+
+        Endpoint(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
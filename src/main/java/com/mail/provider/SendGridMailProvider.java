@@ -0,0 +1,71 @@
+package com.mail.provider;
+
+import com.mail.dto.MailMessageDto;
+import com.mail.request.Attachment;
+import com.mail.request.MailRequest;
+import com.mail.request.SendGridRequest;
+import com.mail.transport.TransportBody;
+import com.mail.transport.TransportRequest;
+import com.mail.transport.TransportResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SendGrid account, the emails are sent as JSON and a batch becomes the personalizations of a single envelope
+ */
+public class SendGridMailProvider extends AbstractMailProvider {
+
+    public SendGridMailProvider(ProviderSettings settings) {
+        super(settings);
+    }
+
+    @Override
+    public boolean isPerRecipientBatch() {
+        return false;
+    }
+
+    @Override
+    public MailRequest buildMailRequest(MailMessageDto dto, List<Attachment> attachments, Map<String, String> headers) {
+        SendGridRequest.Builder builder = new SendGridRequest.Builder(dto.getFrom(), dto.getTo(), dto.getSubject(), dto.getText())
+                .cc(dto.getCc())
+                .bcc(dto.getBcc())
+                .type(dto.getType());
+        for (Attachment attachment : attachments) {
+            builder.attachment(attachment);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public MailRequest buildBatchRequest(List<MailMessageDto> messages, List<Integer> group) {
+        MailMessageDto first = messages.get(group.get(0));
+        SendGridRequest.Builder builder = new SendGridRequest.Builder(first.getFrom(), first.getTo(), first.getSubject(), first.getText())
+                .cc(first.getCc())
+                .bcc(first.getBcc())
+                .type(first.getType());
+        for (int i = 1; i < group.size(); i++) {
+            MailMessageDto dto = messages.get(group.get(i));
+            builder.personalization(dto.getTo(), dto.getCc(), dto.getBcc());
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public TransportRequest buildTransportRequest(String url, TransportBody data, String contentType, String authorization) {
+        return newTransportRequest(url, data, contentType, authorization)
+                .header("Accept", getSettings().getAcceptType())
+                .build();
+    }
+
+    @Override
+    public String parseMessageId(TransportResponse response) {
+        // SendGrid answers 202 with an empty body, the id only comes in a header
+        return response.getHeader("X-Message-Id");
+    }
+}
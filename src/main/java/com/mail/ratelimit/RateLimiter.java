@@ -0,0 +1,221 @@
+package com.mail.ratelimit;
+
+import com.mail.config.RateLimitConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control of the API, one token bucket per API client and per sender, and the send rate of every provider.
+ * The full buckets are the same as new ones, they are dropped once there are more keys than mail.rate-limit.max-keys.
+ */
+@Component
+public class RateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final long PURGE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final String clientHeader;
+    private final double clientPerSecond;
+    private final int clientBurst;
+    private final double senderPerSecond;
+    private final int senderBurst;
+    private final int maxKeys;
+    private final Clock clock;
+    private final ConcurrentMap<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TokenBucket> senders = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> providers = new HashMap<>();
+    private final Map<String, LongAdder> providerRejected = new HashMap<>();
+    private final AtomicLong nextPurge = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public RateLimiter(RateLimitConfiguration config) {
+        this(config, Clock.systemUTC());
+    }
+
+    public RateLimiter(RateLimitConfiguration config, Clock clock) {
+        this.enabled = config.isEnabled();
+        this.clientHeader = config.getClientHeader();
+        this.clientPerSecond = config.getClientPerSecond();
+        this.clientBurst = config.getClientBurst();
+        this.senderPerSecond = config.getSenderPerSecond();
+        this.senderBurst = config.getSenderBurst();
+        this.maxKeys = config.getMaxKeys();
+        this.clock = clock;
+
+        for (String rate : config.getProviderPerSecond()) {
+            String[] parts = rate.trim().split(":");
+            if (parts.length == 2 && Double.parseDouble(parts[1].trim()) > 0) {
+                // A provider call is a token, the burst lets a second worth of calls through at once
+                double perSecond = Double.parseDouble(parts[1].trim());
+                providers.put(parts[0].trim(), new TokenBucket(perSecond, (int) Math.ceil(perSecond)));
+                providerRejected.put(parts[0].trim(), new LongAdder());
+            }
+        }
+    }
+
+    /**
+     * Takes the tokens of a request from the bucket of its API client and of its sender
+     *
+     * @param client API client, null if unknown
+     * @param sender Sender of the message
+     * @return 0 if the request is admitted, otherwise the milliseconds after which it can be retried
+     */
+    public long tryAcquire(String client, String sender) {
+        return tryAcquire(client, Collections.singletonList(sender));
+    }
+
+    /**
+     * Takes the tokens of a request from the bucket of its API client, a token per message, and of every sender,
+     * a token per message sent by them. Nothing is taken if one of the buckets doesn't have enough tokens.
+     *
+     * @param client  API client, null if unknown
+     * @param senders Sender of every message of the request
+     * @return 0 if the request is admitted, otherwise the milliseconds after which it can be retried
+     */
+    public long tryAcquire(String client, List<String> senders) {
+        if (!enabled) {
+            return 0;
+        }
+
+        long now = nanoTime();
+        purge(now);
+
+        TokenBucket clientBucket = client == null || clientPerSecond <= 0 ? null : bucket(clients, client, clientPerSecond, clientBurst);
+        if (clientBucket != null) {
+            long wait = clientBucket.tryAcquire(now, senders.size());
+            if (wait > 0) {
+                return reject(wait);
+            }
+        }
+        if (senderPerSecond <= 0) {
+            return 0;
+        }
+
+        Map<String, Integer> permits = new HashMap<>();
+        for (String sender : senders) {
+            if (sender != null) {
+                permits.merge(sender.toLowerCase(Locale.ROOT), 1, Integer::sum);
+            }
+        }
+        Map<TokenBucket, Integer> taken = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : permits.entrySet()) {
+            TokenBucket senderBucket = bucket(this.senders, entry.getKey(), senderPerSecond, senderBurst);
+            long wait = senderBucket.tryAcquire(now, entry.getValue());
+            if (wait > 0) {
+                // Gives back what has been taken so far, the rejected request doesn't count against any limit
+                for (Map.Entry<TokenBucket, Integer> release : taken.entrySet()) {
+                    release.getKey().release(release.getValue());
+                }
+                if (clientBucket != null) {
+                    clientBucket.release(senders.size());
+                }
+                return reject(wait);
+            }
+            taken.put(senderBucket, entry.getValue());
+        }
+
+        return 0;
+    }
+
+    /**
+     * @param provider Provider name
+     * @return True if a call to the provider stays under its send rate, the call is then counted against it
+     */
+    public boolean tryAcquireProvider(String provider) {
+        TokenBucket bucket = providers.get(provider);
+        if (!enabled || bucket == null || bucket.tryAcquire(nanoTime(), 1) == 0) {
+            return true;
+        }
+
+        providerRejected.get(provider).increment();
+        return false;
+    }
+
+    /**
+     * Gives back the call taken with tryAcquireProvider when the provider wasn't called after all, its circuit breaker
+     * refused it for example
+     *
+     * @param provider Provider name
+     */
+    public void releaseProvider(String provider) {
+        TokenBucket bucket = providers.get(provider);
+        if (enabled && bucket != null) {
+            bucket.release(1);
+        }
+    }
+
+    /**
+     * @return Request header identifying the API client
+     */
+    public String getClientHeader() {
+        return clientHeader;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Calls that have been held back to stay under the send rate of the provider
+     */
+    public long getProviderRejected(String provider) {
+        LongAdder count = providerRejected.get(provider);
+        return count == null ? 0 : count.sum();
+    }
+
+    public int getKeys() {
+        return clients.size() + senders.size();
+    }
+
+    private long reject(long waitNanos) {
+        rejected.increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    private TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String key, double perSecond, int burst) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(perSecond, burst));
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Drops the full buckets once there are too many keys, at most once a second
+     */
+    private void purge(long now) {
+        long next = nextPurge.get();
+        if (now < next || clients.size() + senders.size() <= maxKeys || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL_NANOS)) {
+            return;
+        }
+
+        clients.values().removeIf(bucket -> bucket.isFull(now));
+        senders.values().removeIf(bucket -> bucket.isFull(now));
+        if (clients.size() + senders.size() > maxKeys) {
+            logger.warn("The rate limiter tracks " + (clients.size() + senders.size()) + " clients and senders, more than the " + maxKeys + " configured");
+        }
+    }
+
+    private long nanoTime() {
+        return TimeUnit.MILLISECONDS.toNanos(clock.millis());
+    }
+}
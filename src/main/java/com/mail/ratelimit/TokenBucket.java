@@ -0,0 +1,65 @@
+package com.mail.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single atomic value, the time at which the bucket is full again (the generic cell rate
+ * algorithm). Taking tokens is a compare-and-set on that time, there is no lock and no refill thread.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final int burst;
+    private final long toleranceNanos;
+    // Time in nanoseconds at which every token is back, a time in the past means a full bucket
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE / 2);
+
+    /**
+     * @param perSecond Tokens added every second
+     * @param burst     Size of the bucket, the tokens that can be taken at once
+     */
+    public TokenBucket(double perSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1000000000L / perSecond));
+        this.burst = Math.max(1, burst);
+        this.toleranceNanos = intervalNanos * this.burst;
+    }
+
+    /**
+     * @param nowNanos Current time in nanoseconds
+     * @param permits  Tokens to take, more tokens than the size of the bucket need a full bucket and are all charged,
+     *                 the bucket stays empty until the tokens beyond its size have been added back
+     * @return 0 if the tokens have been taken, otherwise the nanoseconds until they would be available
+     */
+    public long tryAcquire(long nowNanos, int permits) {
+        long admission = intervalNanos * Math.min(permits, burst);
+        long cost = intervalNanos * permits;
+        while (true) {
+            long current = fullAt.get();
+            long start = Math.max(current, nowNanos);
+            long wait = start + admission - nowNanos - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, start + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back tokens that have been taken for a request that was rejected by another limit
+     *
+     * @param permits Tokens to give back
+     */
+    public void release(int permits) {
+        fullAt.addAndGet(-intervalNanos * permits);
+    }
+
+    /**
+     * @param nowNanos Current time in nanoseconds
+     * @return True if no token is missing, the bucket is then the same as a new one
+     */
+    public boolean isFull(long nowNanos) {
+        return fullAt.get() <= nowNanos;
+    }
+}
@@ -0,0 +1,53 @@
+package com.mail.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A file sent with a request, the content is read from the file while the request is written so it is never held in memory
+ */
+public class Attachment {
+    private final String filename;
+    private final String contentType;
+    private final boolean inline;
+    private final String contentId;
+    private final Path file;
+
+    public Attachment(String filename, String contentType, boolean inline, String contentId, Path file) {
+        this.filename = filename;
+        this.contentType = contentType;
+        this.inline = inline;
+        this.contentId = contentId;
+        this.file = file;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return Stream of the content, to be closed by the caller
+     * @throws IOException If the file can't be opened
+     */
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+}
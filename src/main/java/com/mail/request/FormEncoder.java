@@ -0,0 +1,124 @@
+package com.mail.request;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes application/x-www-form-urlencoded fields straight into a stream, the values are percent-encoded as UTF-8 on the fly
+ * so no encoded copy of them is ever built. The output is the same as the one of URLEncoder.encode(value, "UTF-8").
+ */
+final class FormEncoder {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    // The characters URLEncoder leaves as they are
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['*'] = true;
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+    private boolean first = true;
+
+    /**
+     * @param out    Stream the fields are written to
+     * @param buffer Scratch buffer the encoded bytes are collected in before they are handed to the stream, at least 3 bytes
+     */
+    FormEncoder(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Writes name=value, separated from the previous field with an ampersand
+     *
+     * @param name  Field name
+     * @param value Field value
+     * @return This encoder
+     * @throws IOException If the stream can't be written
+     */
+    FormEncoder field(String name, String value) throws IOException {
+        if (!first) {
+            put('&');
+        }
+        first = false;
+        encode(name);
+        put('=');
+        encode(value);
+        return this;
+    }
+
+    /**
+     * Hands the bytes still in the buffer to the stream, the stream itself is left open
+     *
+     * @throws IOException If the stream can't be written
+     */
+    void finish() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void encode(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    put(c);
+                } else if (c == ' ') {
+                    put('+');
+                } else {
+                    percent(c);
+                }
+            } else if (c < 0x800) {
+                percent(0xC0 | (c >> 6));
+                percent(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                percent(0xF0 | (codePoint >> 18));
+                percent(0x80 | ((codePoint >> 12) & 0x3F));
+                percent(0x80 | ((codePoint >> 6) & 0x3F));
+                percent(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate can't be encoded, the UTF-8 encoder replaces it with a question mark
+                percent('?');
+            } else {
+                percent(0xE0 | (c >> 12));
+                percent(0x80 | ((c >> 6) & 0x3F));
+                percent(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (position == buffer.length) {
+            finish();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void percent(int b) throws IOException {
+        if (position + 3 > buffer.length) {
+            finish();
+        }
+        buffer[position++] = '%';
+        buffer[position++] = HEX[(b >> 4) & 0xF];
+        buffer[position++] = HEX[b & 0xF];
+    }
+}
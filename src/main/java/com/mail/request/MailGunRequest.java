@@ -1,8 +1,16 @@
 package com.mail.request;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Mail gun request builder to use this just call MailGunRequest.build(from, to[], subject, text) and chain it with cc(), bcc() and so on as needed
@@ -10,37 +18,130 @@ import java.nio.charset.StandardCharsets;
  */
 public class MailGunRequest extends MailRequest {
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Every thread encodes into the same scratch buffer before handing the bytes to the stream
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[8192]);
+    private static final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(4096));
+
+    private final Map<String, Map<String, String>> recipientVariables;
+    private final Map<String, String> headers;
+    private final String boundary;
+
     MailGunRequest(Builder builder) {
-        super(builder.from, builder.to, builder.cc, builder.bcc, builder.subject, builder.text, builder.type);
+        super(builder.from, builder.to, builder.cc, builder.bcc, builder.subject, builder.text, builder.type, builder.attachments);
+        this.recipientVariables = builder.recipientVariables;
+        this.headers = builder.headers;
+        this.boundary = attachments.isEmpty() ? null : "mail-" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+    }
+
+    /**
+     * @return Multipart content type when the request carries attachments, the configured form content type otherwise
+     */
+    @Override
+    public String getContentType() {
+        return boundary == null ? null : "multipart/form-data; boundary=" + boundary;
+    }
+
+    public Map<String, Map<String, String>> getRecipientVariables() {
+        return recipientVariables;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getData() throws IOException {
+        return new String(getBody(), StandardCharsets.UTF_8);
     }
 
     @Override
-    public String getData() throws UnsupportedEncodingException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("from=").append(URLEncoder.encode(from, StandardCharsets.UTF_8.name()));
+    public byte[] getBody() throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+        writeTo(buffer);
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Percent-encodes the form fields straight into the stream, a multi megabyte text is never copied into an encoded String
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (boundary != null) {
+            writeMultipart(out);
+            return;
+        }
+
+        FormEncoder encoder = new FormEncoder(out, scratch.get());
+        encoder.field("from", from);
 
         if (to != null && to.length > 0) {
             for (String recipient : to) {
-                sb.append("&to=").append(URLEncoder.encode(recipient, StandardCharsets.UTF_8.name()));
+                encoder.field("to", recipient);
             }
         }
 
         if (cc != null && cc.length > 0) {
             for (String recipient : cc) {
-                sb.append("&cc=").append(URLEncoder.encode(recipient, StandardCharsets.UTF_8.name()));
+                encoder.field("cc", recipient);
             }
         }
 
         if (bcc != null && bcc.length > 0) {
             for (String recipient : bcc) {
-                sb.append("&bcc=").append(URLEncoder.encode(recipient, StandardCharsets.UTF_8.name()));
+                encoder.field("bcc", recipient);
             }
         }
 
-        sb.append("&subject=").append(URLEncoder.encode(subject, StandardCharsets.UTF_8.name()));
-        sb.append("&text=").append(URLEncoder.encode(text, StandardCharsets.UTF_8.name()));
+        encoder.field("subject", subject);
+        encoder.field("text", text);
+
+        if (recipientVariables != null) {
+            encoder.field("recipient-variables", objectMapper.writeValueAsString(recipientVariables));
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            encoder.field("h:" + header.getKey(), header.getValue());
+        }
+
+        encoder.finish();
+    }
+
+    /**
+     * Attachments can't be form-urlencoded, the fields and files are sent as multipart/form-data parts instead
+     */
+    private void writeMultipart(OutputStream out) throws IOException {
+        MultipartWriter writer = new MultipartWriter(out, boundary, scratch.get());
+        writer.field("from", from);
+        writeFields(writer, "to", to);
+        writeFields(writer, "cc", cc);
+        writeFields(writer, "bcc", bcc);
+        writer.field("subject", subject);
+        writer.field("text", text);
+
+        if (recipientVariables != null) {
+            writer.field("recipient-variables", objectMapper.writeValueAsString(recipientVariables));
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            writer.field("h:" + header.getKey(), header.getValue());
+        }
+
+        for (Attachment attachment : attachments) {
+            writer.file(attachment.isInline() ? "inline" : "attachment", attachment);
+        }
+
+        writer.finish();
+    }
 
-        return sb.toString();
+    private static void writeFields(MultipartWriter writer, String name, String[] values) throws IOException {
+        if (values != null) {
+            for (String value : values) {
+                writer.field(name, value);
+            }
+        }
     }
 
     public static class Builder {
@@ -51,6 +152,9 @@ public class MailGunRequest extends MailRequest {
         private String[] cc;
         private String[] bcc;
         private String type;
+        private Map<String, Map<String, String>> recipientVariables;
+        private final List<Attachment> attachments = new ArrayList<>();
+        private final Map<String, String> headers = new LinkedHashMap<>();
 
         public Builder(String from, String[] to, String subject, String text) {
             this.from = from;
@@ -74,6 +178,31 @@ public class MailGunRequest extends MailRequest {
             return this;
         }
 
+        /**
+         * Turns the request into a batch send, MailGun delivers a separate copy to each 'to' recipient
+         * Refer to https://documentation.mailgun.com/en/latest/user_manual.html#batch-sending
+         */
+        public Builder recipientVariables(Map<String, Map<String, String>> recipientVariables) {
+            this.recipientVariables = recipientVariables;
+            return this;
+        }
+
+        /**
+         * Sends the file with the message, inline files are referenced from the body as cid:filename
+         */
+        public Builder attachment(Attachment attachment) {
+            this.attachments.add(attachment);
+            return this;
+        }
+
+        /**
+         * Adds a header to the email itself, sent as an h: prefixed field
+         */
+        public Builder header(String name, String value) {
+            this.headers.put(name, value);
+            return this;
+        }
+
         public MailGunRequest build() {
             return new MailGunRequest(this);
         }
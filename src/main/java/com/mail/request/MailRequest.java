@@ -1,5 +1,10 @@
 package com.mail.request;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 public abstract class MailRequest {
     final String from;
     final String[] to;
@@ -8,8 +13,9 @@ public abstract class MailRequest {
     final String subject;
     final String text;
     final String type;
+    final List<Attachment> attachments;
 
-    MailRequest(String from, String[] to, String[] cc, String[] bcc, String subject, String text, String type) {
+    MailRequest(String from, String[] to, String[] cc, String[] bcc, String subject, String text, String type, List<Attachment> attachments) {
         this.from = from;
         this.to = to;
         this.cc = cc;
@@ -17,9 +23,35 @@ public abstract class MailRequest {
         this.subject = subject;
         this.text = text;
         this.type = type;
+        this.attachments = attachments;
     }
 
-    public abstract String getData() throws Exception;
+    public abstract String getData() throws IOException;
+
+    /**
+     * @return Request body in UTF-8
+     * @throws IOException If the body can't be built
+     */
+    public byte[] getBody() throws IOException {
+        return getData().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the request body in UTF-8 into the stream, the stream is left open
+     *
+     * @param out Stream the body is written to
+     * @throws IOException If the body can't be built or written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(getBody());
+    }
+
+    /**
+     * @return Content type of the body, null if it is the one configured for the provider
+     */
+    public String getContentType() {
+        return null;
+    }
 
     public String getFrom() {
         return from;
@@ -48,4 +80,8 @@ public abstract class MailRequest {
     public String getType() {
         return type;
     }
+
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
 }
@@ -0,0 +1,69 @@
+package com.mail.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a multipart/form-data body straight into a stream, the files are copied from disk through a small buffer
+ * Refer to https://tools.ietf.org/html/rfc7578
+ */
+final class MultipartWriter {
+
+    private static final String CRLF = "\r\n";
+
+    private final OutputStream out;
+    // Encodes the headers and the text fields, flushed before any raw file bytes are written
+    private final Writer writer;
+    private final String boundary;
+    private final byte[] buffer;
+
+    /**
+     * @param out      Stream the body is written to
+     * @param boundary Boundary of the parts, it must not appear in any of the values
+     * @param buffer   Scratch buffer the files are copied through
+     */
+    MultipartWriter(OutputStream out, String boundary, byte[] buffer) {
+        this.out = out;
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.boundary = boundary;
+        this.buffer = buffer;
+    }
+
+    MultipartWriter field(String name, String value) throws IOException {
+        writer.write("--" + boundary + CRLF);
+        writer.write("Content-Disposition: form-data; name=\"" + name + "\"" + CRLF + CRLF);
+        writer.write(value);
+        writer.write(CRLF);
+        return this;
+    }
+
+    MultipartWriter file(String name, Attachment attachment) throws IOException {
+        writer.write("--" + boundary + CRLF);
+        writer.write("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + attachment.getFilename() + "\"" + CRLF);
+        String contentType = attachment.getContentType() == null ? "application/octet-stream" : attachment.getContentType();
+        writer.write("Content-Type: " + contentType + CRLF + CRLF);
+        writer.flush();
+
+        try (InputStream in = attachment.openStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        writer.write(CRLF);
+        return this;
+    }
+
+    /**
+     * Writes the closing boundary, the stream itself is left open
+     */
+    void finish() throws IOException {
+        writer.write("--" + boundary + "--" + CRLF);
+        writer.flush();
+    }
+}
@@ -0,0 +1,28 @@
+package com.mail.request;
+
+/**
+ * Recipients of one copy of a message, used for the extra SendGrid personalizations of a batch
+ */
+public class Recipients {
+    private final String[] to;
+    private final String[] cc;
+    private final String[] bcc;
+
+    public Recipients(String[] to, String[] cc, String[] bcc) {
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+    }
+
+    public String[] getTo() {
+        return to;
+    }
+
+    public String[] getCc() {
+        return cc;
+    }
+
+    public String[] getBcc() {
+        return bcc;
+    }
+}
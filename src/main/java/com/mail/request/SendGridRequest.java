@@ -1,6 +1,19 @@
 package com.mail.request;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Send grid request builder to use this just call SendGridRequest.build(from, to[], subject, text) and chain it with cc(), bcc() and so on as needed
@@ -8,52 +21,136 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class SendGridRequest extends MailRequest {
 
+    // Thread safe and expensive to create, so a single factory is shared by all the requests
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    // Every thread writes its payloads into the same buffer, only the final copy is allocated per request
+    private static final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(4096));
+
+    private final List<Recipients> personalizations;
+    private final Map<String, String> headers;
+
     SendGridRequest(Builder builder) {
-        super(builder.from, builder.to, builder.cc, builder.bcc, builder.subject, builder.text, builder.type);
+        super(builder.from, builder.to, builder.cc, builder.bcc, builder.subject, builder.text, builder.type, builder.attachments);
+        this.personalizations = builder.personalizations;
+        this.headers = builder.headers;
+    }
+
+    /**
+     * @return Recipients of the personalizations that were added on top of the first one
+     */
+    public List<Recipients> getPersonalizations() {
+        return personalizations;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
     }
 
     @Override
-    public String getData() throws Exception {
-        ObjectMapper objectMapper = new ObjectMapper();
+    public String getData() throws IOException {
+        return new String(getBody(), StandardCharsets.UTF_8);
+    }
 
-        To[] toArr = null;
-        if (to != null && to.length > 0) {
-            toArr = new To[to.length];
+    /**
+     * Writes the v3 mail send JSON straight from the request fields, empty recipient lists are left out
+     */
+    @Override
+    public byte[] getBody() throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+        writeTo(buffer);
 
-            for (int i = 0; i < to.length; i++) {
-                toArr[i] = new To(to[i]);
-            }
-        }
+        return buffer.toByteArray();
+    }
 
-        Cc[] ccArr = null;
-        if (cc != null && cc.length > 0) {
-            ccArr = new Cc[cc.length];
+    /**
+     * Generates the JSON straight into the stream, the stream is left open
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+
+            generator.writeArrayFieldStart("personalizations");
+            writePersonalization(generator, to, cc, bcc);
+            for (Recipients recipients : personalizations) {
+                writePersonalization(generator, recipients.getTo(), recipients.getCc(), recipients.getBcc());
+            }
+            generator.writeEndArray();
+
+            generator.writeObjectFieldStart("from");
+            generator.writeStringField("email", from);
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("content");
+            generator.writeStartObject();
+            generator.writeStringField("type", type);
+            generator.writeStringField("value", text);
+            generator.writeEndObject();
+            generator.writeEndArray();
+
+            if (!attachments.isEmpty()) {
+                generator.writeArrayFieldStart("attachments");
+                for (Attachment attachment : attachments) {
+                    writeAttachment(generator, attachment);
+                }
+                generator.writeEndArray();
+            }
 
-            for (int i = 0; i < cc.length; i++) {
-                ccArr[i] = new Cc(cc[i]);
+            if (!headers.isEmpty()) {
+                generator.writeObjectFieldStart("headers");
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    generator.writeStringField(header.getKey(), header.getValue());
+                }
+                generator.writeEndObject();
             }
-        }
 
-        Bcc[] bccArr = null;
-        if (bcc != null && bcc.length > 0) {
-            bccArr = new Bcc[bcc.length];
+            generator.writeEndObject();
+        }
+    }
 
-            for (int i = 0; i < bcc.length; i++) {
-                bccArr[i] = new Bcc(bcc[i]);
-            }
+    /**
+     * The file is base64 encoded while it is read, only the small encoding buffer of the generator is ever in memory
+     */
+    private static void writeAttachment(JsonGenerator generator, Attachment attachment) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("content");
+        try (InputStream in = attachment.openStream()) {
+            generator.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, in, -1);
         }
+        generator.writeStringField("filename", attachment.getFilename());
+        if (attachment.getContentType() != null) {
+            generator.writeStringField("type", attachment.getContentType());
+        }
+        generator.writeStringField("disposition", attachment.isInline() ? "inline" : "attachment");
+        if (attachment.isInline()) {
+            generator.writeStringField("content_id", attachment.getContentId());
+        }
+        generator.writeEndObject();
+    }
 
-        Envelope envelope = new Envelope(
-                new Personalization[]{
-                        new Personalization(toArr, ccArr, bccArr, subject)
-                },
-                new From(from),
-                new Content[]{
-                        new Content(type, text)
-                }
-        );
+    private void writePersonalization(JsonGenerator generator, String[] to, String[] cc, String[] bcc) throws IOException {
+        generator.writeStartObject();
+        writeAddresses(generator, "to", to);
+        writeAddresses(generator, "cc", cc);
+        writeAddresses(generator, "bcc", bcc);
+        generator.writeStringField("subject", subject);
+        generator.writeEndObject();
+    }
 
-        return objectMapper.writeValueAsString(envelope);
+    private static void writeAddresses(JsonGenerator generator, String field, String[] addresses) throws IOException {
+        if (addresses == null || addresses.length == 0) {
+            return;
+        }
+
+        generator.writeArrayFieldStart(field);
+        for (String address : addresses) {
+            generator.writeStartObject();
+            generator.writeStringField("email", address);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
     }
 
     public static class Builder {
@@ -64,6 +161,9 @@ public class SendGridRequest extends MailRequest {
         private String[] cc;
         private String[] bcc;
         private String type;
+        private final List<Recipients> personalizations = new ArrayList<>();
+        private final List<Attachment> attachments = new ArrayList<>();
+        private final Map<String, String> headers = new LinkedHashMap<>();
 
         public Builder(String from, String[] to, String subject, String text) {
             this.from = from;
@@ -87,158 +187,32 @@ public class SendGridRequest extends MailRequest {
             return this;
         }
 
-        public SendGridRequest build() {
-            return new SendGridRequest(this);
-        }
-    }
-
-    private static class Envelope {
-        private Personalization[] personalizations;
-        private From from;
-        private Content[] content;
-
-        Envelope(Personalization[] personalizations, From from, Content[] content) {
-            this.personalizations = personalizations;
-            this.from = from;
-            this.content = content;
-        }
-
-        public Personalization[] getPersonalizations() {
-            return personalizations;
-        }
-
-        public From getFrom() {
-            return from;
-        }
-
-        public Content[] getContent() {
-            return content;
-        }
-    }
-
-    private static class Personalization {
-        private To[] to;
-        private Cc[] cc;
-        private Bcc[] bcc;
-        private String subject;
-
-        Personalization(To[] to, Cc[] cc, Bcc[] bcc, String subject) {
-            this.to = to;
-            this.cc = cc;
-            this.bcc = bcc;
-            this.subject = subject;
-        }
-
-        public To[] getTo() {
-            return to;
-        }
-
-        public String getSubject() {
-            return subject;
-        }
-
-        public Cc[] getCc() {
-            return cc;
-        }
-
-        public Bcc[] getBcc() {
-            return bcc;
-        }
-    }
-
-    private static class To {
-        private String name;
-        private String email;
-
-        To(String email) {
-            this.email = email;
-        }
-
-        To(String name, String email) {
-            this.name = name;
-            this.email = email;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getEmail() {
-            return email;
-        }
-    }
-
-    private static class Cc {
-        private String name;
-        private String email;
-
-        Cc(String email) {
-            this.email = email;
-        }
-
-        Cc(String name, String email) {
-            this.name = name;
-            this.email = email;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getEmail() {
-            return email;
-        }
-    }
-
-    private static class Bcc {
-        private String name;
-        private String email;
-
-        Bcc(String email) {
-            this.email = email;
-        }
-
-        Bcc(String name, String email) {
-            this.name = name;
-            this.email = email;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getEmail() {
-            return email;
-        }
-    }
-
-    private static class From {
-        private String email;
-
-        From(String email) {
-            this.email = email;
-        }
-
-        public String getEmail() {
-            return email;
+        /**
+         * Adds another copy of the message with its own recipients, SendGrid delivers each personalization separately
+         */
+        public Builder personalization(String[] to, String[] cc, String[] bcc) {
+            this.personalizations.add(new Recipients(to, cc, bcc));
+            return this;
         }
-    }
-
-    private static class Content {
-        private String type;
-        private String value;
 
-        Content(String type, String value) {
-            this.type = type;
-            this.value = value;
+        /**
+         * Sends the file with the message, inline files are referenced from the body as cid:contentId
+         */
+        public Builder attachment(Attachment attachment) {
+            this.attachments.add(attachment);
+            return this;
         }
 
-        public String getType() {
-            return type;
+        /**
+         * Adds a header to the email itself, not to the API call
+         */
+        public Builder header(String name, String value) {
+            this.headers.put(name, value);
+            return this;
         }
 
-        public String getValue() {
-            return value;
+        public SendGridRequest build() {
+            return new SendGridRequest(this);
         }
     }
 
@@ -0,0 +1,28 @@
+package com.mail.retry;
+
+/**
+ * What a provider response says about the email, only a transient failure is worth sending again
+ */
+public enum ResponseClass {
+
+    ACCEPTED,
+    // Throttled, timed out or a server error, the same email can succeed later or on another provider
+    TRANSIENT,
+    // The provider rejected the email itself, sending it again gets the same answer
+    PERMANENT;
+
+    private static final int REQUEST_TIMEOUT = 408;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * @param statusCode Status code of the provider response
+     * @return Class of the response
+     */
+    public static ResponseClass of(int statusCode) {
+        if (statusCode >= 500 || statusCode == TOO_MANY_REQUESTS || statusCode == REQUEST_TIMEOUT) {
+            return TRANSIENT;
+        }
+
+        return statusCode >= 400 ? PERMANENT : ACCEPTED;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mail.retry;
+
+import com.mail.ratelimit.TokenBucket;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the retries at a ratio of the successful sends. Every success adds the ratio of a retry to the balance and a
+ * retry takes a whole one, so once the providers fail most of the sends the retries dry up instead of multiplying the
+ * load on them. A small reserve refilled every second keeps a quiet service able to retry.
+ */
+public class RetryBudget {
+
+    // The balance is counted in thousandths of a retry so a small ratio still adds up
+    private static final long RETRY = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance = new AtomicLong();
+    private final TokenBucket reserve;
+    private final Clock clock;
+
+    /**
+     * @param ratio        Retries allowed for every successful send
+     * @param minPerSecond Retries allowed every second whatever the success rate, 0 for none
+     * @param maxBurst     Retries the balance can save up
+     * @param clock        Clock the reserve is refilled on
+     */
+    public RetryBudget(double ratio, double minPerSecond, int maxBurst, Clock clock) {
+        this.deposit = Math.round(ratio * RETRY);
+        this.maxBalance = maxBurst * RETRY;
+        this.reserve = minPerSecond > 0 ? new TokenBucket(minPerSecond, (int) Math.ceil(minPerSecond)) : null;
+        this.clock = clock;
+    }
+
+    /**
+     * Adds the share of a successful send to the balance
+     */
+    public void onSuccess() {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(maxBalance, current + deposit);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a retry from the balance, or from the reserve once the balance is used up
+     *
+     * @return True if the send can be retried
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long current = balance.get();
+            if (current < RETRY) {
+                return reserve != null && reserve.tryAcquire(TimeUnit.MILLISECONDS.toNanos(clock.millis()), 1) == 0;
+            }
+            if (balance.compareAndSet(current, current - RETRY)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return Whole retries saved up from the successful sends
+     */
+    public long getBalance() {
+        return balance.get() / RETRY;
+    }
+}
@@ -0,0 +1,182 @@
+package com.mail.retry;
+
+import com.mail.config.RetryConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Decides whether a send that failed on a transient error is sent again and how long it waits first. The waits grow
+ * with decorrelated jitter (a random time between the base delay and three times the previous wait) so the retries of
+ * a burst of failures spread out, a Retry-After of the provider is waited out in full. Every retry is taken from a
+ * budget filled by the successful sends, a provider outage can't be amplified into a retry storm.
+ */
+@Component
+public class RetryPolicy {
+
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long maxRetryAfterMs;
+    private final RetryBudget budget;
+    private final RetryScheduler scheduler;
+    private final Clock clock;
+    private final DoubleSupplier jitter;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder retryAfterTooLong = new LongAdder();
+
+    @Autowired
+    public RetryPolicy(RetryConfiguration config) {
+        this(config, new TimerRetryScheduler(), Clock.systemUTC(), () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param config    Retry settings
+     * @param scheduler Waits out the backoff
+     * @param clock     Clock of the budget reserve and the Retry-After dates
+     * @param jitter    Random numbers between 0 and 1 spreading the waits
+     */
+    public RetryPolicy(RetryConfiguration config, RetryScheduler scheduler, Clock clock, DoubleSupplier jitter) {
+        this.enabled = config.isEnabled();
+        this.maxAttempts = Math.max(1, config.getMaxAttempts());
+        this.baseDelayMs = Math.max(1, config.getBaseDelayMs());
+        this.maxDelayMs = Math.max(baseDelayMs, config.getMaxDelayMs());
+        this.maxRetryAfterMs = config.getMaxRetryAfterMs();
+        this.budget = new RetryBudget(config.getBudgetRatio(), config.getBudgetMinPerSecond(), config.getBudgetMaxBurst(), clock);
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.jitter = jitter;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler instanceof TimerRetryScheduler) {
+            ((TimerRetryScheduler) scheduler).shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Backoff of a new send, it keeps the attempts and the previous wait of that send
+     */
+    public Backoff newBackoff() {
+        return new Backoff();
+    }
+
+    /**
+     * Records a successful send, it pays for part of a retry
+     */
+    public void onSuccess() {
+        budget.onSuccess();
+    }
+
+    /**
+     * @param delayMs Time to wait before the retry
+     * @return Future completed once the time has passed
+     */
+    public CompletableFuture<Void> delay(long delayMs) {
+        return scheduler.delay(delayMs);
+    }
+
+    /**
+     * @param value Retry-After header of a provider response, either seconds or an HTTP date
+     * @return Time the provider asked to wait, -1 if there was no valid header
+     */
+    public long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+
+        String retryAfter = value.trim();
+        try {
+            long seconds = Long.parseLong(retryAfter);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - clock.millis());
+            } catch (DateTimeParseException ex) {
+                return -1;
+            }
+        }
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return Retries that haven't been made because the budget was used up
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * @return Retries that haven't been made because the provider asked to wait longer than max-retry-after-ms
+     */
+    public long getRetryAfterTooLong() {
+        return retryAfterTooLong.sum();
+    }
+
+    /**
+     * @return Whole retries saved up in the budget
+     */
+    public long getBudgetBalance() {
+        return budget.getBalance();
+    }
+
+    /**
+     * The retries of a single send, not shared between threads
+     */
+    public final class Backoff {
+        private int attempts = 1;
+        private long previousMs = baseDelayMs;
+
+        /**
+         * Takes a retry from the budget and computes the wait before it
+         *
+         * @param retryAfterMs Time the provider asked to wait, -1 if it didn't say
+         * @return Time to wait before the next attempt, -1 if the send shouldn't be retried
+         */
+        public long nextDelayMs(long retryAfterMs) {
+            if (!enabled || attempts >= maxAttempts) {
+                return -1;
+            }
+            if (retryAfterMs > maxRetryAfterMs) {
+                retryAfterTooLong.increment();
+                return -1;
+            }
+            if (!budget.tryAcquire()) {
+                exhausted.increment();
+                return -1;
+            }
+
+            attempts++;
+            retries.increment();
+            previousMs = Math.min(maxDelayMs, baseDelayMs + (long) (jitter.getAsDouble() * (previousMs * 3 - baseDelayMs)));
+            return Math.max(previousMs, retryAfterMs);
+        }
+
+        /**
+         * @return Rounds of provider attempts made so far, the first one included
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
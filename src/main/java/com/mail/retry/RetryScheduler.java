@@ -0,0 +1,15 @@
+package com.mail.retry;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Waits out the backoff of a retry, the tests swap it for a scheduler that doesn't wait
+ */
+public interface RetryScheduler {
+
+    /**
+     * @param delayMs Time to wait
+     * @return Future completed once the time has passed
+     */
+    CompletableFuture<Void> delay(long delayMs);
+}
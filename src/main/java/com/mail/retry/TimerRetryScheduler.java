@@ -0,0 +1,29 @@
+package com.mail.retry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completes the delays on a single timer thread, nothing waits on it so one thread serves every retry
+ */
+public class TimerRetryScheduler implements RetryScheduler {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mail-retry-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public CompletableFuture<Void> delay(long delayMs) {
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        timer.schedule(() -> delay.complete(null), delayMs, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
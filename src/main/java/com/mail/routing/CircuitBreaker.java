@@ -0,0 +1,282 @@
+package com.mail.routing;
+
+import com.mail.config.CircuitBreakerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker of a single provider. The outcomes are counted in a ring of time buckets covering the rolling
+ * window, the counters and the state are only updated with atomic operations so the send path never blocks on it.
+ * A bucket that is reused for a new period is reset by the first thread that sees it, an outcome recorded by another
+ * thread at the same moment can be lost which is fine for a rate.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private final String provider;
+    private final Clock clock;
+    private final long bucketMs;
+    private final int minimumRequests;
+    private final int failureRateThreshold;
+    private final long slowCallMs;
+    private final int slowCallRateThreshold;
+    private final long openDurationMs;
+    private final int halfOpenTrials;
+    private final Bucket[] buckets;
+    private final AtomicReference<Phase> phase;
+    private final AtomicLong transitions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker(String provider, CircuitBreakerConfiguration config, Clock clock) {
+        this.provider = provider;
+        this.clock = clock;
+        this.bucketMs = Math.max(1, config.getWindowMs() / config.getBuckets());
+        this.minimumRequests = config.getMinimumRequests();
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.slowCallMs = config.getSlowCallMs();
+        this.slowCallRateThreshold = config.getSlowCallRateThreshold();
+        this.openDurationMs = config.getOpenDurationMs();
+        this.halfOpenTrials = config.getHalfOpenTrials();
+        this.buckets = new Bucket[config.getBuckets()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.phase = new AtomicReference<>(new Phase(CircuitState.CLOSED, clock.millis()));
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return Current state, an open breaker whose open duration is over is reported as half-open
+     */
+    public CircuitState getState() {
+        Phase current = phase.get();
+        if (current.state == CircuitState.OPEN && clock.millis() - current.since >= openDurationMs) {
+            return CircuitState.HALF_OPEN;
+        }
+
+        return current.state;
+    }
+
+    /**
+     * @return False if the breaker is open, used to skip the provider while routing without taking a trial permit
+     */
+    public boolean isCallPermitted() {
+        return getState() != CircuitState.OPEN;
+    }
+
+    /**
+     * Asks for permission to send a request, every permitted request has to be followed by onSuccess, onFailure or onCancelled
+     *
+     * @return True if the request can be sent to the provider
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            Phase current = phase.get();
+            if (current.state == CircuitState.CLOSED) {
+                return true;
+            }
+
+            if (current.state == CircuitState.OPEN) {
+                if (clock.millis() - current.since < openDurationMs) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+
+                transition(current, CircuitState.HALF_OPEN);
+                continue;
+            }
+
+            if (takeTrial(current)) {
+                return true;
+            }
+
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * The trial counter never goes past the limit, so a permit handed back by onCancelled can be taken again even if
+     * rejected requests raced with it
+     */
+    private boolean takeTrial(Phase current) {
+        while (true) {
+            int trials = current.trials.get();
+            if (trials >= halfOpenTrials) {
+                return false;
+            }
+            if (current.trials.compareAndSet(trials, trials + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records a request that the provider accepted
+     *
+     * @param latencyMs Time taken by the provider to respond
+     */
+    public void onSuccess(long latencyMs) {
+        record(false, latencyMs);
+
+        Phase current = phase.get();
+        if (current.state == CircuitState.HALF_OPEN && current.successes.incrementAndGet() >= halfOpenTrials) {
+            if (transition(current, CircuitState.CLOSED)) {
+                reset();
+            }
+        } else if (current.state == CircuitState.CLOSED) {
+            checkRates(current);
+        }
+    }
+
+    /**
+     * Hands back the permit of a request that has been cancelled before the provider answered, nothing is recorded
+     */
+    public void onCancelled() {
+        Phase current = phase.get();
+        if (current.state == CircuitState.HALF_OPEN) {
+            current.trials.updateAndGet(trials -> Math.max(0, trials - 1));
+        }
+    }
+
+    /**
+     * Records a request that failed because of the provider (connection error, timeout or server error)
+     *
+     * @param latencyMs Time taken until the request failed
+     */
+    public void onFailure(long latencyMs) {
+        record(true, latencyMs);
+
+        Phase current = phase.get();
+        if (current.state == CircuitState.HALF_OPEN) {
+            transition(current, CircuitState.OPEN);
+        } else if (current.state == CircuitState.CLOSED) {
+            checkRates(current);
+        }
+    }
+
+    /**
+     * @return Failed requests in the rolling window in percent
+     */
+    public double getFailureRate() {
+        long[] totals = totals();
+        return totals[0] == 0 ? 0 : 100.0 * totals[1] / totals[0];
+    }
+
+    /**
+     * @return Slow requests in the rolling window in percent
+     */
+    public double getSlowCallRate() {
+        long[] totals = totals();
+        return totals[0] == 0 ? 0 : 100.0 * totals[2] / totals[0];
+    }
+
+    /**
+     * @return Requests recorded in the rolling window
+     */
+    public long getRequests() {
+        return totals()[0];
+    }
+
+    public long getTransitions() {
+        return transitions.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void checkRates(Phase current) {
+        long[] totals = totals();
+        if (totals[0] < minimumRequests) {
+            return;
+        }
+
+        if (totals[1] * 100 >= failureRateThreshold * totals[0] || totals[2] * 100 >= slowCallRateThreshold * totals[0]) {
+            transition(current, CircuitState.OPEN);
+        }
+    }
+
+    private boolean transition(Phase from, CircuitState to) {
+        if (!phase.compareAndSet(from, new Phase(to, clock.millis()))) {
+            return false;
+        }
+
+        transitions.incrementAndGet();
+        logger.warn("Circuit breaker of " + provider + " changed from " + from.state + " to " + to);
+        return true;
+    }
+
+    private void record(boolean failure, long latencyMs) {
+        long period = clock.millis() / bucketMs;
+        Bucket bucket = buckets[(int) (period % buckets.length)];
+        long seen = bucket.period.get();
+        if (seen != period && bucket.period.compareAndSet(seen, period)) {
+            bucket.requests.set(0);
+            bucket.failures.set(0);
+            bucket.slowCalls.set(0);
+        }
+
+        bucket.requests.incrementAndGet();
+        if (failure) {
+            bucket.failures.incrementAndGet();
+        }
+        if (latencyMs >= slowCallMs) {
+            bucket.slowCalls.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Requests, failures and slow calls of the buckets that are still in the rolling window
+     */
+    private long[] totals() {
+        long period = clock.millis() / bucketMs;
+        long[] totals = new long[3];
+        for (Bucket bucket : buckets) {
+            long age = period - bucket.period.get();
+            if (age >= 0 && age < buckets.length) {
+                totals[0] += bucket.requests.get();
+                totals[1] += bucket.failures.get();
+                totals[2] += bucket.slowCalls.get();
+            }
+        }
+
+        return totals;
+    }
+
+    private void reset() {
+        for (Bucket bucket : buckets) {
+            bucket.period.set(-1);
+        }
+    }
+
+    /**
+     * A state with its own trial counters, a transition swaps the whole phase so stale counters are never reused
+     */
+    private static final class Phase {
+        private final CircuitState state;
+        private final long since;
+        private final AtomicInteger trials = new AtomicInteger();
+        private final AtomicInteger successes = new AtomicInteger();
+
+        Phase(CircuitState state, long since) {
+            this.state = state;
+            this.since = since;
+        }
+    }
+
+    private static final class Bucket {
+        private final AtomicLong period = new AtomicLong(-1);
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong slowCalls = new AtomicLong();
+    }
+}
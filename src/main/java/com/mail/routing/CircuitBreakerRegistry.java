@@ -0,0 +1,44 @@
+package com.mail.routing;
+
+import com.mail.config.CircuitBreakerConfiguration;
+import com.mail.provider.ProviderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds one circuit breaker per provider
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    private final Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+
+    @Autowired
+    public CircuitBreakerRegistry(CircuitBreakerConfiguration config, ProviderRegistry providers) {
+        this(config, Clock.systemUTC(), providers.getNames());
+    }
+
+    public CircuitBreakerRegistry(CircuitBreakerConfiguration config, Clock clock, String... providers) {
+        for (String provider : providers) {
+            breakers.put(provider, new CircuitBreaker(provider, config, clock));
+        }
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Circuit breaker of the provider or null if the provider is unknown
+     */
+    public CircuitBreaker get(String provider) {
+        return breakers.get(provider);
+    }
+
+    public Collection<CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableCollection(breakers.values());
+    }
+}
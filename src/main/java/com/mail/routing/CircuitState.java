@@ -0,0 +1,19 @@
+package com.mail.routing;
+
+/**
+ * State of a provider circuit breaker
+ */
+public enum CircuitState {
+    /**
+     * Requests go through and the outcomes are counted
+     */
+    CLOSED,
+    /**
+     * The provider is skipped until the open duration is over
+     */
+    OPEN,
+    /**
+     * A few trial requests decide whether the provider is closed again or opened for another period
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,228 @@
+package com.mail.routing;
+
+import com.mail.config.HedgeConfiguration;
+import com.mail.provider.ProviderRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a send is hedged to a second provider. The hedge waits for a percentile of the recent response times
+ * of the primary provider, so only the sends stuck in the tail of the primary are sent twice. Every send adds
+ * budget-percent of a hedge to the budget and a hedge takes a whole one, a stalled provider can't double the traffic.
+ * A hedged email may be delivered twice, nothing stops both providers from accepting it.
+ */
+@Component
+public class HedgePolicy {
+
+    private static final long HIGHEST_TRACKABLE_MS = TimeUnit.MINUTES.toMillis(1);
+    // The budget is counted in thousandths of a hedge so a fraction of a percent still adds up
+    private static final long HEDGE = 1000;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final int windowSize;
+    private final long minDelayMs;
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance = new AtomicLong();
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    @Autowired
+    public HedgePolicy(HedgeConfiguration config, ProviderRegistry providers) {
+        this(config, providers.getNames());
+    }
+
+    public HedgePolicy(HedgeConfiguration config, String... providers) {
+        this.enabled = config.isEnabled();
+        this.percentile = config.getPercentile();
+        this.windowSize = Math.max(1, config.getWindowSize());
+        this.minDelayMs = config.getMinDelayMs();
+        this.deposit = Math.round(config.getBudgetPercent() * HEDGE / 100);
+        this.maxBalance = config.getMaxBurst() * HEDGE;
+        for (String provider : providers) {
+            windows.put(provider, new Window(Math.max(minDelayMs, config.getInitialDelayMs())));
+        }
+        this.timer = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mail-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the response time of a provider, every full window replaces the hedge delay of the provider
+     *
+     * @param provider  Provider name
+     * @param latencyMs Time the provider took to answer
+     */
+    public void recordLatency(String provider, long latencyMs) {
+        Window window = windows.get(provider);
+        if (!enabled || window == null) {
+            return;
+        }
+
+        window.recorder.recordValue(Math.min(Math.max(latencyMs, 1), HIGHEST_TRACKABLE_MS));
+        if (window.count.incrementAndGet() % windowSize == 0) {
+            synchronized (window) {
+                window.interval = window.recorder.getIntervalHistogram(window.interval);
+                if (window.interval.getTotalCount() > 0) {
+                    window.delayMs = Math.max(minDelayMs, window.interval.getValueAtPercentile(percentile));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Time to wait for the provider before the send is hedged
+     */
+    public long getDelayMs(String provider) {
+        Window window = windows.get(provider);
+        return window == null ? minDelayMs : window.delayMs;
+    }
+
+    /**
+     * Starts the hedge timer of a send and adds its share to the budget
+     *
+     * @param provider Primary provider of the send
+     * @param hedge    Fires the hedge, called on the timer thread
+     * @return Timer to be cancelled once the send has been answered
+     */
+    public ScheduledFuture<?> schedule(String provider, Runnable hedge) {
+        sends.increment();
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(maxBalance, current + deposit);
+            if (next == current || balance.compareAndSet(current, next)) {
+                break;
+            }
+        }
+
+        return timer.schedule(hedge, getDelayMs(provider), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a hedge from the budget
+     *
+     * @return True if the send can be hedged
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long current = balance.get();
+            if (current < HEDGE) {
+                exhausted.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - HEDGE)) {
+                hedges.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a hedge that couldn't be sent because no other provider was available
+     */
+    public void release() {
+        hedges.decrement();
+        balance.addAndGet(HEDGE);
+    }
+
+    /**
+     * Records a hedge that answered before the primary provider
+     */
+    public void onHedgeWin() {
+        wins.increment();
+    }
+
+    /**
+     * Records a hedged send that both providers accepted, the email has then been delivered twice
+     */
+    public void onDuplicate() {
+        duplicates.increment();
+    }
+
+    public long getSends() {
+        return sends.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getWins() {
+        return wins.sum();
+    }
+
+    /**
+     * @return Share of the hedges that answered first, 0 before the first hedge
+     */
+    public double getWinRate() {
+        long fired = hedges.sum();
+        return fired == 0 ? 0 : (double) wins.sum() / fired;
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return Hedges that haven't been sent because the budget was used up
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * @return Current hedge delay of every provider
+     */
+    public Map<String, Long> getDelays() {
+        Map<String, Long> delays = new LinkedHashMap<>();
+        for (Map.Entry<String, Window> window : windows.entrySet()) {
+            delays.put(window.getKey(), window.getValue().delayMs);
+        }
+
+        return Collections.unmodifiableMap(delays);
+    }
+
+    private static final class Window {
+        private final Recorder recorder = new Recorder(1, HIGHEST_TRACKABLE_MS, 2);
+        private final AtomicLong count = new AtomicLong();
+        private Histogram interval;
+        private volatile long delayMs;
+
+        Window(long delayMs) {
+            this.delayMs = delayMs;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.mail.routing;
+
+import com.mail.config.RoutingConfiguration;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.provider.ProviderRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the provider for every request from the cached health state and the configured strategy. The router
+ * doesn't keep any per-request state, each call returns its own immutable decision.
+ */
+@Component
+public class ProviderRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderRouter.class);
+    private final ProviderHealthMonitor healthMonitor;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final RoutingStrategy strategy;
+    private final double latencySmoothing;
+    private final List<String> providers = new ArrayList<>();
+    private final Map<String, Integer> weights = new HashMap<>();
+    // Moving average of the response time in milliseconds stored as double bits, NaN until the first sample
+    private final Map<String, AtomicLong> latencies = new HashMap<>();
+
+    @Autowired
+    public ProviderRouter(RoutingConfiguration config, ProviderHealthMonitor healthMonitor, CircuitBreakerRegistry circuitBreakers, ProviderRegistry providerRegistry) {
+        this.healthMonitor = healthMonitor;
+        this.circuitBreakers = circuitBreakers;
+        this.strategy = config.getStrategy();
+        this.latencySmoothing = config.getLatencySmoothing();
+
+        List<String> known = Arrays.asList(providerRegistry.getNames());
+
+        // The configured priority first, then any provider that isn't listed
+        for (String provider : config.getPriority()) {
+            String name = provider.trim();
+            if (known.contains(name) && !providers.contains(name)) {
+                providers.add(name);
+            } else if (!known.contains(name)) {
+                logger.warn("Ignoring unknown provider in the routing priority - " + name);
+            }
+        }
+        for (String provider : known) {
+            if (!providers.contains(provider)) {
+                providers.add(provider);
+            }
+        }
+
+        for (String provider : providers) {
+            weights.put(provider, 1);
+            latencies.put(provider, new AtomicLong(Double.doubleToLongBits(Double.NaN)));
+        }
+        for (String weight : config.getWeights()) {
+            String[] parts = weight.trim().split(":");
+            if (parts.length == 2 && weights.containsKey(parts[0].trim())) {
+                weights.put(parts[0].trim(), Math.max(0, Integer.parseInt(parts[1].trim())));
+            }
+        }
+    }
+
+    /**
+     * Routes a request to one of the healthy providers, the providers with an open circuit breaker are skipped
+     *
+     * @return Routing decision or null if none of the providers is available
+     */
+    public RoutingDecision route() {
+        List<String> candidates = new ArrayList<>(providers.size());
+        for (String provider : providers) {
+            CircuitBreaker breaker = circuitBreakers.get(provider);
+            if (healthMonitor.isHealthy(provider) && (breaker == null || breaker.isCallPermitted())) {
+                candidates.add(provider);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        if (candidates.size() > 1) {
+            if (strategy == RoutingStrategy.WEIGHTED) {
+                moveToFront(candidates, pickWeighted(candidates));
+            } else if (strategy == RoutingStrategy.LEAST_LATENCY) {
+                // Providers without a sample yet sort first so they get measured
+                candidates.sort((a, b) -> Double.compare(sortableLatency(a), sortableLatency(b)));
+            }
+        }
+
+        return new RoutingDecision(strategy, candidates);
+    }
+
+    /**
+     * Adds a response time to the moving average of the provider
+     *
+     * @param provider  Provider name
+     * @param latencyMs Time taken by the provider to respond
+     */
+    public void recordLatency(String provider, double latencyMs) {
+        AtomicLong latency = latencies.get(provider);
+        if (latency == null) {
+            return;
+        }
+
+        while (true) {
+            long current = latency.get();
+            double average = Double.longBitsToDouble(current);
+            double next = Double.isNaN(average) ? latencyMs : average + latencySmoothing * (latencyMs - average);
+            if (latency.compareAndSet(current, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param provider Provider name
+     * @return Moving average of the response time in milliseconds, NaN if the provider hasn't responded yet
+     */
+    public double getLatency(String provider) {
+        AtomicLong latency = latencies.get(provider);
+        return latency == null ? Double.NaN : Double.longBitsToDouble(latency.get());
+    }
+
+    public List<String> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    private String pickWeighted(List<String> candidates) {
+        int total = 0;
+        for (String provider : candidates) {
+            total += weights.get(provider);
+        }
+
+        if (total == 0) {
+            return candidates.get(0);
+        }
+
+        int point = ThreadLocalRandom.current().nextInt(total);
+        for (String provider : candidates) {
+            point -= weights.get(provider);
+            if (point < 0) {
+                return provider;
+            }
+        }
+
+        return candidates.get(0);
+    }
+
+    private double sortableLatency(String provider) {
+        double latency = getLatency(provider);
+        return Double.isNaN(latency) ? 0 : latency;
+    }
+
+    private static void moveToFront(List<String> candidates, String provider) {
+        candidates.remove(provider);
+        candidates.add(0, provider);
+    }
+}
@@ -0,0 +1,43 @@
+package com.mail.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of routing a single request, everything that depends on the provider (payload format, url,
+ * credentials) is derived from it so concurrent requests can't see each other's choice
+ */
+public final class RoutingDecision {
+
+    private final RoutingStrategy strategy;
+    private final List<String> candidates;
+
+    RoutingDecision(RoutingStrategy strategy, List<String> candidates) {
+        this.strategy = strategy;
+        this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+    }
+
+    public RoutingStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return Provider the request is sent to
+     */
+    public String getProvider() {
+        return candidates.get(0);
+    }
+
+    /**
+     * @return Healthy providers in the order they should be tried, the first one is the chosen provider
+     */
+    public List<String> getCandidates() {
+        return candidates;
+    }
+
+    @Override
+    public String toString() {
+        return strategy + " " + candidates;
+    }
+}
@@ -0,0 +1,19 @@
+package com.mail.routing;
+
+/**
+ * How the provider router orders the healthy providers for a request
+ */
+public enum RoutingStrategy {
+    /**
+     * Always the first healthy provider in the configured priority order
+     */
+    PRIORITY,
+    /**
+     * Spreads the requests over the healthy providers in proportion to their weights
+     */
+    WEIGHTED,
+    /**
+     * The healthy provider with the lowest moving average of its response time
+     */
+    LEAST_LATENCY
+}
@@ -0,0 +1,76 @@
+package com.mail.services;
+
+import com.mail.dto.MailMessageDto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the messages of a batch into provider calls. Messages with the same sender, subject, text and type only differ
+ * in their recipients, so SendGrid can take each of them as a personalization of a single envelope. MailGun can only
+ * batch messages with a single 'to' recipient, the others are sent one by one.
+ */
+final class BatchPlanner {
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * Plans the provider calls for a batch
+     *
+     * @param messages             Messages of the batch
+     * @param maxRecipientsPerCall Provider limit for recipients (and SendGrid personalizations) in a single call
+     * @param perRecipient         True if the provider sends a copy per recipient like MailGun, see MailProvider
+     * @return Indexes of the messages for each provider call, in the order of the first message of each call
+     */
+    static List<List<Integer>> plan(List<MailMessageDto> messages, int maxRecipientsPerCall, boolean perRecipient) {
+        List<List<Integer>> calls = new ArrayList<>();
+        Map<List<String>, Group> open = new LinkedHashMap<>();
+
+        for (int i = 0; i < messages.size(); i++) {
+            MailMessageDto dto = messages.get(i);
+            int recipients = dto.getTo().length + dto.getCc().length + dto.getBcc().length;
+
+            if ((perRecipient && !isMailGunBatchable(dto)) || recipients >= maxRecipientsPerCall) {
+                List<Integer> single = new ArrayList<>(1);
+                single.add(i);
+                calls.add(single);
+                continue;
+            }
+
+            List<String> key = Arrays.asList(dto.getFrom(), dto.getSubject(), dto.getText(), dto.getType());
+            Group group = open.get(key);
+            // MailGun would merge two copies for the same recipient, so a repeated recipient starts a new call
+            if (group == null || group.recipients + recipients > maxRecipientsPerCall
+                    || group.messages.size() >= maxRecipientsPerCall
+                    || (perRecipient && group.addresses.contains(dto.getTo()[0]))) {
+                group = new Group();
+                open.put(key, group);
+                calls.add(group.messages);
+            }
+
+            group.messages.add(i);
+            group.recipients += recipients;
+            if (perRecipient) {
+                group.addresses.add(dto.getTo()[0]);
+            }
+        }
+
+        return calls;
+    }
+
+    private static boolean isMailGunBatchable(MailMessageDto dto) {
+        return dto.getTo().length == 1 && dto.getCc().length == 0 && dto.getBcc().length == 0;
+    }
+
+    private static class Group {
+        private final List<Integer> messages = new ArrayList<>();
+        private final Set<String> addresses = new HashSet<>();
+        private int recipients;
+    }
+}
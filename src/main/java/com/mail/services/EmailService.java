@@ -1,8 +1,12 @@
 package com.mail.services;
 
+import com.mail.dto.BatchEmailResponseDto;
 import com.mail.dto.EmailResponseDto;
 import com.mail.dto.MailMessageDto;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface EmailService {
 
     /**
@@ -14,4 +18,32 @@ public interface EmailService {
      */
     EmailResponseDto sendEmail(MailMessageDto message) throws Exception;
 
+    /**
+     * Sends an email to a list of recipients without waiting on the provider, sends on the calling thread by default
+     *
+     * @param message Message to be sent to the email recipients
+     * @return Response to be sent back to the caller once the provider has answered
+     * @throws Exception When exception occurs
+     */
+    default CompletableFuture<EmailResponseDto> sendEmailAsync(MailMessageDto message) throws Exception {
+        return CompletableFuture.completedFuture(sendEmail(message));
+    }
+
+    /**
+     * Sends many emails, compatible messages are grouped together so they go out in as few provider calls as possible
+     *
+     * @param messages Messages to be sent
+     * @return Response for each message in the same order plus the number of provider calls made
+     * @throws Exception When exception occurs
+     */
+    BatchEmailResponseDto sendBatch(List<MailMessageDto> messages) throws Exception;
+
+    /**
+     * Validates the message without sending it
+     *
+     * @param message Message to be sent to the email recipients
+     * @return List of errors, empty if the message can be sent
+     */
+    List<String> validate(MailMessageDto message);
+
 }
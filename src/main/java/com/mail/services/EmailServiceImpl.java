@@ -1,185 +1,789 @@
 package com.mail.services;
 
-import com.mail.config.MailGunHttpConfiguration;
-import com.mail.config.SendGridHttpConfiguration;
+import com.mail.attachment.AttachmentStore;
+import com.mail.auth.ProviderCredentials;
+import com.mail.config.BatchConfiguration;
+import com.mail.config.TransportConfiguration;
+import com.mail.config.ValidationConfiguration;
+import com.mail.dto.BatchEmailResponseDto;
+import com.mail.dto.DeliveryStatus;
 import com.mail.dto.EmailResponseDto;
 import com.mail.dto.MailMessageDto;
-import com.mail.request.MailGunRequest;
+import com.mail.metrics.MailStage;
+import com.mail.metrics.StageMetrics;
+import com.mail.outbox.MailOutbox;
+import com.mail.outbox.OutboxDelivery;
+import com.mail.provider.MailProvider;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.request.Attachment;
 import com.mail.request.MailRequest;
-import com.mail.request.SendGridRequest;
+import com.mail.retry.ResponseClass;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreaker;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.HedgePolicy;
+import com.mail.routing.ProviderRouter;
+import com.mail.routing.RoutingDecision;
+import com.mail.template.TemplateEngine;
+import com.mail.transport.MailTransport;
+import com.mail.transport.TransportBody;
+import com.mail.transport.TransportRequest;
+import com.mail.transport.TransportResponse;
+import com.mail.validation.DuplicateRecipients;
+import com.mail.validation.EmailAddressValidator;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.validator.routines.EmailValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.Authenticator;
 import java.net.HttpURLConnection;
-import java.net.PasswordAuthentication;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 
 @Service
-public class EmailServiceImpl implements EmailService {
+public class EmailServiceImpl implements EmailService, OutboxDelivery {
 
     private static final Logger logger = LoggerFactory.getLogger(EmailServiceImpl.class);
-    private static final int CONNECT_TIMEOUT = 3000;
-    private final SendGridHttpConfiguration sendGridHttpConfig;
-    private final MailGunHttpConfiguration mailGunHttpConfig;
-    private boolean useSecondMailOnFailover = false;
+    // Both copies of a hedged email carry the same id, a copy accepted by the losing provider can be matched to the first one
+    static final String HEDGE_ID_HEADER = "X-Hedge-Id";
+    private final ProviderRegistry providers;
+    private final ProviderRouter providerRouter;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final MailTransport mailTransport;
+    private final MailOutbox mailOutbox;
+    private final BatchConfiguration batchConfig;
+    private final StageMetrics stageMetrics;
+    private final TransportConfiguration transportConfig;
+    private final AttachmentStore attachmentStore;
+    private final TemplateEngine templateEngine;
+    private final EmailAddressValidator emailValidator;
+    private final ValidationConfiguration validationConfig;
+    private final DuplicateRecipients duplicateRecipients;
+    private final RateLimiter rateLimiter;
+    private final ProviderCredentials credentials;
+    private final HedgePolicy hedgePolicy;
+    private final RetryPolicy retryPolicy;
+    private final ResolvedEndpointCache endpoints;
+    private final Semaphore inFlight;
     
     @Autowired
-    public EmailServiceImpl(SendGridHttpConfiguration sendGridHttpConfig, MailGunHttpConfiguration mailGunHttpConfig) {
-        this.sendGridHttpConfig = sendGridHttpConfig;
-        this.mailGunHttpConfig = mailGunHttpConfig;
+    public EmailServiceImpl(ProviderRegistry providers, ProviderRouter providerRouter, CircuitBreakerRegistry circuitBreakers, MailTransport mailTransport, MailOutbox mailOutbox, BatchConfiguration batchConfig, StageMetrics stageMetrics, TransportConfiguration transportConfig, AttachmentStore attachmentStore, TemplateEngine templateEngine, EmailAddressValidator emailValidator, ValidationConfiguration validationConfig, RateLimiter rateLimiter, ProviderCredentials credentials, HedgePolicy hedgePolicy, RetryPolicy retryPolicy, ResolvedEndpointCache endpoints) {
+        this.providers = providers;
+        this.providerRouter = providerRouter;
+        this.circuitBreakers = circuitBreakers;
+        this.mailTransport = mailTransport;
+        this.mailOutbox = mailOutbox;
+        this.batchConfig = batchConfig;
+        this.stageMetrics = stageMetrics;
+        this.transportConfig = transportConfig;
+        this.attachmentStore = attachmentStore;
+        this.templateEngine = templateEngine;
+        this.emailValidator = emailValidator;
+        this.validationConfig = validationConfig;
+        this.duplicateRecipients = new DuplicateRecipients(validationConfig.isLowercaseLocalPart(), validationConfig.isStripPlusTag());
+        this.rateLimiter = rateLimiter;
+        this.credentials = credentials;
+        this.hedgePolicy = hedgePolicy;
+        this.retryPolicy = retryPolicy;
+        this.endpoints = endpoints;
+        this.inFlight = new Semaphore(transportConfig.getMaxInFlight());
     }
     
     @Override
     public EmailResponseDto sendEmail(MailMessageDto dto) throws Exception {
+        checkValid(dto);
+
+        return settle(dto, send(dto));
+    }
+
+    @Override
+    public CompletableFuture<EmailResponseDto> sendEmailAsync(MailMessageDto dto) throws Exception {
+        checkValid(dto);
+        // The in-flight limit is the backpressure of the non-blocking path, the caller is told to come back later
+        if (!inFlight.tryAcquire()) {
+            attachmentStore.release(dto);
+            throw new SendCapacityExceededException("Too many emails are being sent, please try again later");
+        }
+
+        CompletableFuture<EmailResponseDto> sent;
+        try {
+            sent = sendAsync(dto);
+        } catch (Exception e) {
+            inFlight.release();
+            attachmentStore.release(dto);
+            throw e;
+        }
+
+        return sent.handle((response, error) -> {
+            inFlight.release();
+            if (error != null) {
+                attachmentStore.release(dto);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            return settle(dto, response);
+        });
+    }
+
+    /**
+     * @param dto Mail message from the client
+     * @throws RuntimeException If the message is invalid, its attachments are released
+     */
+    private void checkValid(MailMessageDto dto) {
         // Validate the mail message
+        long start = System.nanoTime();
         List<String> errors = validate(dto);
+        stageMetrics.record(MailStage.VALIDATION, StageMetrics.NO_PROVIDER, errors.isEmpty(), System.nanoTime() - start);
         // If we found at least an error just cancel the request straight away
         if (errors.size() > 0) {
         	logger.error("Bad Request, throwing Exception!!");
+            attachmentStore.release(dto);
         	//TODO : Can create a BadRequestException to be more specific around bad request failures
             throw new RuntimeException();
         }
+    }
 
-        // Validate Health check for fail-over
-        if (healthCheck(sendGridHttpConfig.getUrl())) {
-        	useSecondMailOnFailover = false;
-        } else if (healthCheck(mailGunHttpConfig.getUrl())) {
-        	useSecondMailOnFailover = true;
-        } else {
-            String reason = "Can't reach to any mail providers!!";
-            logger.warn(reason);
+    /**
+     * Puts a failed email into the outbox and releases the attachments of an email that won't be sent again. A rejected
+     * email isn't put into the outbox, the provider would refuse it on every replay.
+     *
+     * @param dto      Mail message from the client
+     * @param response Response of the send
+     * @return Response to be sent back to the caller
+     */
+    private EmailResponseDto settle(MailMessageDto dto, EmailResponseDto response) {
+        if (response.getStatus() == DeliveryStatus.FAILED && mailOutbox.isEnabled()) {
+            try {
+                // Save the pending email to the outbox, the replayer re-attempts it later
+                mailOutbox.add(dto);
+                return new EmailResponseDto(DeliveryStatus.QUEUED, "Your email has not been sent yet, it has been put into the queue and will be re-attempted", new Date().getTime());
+            } catch (IOException e) {
+                logger.error("Could not save the email to the outbox - " + e.getMessage());
+            }
+        }
 
-            //Tell the user that their email has been put into the queue
-            //TODO: Send a notification to someone if it failed to connect to both providers
-            //TODO: Save the pending email to the queue/database for future and and re-attempt 
-            return new EmailResponseDto("Your email has not been sent due to the reason : " + reason, new Date().getTime());
+        // The email won't be sent again, its attachments aren't needed anymore
+        attachmentStore.release(dto);
+        return response;
+    }
+
+    @Override
+    public boolean deliver(MailMessageDto dto) throws Exception {
+        DeliveryStatus status = send(dto).getStatus();
+        if (status == DeliveryStatus.REJECTED) {
+            // Replaying it again won't change the answer of the provider, the email is dropped from the outbox
+            logger.warn("The mail provider rejected an email of the outbox, it won't be re-attempted");
+        }
+        boolean done = status == DeliveryStatus.SENT || status == DeliveryStatus.REJECTED;
+        if (done) {
+            attachmentStore.release(dto);
         }
 
-        HttpURLConnection conn = connectAndSendData(dto);
+        return done;
+    }
 
-        int responseCode = conn.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
-            String message = "The request gets redirected, this is not supported yet so please check and update the url accordingly in the config - redirected url: " + conn.getHeaderField("Location");
-            logger.warn(message);
+    @Override
+    public void discard(MailMessageDto dto) {
+        attachmentStore.release(dto);
+    }
 
-            String redirectUrl = conn.getHeaderField("Location");
-            if (!useSecondMailOnFailover) {
-                sendGridHttpConfig.setRedirectUrl(redirectUrl);
-            } else {
-                mailGunHttpConfig.setRedirectUrl(redirectUrl);
+    /**
+     * Sends the email to the routed provider and fails over to the next candidate while the providers are unavailable.
+     * Once every candidate failed on a transient error the whole route is retried after a backoff, the failures are
+     * returned as a FAILED response
+     *
+     * @param dto Mail message from the client
+     * @return Response to be sent back to the caller
+     * @throws Exception If the request to the provider cannot be built
+     */
+    private EmailResponseDto send(MailMessageDto dto) throws Exception {
+        // Render the text once, every provider attempt uses the same text
+        templateEngine.apply(dto);
+
+        // A hedge races two providers, which only the non-blocking side of the transport can do. The streamed emails
+        // aren't hedged, their bodies can't go through it and a large email sent twice costs the most
+        if (hedgePolicy.isEnabled() && !isStreamed(dto)) {
+            try {
+                return sendAsync(dto).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        return sendBlocking(dto);
+    }
+
+    /**
+     * The blocking send with its failover and retries, the template of the email has been rendered already
+     *
+     * @param dto Mail message from the client
+     * @return Response to be sent back to the caller
+     * @throws Exception If the request to the provider cannot be built
+     */
+    private EmailResponseDto sendBlocking(MailMessageDto dto) throws Exception {
+        long start = System.nanoTime();
+        RetryPolicy.Backoff backoff = retryPolicy.newBackoff();
+        // The provider of the last attempt, the total time is recorded against it
+        String attempted = StageMetrics.NO_PROVIDER;
+        EmailResponseDto response = null;
+        while (response == null) {
+            long routeStart = System.nanoTime();
+            RoutingDecision route = providerRouter.route();
+            stageMetrics.record(MailStage.ROUTING, StageMetrics.NO_PROVIDER, route != null, System.nanoTime() - routeStart);
+
+            ProviderUnavailableException failure = null;
+            if (route != null) {
+                for (String provider : route.getCandidates()) {
+                    CircuitBreaker breaker = acquire(provider);
+                    if (breaker == null) {
+                        continue;
+                    }
+
+                    attempted = provider;
+                    try {
+                        response = sendRequest(provider, breaker, buildMailRequest(provider, dto));
+                        break;
+                    } catch (ProviderUnavailableException e) {
+                        logger.warn(e.getMessage() + ", trying the next provider");
+                        failure = e;
+                    }
+                }
             }
-            conn = connectAndSendData(dto);
 
-            responseCode = conn.getResponseCode();
+            if (response == null) {
+                long delayMs = failure == null ? -1 : backoff.nextDelayMs(failure.getRetryAfterMs());
+                if (delayMs < 0) {
+                    response = StageMetrics.NO_PROVIDER.equals(attempted)
+                            ? noProviderResponse()
+                            : new EmailResponseDto(DeliveryStatus.FAILED, "Sorry, Your email has not been sent!!", new Date().getTime());
+                } else {
+                    logger.warn("No provider could take the email, retrying in " + delayMs + " ms");
+                    retryPolicy.delay(delayMs).get();
+                }
+            }
         }
+        if (response.getStatus() == DeliveryStatus.SENT) {
+            retryPolicy.onSuccess();
+        }
+        stageMetrics.record(MailStage.TOTAL, attempted, response.getStatus() == DeliveryStatus.SENT, System.nanoTime() - start);
 
-        // Handle normal and error stream
-        boolean errorStream = false;
-        String responseMsg = "Yayy, Your email has been sent!!";
-        InputStream is;
-        if (responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
-            is = conn.getInputStream();
-        } else {
-            errorStream = true;
-            is = conn.getErrorStream();
+        return response;
+    }
+
+    /**
+     * The non-blocking version of send, no thread waits on the provider while the email is in flight. An email with
+     * attachments or a large text is sent on the calling thread instead, its body is streamed into the connection and
+     * the non-blocking client would hold all of it in memory.
+     *
+     * @param dto Mail message from the client
+     * @return Response to be sent back to the caller, the failures complete it as a FAILED response
+     * @throws Exception If the template cannot be rendered
+     */
+    private CompletableFuture<EmailResponseDto> sendAsync(MailMessageDto dto) throws Exception {
+        // Render the text once, every provider attempt uses the same text
+        templateEngine.apply(dto);
+
+        if (isStreamed(dto)) {
+            CompletableFuture<EmailResponseDto> sent = new CompletableFuture<>();
+            try {
+                sent.complete(sendBlocking(dto));
+            } catch (Exception e) {
+                sent.completeExceptionally(e);
+            }
+            return sent;
         }
 
-        // Parse the input stream
-        StringBuilder response = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            response.append(line);
+        return routeAsync(dto, retryPolicy.newBackoff(), System.nanoTime());
+    }
+
+    /**
+     * @param dto Mail message with its template rendered
+     * @return True if the body of the email is written into the connection while it is sent, see buildTransportRequest
+     */
+    private boolean isStreamed(MailMessageDto dto) {
+        return dto.getAttachments().length > 0 || (dto.getText() != null && dto.getText().length() >= transportConfig.getStreamThresholdBytes());
+    }
+
+    /**
+     * Sends the email along a new route, the route is retried after a backoff once every candidate failed on a
+     * transient error
+     *
+     * @param dto     Mail message from the client
+     * @param backoff Retries of the send
+     * @param start   Time the send started at
+     * @return Response to be sent back to the caller
+     */
+    private CompletableFuture<EmailResponseDto> routeAsync(MailMessageDto dto, RetryPolicy.Backoff backoff, long start) {
+        long routeStart = System.nanoTime();
+        RoutingDecision route = providerRouter.route();
+        stageMetrics.record(MailStage.ROUTING, StageMetrics.NO_PROVIDER, route != null, System.nanoTime() - routeStart);
+        if (route == null) {
+            EmailResponseDto response = noProviderResponse();
+            stageMetrics.record(MailStage.TOTAL, StageMetrics.NO_PROVIDER, false, System.nanoTime() - start);
+            return CompletableFuture.completedFuture(response);
+        }
+
+        return attemptAsync(dto, route.getCandidates(), 0, null, start).handle((response, error) -> {
+            if (error == null) {
+                if (response.getStatus() == DeliveryStatus.SENT) {
+                    retryPolicy.onSuccess();
+                }
+                return CompletableFuture.completedFuture(response);
+            }
+            Throwable cause = unwrap(error);
+            if (!(cause instanceof ProviderUnavailableException)) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+
+            ProviderUnavailableException failure = (ProviderUnavailableException) cause;
+            long delayMs = backoff.nextDelayMs(failure.getRetryAfterMs());
+            if (delayMs < 0) {
+                stageMetrics.record(MailStage.TOTAL, failure.getProvider(), false, System.nanoTime() - start);
+                return CompletableFuture.completedFuture(new EmailResponseDto(DeliveryStatus.FAILED, "Sorry, Your email has not been sent!!", new Date().getTime()));
+            }
+
+            logger.warn("No provider could take the email, retrying in " + delayMs + " ms");
+            return retryPolicy.delay(delayMs).thenCompose(ignored -> routeAsync(dto, backoff, start));
+        }).thenCompose(response -> response);
+    }
+
+    /**
+     * Sends the email to the first available candidate from the given index, the next candidate is attempted
+     * once the provider turns out to be unavailable
+     *
+     * @param dto        Mail message from the client
+     * @param candidates Providers in the order of the route
+     * @param index      Index of the first candidate to try
+     * @param failure    Failure of the last attempt, null before the first one
+     * @param start      Time the send started at
+     * @return Response to be sent back to the caller, completed exceptionally with the last failure once every
+     * attempted candidate was unavailable
+     */
+    private CompletableFuture<EmailResponseDto> attemptAsync(MailMessageDto dto, List<String> candidates, int index, ProviderUnavailableException failure, long start) {
+        for (int i = index; i < candidates.size(); i++) {
+            String provider = candidates.get(i);
+            CircuitBreaker breaker = acquire(provider);
+            if (breaker == null) {
+                continue;
+            }
+
+            int next = i + 1;
+            if (hedgePolicy.isEnabled() && failure == null && next < candidates.size()) {
+                return new HedgedSend(dto, candidates, start).start(i, provider, breaker);
+            }
+
+            CompletableFuture<EmailResponseDto> sent;
+            try {
+                sent = sendRequestAsync(provider, breaker, buildMailRequest(provider, dto), null);
+            } catch (Exception e) {
+                CompletableFuture<EmailResponseDto> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+
+            return sent.handle((response, error) -> {
+                if (error == null) {
+                    stageMetrics.record(MailStage.TOTAL, provider, response.getStatus() == DeliveryStatus.SENT, System.nanoTime() - start);
+                    return CompletableFuture.completedFuture(response);
+                }
+                Throwable cause = unwrap(error);
+                if (!(cause instanceof ProviderUnavailableException)) {
+                    throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                }
+
+                logger.warn(cause.getMessage() + ", trying the next provider");
+                return attemptAsync(dto, candidates, next, (ProviderUnavailableException) cause, start);
+            }).thenCompose(response -> response);
+        }
+
+        if (failure != null) {
+            CompletableFuture<EmailResponseDto> failed = new CompletableFuture<>();
+            failed.completeExceptionally(failure);
+            return failed;
+        }
+        stageMetrics.record(MailStage.TOTAL, StageMetrics.NO_PROVIDER, false, System.nanoTime() - start);
+        return CompletableFuture.completedFuture(noProviderResponse());
+    }
+
+    @Override
+    public BatchEmailResponseDto sendBatch(List<MailMessageDto> messages) throws Exception {
+        for (MailMessageDto dto : messages) {
+            if (validate(dto).size() > 0) {
+                logger.error("Bad Request, throwing Exception!!");
+                throw new RuntimeException();
+            }
+        }
+        // The messages are grouped on their text, so the templates have to be rendered first
+        for (MailMessageDto dto : messages) {
+            templateEngine.apply(dto);
+        }
+
+        long start = System.nanoTime();
+        EmailResponseDto[] results = new EmailResponseDto[messages.size()];
+        int providerCalls = 0;
+        RetryPolicy.Backoff backoff = retryPolicy.newBackoff();
+        // The messages no provider has taken yet, like a single email they fail over to the next candidate of the route
+        List<Integer> pending = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            pending.add(i);
+        }
+        while (!pending.isEmpty()) {
+            long routeStart = System.nanoTime();
+            RoutingDecision route = providerRouter.route();
+            stageMetrics.record(MailStage.ROUTING, StageMetrics.NO_PROVIDER, route != null, System.nanoTime() - routeStart);
+
+            ProviderUnavailableException failure = null;
+            String attempted = StageMetrics.NO_PROVIDER;
+            if (route != null) {
+                for (String provider : route.getCandidates()) {
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+
+                    // Group the compatible messages so every provider call carries as many of them as possible
+                    List<Integer> unsent = new ArrayList<>();
+                    for (List<Integer> group : plan(provider, messages, pending)) {
+                        CircuitBreaker breaker = acquire(provider);
+                        if (breaker == null) {
+                            unsent.addAll(group);
+                            continue;
+                        }
+
+                        attempted = provider;
+                        providerCalls++;
+                        try {
+                            EmailResponseDto response = sendRequest(provider, breaker, buildBatchRequest(provider, messages, group));
+                            if (response.getStatus() == DeliveryStatus.SENT) {
+                                retryPolicy.onSuccess();
+                            }
+                            stageMetrics.record(MailStage.TOTAL, provider, response.getStatus() == DeliveryStatus.SENT, System.nanoTime() - start);
+                            for (Integer index : group) {
+                                results[index] = response;
+                            }
+                        } catch (ProviderUnavailableException e) {
+                            logger.warn(e.getMessage() + ", trying the next provider");
+                            failure = e;
+                            unsent.addAll(group);
+                        }
+                    }
+                    Collections.sort(unsent);
+                    pending = unsent;
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                long delayMs = failure == null ? -1 : backoff.nextDelayMs(failure.getRetryAfterMs());
+                if (delayMs < 0) {
+                    EmailResponseDto response = StageMetrics.NO_PROVIDER.equals(attempted)
+                            ? noProviderResponse()
+                            : new EmailResponseDto(DeliveryStatus.FAILED, "Sorry, Your email has not been sent!!", new Date().getTime());
+                    stageMetrics.record(MailStage.TOTAL, attempted, false, System.nanoTime() - start);
+                    for (Integer index : pending) {
+                        results[index] = response;
+                    }
+                    pending = Collections.emptyList();
+                } else {
+                    logger.warn(pending.size() + " emails of the batch could not be sent to any provider, retrying in " + delayMs + " ms");
+                    retryPolicy.delay(delayMs).get();
+                }
+            }
         }
-        reader.close();
 
-        if (errorStream) {
-            // Tell the user that their email has been put into the queue
-        	//TODO: Save the pending email to the queue/database for future and and re-attempt 
-            return new EmailResponseDto("Sorry, Your email has not been sent!!", new Date().getTime());
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].getStatus() == DeliveryStatus.FAILED && mailOutbox.isEnabled()) {
+                try {
+                    mailOutbox.add(messages.get(i));
+                    results[i] = new EmailResponseDto(DeliveryStatus.QUEUED, "Your email has not been sent yet, it has been put into the queue and will be re-attempted", new Date().getTime());
+                } catch (IOException e) {
+                    logger.error("Could not save the email to the outbox - " + e.getMessage());
+                }
+            }
         }
 
-        return new EmailResponseDto(responseMsg, new Date().getTime());
+        return new BatchEmailResponseDto(messages.size(), providerCalls, results);
     }
 
     /**
-     * Establishes a http connection and then send the mail data
+     * Plans the provider calls for the messages of a batch that haven't been sent yet, the groups depend on the provider
      *
-     * @param dto Mail message from the client
-     * @return Http connection
-     * @throws Exception If an exception occurs
+     * @param provider Provider the messages are sent to
+     * @param messages Messages of the batch
+     * @param pending  Indexes of the messages still to be sent, in order
+     * @return Indexes of the messages for each provider call
      */
-    private HttpURLConnection connectAndSendData(MailMessageDto dto) throws Exception {
-        // Construct the mail data
-        byte[] data = buildMailData(dto);
-        // Build the connection
-        HttpURLConnection conn = buildConn(String.valueOf(data.length));
-        // Let's write the request data
-        writeToOutputStream(conn, data);
+    private List<List<Integer>> plan(String provider, List<MailMessageDto> messages, List<Integer> pending) {
+        List<MailMessageDto> unsent = new ArrayList<>(pending.size());
+        for (Integer index : pending) {
+            unsent.add(messages.get(index));
+        }
 
-        return conn;
+        List<List<Integer>> groups = new ArrayList<>();
+        for (List<Integer> planned : BatchPlanner.plan(unsent, batchConfig.getMaxRecipientsPerCall(), providers.get(provider).isPerRecipientBatch())) {
+            List<Integer> group = new ArrayList<>(planned.size());
+            for (Integer index : planned) {
+                group.add(pending.get(index));
+            }
+            groups.add(group);
+        }
+        return groups;
     }
 
     /**
-     * A helper method to write the data to the output stream
+     * Takes a call from the send rate of the provider and a permit from its circuit breaker. A provider over its send
+     * rate is skipped like an open one. The quota is checked first so no trial call of the breaker is lost, and the
+     * call is given back if the breaker refuses so it doesn't count against the quota.
      *
-     * @param conn Http connection
-     * @param data Data
-     * @throws IOException If an exception occurs
+     * @param provider Provider of the route
+     * @return Circuit breaker of the provider, null if the provider can't be called now
      */
-    private void writeToOutputStream(HttpURLConnection conn, byte[] data) throws IOException {
-        OutputStream os = conn.getOutputStream();
-        os.write(data);
-        os.close();
+    private CircuitBreaker acquire(String provider) {
+        if (!rateLimiter.tryAcquireProvider(provider)) {
+            logger.warn("The send rate of " + provider + " has been reached, trying the next provider");
+            return null;
+        }
+        CircuitBreaker breaker = circuitBreakers.get(provider);
+        if (!breaker.tryAcquire()) {
+            rateLimiter.releaseProvider(provider);
+            return null;
+        }
+        return breaker;
+    }
+
+    private EmailResponseDto noProviderResponse() {
+        String reason = "Can't reach to any mail providers!!";
+        logger.warn(reason);
+
+        //TODO: Send a notification to someone if it failed to connect to both providers
+        return new EmailResponseDto(DeliveryStatus.FAILED, "Your email has not been sent due to the reason : " + reason, new Date().getTime());
     }
 
     /**
-     * This method goes through 'to', 'cc' and 'bcc' arrays and make sure there are no duplicates in the list
+     * Sends a request to the selected provider, follows a single redirect and turns the provider response into our response.
+     * The outcome is recorded on the circuit breaker of the provider.
      *
-     * @param errors List of errors
-     * @param dto    Mail message from the client
+     * @param provider Provider chosen by the router
+     * @param breaker  Circuit breaker of the provider, the request must have been permitted by it
+     * @param request  Provider request
+     * @return Response to be sent back to the caller
+     * @throws ProviderUnavailableException If the provider couldn't be reached, throttled the email or failed with a server error
+     * @throws Exception                    If the request to the provider cannot be built
      */
-    private void checkDuplicateRecipients(List<String> errors, MailMessageDto dto) {
-        Set<String> toSet = new HashSet<>();
-        Set<String> ccSet = new HashSet<>();
-        Set<String> bccSet = new HashSet<>();
-
-        Set<String> duplicates = new HashSet<>();
-        for (String to : dto.getTo()) {
-            if (toSet.contains(to)) {
-                duplicates.add(to);
+    private EmailResponseDto sendRequest(String provider, CircuitBreaker breaker, MailRequest request) throws Exception {
+        long start = System.nanoTime();
+        TransportResponse response;
+        try {
+            TransportRequest transportRequest = buildTransportRequest(provider, request);
+            response = connectAndSendData(transportRequest);
+
+            if (ResolvedEndpointCache.isRedirect(response.getStatusCode())) {
+                TransportRequest redirect = followRedirect(transportRequest, response);
+                long redirectStart = System.nanoTime();
+                response = connectAndSendData(redirect);
+                stageMetrics.record(MailStage.REDIRECT, provider, response.getStatusCode() < HttpURLConnection.HTTP_BAD_REQUEST, System.nanoTime() - redirectStart);
             }
-            toSet.add(to);
+        } catch (IOException e) {
+            breaker.onFailure(elapsedMs(start));
+            throw new ProviderUnavailableException(provider, "Could not send the email to " + provider, e);
         }
 
-        for (String cc : dto.getCc()) {
-            if (toSet.contains(cc) || ccSet.contains(cc)) {
-                duplicates.add(cc);
+        return toEmailResponse(provider, breaker, start, response);
+    }
+
+    /**
+     * The non-blocking version of sendRequest, the future completes on the event loop of the transport
+     *
+     * @param provider     Provider chosen by the router
+     * @param breaker      Circuit breaker of the provider, the request must have been permitted by it
+     * @param request      Provider request
+     * @param cancellation Cancels the request while it is in flight, null if it can't be cancelled
+     * @return Response to be sent back to the caller, completed exceptionally with a ProviderUnavailableException
+     * if the provider couldn't be reached, throttled the email or failed with a server error
+     */
+    private CompletableFuture<EmailResponseDto> sendRequestAsync(String provider, CircuitBreaker breaker, MailRequest request, Cancellation cancellation) {
+        long start = System.nanoTime();
+        TransportRequest transportRequest;
+        CompletableFuture<TransportResponse> exchange;
+        try {
+            transportRequest = buildTransportRequest(provider, request);
+            exchange = mailTransport.sendAsync(transportRequest);
+        } catch (Exception e) {
+            transportRequest = null;
+            exchange = new CompletableFuture<>();
+            exchange.completeExceptionally(e);
+        }
+
+        TransportRequest sent = transportRequest;
+        return Cancellation.track(cancellation, exchange).thenCompose(response -> {
+            if (!ResolvedEndpointCache.isRedirect(response.getStatusCode())) {
+                return CompletableFuture.completedFuture(response);
+            }
+
+            TransportRequest redirect;
+            try {
+                redirect = followRedirect(sent, response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            long redirectStart = System.nanoTime();
+            return Cancellation.track(cancellation, mailTransport.sendAsync(redirect)).whenComplete((redirected, error) -> stageMetrics.record(MailStage.REDIRECT, provider,
+                    redirected != null && redirected.getStatusCode() < HttpURLConnection.HTTP_BAD_REQUEST, System.nanoTime() - redirectStart));
+        }).handle((response, error) -> {
+            try {
+                if (error != null && cancellation != null && cancellation.isCancelled()) {
+                    // The other request of the hedge answered first, this one doesn't say anything about the provider
+                    breaker.onCancelled();
+                    hedgePolicy.recordLatency(provider, elapsedMs(start));
+                    throw new CancellationException("The request to " + provider + " has been cancelled");
+                }
+                if (error != null) {
+                    breaker.onFailure(elapsedMs(start));
+                    throw new ProviderUnavailableException(provider, "Could not send the email to " + provider, unwrap(error));
+                }
+                return toEmailResponse(provider, breaker, start, response);
+            } catch (ProviderUnavailableException e) {
+                throw new CompletionException(e);
             }
-            ccSet.add(cc);
+        });
+    }
+
+    /**
+     * Caches the url the provider redirected to, the following requests go there until the redirect expires
+     *
+     * @param request  Request that has been redirected
+     * @param response Redirect of the provider
+     * @return The same request sent to the redirected url, its encoded body is sent again as it is
+     * @throws IOException If the redirect has no valid Location
+     */
+    private TransportRequest followRedirect(TransportRequest request, TransportResponse response) throws IOException {
+        String provider = request.getProvider();
+        String url = endpoints.onRedirect(provider, request.getUrl(), response.getStatusCode(), response.getHeader("Location"), response.getHeader("Cache-Control"));
+        if (url == null) {
+            throw new IOException("The mail provider " + provider + " redirected with an invalid Location - " + response.getHeader("Location"));
         }
+        logger.warn("The mail provider " + provider + " redirected with " + response.getStatusCode() + " to " + url + ", please check the url in the config");
+
+        return request.withUrl(url);
+    }
 
-        for (String bcc : dto.getBcc()) {
-            if (toSet.contains(bcc) || ccSet.contains(bcc) || bccSet.contains(bcc)) {
-                duplicates.add(bcc);
+    /**
+     * Turns the provider response into our response and records the outcome on the circuit breaker of the provider
+     *
+     * @param provider Provider the request was sent to
+     * @param breaker  Circuit breaker of the provider
+     * @param start    Time the request was sent at
+     * @param response Response of the provider
+     * @return Response to be sent back to the caller
+     * @throws ProviderUnavailableException If the provider throttled the email or failed with a server error
+     */
+    private EmailResponseDto toEmailResponse(String provider, CircuitBreaker breaker, long start, TransportResponse response) throws ProviderUnavailableException {
+        int responseCode = response.getStatusCode();
+        long latencyMs = elapsedMs(start);
+        providerRouter.recordLatency(provider, latencyMs);
+        hedgePolicy.recordLatency(provider, latencyMs);
+        if (ResolvedEndpointCache.isRedirect(responseCode)) {
+            // Only a single redirect is followed, a chain of them is a broken provider url
+            breaker.onFailure(latencyMs);
+            throw new ProviderUnavailableException(provider, "The mail provider " + provider + " redirected the email again to " + response.getHeader("Location"), -1);
+        }
+        ResponseClass responseClass = ResponseClass.of(responseCode);
+        if (responseClass == ResponseClass.TRANSIENT) {
+            // A throttled provider is up, only its server errors count against the breaker
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.onFailure(latencyMs);
+            } else {
+                breaker.onSuccess(latencyMs);
             }
-            bccSet.add(bcc);
+            throw new ProviderUnavailableException(provider, "The mail provider " + provider + " failed with " + responseCode + " - " + response.getBodyAsString(),
+                    retryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
+        }
+        breaker.onSuccess(latencyMs);
+
+        // Handle normal and error response
+        String responseMsg = "Yayy, Your email has been sent!!";
+        if (responseClass == ResponseClass.PERMANENT) {
+            logger.warn("The mail provider rejected the email with " + responseCode + " - " + response.getBodyAsString());
+            EmailResponseDto rejected = new EmailResponseDto(DeliveryStatus.REJECTED, "Sorry, Your email has been rejected by the mail provider!!", new Date().getTime());
+            rejected.setProvider(provider);
+            return rejected;
+        }
+
+        // The bounces and events of the provider refer to its own id of the email
+        EmailResponseDto sent = new EmailResponseDto(DeliveryStatus.SENT, responseMsg, new Date().getTime());
+        sent.setProvider(provider);
+        sent.setProviderMessageId(providers.get(provider).parseMessageId(response));
+        return sent;
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Sends the mail data to the selected provider through the mail transport
+     *
+     * @param request Transport request carrying the mail data
+     * @return Response of the provider
+     * @throws IOException If the provider couldn't be reached
+     */
+    private TransportResponse connectAndSendData(TransportRequest request) throws IOException {
+        // Let the transport send the request over a pooled connection
+        try {
+            return mailTransport.send(request);
+        } catch (IOException e) {
+            logger.error("Could not connect to the mail provider " + request.getProvider() + " - " + e.getMessage());
+            throw new IOException("Could not connect to the mail provider, failed during sending the request", e);
+        }
+    }
+
+    /**
+     * @param provider    Provider chosen by the router
+     * @param mailRequest Provider request
+     * @return Transport request carrying the mail data, sent to the url the provider is resolved to
+     * @throws Exception If the mail data cannot be built
+     */
+    private TransportRequest buildTransportRequest(String provider, MailRequest mailRequest) throws Exception {
+        TransportBody data;
+        if (!mailRequest.getAttachments().isEmpty()
+                || (mailRequest.getText() != null && mailRequest.getText().length() >= transportConfig.getStreamThresholdBytes())) {
+            // Large mails and attachments are encoded while they are sent, the payload time is then part of the write stage
+            data = TransportBody.chunked(mailRequest::writeTo);
+        } else {
+            // Construct the mail data
+            long start = System.nanoTime();
+            data = TransportBody.of(mailRequest.getBody());
+            stageMetrics.record(MailStage.PAYLOAD, provider, true, System.nanoTime() - start);
         }
+
+        MailProvider mailProvider = providers.get(provider);
+        return mailProvider.buildTransportRequest(endpoints.resolve(provider, mailProvider.getUrl()), data, mailRequest.getContentType(), credentials.getAuthorization(provider));
+    }
+
+    /**
+     * This method goes through 'to', 'cc' and 'bcc' arrays and make sure there are no duplicates in the list,
+     * the addresses are compared case insensitively as configured in mail.validation
+     *
+     * @param errors List of errors
+     * @param dto    Mail message from the client
+     */
+    void checkDuplicateRecipients(List<String> errors, MailMessageDto dto) {
+        List<String> duplicates = duplicateRecipients.find(dto.getTo(), dto.getCc(), dto.getBcc());
         if (duplicates.size() > 0) {
             errors.add(String.format("Email address in to, cc and bcc should be unique - %s", StringUtils.join(duplicates, ",")));
         }
@@ -191,7 +795,8 @@ public class EmailServiceImpl implements EmailService {
      * @param dto Mail message from the client
      * @return List of errors
      */
-    private List<String> validate(MailMessageDto dto) {
+    @Override
+    public List<String> validate(MailMessageDto dto) {
         List<String> errors = new ArrayList<>();
 
         // Mandatory check - the from and to email need to exist
@@ -207,8 +812,17 @@ public class EmailServiceImpl implements EmailService {
             return errors;
         }
 
+        // The template has to exist, its text is rendered when the email is sent
+        if (dto.getTemplateId() != null && !templateEngine.exists(dto.getTemplateId())) {
+            errors.add("Unknown template - " + dto.getTemplateId());
+        }
+
+        // Recipient count check, the providers limit the number of recipients of a single call
+        checkRecipientCount(errors, dto.getTo(), "to");
+        checkRecipientCount(errors, dto.getCc(), "cc");
+        checkRecipientCount(errors, dto.getBcc(), "bcc");
+
         // Email address format check
-        EmailValidator emailValidator = EmailValidator.getInstance();
         checkEmailFormat(errors, emailValidator, 
         		new String[]{ dto.getFrom()	},
         		"from");
@@ -223,6 +837,17 @@ public class EmailServiceImpl implements EmailService {
         return errors;
     }
 
+    /**
+     * @param errors List of errors
+     * @param emails An array of emails
+     * @param type   To | Cc | Bcc
+     */
+    private void checkRecipientCount(List<String> errors, String[] emails, String type) {
+        if (emails.length > validationConfig.getMaxRecipientsPerField()) {
+            errors.add(String.format("'%s' can not contain more than %d recipients", type, validationConfig.getMaxRecipientsPerField()));
+        }
+    }
+
     /**
      * A helper method to validate if the email address is in a good format
      *
@@ -231,7 +856,7 @@ public class EmailServiceImpl implements EmailService {
      * @param emails    An array of emails
      * @param type      To | Cc | Bcc
      */
-    private void checkEmailFormat(List<String> errors, EmailValidator validator, String[] emails, String type) {
+    void checkEmailFormat(List<String> errors, EmailAddressValidator validator, String[] emails, String type) {
         for (String email : emails) {
             if (!validator.isValid(email)) {
                 errors.add(String.format("'%s' email is invalid - %s", type, email));
@@ -240,147 +865,207 @@ public class EmailServiceImpl implements EmailService {
     }
 
     /**
-     * Constructs the request body for provider based on the 'useSecondMailOnFailover' flag
+     * Constructs the request in the format of the provider
      *
-     * @param dto Mail message from the client
-     * @return Data in byte array
-     * @throws Exception If an exception occurs
+     * @param provider Provider chosen by the router
+     * @param dto      Mail message from the client
+     * @return Provider request
+     * @throws IOException If a spooled attachment can't be found
      */
-    private byte[] buildMailData(MailMessageDto dto) throws Exception {
-        byte[] data;
-
-        MailRequest request;
-        if (!useSecondMailOnFailover) {
-            request = new SendGridRequest.Builder(dto.getFrom(), dto.getTo(), dto.getSubject(), dto.getText())
-                    .cc(dto.getCc())
-                    .bcc(dto.getBcc())
-                    .type(dto.getType())
-                    .build();
-        } else {
-            request = new MailGunRequest.Builder(dto.getFrom(), dto.getTo(), dto.getSubject(), dto.getText())
-                    .cc(dto.getCc())
-                    .bcc(dto.getBcc())
-                    .type(dto.getType())
-                    .build();
-        }
-        data = request.getData().getBytes();
+    private MailRequest buildMailRequest(String provider, MailMessageDto dto) throws IOException {
+        return buildMailRequest(provider, dto, Collections.emptyMap());
+    }
 
-        return data;
+    private MailRequest buildMailRequest(String provider, MailMessageDto dto, Map<String, String> headers) throws IOException {
+        return providers.get(provider).buildMailRequest(dto, attachmentStore.open(dto), headers);
     }
 
     /**
-     * Builds a Http connection by using SendGrid when 'useSecondMailOnFailover' is false and using MailGun when 'useSecondMailOnFailover' is true
+     * Constructs a single provider request for a group of compatible messages, every message becomes a SendGrid
+     * personalization or a MailGun batch recipient
      *
-     * @param dataLength Length of the content
-     * @return Http connection for SendGrid or MailGun
-     * @throws Exception When a connection to the server cannot be established
+     * @param provider Provider chosen by the router
+     * @param messages Messages of the batch
+     * @param group    Indexes of the messages sent together
+     * @return Provider request
+     * @throws IOException If a spooled attachment can't be found
      */
-    private HttpURLConnection buildConn(String dataLength) throws IOException {
-        HttpURLConnection conn;
-        try {
-            if (!useSecondMailOnFailover) {
-                conn = buildSendGridConn(dataLength);
-            } else {
-                conn = buildMailGunConn(dataLength);
-            }
-        } catch (IOException e) {
-            logger.error("Could not connect to the mail provider, failed during building connection");
-            throw new IOException("Could not connect to the mail provider, failed during building connection");
+    private MailRequest buildBatchRequest(String provider, List<MailMessageDto> messages, List<Integer> group) throws IOException {
+        if (group.size() == 1) {
+            return buildMailRequest(provider, messages.get(group.get(0)));
         }
 
-        return conn;
+        return providers.get(provider).buildBatchRequest(messages, group);
     }
 
     /**
-     * This method creates a Http connection for SendGrid provider
-     *
-     * @param dataLength Length of the content
-     * @return Http connection for SendGrid
-     * @throws IOException When a connection to the server cannot be established
+     * A send raced between the primary provider and, once the primary is late, the next available candidate. The first
+     * answer is returned and the other request is cancelled, the failover goes on past both if neither could send it.
      */
-    private HttpURLConnection buildSendGridConn(String dataLength) throws IOException {
-        HttpURLConnection conn = null;
+    private final class HedgedSend {
+        private final MailMessageDto dto;
+        private final List<String> candidates;
+        private final long start;
+        private final Map<String, String> headers;
+        private final CompletableFuture<EmailResponseDto> result = new CompletableFuture<>();
+        private final Cancellation primary = new Cancellation();
+        private final Cancellation hedge = new Cancellation();
+        // Guarded by this
+        private int primaryIndex;
+        private int hedgeIndex = -1;
+        private int pending;
+        private boolean decided;
+        private ScheduledFuture<?> timer;
 
-        try {
-            String urlStr = sendGridHttpConfig.getRedirectUrl() == null ? sendGridHttpConfig.getUrl() : sendGridHttpConfig.getRedirectUrl();
-            URL url = new URL(urlStr);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(CONNECT_TIMEOUT);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod(sendGridHttpConfig.getRequestMethod());
-
-            conn.setRequestProperty("Content-Type", sendGridHttpConfig.getContentType());
-            conn.setRequestProperty("Content-Length", dataLength);
-            conn.setRequestProperty("Accept", sendGridHttpConfig.getAcceptType());
-            conn.setRequestProperty("Authorization", "Bearer " + sendGridHttpConfig.getKey());
-
-            conn.setDoOutput(true);
-            conn.setDoInput(true);
-        } catch (IOException e) {
-            logger.error("Could not connect to the first mail(SendGrid) provider");
+        HedgedSend(MailMessageDto dto, List<String> candidates, long start) {
+            this.dto = dto;
+            this.candidates = candidates;
+            this.start = start;
+            this.headers = Collections.singletonMap(HEDGE_ID_HEADER, UUID.randomUUID().toString());
         }
 
-        return conn;
-    }
+        /**
+         * @param index    Index of the primary provider in the candidates
+         * @param provider Primary provider
+         * @param breaker  Circuit breaker of the primary provider, the request must have been permitted by it
+         * @return Response of the provider that answered first
+         */
+        CompletableFuture<EmailResponseDto> start(int index, String provider, CircuitBreaker breaker) {
+            synchronized (this) {
+                primaryIndex = index;
+                pending = 1;
+            }
+            send(provider, breaker, primary, false);
+            synchronized (this) {
+                if (!decided) {
+                    timer = hedgePolicy.schedule(provider, this::hedge);
+                }
+            }
 
-    /**
-     * This method creates a Http connection for MailGun provider
-     *
-     * @param dataLength Length of the content
-     * @return Http connection for MailGun
-     * @throws IOException When a connection to the server cannot be established
-     */
-    private HttpURLConnection buildMailGunConn(String dataLength) throws IOException {
-        HttpURLConnection conn = null;
+            return result;
+        }
 
-        try {
-            String urlStr = mailGunHttpConfig.getRedirectUrl() == null ? mailGunHttpConfig.getUrl() : mailGunHttpConfig.getRedirectUrl();
-            URL url = new URL(urlStr);
-            conn = (HttpURLConnection) url.openConnection();
-
-            // Set the user and password
-            Authenticator.setDefault(new Authenticator() {
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication("api", mailGunHttpConfig.getKey().toCharArray());
+        /**
+         * Sends the email to the next candidate that is available, if the budget allows another hedge
+         */
+        private void hedge() {
+            String provider = null;
+            CircuitBreaker breaker = null;
+            synchronized (this) {
+                if (decided || !hedgePolicy.tryAcquire()) {
+                    return;
+                }
+                for (int i = primaryIndex + 1; i < candidates.size() && provider == null; i++) {
+                    String candidate = candidates.get(i);
+                    breaker = acquire(candidate);
+                    if (breaker != null) {
+                        provider = candidate;
+                        hedgeIndex = i;
+                    }
                 }
-            });
+                if (provider == null) {
+                    hedgePolicy.release();
+                    return;
+                }
+                pending++;
+            }
 
-            conn.setConnectTimeout(CONNECT_TIMEOUT);
-            conn.setInstanceFollowRedirects(false);
+            send(provider, breaker, hedge, true);
+        }
 
-            conn.setRequestMethod(mailGunHttpConfig.getRequestMethod());
-            conn.setRequestProperty("Content-Type", mailGunHttpConfig.getContentType());
-            conn.setRequestProperty("Content-Length", dataLength);
+        private void send(String provider, CircuitBreaker breaker, Cancellation cancellation, boolean hedged) {
+            CompletableFuture<EmailResponseDto> sent;
+            try {
+                sent = sendRequestAsync(provider, breaker, buildMailRequest(provider, dto, headers), cancellation);
+            } catch (Exception e) {
+                breaker.onCancelled();
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(e);
+            }
 
-            conn.setDoOutput(true);
-            conn.setDoInput(true);
-        } catch (IOException e) {
-            logger.error("Could not connect to the second mail(MailGun) provider");
+            sent.whenComplete((response, error) -> onAnswer(provider, hedged, response, error));
         }
 
-        return conn;
+        private void onAnswer(String provider, boolean hedged, EmailResponseDto response, Throwable error) {
+            Throwable cause = error == null ? null : unwrap(error);
+            Cancellation loser = null;
+            int next;
+            synchronized (this) {
+                pending--;
+                if (decided) {
+                    if (response != null && response.getStatus() == DeliveryStatus.SENT) {
+                        // The loser had already been accepted when it was cancelled, the email has been delivered twice
+                        hedgePolicy.onDuplicate();
+                        logger.warn("The hedged email " + headers.get(HEDGE_ID_HEADER) + " has also been accepted by " + provider);
+                    }
+                    return;
+                }
+                if (cause != null && pending > 0) {
+                    // The other request can still answer
+                    logger.warn(cause.getMessage() + ", waiting for the other provider");
+                    return;
+                }
+
+                decided = true;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                if (cause == null) {
+                    if (hedged) {
+                        hedgePolicy.onHedgeWin();
+                    }
+                    loser = hedged ? primary : hedge;
+                }
+                next = Math.max(primaryIndex, hedgeIndex) + 1;
+            }
+
+            if (cause == null) {
+                loser.cancel();
+                stageMetrics.record(MailStage.TOTAL, provider, response.getStatus() == DeliveryStatus.SENT, System.nanoTime() - start);
+                result.complete(response);
+            } else if (!(cause instanceof ProviderUnavailableException)) {
+                result.completeExceptionally(cause);
+            } else {
+                logger.warn(cause.getMessage() + ", trying the next provider");
+                attemptAsync(dto, candidates, next, (ProviderUnavailableException) cause, start).whenComplete((failover, failoverError) -> {
+                    if (failoverError != null) {
+                        result.completeExceptionally(unwrap(failoverError));
+                    } else {
+                        result.complete(failover);
+                    }
+                });
+            }
+        }
     }
 
     /**
-     * To check if the server is responding
-     *
-     * @param targetUrl The server url
-     * @return True if the server returns HTTP_OK or False if the server cannot be reached
-     * @throws Exception When the server cannot be reached
+     * Aborts the exchange a request is waiting on, a redirected request is tracked on its second exchange
      */
-    private boolean healthCheck(String targetUrl) throws Exception {
-        try {
-            URL url = new URL(targetUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(3000);
-            conn.setReadTimeout(3000);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod("OPTIONS");
-
-            return conn.getResponseCode() == HttpURLConnection.HTTP_OK;
-        } catch (IOException e) {
-            logger.error("Couldn't establish a connection to " + e.getMessage());
-            return false;
+    private static final class Cancellation {
+        private volatile boolean cancelled;
+        private volatile Future<?> exchange;
+
+        static <T> CompletableFuture<T> track(Cancellation cancellation, CompletableFuture<T> exchange) {
+            if (cancellation != null) {
+                cancellation.exchange = exchange;
+                if (cancellation.cancelled) {
+                    exchange.cancel(true);
+                }
+            }
+
+            return exchange;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Future<?> current = exchange;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
         }
     }
 
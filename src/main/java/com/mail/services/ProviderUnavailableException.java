@@ -0,0 +1,37 @@
+package com.mail.services;
+
+/**
+ * Thrown when a provider can't take the email right now (connection error, timeout, throttling or server error), the
+ * email can be sent to another provider or retried later
+ */
+class ProviderUnavailableException extends Exception {
+
+    private final String provider;
+    private final long retryAfterMs;
+
+    ProviderUnavailableException(String provider, String message, long retryAfterMs) {
+        super(message);
+        this.provider = provider;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    ProviderUnavailableException(String provider, String message, Throwable cause) {
+        super(message, cause);
+        this.provider = provider;
+        this.retryAfterMs = -1;
+    }
+
+    /**
+     * @return Provider that couldn't take the email
+     */
+    String getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return Time the provider asked to wait before trying again, -1 if it didn't say
+     */
+    long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,11 @@
+package com.mail.services;
+
+/**
+ * Thrown when the non-blocking path already has as many emails in flight as it may hold
+ */
+public class SendCapacityExceededException extends RuntimeException {
+
+    public SendCapacityExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,103 @@
+package com.mail.services;
+
+import com.mail.config.TransportConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the blocking sends on virtual threads, a send waiting on the provider then parks its virtual thread instead of
+ * holding a request thread. The build targets Java 8 so the virtual threads are created through reflection, on an
+ * older JVM the executor stays disabled and the sends run on the request thread.
+ */
+@Component
+public class VirtualThreadExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+    private final ExecutorService executor;
+
+    @Autowired
+    public VirtualThreadExecutor(TransportConfiguration config) {
+        this(config.isVirtualThreads());
+    }
+
+    public VirtualThreadExecutor(boolean enabled) {
+        ExecutorService executor = null;
+        if (enabled) {
+            executor = newVirtualThreadPerTaskExecutor("mail-send-");
+            if (executor == null) {
+                logger.warn("Virtual threads need Java 21, the emails are sent on the request threads - running on " + System.getProperty("java.version"));
+            }
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * @return True if the sends run on virtual threads
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * Runs the task on a new virtual thread
+     *
+     * @param task Blocking task
+     * @param <T>  Type of the result
+     * @return Result of the task, completed exceptionally with the exception the task threw
+     * @throws RejectedExecutionException If the executor is disabled or shut down
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        if (executor == null) {
+            throw new RejectedExecutionException("Virtual threads are not enabled");
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory()) called through reflection
+     *
+     * @param prefix Prefix of the thread names, followed by a counter
+     * @return Executor starting a virtual thread per task, null if the JVM doesn't have virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create the virtual thread executor", e);
+        }
+    }
+}
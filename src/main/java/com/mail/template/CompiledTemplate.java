@@ -0,0 +1,132 @@
+package com.mail.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template parsed once into its literal text and the variables between them, rendering only appends the parts in order
+ * and never scans the template again. Variables are written as {{name}}, a missing variable renders as an empty string.
+ * The values put into an html template are escaped, a variable from the request can't add markup to the email.
+ */
+final class CompiledTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String type;
+    private final boolean html;
+    // literals[i] is followed by the value of names[i], the last literal closes the template
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+
+    private CompiledTemplate(String type, String[] literals, String[] names) {
+        this.type = type;
+        this.html = "text/html".equals(type);
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param type   Content type of the rendered text
+     * @param source Template text
+     * @return Compiled template, an opening {{ without its closing }} is kept as text
+     */
+    static CompiledTemplate compile(String type, String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf(OPEN, position);
+            int close = open < 0 ? -1 : source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                break;
+            }
+
+            literal.append(source, position, open);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(source.substring(open + OPEN.length(), close).trim());
+            position = close + CLOSE.length();
+        }
+        literal.append(source, position, source.length());
+        literals.add(literal.toString());
+
+        return new CompiledTemplate(type, literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]));
+    }
+
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @param variables Values of the variables
+     * @return Length of the rendered text before the html escaping, used to size the buffer up front
+     */
+    int length(Map<String, String> variables) {
+        int length = literalLength;
+        for (String name : names) {
+            String value = variables.get(name);
+            if (value != null) {
+                length += value.length();
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Appends the rendered text to the buffer
+     *
+     * @param variables Values of the variables
+     * @param out       Buffer the text is written to
+     */
+    void render(Map<String, String> variables, StringBuilder out) {
+        for (int i = 0; i < names.length; i++) {
+            out.append(literals[i]);
+            String value = variables.get(names[i]);
+            if (value == null) {
+                continue;
+            }
+            if (html) {
+                escape(value, out);
+            } else {
+                out.append(value);
+            }
+        }
+        out.append(literals[names.length]);
+    }
+
+    private static void escape(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&#39;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.mail.template;
+
+import com.mail.config.TemplateConfiguration;
+import com.mail.dto.MailMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Renders the email text from a template on the server, so the callers only send the template id and its variables.
+ * A template is read and compiled once and then kept in a bounded LRU cache, the least recently used one is evicted first.
+ * Templates are looked up as &lt;location&gt;&lt;id&gt;.html (sent as text/html) and then &lt;location&gt;&lt;id&gt;.txt (sent as text/plain).
+ */
+@Component
+public class TemplateEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateEngine.class);
+    // Keeps the id a plain file name so it can't point outside of the template location
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]+");
+    // Every thread renders into the same buffer, only the final text is allocated per email
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+    private final TemplateConfiguration config;
+    private final ResourceLoader resourceLoader;
+    private final Map<String, CompiledTemplate> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public TemplateEngine(TemplateConfiguration config, ResourceLoader resourceLoader) {
+        this.config = config;
+        this.resourceLoader = resourceLoader;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CompiledTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+                boolean evict = size() > config.getCacheSize();
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        });
+    }
+
+    /**
+     * @param templateId Template id
+     * @return True if the template can be found
+     */
+    public boolean exists(String templateId) {
+        try {
+            return get(templateId) != null;
+        } catch (IOException e) {
+            logger.error("Could not read the template " + templateId + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Renders the template of the message into its text and type, a message without a template is left as it is.
+     * The template id is cleared so a message that is sent again (from the outbox) isn't rendered twice.
+     *
+     * @param dto Mail message from the client
+     * @throws IOException If the template can't be found or read
+     */
+    public void apply(MailMessageDto dto) throws IOException {
+        if (dto.getTemplateId() == null) {
+            return;
+        }
+
+        CompiledTemplate template = get(dto.getTemplateId());
+        if (template == null) {
+            throw new IOException("Unknown template - " + dto.getTemplateId());
+        }
+        dto.setText(render(template, dto.getVariables()));
+        dto.setType(template.getType());
+        dto.setTemplateId(null);
+    }
+
+    /**
+     * @param template  Compiled template
+     * @param variables Values of the variables
+     * @return Rendered text
+     */
+    String render(CompiledTemplate template, Map<String, String> variables) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        buffer.ensureCapacity(template.length(variables));
+        template.render(variables, buffer);
+
+        return buffer.toString();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Compiled template from the cache, it is compiled on the first use. Null if there is no such template
+     */
+    CompiledTemplate get(String templateId) throws IOException {
+        if (templateId == null || !ID.matcher(templateId).matches()) {
+            return null;
+        }
+
+        CompiledTemplate template = cache.get(templateId);
+        if (template != null) {
+            hits.increment();
+            return template;
+        }
+
+        misses.increment();
+        template = load(templateId, ".html", "text/html");
+        if (template == null) {
+            template = load(templateId, ".txt", "text/plain");
+        }
+        if (template != null) {
+            // Two threads may compile the same template at the same time, both results are the same
+            cache.put(templateId, template);
+        }
+
+        return template;
+    }
+
+    private CompiledTemplate load(String templateId, String extension, String type) throws IOException {
+        Resource resource = resourceLoader.getResource(config.getLocation() + templateId + extension);
+        if (!resource.exists()) {
+            return null;
+        }
+
+        try (InputStream in = resource.getInputStream()) {
+            return CompiledTemplate.compile(type, StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+    }
+}
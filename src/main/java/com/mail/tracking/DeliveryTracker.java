@@ -0,0 +1,430 @@
+package com.mail.tracking;
+
+import com.mail.config.TrackingConfiguration;
+import com.mail.dto.BatchEmailResponseDto;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.provider.ProviderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Maps the id we gave an email to the provider that took it, the message id of that provider and the delivery status,
+ * so the bounces and events of the provider can be matched to the email long after the send. A status is 32 bytes in
+ * an open addressing table of longs and the message ids are appended to an arena, both allocated off the heap so tens
+ * of millions of statuses don't cost the garbage collector anything. The table and the arena start small and double as
+ * they fill, up to what max-entries needs. The statuses are kept in two generations like the idempotency records, once
+ * the current one is full the older one is dropped and a cleared spare takes its place. The dropped generation is
+ * zeroed outside the lock and becomes the next spare, so a rotation never blocks the lookups. The lookups share a read
+ * lock, only the puts take the write lock.
+ */
+@Component
+public class DeliveryTracker {
+
+    // msb, lsb, timestamp, id offset, id length, status and provider
+    private static final int SLOT_BYTES = 32;
+    private static final int MSB = 0;
+    private static final int LSB = 8;
+    private static final int TIMESTAMP = 16;
+    private static final int ID_OFFSET = 24;
+    private static final int ID_LENGTH = 28;
+    private static final int STATUS = 30;
+    private static final int PROVIDER = 31;
+    // A direct buffer is indexed by an int, 2^25 slots of 32 bytes is the largest table that fits
+    private static final int MAX_SLOTS = 1 << 25;
+    // 32 KB of table per generation until the first statuses come in
+    private static final int INITIAL_SLOTS = 1 << 10;
+    private static final DeliveryStatus[] STATUSES = DeliveryStatus.values();
+
+    private final boolean enabled;
+    private final int generationSize;
+    private final int maxSlots;
+    private final int maxArenaBytes;
+    private final int maxIdBytes;
+    private final String[] providers;
+    private final StampedLock lock = new StampedLock();
+    private Generation current;
+    private Generation previous;
+    // Cleared generation the next rotation switches to, null while the dropped one is still being cleared
+    private Generation spare;
+
+    @Autowired
+    public DeliveryTracker(TrackingConfiguration config, ProviderRegistry providers) {
+        this(config, providers.getNames());
+    }
+
+    public DeliveryTracker(TrackingConfiguration config, String... providers) {
+        this.enabled = config.isEnabled();
+        // The provider index is a byte, 0 is an email that didn't reach a provider
+        if (providers.length > 255) {
+            throw new IllegalArgumentException("At most 255 providers can be tracked, " + providers.length + " are registered");
+        }
+        this.providers = providers.clone();
+
+        int maxEntries = Math.max(2, config.getMaxEntries());
+        // The table is never more than half full so a miss only probes a few slots
+        this.maxSlots = (int) Math.min(MAX_SLOTS, Long.highestOneBit(maxEntries - 1L) << 1);
+        this.generationSize = Math.min(maxEntries / 2, maxSlots / 2);
+        this.maxArenaBytes = (int) Math.min(Integer.MAX_VALUE, (long) generationSize * Math.max(1, config.getAverageIdBytes()));
+        this.maxIdBytes = Math.min(Short.MAX_VALUE, maxArenaBytes);
+        if (enabled) {
+            this.current = new Generation(maxSlots, maxArenaBytes);
+            this.previous = new Generation(maxSlots, maxArenaBytes);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gives the email an id and remembers its status
+     *
+     * @param response Response of the send, its id is set if tracking is enabled
+     * @return The same response
+     */
+    public EmailResponseDto track(EmailResponseDto response) {
+        if (enabled) {
+            UUID id = UUID.randomUUID();
+            response.setId(id.toString());
+            put(id, response);
+        }
+        return response;
+    }
+
+    /**
+     * Gives every email of the batch its own id, the messages sent in the same provider call share their response
+     *
+     * @param batch Response of the batch, its results are replaced by copies with an id
+     * @return The same response
+     */
+    public BatchEmailResponseDto track(BatchEmailResponseDto batch) {
+        if (enabled) {
+            EmailResponseDto[] results = batch.getResults();
+            for (int i = 0; i < results.length; i++) {
+                EmailResponseDto result = new EmailResponseDto(results[i].getStatus(), results[i].getMessage(), results[i].getTimestamp());
+                result.setProvider(results[i].getProvider());
+                result.setProviderMessageId(results[i].getProviderMessageId());
+                results[i] = track(result);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Remembers the status of the email, the one remembered before is replaced
+     *
+     * @param id       Id we gave the email
+     * @param response Status, provider and message id of the provider
+     */
+    public void put(UUID id, EmailResponseDto response) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        if (!enabled || (msb == 0 && lsb == 0)) {
+            return;
+        }
+
+        byte[] providerMessageId = response.getProviderMessageId() == null ? null : response.getProviderMessageId().getBytes(StandardCharsets.UTF_8);
+        if (providerMessageId != null && providerMessageId.length > maxIdBytes) {
+            // Not an id any provider would give, it isn't worth its space
+            providerMessageId = null;
+        }
+
+        Generation dropped;
+        long stamp = lock.writeLock();
+        try {
+            dropped = write(msb, lsb, response, providerMessageId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if (dropped != null) {
+            // Zeroing millions of slots takes a while, nobody else can reach the dropped generation meanwhile
+            dropped.clear();
+            stamp = lock.writeLock();
+            try {
+                spare = dropped;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * @return Generation dropped by a rotation, to be cleared outside the lock. Null if there was no rotation
+     */
+    private Generation write(long msb, long lsb, EmailResponseDto response, byte[] providerMessageId) {
+        Generation dropped = null;
+        int slot = current.find(msb, lsb);
+        Generation generation = current;
+        if (slot < 0 && previous.size > 0) {
+            int older = previous.find(msb, lsb);
+            if (older >= 0) {
+                slot = older;
+                generation = previous;
+            }
+        }
+        if (slot < 0 || (providerMessageId != null && !generation.fits(providerMessageId.length))) {
+            if (current.size >= generationSize || (providerMessageId != null && !current.fits(providerMessageId.length))) {
+                dropped = rotate();
+            }
+            generation = current;
+            slot = current.insert(msb, lsb);
+        }
+
+        generation.write(slot, response.getTimestamp(), status(response.getStatus()), provider(response.getProvider()), providerMessageId);
+        return dropped;
+    }
+
+    /**
+     * @param id Id we gave the email
+     * @return Status, provider and message id of the provider, null if the id is unknown or has been forgotten
+     */
+    public EmailResponseDto get(String id) {
+        if (!enabled || id == null) {
+            return null;
+        }
+
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (msb == 0 && lsb == 0) {
+            return null;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            int slot = current.find(msb, lsb);
+            if (slot >= 0) {
+                return current.read(slot, id, providers);
+            }
+            slot = previous.find(msb, lsb);
+            return slot < 0 ? null : previous.read(slot, id, providers);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Number of statuses remembered
+     */
+    public int size() {
+        if (!enabled) {
+            return 0;
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        int size = current.size + previous.size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = current.size + previous.size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Bytes allocated off the heap for the tables and the arenas of the generations and the spare
+     */
+    public long getAllocatedBytes() {
+        if (!enabled) {
+            return 0;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return current.getAllocatedBytes() + previous.getAllocatedBytes() + (spare == null ? 0 : spare.getAllocatedBytes());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Number of statuses that can be remembered before the oldest ones are forgotten
+     */
+    public int getCapacity() {
+        return enabled ? generationSize * 2 : 0;
+    }
+
+    /**
+     * @return The older generation, it isn't reachable anymore once the lock is released
+     */
+    private Generation rotate() {
+        Generation dropped = previous;
+        previous = current;
+        // A new one only the first time, or if the rotations come faster than the clearing
+        current = spare != null ? spare : new Generation(maxSlots, maxArenaBytes);
+        spare = null;
+        return dropped;
+    }
+
+    private static byte status(DeliveryStatus status) {
+        return status == null ? 0 : (byte) (status.ordinal() + 1);
+    }
+
+    private byte provider(String provider) {
+        for (int i = 0; i < providers.length; i++) {
+            if (providers[i].equals(provider)) {
+                return (byte) (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    private static class Generation {
+        private final int maxSlots;
+        private final int maxArenaBytes;
+        private ByteBuffer table;
+        private ByteBuffer arena;
+        private int mask;
+        private int size;
+
+        Generation(int maxSlots, int maxArenaBytes) {
+            this.maxSlots = maxSlots;
+            this.maxArenaBytes = maxArenaBytes;
+            int slots = Math.min(INITIAL_SLOTS, maxSlots);
+            this.table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+            // The arena starts at the same share of its maximum as the table
+            this.arena = ByteBuffer.allocateDirect((int) ((long) maxArenaBytes * slots / maxSlots));
+            this.mask = slots - 1;
+        }
+
+        /**
+         * @return Offset of the slot of the id, -1 if it isn't in the table
+         */
+        int find(long msb, long lsb) {
+            for (int index = hash(msb, lsb) & mask; ; index = (index + 1) & mask) {
+                int offset = index * SLOT_BYTES;
+                long slotMsb = table.getLong(offset + MSB);
+                long slotLsb = table.getLong(offset + LSB);
+                if (slotMsb == msb && slotLsb == lsb) {
+                    return offset;
+                } else if (slotMsb == 0 && slotLsb == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * @return Offset of the free slot taken by the id, the table is never more than half full
+         */
+        int insert(long msb, long lsb) {
+            if (size >= (mask + 1) / 2 && mask + 1 < maxSlots) {
+                growTable();
+            }
+            int offset = free(msb, lsb);
+            table.putLong(offset + MSB, msb);
+            table.putLong(offset + LSB, lsb);
+            size++;
+            return offset;
+        }
+
+        /**
+         * @return True if the message id fits in the arena, grown up to its maximum if needed
+         */
+        boolean fits(int length) {
+            if (arena.remaining() >= length) {
+                return true;
+            }
+            long needed = (long) arena.position() + length;
+            if (needed > maxArenaBytes) {
+                return false;
+            }
+
+            // The ids keep their offset, they are copied to the start of the bigger arena
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(maxArenaBytes, Math.max(needed, 2L * arena.capacity())));
+            arena.flip();
+            grown.put(arena);
+            arena = grown;
+            return true;
+        }
+
+        long getAllocatedBytes() {
+            return (long) table.capacity() + arena.capacity();
+        }
+
+        void write(int offset, long timestamp, byte status, byte provider, byte[] providerMessageId) {
+            table.putLong(offset + TIMESTAMP, timestamp);
+            table.put(offset + STATUS, status);
+            if (provider != 0) {
+                table.put(offset + PROVIDER, provider);
+            }
+            // An update without a message id keeps the one the provider gave before
+            if (providerMessageId != null) {
+                table.putInt(offset + ID_OFFSET, arena.position());
+                table.putShort(offset + ID_LENGTH, (short) providerMessageId.length);
+                arena.put(providerMessageId);
+            }
+        }
+
+        EmailResponseDto read(int offset, String id, String[] providers) {
+            byte status = table.get(offset + STATUS);
+            EmailResponseDto response = new EmailResponseDto(id, status == 0 ? null : STATUSES[status - 1], null, table.getLong(offset + TIMESTAMP));
+            int provider = table.get(offset + PROVIDER) & 0xFF;
+            response.setProvider(provider == 0 ? null : providers[provider - 1]);
+            int length = table.getShort(offset + ID_LENGTH);
+            if (length > 0) {
+                byte[] providerMessageId = new byte[length];
+                ByteBuffer view = arena.duplicate();
+                view.position(table.getInt(offset + ID_OFFSET));
+                view.get(providerMessageId);
+                response.setProviderMessageId(new String(providerMessageId, StandardCharsets.UTF_8));
+            }
+            return response;
+        }
+
+        private void growTable() {
+            ByteBuffer old = table;
+            int slots = (mask + 1) * 2;
+            table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+            mask = slots - 1;
+            for (int from = 0; from < old.capacity(); from += SLOT_BYTES) {
+                long msb = old.getLong(from + MSB);
+                long lsb = old.getLong(from + LSB);
+                if (msb == 0 && lsb == 0) {
+                    continue;
+                }
+                int to = free(msb, lsb);
+                for (int i = 0; i < SLOT_BYTES; i += 8) {
+                    table.putLong(to + i, old.getLong(from + i));
+                }
+            }
+        }
+
+        private int free(long msb, long lsb) {
+            for (int index = hash(msb, lsb) & mask; ; index = (index + 1) & mask) {
+                int offset = index * SLOT_BYTES;
+                if (table.getLong(offset + MSB) == 0 && table.getLong(offset + LSB) == 0) {
+                    return offset;
+                }
+            }
+        }
+
+        void clear() {
+            for (int offset = 0; offset < table.capacity(); offset += 8) {
+                table.putLong(offset, 0);
+            }
+            arena.clear();
+            size = 0;
+        }
+
+        private static int hash(long msb, long lsb) {
+            // The random ids are already spread, the mix only guards against ids built from a counter
+            long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
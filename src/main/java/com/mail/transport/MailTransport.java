@@ -0,0 +1,39 @@
+package com.mail.transport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the provider requests over the wire, implementations are free to pool and reuse connections
+ */
+public interface MailTransport {
+
+    /**
+     * Sends the request to the provider and reads the whole response
+     *
+     * @param request Request to the provider
+     * @return Response of the provider
+     * @throws IOException When the provider cannot be reached or the response cannot be read
+     */
+    TransportResponse send(TransportRequest request) throws IOException;
+
+    /**
+     * Sends the request without holding the calling thread while the provider answers. The default sends it on the
+     * calling thread, an implementation with a non-blocking client completes the future on its event loop.
+     *
+     * @param request Request to the provider
+     * @return Response of the provider, completed exceptionally with an IOException when the provider cannot be reached.
+     * An implementation with a non-blocking client aborts the request when the future is cancelled.
+     */
+    default CompletableFuture<TransportResponse> sendAsync(TransportRequest request) {
+        CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+        try {
+            future.complete(send(request));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+}
@@ -0,0 +1,451 @@
+package com.mail.transport;
+
+import com.mail.config.TransportConfiguration;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.RedirectStrategy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mail transport backed by Apache HttpClient, every provider gets its own bounded pool of keep-alive connections
+ * so the sends reuse warm (already TLS negotiated) connections instead of opening a new one per message.
+ * The non-blocking sends go through a separate HttpAsyncClient per provider, its connections are multiplexed on a
+ * few event loop threads (mail.transport.io-threads) and no thread waits for the provider.
+ */
+@Component
+public class PooledMailTransport implements MailTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledMailTransport.class);
+    private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+    // The redirects are followed by the caller, which caches the redirected url of the provider
+    private static final RedirectStrategy NO_REDIRECTS = new RedirectStrategy() {
+        @Override
+        public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
+            return false;
+        }
+
+        @Override
+        public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
+            throw new ProtocolException("Redirects are not followed");
+        }
+    };
+    // The client calls back into the executor and the connection manager on the sending thread
+    private static final ThreadLocal<ExchangeTimer> timers = ThreadLocal.withInitial(ExchangeTimer::new);
+    private final TransportConfiguration config;
+    private final TransportObserver observer;
+    private final ConcurrentMap<String, ProviderPool> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CloseableHttpAsyncClient> asyncPools = new ConcurrentHashMap<>();
+
+    public PooledMailTransport(TransportConfiguration config) {
+        this(config, TransportObserver.NONE);
+    }
+
+    @Autowired
+    public PooledMailTransport(TransportConfiguration config, TransportObserver observer) {
+        this.config = config;
+        this.observer = observer;
+    }
+
+    @Override
+    public TransportResponse send(TransportRequest request) throws IOException {
+        ProviderPool pool = pools.computeIfAbsent(request.getProvider(), this::createPool);
+        pool.requests.increment();
+
+        // HttpClient waits for a free connection inside a synchronized block, which pins a virtual thread to its carrier.
+        // The senders wait on a semaphore of the pool size instead, so a connection is always free once they get in.
+        try {
+            if (!pool.leases.tryAcquire(config.getPoolWaitTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new ConnectionPoolTimeoutException("Timeout waiting for a connection to " + request.getProvider());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + request.getProvider());
+        }
+
+        ExchangeTimer timer = timers.get();
+        timer.reset();
+        boolean success = false;
+        try {
+            TransportResponse response = execute(pool, request, timer);
+            success = true;
+            return response;
+        } finally {
+            pool.leases.release();
+            observer.onExchange(request.getProvider(), success, timer.connectNanos, timer.writeNanos, timer.readNanos);
+        }
+    }
+
+    /**
+     * The exchange is timed as a whole and reported as the read stage, the event loop doesn't tell the stages apart.
+     * The event loop can only send a body held in memory, a body of unknown length is streamed over the blocking client
+     * on the calling thread instead.
+     */
+    @Override
+    public CompletableFuture<TransportResponse> sendAsync(TransportRequest request) {
+        if (request.getBody() != null && request.getBody().getLength() < 0) {
+            return MailTransport.super.sendAsync(request);
+        }
+
+        CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+        String provider = request.getProvider();
+        long start = System.nanoTime();
+        try {
+            CloseableHttpAsyncClient client = asyncPools.computeIfAbsent(provider, this::createAsyncPool);
+            Future<HttpResponse> exchange = client.execute(HttpAsyncMethods.create(toHttpRequest(request)), HttpAsyncMethods.createConsumer(), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        TransportResponse transportResponse = toTransportResponse(response);
+                        observer.onExchange(provider, true, 0, 0, System.nanoTime() - start);
+                        future.complete(transportResponse);
+                    } catch (IOException e) {
+                        failed(e);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    observer.onExchange(provider, false, 0, 0, System.nanoTime() - start);
+                    future.completeExceptionally(e instanceof IOException ? e : new IOException(e.getMessage(), e));
+                }
+
+                @Override
+                public void cancelled() {
+                    // Only the caller cancels an exchange, the provider didn't fail
+                    future.completeExceptionally(new IOException("The request to " + provider + " has been cancelled"));
+                }
+            });
+            // Cancelling the future aborts the exchange and closes its connection
+            future.whenComplete((response, error) -> {
+                if (future.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+        } catch (RuntimeException e) {
+            observer.onExchange(provider, false, 0, 0, System.nanoTime() - start);
+            future.completeExceptionally(new IOException("Could not send the request to " + provider + " - " + e.getMessage(), e));
+        }
+
+        return future;
+    }
+
+    private TransportResponse execute(ProviderPool pool, TransportRequest request, ExchangeTimer timer) throws IOException {
+        // Reading the whole entity and closing the response hands the connection back to the pool
+        try (CloseableHttpResponse response = pool.client.execute(toHttpRequest(request))) {
+            long readStart = System.nanoTime();
+            TransportResponse transportResponse = toTransportResponse(response);
+            timer.readNanos += System.nanoTime() - readStart;
+
+            return transportResponse;
+        }
+    }
+
+    private static HttpUriRequest toHttpRequest(TransportRequest request) {
+        RequestBuilder builder = RequestBuilder.create(request.getMethod()).setUri(request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.addHeader(header.getKey(), header.getValue());
+        }
+        if (request.getBody() != null) {
+            builder.setEntity(new BodyEntity(request.getBody()));
+        }
+
+        return builder.build();
+    }
+
+    private static TransportResponse toTransportResponse(HttpResponse response) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Header header : response.getAllHeaders()) {
+            headers.putIfAbsent(header.getName(), header.getValue());
+        }
+        byte[] body = response.getEntity() == null ? null : EntityUtils.toByteArray(response.getEntity());
+
+        return new TransportResponse(response.getStatusLine().getStatusCode(), headers, body);
+    }
+
+    /**
+     * @return Pool metrics of every provider that has been used so far
+     */
+    public List<TransportPoolMetrics> getPoolMetrics() {
+        List<TransportPoolMetrics> metrics = new ArrayList<>();
+        for (Map.Entry<String, ProviderPool> entry : pools.entrySet()) {
+            ProviderPool pool = entry.getValue();
+            PoolStats stats = pool.manager.getTotalStats();
+            metrics.add(new TransportPoolMetrics(entry.getKey(), stats.getLeased(), stats.getAvailable(), stats.getPending(),
+                    stats.getMax(), pool.requests.sum(), pool.connectionsOpened.sum()));
+        }
+
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (ProviderPool pool : pools.values()) {
+            try {
+                pool.client.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the connection pool - " + e.getMessage());
+            }
+        }
+        pools.clear();
+        for (CloseableHttpAsyncClient client : asyncPools.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the non-blocking connection pool - " + e.getMessage());
+            }
+        }
+        asyncPools.clear();
+    }
+
+    private ProviderPool createPool(String provider) {
+        LongAdder connectionsOpened = new LongAdder();
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, connectionConfig) -> {
+            connectionsOpened.increment();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, connectionConfig);
+        };
+
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                        .build(),
+                connectionFactory) {
+            @Override
+            public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    super.connect(managedConn, route, connectTimeout, context);
+                } finally {
+                    timers.get().connectNanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public void upgrade(HttpClientConnection managedConn, HttpRoute route, HttpContext context) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    super.upgrade(managedConn, route, context);
+                } finally {
+                    timers.get().connectNanos += System.nanoTime() - start;
+                }
+            }
+        };
+        manager.setMaxTotal(config.getMaxConnectionsPerProvider());
+        manager.setDefaultMaxPerRoute(config.getMaxConnectionsPerProvider());
+        // Idle connections may have been dropped by the provider, check them before they are reused
+        manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig())
+                .setKeepAliveStrategy(keepAliveStrategy())
+                .setRequestExecutor(new TimedRequestExecutor())
+                .evictExpiredConnections()
+                .evictIdleConnections(config.getIdleTimeoutMs(), TimeUnit.MILLISECONDS)
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .build();
+
+        logger.info("Created a connection pool of " + config.getMaxConnectionsPerProvider() + " connections for " + provider);
+        return new ProviderPool(client, manager, connectionsOpened, config.getMaxConnectionsPerProvider());
+    }
+
+    private CloseableHttpAsyncClient createAsyncPool(String provider) {
+        PoolingNHttpClientConnectionManager manager;
+        try {
+            manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                    .setIoThreadCount(config.getIoThreads())
+                    .setConnectTimeout(config.getConnectTimeoutMs())
+                    .setSoTimeout(config.getReadTimeoutMs())
+                    .build()));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start the event loop of " + provider, e);
+        }
+        manager.setMaxTotal(config.getMaxConnectionsPerProvider());
+        manager.setDefaultMaxPerRoute(config.getMaxConnectionsPerProvider());
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig())
+                .setKeepAliveStrategy(keepAliveStrategy())
+                .setRedirectStrategy(NO_REDIRECTS)
+                .disableCookieManagement()
+                .build();
+        client.start();
+
+        logger.info("Created a non-blocking connection pool of " + config.getMaxConnectionsPerProvider() + " connections on "
+                + config.getIoThreads() + " threads for " + provider);
+        return client;
+    }
+
+    private RequestConfig requestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMs())
+                .setSocketTimeout(config.getReadTimeoutMs())
+                .setConnectionRequestTimeout(config.getPoolWaitTimeoutMs())
+                .build();
+    }
+
+    /**
+     * @return Strategy that never keeps a connection longer than the idle timeout even if the provider allows it
+     */
+    private ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, config.getIdleTimeoutMs()) : config.getIdleTimeoutMs();
+        };
+    }
+
+    /**
+     * Times the request and response parts of an exchange, the connection is already open when it is called
+     */
+    private static class TimedRequestExecutor extends HttpRequestExecutor {
+
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+            long start = System.nanoTime();
+            try {
+                return super.doSendRequest(request, conn, context);
+            } finally {
+                timers.get().writeNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+            long start = System.nanoTime();
+            try {
+                return super.doReceiveResponse(request, conn, context);
+            } finally {
+                timers.get().readNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Entity that writes the body straight into the connection, a body without a known length goes out chunked
+     */
+    private static class BodyEntity extends AbstractHttpEntity {
+        private final TransportBody body;
+
+        BodyEntity(TransportBody body) {
+            this.body = body;
+            setChunked(body.getLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // Only used by the non-blocking client, which is only given bodies of a known length already built in memory
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            body.writeTo(out);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Stage timings of the exchange in progress on the thread, reused for every exchange
+     */
+    private static class ExchangeTimer {
+        private long connectNanos;
+        private long writeNanos;
+        private long readNanos;
+
+        void reset() {
+            connectNanos = 0;
+            writeNanos = 0;
+            readNanos = 0;
+        }
+    }
+
+    private static class ProviderPool {
+        private final CloseableHttpClient client;
+        private final PoolingHttpClientConnectionManager manager;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder connectionsOpened;
+        private final Semaphore leases;
+
+        ProviderPool(CloseableHttpClient client, PoolingHttpClientConnectionManager manager, LongAdder connectionsOpened, int maxConnections) {
+            this.client = client;
+            this.manager = manager;
+            this.connectionsOpened = connectionsOpened;
+            this.leases = new Semaphore(maxConnections);
+        }
+    }
+}
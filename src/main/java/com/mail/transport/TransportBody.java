@@ -0,0 +1,63 @@
+package com.mail.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Body of a request to a mail provider, it is written straight into the connection so large payloads never have to be held in memory
+ */
+public interface TransportBody {
+
+    /**
+     * @return Length of the body in bytes or -1 if it is not known up front, such bodies are sent with chunked transfer encoding
+     */
+    long getLength();
+
+    /**
+     * Writes the body, it can be called more than once if the request has to be sent again
+     *
+     * @param out Stream of the connection
+     * @throws IOException If the body can't be written
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @param bytes Body that has already been built
+     * @return Body with a known length
+     */
+    static TransportBody of(byte[] bytes) {
+        return new TransportBody() {
+            @Override
+            public long getLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        };
+    }
+
+    /**
+     * @param writer Writes the body while it is being sent
+     * @return Body of an unknown length
+     */
+    static TransportBody chunked(Writer writer) {
+        return new TransportBody() {
+            @Override
+            public long getLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                writer.writeTo(out);
+            }
+        };
+    }
+
+    interface Writer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
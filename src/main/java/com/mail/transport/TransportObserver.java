@@ -0,0 +1,19 @@
+package com.mail.transport;
+
+/**
+ * Gets the timings of every exchange with a provider, it is called on the sending thread so it has to be cheap
+ */
+public interface TransportObserver {
+
+    TransportObserver NONE = (provider, success, connectNanos, writeNanos, readNanos) -> {
+    };
+
+    /**
+     * @param provider     Provider name
+     * @param success      False if the exchange failed with an I/O error
+     * @param connectNanos Time spent opening a connection, 0 if a pooled connection was reused
+     * @param writeNanos   Time spent sending the request
+     * @param readNanos    Time spent waiting for and reading the response
+     */
+    void onExchange(String provider, boolean success, long connectNanos, long writeNanos, long readNanos);
+}
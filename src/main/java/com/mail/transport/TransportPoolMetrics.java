@@ -0,0 +1,61 @@
+package com.mail.transport;
+
+/**
+ * Snapshot of the connection pool of a single provider
+ */
+public class TransportPoolMetrics {
+    private final String provider;
+    private final int leased;
+    private final int available;
+    private final int pending;
+    private final int max;
+    private final long requests;
+    private final long connectionsOpened;
+
+    public TransportPoolMetrics(String provider, int leased, int available, int pending, int max, long requests, long connectionsOpened) {
+        this.provider = provider;
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+        this.requests = requests;
+        this.connectionsOpened = connectionsOpened;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return Connections currently in use
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return Idle keep-alive connections ready to be reused
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * @return Requests waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+}
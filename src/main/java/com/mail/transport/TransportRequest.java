@@ -0,0 +1,99 @@
+package com.mail.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request to a mail provider, to use this just call new TransportRequest.Builder(provider, url) and chain it with method(), header() and body() as needed
+ */
+public class TransportRequest {
+    private final String provider;
+    private final String url;
+    private final String method;
+    private final Map<String, String> headers;
+    private final TransportBody body;
+
+    TransportRequest(Builder builder) {
+        this.provider = builder.provider;
+        this.url = builder.url;
+        this.method = builder.method;
+        this.headers = Collections.unmodifiableMap(builder.headers);
+        this.body = builder.body;
+    }
+
+    private TransportRequest(TransportRequest request, String url) {
+        this.provider = request.provider;
+        this.url = url;
+        this.method = request.method;
+        this.headers = request.headers;
+        this.body = request.body;
+    }
+
+    /**
+     * @param url Url the request has been redirected to
+     * @return The same request sent to another url, the headers and the already encoded body are reused
+     */
+    public TransportRequest withUrl(String url) {
+        return new TransportRequest(this, url);
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public TransportBody getBody() {
+        return body;
+    }
+
+    public static class Builder {
+        private final String provider;
+        private final String url;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private String method = "POST";
+        private TransportBody body;
+
+        public Builder(String provider, String url) {
+            this.provider = provider;
+            this.url = url;
+        }
+
+        public Builder method(String method) {
+            this.method = method;
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            if (value != null) {
+                this.headers.put(name, value);
+            }
+            return this;
+        }
+
+        public Builder body(byte[] body) {
+            this.body = body == null ? null : TransportBody.of(body);
+            return this;
+        }
+
+        public Builder body(TransportBody body) {
+            this.body = body;
+            return this;
+        }
+
+        public TransportRequest build() {
+            return new TransportRequest(this);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.mail.validation;
+
+/**
+ * Hand written syntax check of the plain addresses that make up nearly all of the traffic, it walks the address once
+ * without allocating and gives the same verdict as Commons Validator's EmailValidator.getInstance().
+ * Addresses outside of the fast path (whitespace, quoted or escaped local parts, IP literals, non ASCII characters)
+ * are reported as UNDECIDED so the caller can hand them to EmailValidator.
+ */
+final class AddressSyntax {
+
+    static final int INVALID = 0;
+    static final int VALID = 1;
+    static final int UNDECIDED = -1;
+
+    private static final int MAX_LOCAL_LENGTH = 64;
+    private static final int MAX_DOMAIN_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+    // Printable ASCII characters that can't appear in an unquoted local part, the dot separates the words
+    private static final String SPECIALS = "()<>@,;:\\\".[]";
+    private static final boolean[] LOCAL = new boolean[128];
+
+    static {
+        for (char c = '!'; c <= '~'; c++) {
+            LOCAL[c] = SPECIALS.indexOf(c) < 0;
+        }
+    }
+
+    private AddressSyntax() {
+    }
+
+    /**
+     * @param address Email address
+     * @return VALID, INVALID or UNDECIDED if the address has to be checked by EmailValidator
+     */
+    static int check(String address) {
+        int length = address.length();
+        int at = -1;
+        for (int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+            if (c <= ' ' || c >= 0x7F || c == '"' || c == '\\') {
+                return UNDECIDED;
+            }
+            if (c == '@') {
+                at = i;
+            }
+        }
+
+        if (at <= 0 || at == length - 1 || address.charAt(length - 1) == '.') {
+            return INVALID;
+        }
+        if (address.charAt(at + 1) == '[') {
+            return UNDECIDED;
+        }
+
+        return isValidLocal(address, at) && isValidDomain(address, at + 1, length) ? VALID : INVALID;
+    }
+
+    /**
+     * Dot separated words of the allowed characters, the split is on the last @ so an earlier one makes it invalid
+     */
+    private static boolean isValidLocal(String address, int end) {
+        if (end > MAX_LOCAL_LENGTH) {
+            return false;
+        }
+
+        boolean wordStart = true;
+        for (int i = 0; i < end; i++) {
+            char c = address.charAt(i);
+            if (c == '.') {
+                if (wordStart) {
+                    return false;
+                }
+                wordStart = true;
+            } else if (LOCAL[c]) {
+                wordStart = false;
+            } else {
+                return false;
+            }
+        }
+
+        return !wordStart;
+    }
+
+    /**
+     * At least two labels of letters, digits and inner hyphens, the last one starts with a letter and is a known top level domain
+     */
+    private static boolean isValidDomain(String address, int start, int end) {
+        if (end - start > MAX_DOMAIN_LENGTH) {
+            return false;
+        }
+
+        int labels = 0;
+        int labelStart = start;
+        int tldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && address.charAt(i) != '.') {
+                continue;
+            }
+            if (!isValidLabel(address, labelStart, i)) {
+                return false;
+            }
+            labels++;
+            tldStart = labelStart;
+            labelStart = i + 1;
+        }
+
+        return labels >= 2 && isLetter(address.charAt(tldStart)) && TopLevelDomains.getInstance().contains(address, tldStart, end);
+    }
+
+    private static boolean isValidLabel(String address, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > MAX_LABEL_LENGTH || !isLetterOrDigit(address.charAt(start)) || !isLetterOrDigit(address.charAt(end - 1))) {
+            return false;
+        }
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = address.charAt(i);
+            if (c != '-' && !isLetterOrDigit(c)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
+    }
+}
@@ -0,0 +1,138 @@
+package com.mail.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the recipients that appear more than once in a message. The addresses are compared the way the providers do:
+ * the domain is case insensitive, the local part is case insensitive and "+tag" free if the policy says so. The
+ * addresses are hashed and compared in place in a single pass, no normalized copy of an address is created.
+ */
+public class DuplicateRecipients {
+
+    private final boolean lowercaseLocalPart;
+    private final boolean stripPlusTag;
+
+    /**
+     * @param lowercaseLocalPart True if Foo@example.com and foo@example.com are the same mailbox
+     * @param stripPlusTag       True if foo+news@example.com and foo@example.com are the same mailbox
+     */
+    public DuplicateRecipients(boolean lowercaseLocalPart, boolean stripPlusTag) {
+        this.lowercaseLocalPart = lowercaseLocalPart;
+        this.stripPlusTag = stripPlusTag;
+    }
+
+    /**
+     * @param fields Recipient fields of a message, to, cc and bcc, null addresses are skipped
+     * @return The addresses that repeat an earlier one in the order they appear, a mailbox is reported once
+     */
+    public List<String> find(String[]... fields) {
+        int total = 0;
+        for (String[] field : fields) {
+            total += field.length;
+        }
+        if (total < 2) {
+            return Collections.emptyList();
+        }
+
+        // The table holds the index + 1 of the first occurrence of every mailbox, negated once it has been reported
+        String[] addresses = new String[total];
+        int[] table = new int[Integer.highestOneBit(total * 2 - 1) << 1];
+        int mask = table.length - 1;
+        int index = 0;
+        List<String> duplicates = null;
+        for (String[] field : fields) {
+            for (String address : field) {
+                if (address == null) {
+                    continue;
+                }
+
+                int slot = hash(address) & mask;
+                int entry;
+                while ((entry = table[slot]) != 0 && !same(addresses[Math.abs(entry) - 1], address)) {
+                    slot = (slot + 1) & mask;
+                }
+
+                if (entry == 0) {
+                    addresses[index] = address;
+                    table[slot] = ++index;
+                } else if (entry > 0) {
+                    if (duplicates == null) {
+                        duplicates = new ArrayList<>();
+                    }
+                    duplicates.add(address);
+                    table[slot] = -entry;
+                }
+            }
+        }
+
+        return duplicates == null ? Collections.<String>emptyList() : duplicates;
+    }
+
+    private int hash(String address) {
+        int at = address.lastIndexOf('@');
+        int h = 0;
+        for (int i = 0, end = localEnd(address, at); i < end; i++) {
+            h = 31 * h + (lowercaseLocalPart ? Character.toLowerCase(address.charAt(i)) : address.charAt(i));
+        }
+        for (int i = at + 1; at >= 0 && i < address.length(); i++) {
+            h = 31 * h + Character.toLowerCase(address.charAt(i));
+        }
+
+        h = 31 * h + (at >= 0 ? '@' : 0);
+        return h ^ (h >>> 16);
+    }
+
+    private boolean same(String a, String b) {
+        int atA = a.lastIndexOf('@');
+        int atB = b.lastIndexOf('@');
+        if ((atA >= 0) != (atB >= 0)) {
+            return false;
+        }
+
+        int endA = localEnd(a, atA);
+        if (endA != localEnd(b, atB)) {
+            return false;
+        }
+        for (int i = 0; i < endA; i++) {
+            if (!sameChar(a.charAt(i), b.charAt(i), lowercaseLocalPart)) {
+                return false;
+            }
+        }
+
+        if (atA < 0) {
+            return true;
+        }
+        int length = a.length() - atA;
+        if (length != b.length() - atB) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (!sameChar(a.charAt(atA + i), b.charAt(atB + i), true)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Index after the last character of the local part that identifies the mailbox
+     */
+    private int localEnd(String address, int at) {
+        int end = at >= 0 ? at : address.length();
+        if (stripPlusTag) {
+            int plus = address.indexOf('+');
+            if (plus >= 0 && plus < end) {
+                return plus;
+            }
+        }
+
+        return end;
+    }
+
+    private static boolean sameChar(char a, char b, boolean ignoreCase) {
+        return a == b || (ignoreCase && Character.toLowerCase(a) == Character.toLowerCase(b));
+    }
+}
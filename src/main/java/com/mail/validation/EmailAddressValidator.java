@@ -0,0 +1,77 @@
+package com.mail.validation;
+
+import com.mail.config.ValidationConfiguration;
+import org.apache.commons.validator.routines.EmailValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the syntax of the email addresses, the verdicts of the recently seen addresses are cached. A new address goes
+ * through the hand written fast path and only the unusual ones (quoted, escaped, IP literals, non ASCII) are handed to
+ * Commons Validator, so the result is always the one of EmailValidator.getInstance().
+ */
+@Component
+public class EmailAddressValidator {
+
+    private final VerdictCache cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    @Autowired
+    public EmailAddressValidator(ValidationConfiguration config) {
+        this(config.getCacheSize(), config.getCacheTtlMs(), Clock.systemUTC());
+    }
+
+    public EmailAddressValidator(int cacheSize, long cacheTtlMs, Clock clock) {
+        this.cache = new VerdictCache(cacheSize, cacheTtlMs, clock);
+    }
+
+    /**
+     * @param address Email address
+     * @return True if the address is valid
+     */
+    public boolean isValid(String address) {
+        if (address == null) {
+            return false;
+        }
+
+        Boolean verdict = cache.get(address);
+        if (verdict != null) {
+            hits.increment();
+            return verdict;
+        }
+
+        boolean valid = check(address);
+        cache.put(address, valid);
+        return valid;
+    }
+
+    /**
+     * @param address Email address
+     * @return True if the address is valid, the cache is not used
+     */
+    public boolean check(String address) {
+        int verdict = AddressSyntax.check(address);
+        if (verdict != AddressSyntax.UNDECIDED) {
+            return verdict == AddressSyntax.VALID;
+        }
+
+        fallbacks.increment();
+        return EmailValidator.getInstance().isValid(address);
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+}
@@ -0,0 +1,94 @@
+package com.mail.validation;
+
+import org.apache.commons.validator.routines.DomainValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The top level domains accepted by Commons Validator in an open addressing table, a label of an address is looked up
+ * in place (case insensitive) without creating a String for it
+ */
+final class TopLevelDomains {
+
+    private static final TopLevelDomains INSTANCE = new TopLevelDomains();
+
+    private final char[][] table;
+    private final int mask;
+
+    private TopLevelDomains() {
+        DomainValidator validator = DomainValidator.getInstance();
+        List<String> tlds = new ArrayList<>();
+        for (DomainValidator.ArrayType type : new DomainValidator.ArrayType[]{DomainValidator.ArrayType.INFRASTRUCTURE_RO,
+                DomainValidator.ArrayType.GENERIC_RO, DomainValidator.ArrayType.GENERIC_PLUS,
+                DomainValidator.ArrayType.COUNTRY_CODE_RO, DomainValidator.ArrayType.COUNTRY_CODE_PLUS}) {
+            for (String tld : DomainValidator.getTLDEntries(type)) {
+                // Keeps the table in line with the validator, including the entries removed by an override
+                if (validator.isValidTld(tld)) {
+                    tlds.add(tld);
+                }
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(tlds.size(), 1) * 4);
+        table = new char[capacity][];
+        mask = capacity - 1;
+        for (String tld : tlds) {
+            int slot = hash(tld, 0, tld.length()) & mask;
+            while (table[slot] != null && !matches(table[slot], tld, 0, tld.length())) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = tld.toLowerCase(Locale.ENGLISH).toCharArray();
+        }
+    }
+
+    static TopLevelDomains getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param s    Text holding the label
+     * @param from Index of the first character of the label
+     * @param to   Index after the last character of the label
+     * @return True if the label is a known top level domain
+     */
+    boolean contains(CharSequence s, int from, int to) {
+        int slot = hash(s, from, to) & mask;
+        char[] key;
+        while ((key = table[slot]) != null) {
+            if (matches(key, s, from, to)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return false;
+    }
+
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + lower(s.charAt(i));
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(char[] key, CharSequence s, int from, int to) {
+        if (key.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != lower(s.charAt(from + i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
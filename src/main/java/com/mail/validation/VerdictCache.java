@@ -0,0 +1,90 @@
+package com.mail.validation;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of the verdicts of recently seen addresses, kept in two generations. New verdicts go into the current
+ * generation, which becomes the previous one once it holds half of the entries or half of the time to live has passed,
+ * and the old previous generation is dropped as a whole. A verdict is therefore kept for at most the time to live and
+ * the cache never holds (much) more than its maximum size, without any per entry bookkeeping on the read path.
+ */
+final class VerdictCache {
+
+    private final int generationSize;
+    private final long generationMs;
+    private final Clock clock;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * @param maxSize Maximum number of verdicts
+     * @param ttlMs   Maximum time a verdict is kept
+     * @param clock   Clock of the generations
+     */
+    VerdictCache(int maxSize, long ttlMs, Clock clock) {
+        this.generationSize = Math.max(1, maxSize / 2);
+        this.generationMs = Math.max(1, ttlMs / 2);
+        this.clock = clock;
+        this.current = new Generation(clock.millis());
+        this.previous = new Generation(clock.millis());
+    }
+
+    /**
+     * @param address Email address
+     * @return The cached verdict, null if the address hasn't been seen recently
+     */
+    Boolean get(String address) {
+        long now = clock.millis();
+        Boolean verdict = current(now).verdicts.get(address);
+        if (verdict != null) {
+            return verdict;
+        }
+
+        // The previous generation is skipped once its oldest verdicts have outlived the time to live
+        Generation generation = previous;
+        return now - generation.createdAt < 2 * generationMs ? generation.verdicts.get(address) : null;
+    }
+
+    void put(String address, boolean valid) {
+        Generation generation = current(clock.millis());
+        generation.verdicts.put(address, valid);
+        if (generation.verdicts.size() >= generationSize) {
+            rotate(generation);
+        }
+    }
+
+    int size() {
+        return current.verdicts.size() + previous.verdicts.size();
+    }
+
+    private Generation current(long now) {
+        Generation generation = current;
+        if (now - generation.createdAt >= generationMs) {
+            rotate(generation);
+            generation = current;
+        }
+
+        return generation;
+    }
+
+    private synchronized void rotate(Generation expected) {
+        // Another thread may have rotated already
+        if (current != expected) {
+            return;
+        }
+
+        previous = expected;
+        current = new Generation(clock.millis());
+    }
+
+    private static final class Generation {
+        private final ConcurrentMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+        private final long createdAt;
+
+        Generation(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mail.attachment;
+
+import com.mail.dto.AttachmentDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.request.Attachment;
+import com.mail.support.TestConfigurations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AttachmentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new AttachmentStore(TestConfigurations.attachment(folder.newFolder("spool").getPath()));
+    }
+
+    /**
+     * An upload is copied into a spool file that the provider request reads and that is deleted on release
+     */
+    @Test
+    public void spool_Upload_OpenedAndReleased() throws Exception {
+        MockMultipartFile upload = new MockMultipartFile("inline", "C:\\Users\\me\\logo.png", "image/png", "png".getBytes(StandardCharsets.UTF_8));
+
+        AttachmentDto attachment = store.spool(upload, true);
+        MailMessageDto dto = new MailMessageDto();
+        dto.setAttachments(new AttachmentDto[]{attachment});
+
+        List<Attachment> attachments = store.open(dto);
+        assertEquals(1, attachments.size());
+        assertEquals("logo.png", attachments.get(0).getFilename());
+        assertEquals("logo.png", attachments.get(0).getContentId());
+        assertEquals(3, attachment.getSize());
+        assertEquals("png", new String(Files.readAllBytes(attachments.get(0).getFile()), StandardCharsets.UTF_8));
+
+        store.release(dto);
+        assertFalse(Files.exists(attachments.get(0).getFile()));
+    }
+
+    /**
+     * A path outside of the spool directory is never read nor deleted
+     */
+    @Test(expected = IOException.class)
+    public void open_PathOutsideSpoolDirectory_Rejected() throws Exception {
+        Path secret = folder.newFile("secret.txt").toPath();
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setFilename("secret.txt");
+        attachment.setPath(secret.toString());
+        MailMessageDto dto = new MailMessageDto();
+        dto.setAttachments(new AttachmentDto[]{attachment});
+
+        store.release(dto);
+        assertTrue(Files.exists(secret));
+        store.open(dto);
+    }
+
+    /**
+     * Too many or too large uploads are reported before anything is written
+     */
+    @Test
+    public void validate_OverLimits_Errors() {
+        MockMultipartFile small = new MockMultipartFile("attachment", "a.txt", "text/plain", new byte[10]);
+        MockMultipartFile large = new MockMultipartFile("attachment", "b.bin", "application/octet-stream", new byte[1048577]);
+
+        assertTrue(store.validate(Arrays.asList(small, small, small)).isEmpty());
+        assertEquals(Arrays.asList("An email can not have more than 3 attachments", "Attachment is larger than 1048576 bytes - b.bin"),
+                store.validate(Arrays.asList(small, small, small, large)));
+    }
+}
@@ -0,0 +1,97 @@
+package com.mail.auth;
+
+import com.mail.provider.ProviderRegistry;
+import com.mail.support.TestConfigurations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ProviderCredentialsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Without a credentials file the headers are built from the keys of the provider properties
+     */
+    @Test
+    public void getAuthorization_NoFile_ProviderKeys() {
+        ProviderCredentials credentials = credentials("");
+
+        assertEquals("Bearer SG.test", credentials.getAuthorization("sendgrid"));
+        assertEquals(basic("api:key-test"), credentials.getAuthorization("mailgun"));
+        assertNull(credentials.getAuthorization("unknown"));
+    }
+
+    /**
+     * The keys of the file override the provider properties and a rewritten file is picked up by the watcher
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void getAuthorization_FileRotated_NewKeysWithoutRestart() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("credentials.properties");
+        write(file, "sendgrid.key=SG.first\n");
+        ProviderCredentials credentials = credentials(file.toString());
+        credentials.start();
+        try {
+            assertEquals("Bearer SG.first", credentials.getAuthorization("sendgrid"));
+            assertEquals(basic("api:key-test"), credentials.getAuthorization("mailgun"));
+
+            write(file, "sendgrid.key=SG.second\nmailgun.key=key-second\n");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"Bearer SG.second".equals(credentials.getAuthorization("sendgrid")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+
+            assertEquals("Bearer SG.second", credentials.getAuthorization("sendgrid"));
+            assertEquals(basic("api:key-second"), credentials.getAuthorization("mailgun"));
+        } finally {
+            credentials.stop();
+        }
+    }
+
+    /**
+     * A file that can't be read keeps the headers of the last good version
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void reload_UnreadableFile_KeepsCurrentKeys() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("credentials.properties");
+        write(file, "sendgrid.key=SG.first\n");
+        ProviderCredentials credentials = credentials(file.toString());
+
+        // A lone backslash and u is an invalid unicode escape
+        write(file, "sendgrid.key=\\u00\n");
+
+        assertFalse(credentials.reload());
+        assertEquals("Bearer SG.first", credentials.getAuthorization("sendgrid"));
+    }
+
+    private static ProviderCredentials credentials(String file) {
+        return new ProviderCredentials(TestConfigurations.credentials(file),
+                new ProviderRegistry(TestConfigurations.sendGrid("http://localhost"), TestConfigurations.mailGun("http://localhost")));
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        // Written next to the file and moved over it like a rotated secret
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
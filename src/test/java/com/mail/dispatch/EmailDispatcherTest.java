@@ -0,0 +1,221 @@
+package com.mail.dispatch;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.config.DispatchConfiguration;
+import com.mail.config.OutboxConfiguration;
+import com.mail.dto.AttachmentDto;
+import com.mail.dto.BatchEmailResponseDto;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.outbox.MailOutbox;
+import com.mail.services.EmailService;
+import com.mail.support.TestConfigurations;
+import com.mail.tracking.DeliveryTracker;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class EmailDispatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid");
+    private EmailDispatcher dispatcher;
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        dispatcher.stop();
+    }
+
+    /**
+     * A queued email gets an id straight away and ends up sent once a worker picked it up
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void submit_Success_StatusBecomesSent() throws Exception {
+        dispatcher = newDispatcher(false, 1, 10);
+
+        EmailResponseDto queued = dispatcher.submit(new MailMessageDto());
+        assertNotNull(queued.getId());
+        assertEquals(DeliveryStatus.QUEUED, queued.getStatus());
+
+        release.countDown();
+        assertEquals(DeliveryStatus.SENT, awaitFinalStatus(queued.getId()));
+    }
+
+    /**
+     * The final status keeps the message id of the provider and is handed to the tracker under the same id
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void submit_Success_TrackedWithProviderMessageId() throws Exception {
+        dispatcher = newDispatcher(false, 1, 10);
+        release.countDown();
+
+        EmailResponseDto queued = dispatcher.submit(new MailMessageDto());
+        assertEquals(DeliveryStatus.SENT, awaitFinalStatus(queued.getId()));
+
+        assertEquals("stub-1", dispatcher.getStatus(queued.getId()).getProviderMessageId());
+        EmailResponseDto tracked = deliveryTracker.get(queued.getId());
+        assertEquals(DeliveryStatus.SENT, tracked.getStatus());
+        assertEquals("sendgrid", tracked.getProvider());
+        assertEquals("stub-1", tracked.getProviderMessageId());
+    }
+
+    /**
+     * A failing provider call is reported as failed instead of being lost
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void submit_ServiceThrows_StatusBecomesFailed() throws Exception {
+        dispatcher = newDispatcher(true, 1, 10);
+        release.countDown();
+
+        Path file = folder.getRoot().toPath().resolve("attachment-1.bin");
+        Files.write(file, "invoice content".getBytes(StandardCharsets.UTF_8));
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setPath(file.toString());
+        MailMessageDto dto = new MailMessageDto();
+        dto.setAttachments(new AttachmentDto[]{attachment});
+
+        EmailResponseDto queued = dispatcher.submit(dto);
+
+        assertEquals(DeliveryStatus.FAILED, awaitFinalStatus(queued.getId()));
+        // Nothing sends the email again, its spool file is deleted
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * Once the worker is busy and the queue is full the dispatcher rejects new emails
+     */
+    @Test
+    public void submit_QueueFull_Rejected() {
+        dispatcher = newDispatcher(false, 1, 2);
+
+        // One email on the worker and two waiting in the queue
+        EmailResponseDto first = dispatcher.submit(new MailMessageDto());
+        dispatcher.submit(new MailMessageDto());
+        dispatcher.submit(new MailMessageDto());
+
+        try {
+            dispatcher.submit(new MailMessageDto());
+            fail("The queue should be full");
+        } catch (DispatchQueueFullException e) {
+            assertNotNull(dispatcher.getStatus(first.getId()));
+        }
+    }
+
+    /**
+     * A status dropped by the retention while its email was being sent stays dropped, the tracker still knows it
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void submit_EvictedWhileSending_NotAddedBack() throws Exception {
+        dispatcher = newDispatcher(false, 1, 10, 1);
+
+        EmailResponseDto first = dispatcher.submit(new MailMessageDto());
+        EmailResponseDto second = dispatcher.submit(new MailMessageDto());
+        release.countDown();
+        // A single worker, the first email has been dispatched once the second one is
+        assertEquals(DeliveryStatus.SENT, awaitFinalStatus(second.getId()));
+
+        Map<?, ?> statuses = (Map<?, ?>) ReflectionTestUtils.getField(dispatcher, "statuses");
+        assertEquals(Collections.singleton(second.getId()), statuses.keySet());
+        assertEquals(DeliveryStatus.SENT, dispatcher.getStatus(first.getId()).getStatus());
+    }
+
+    /**
+     * Unknown ids don't have a status
+     */
+    @Test
+    public void getStatus_UnknownId_Null() {
+        dispatcher = newDispatcher(false, 1, 1);
+
+        assertNull(dispatcher.getStatus("unknown"));
+    }
+
+    private DeliveryStatus awaitFinalStatus(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            DeliveryStatus status = dispatcher.getStatus(id).getStatus();
+            if (status == DeliveryStatus.SENT || status == DeliveryStatus.FAILED) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        fail("The email has not been dispatched");
+        return null;
+    }
+
+    private EmailDispatcher newDispatcher(boolean fail, int workers, int queueCapacity) {
+        return newDispatcher(fail, workers, queueCapacity, 100);
+    }
+
+    private EmailDispatcher newDispatcher(boolean fail, int workers, int queueCapacity, int statusRetention) {
+        DispatchConfiguration config = new DispatchConfiguration();
+        ReflectionTestUtils.setField(config, "asyncEnabled", true);
+        ReflectionTestUtils.setField(config, "workers", workers);
+        ReflectionTestUtils.setField(config, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(config, "statusRetention", statusRetention);
+
+        // The outbox is never opened so the write-ahead is off
+        OutboxConfiguration outboxConfig = new OutboxConfiguration();
+        return new EmailDispatcher(new StubEmailService(fail), config, new MailOutbox(outboxConfig), outboxConfig, deliveryTracker,
+                new AttachmentStore(TestConfigurations.attachment(folder.getRoot().getPath())));
+    }
+
+    private class StubEmailService implements EmailService {
+        private final boolean fail;
+
+        StubEmailService(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public EmailResponseDto sendEmail(MailMessageDto message) throws Exception {
+            release.await(5, TimeUnit.SECONDS);
+            if (fail) {
+                throw new IllegalStateException("Provider is down");
+            }
+            EmailResponseDto sent = new EmailResponseDto(DeliveryStatus.SENT, "Yayy, Your email has been sent!!", System.currentTimeMillis());
+            sent.setProvider("sendgrid");
+            sent.setProviderMessageId("stub-1");
+            return sent;
+        }
+
+        @Override
+        public BatchEmailResponseDto sendBatch(List<MailMessageDto> messages) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> validate(MailMessageDto message) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.mail.health;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderHealthTest {
+
+    /**
+     * A provider starts healthy and only turns unhealthy after the configured number of failed probes
+     */
+    @Test
+    public void record_FailuresBelowThreshold_StaysHealthy() {
+        ProviderHealth health = new ProviderHealth("sendgrid", "http://localhost", 2, 3);
+
+        assertTrue(health.isHealthy());
+        assertFalse(health.record(false, 1L));
+        assertFalse(health.record(false, 2L));
+        assertTrue(health.isHealthy());
+
+        assertTrue(health.record(false, 3L));
+        assertFalse(health.isHealthy());
+    }
+
+    /**
+     * A success in between resets the failure streak
+     */
+    @Test
+    public void record_InterleavedSuccess_ResetsStreak() {
+        ProviderHealth health = new ProviderHealth("sendgrid", "http://localhost", 2, 2);
+
+        health.record(false, 1L);
+        health.record(true, 2L);
+        health.record(false, 3L);
+
+        assertTrue(health.isHealthy());
+    }
+
+    /**
+     * An unhealthy provider needs consecutive successful probes to recover
+     */
+    @Test
+    public void record_ConsecutiveSuccesses_Recovers() {
+        ProviderHealth health = new ProviderHealth("mailgun", "http://localhost", 2, 1);
+
+        health.record(false, 1L);
+        assertFalse(health.isHealthy());
+
+        assertFalse(health.record(true, 2L));
+        assertFalse(health.isHealthy());
+        assertTrue(health.record(true, 3L));
+        assertTrue(health.isHealthy());
+    }
+
+}
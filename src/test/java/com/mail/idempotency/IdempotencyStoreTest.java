@@ -0,0 +1,149 @@
+package com.mail.idempotency;
+
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.support.MutableClock;
+import com.mail.support.TestConfigurations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The first request owns the key, the next ones see it in flight and then get its response
+     */
+    @Test
+    public void claim_KeyUsed_OriginalReturned() {
+        IdempotencyStore store = new IdempotencyStore(TestConfigurations.idempotency(null), new MutableClock(0));
+
+        assertNull(store.claim("key", "hash"));
+        assertFalse(store.claim("key", "hash").isCompleted());
+
+        store.complete("key", 201, new EmailResponseDto(DeliveryStatus.SENT, "sent", 1));
+        IdempotencyRecord original = store.claim("key", "hash");
+        assertTrue(original.isCompleted());
+        assertEquals(201, original.getHttpStatus());
+        assertEquals(DeliveryStatus.SENT, original.getResponse().getStatus());
+    }
+
+    @Test
+    public void claim_Abandoned_KeyReleased() {
+        IdempotencyStore store = new IdempotencyStore(TestConfigurations.idempotency(null), new MutableClock(0));
+
+        assertNull(store.claim("key", "hash"));
+        store.abandon("key");
+
+        assertNull(store.claim("key", "hash"));
+    }
+
+    /**
+     * A key is forgotten after the time to live and the store doesn't grow past its maximum
+     */
+    @Test
+    public void claim_ExpiredOrEvicted_KeyReleased() {
+        MutableClock clock = new MutableClock(0);
+        IdempotencyStore store = new IdempotencyStore(TestConfigurations.idempotency(null), clock);
+        assertNull(store.claim("key", "hash"));
+        store.complete("key", 201, new EmailResponseDto(DeliveryStatus.SENT, "sent", 1));
+
+        clock.advance(59999);
+        assertNotNull(store.claim("key", "hash"));
+        clock.advance(1);
+        assertNull(store.claim("key", "hash"));
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(store.claim("key" + i, "hash"));
+        }
+        assertTrue("Store size " + store.size(), store.size() <= 10);
+    }
+
+    /**
+     * The completed keys are loaded again from the file on start, the ones in flight are not
+     */
+    @Test
+    public void open_File_CompletedKeysRestored() throws Exception {
+        String file = new File(folder.getRoot(), "idempotency.log").getPath();
+        IdempotencyStore store = new IdempotencyStore(TestConfigurations.idempotency(file), new MutableClock(0));
+        store.open();
+        assertNull(store.claim("sent", "hash"));
+        assertNull(store.claim("pending", "hash"));
+        store.complete("sent", 202, new EmailResponseDto("id-1", DeliveryStatus.QUEUED, "queued", 1));
+        store.close();
+
+        IdempotencyStore restarted = new IdempotencyStore(TestConfigurations.idempotency(file), new MutableClock(1000));
+        restarted.open();
+        IdempotencyRecord original = restarted.claim("sent", "hash");
+        assertEquals(202, original.getHttpStatus());
+        assertEquals("id-1", original.getResponse().getId());
+        assertEquals("hash", original.getFingerprint());
+        assertNull(restarted.claim("pending", "hash"));
+        restarted.close();
+    }
+
+    /**
+     * Exactly one of the threads racing on a key owns it
+     */
+    @Test
+    public void claim_Concurrent_SingleOwner() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(TestConfigurations.idempotency(null), new MutableClock(0));
+        AtomicInteger owners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (store.claim("key", "hash") == null) {
+                    owners.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, owners.get());
+    }
+
+    @Test
+    public void fingerprint_DifferentEmail_DifferentHash() {
+        MailMessageDto first = new MailMessageDto();
+        first.setFrom("sender@example.org");
+        first.setTo(new String[]{"ab@example.org"});
+        first.setSubject("Hello");
+        first.setText("c");
+        MailMessageDto second = new MailMessageDto();
+        second.setFrom("sender@example.org");
+        second.setTo(new String[]{"ab@example.org"});
+        second.setSubject("Hello");
+        second.setText("c");
+
+        assertEquals(MessageFingerprint.of(first, Collections.emptyList()), MessageFingerprint.of(second, Collections.emptyList()));
+        second.setSubject("Helloc");
+        second.setText("");
+        assertNotEquals(MessageFingerprint.of(first, Collections.emptyList()), MessageFingerprint.of(second, Collections.emptyList()));
+    }
+}
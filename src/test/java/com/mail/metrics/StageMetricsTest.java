@@ -0,0 +1,81 @@
+package com.mail.metrics;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StageMetricsTest {
+
+    private final StageMetrics metrics = new StageMetrics("sendgrid", "mailgun");
+
+    /**
+     * The values are kept per stage, provider and outcome, unknown providers go to 'none'
+     */
+    @Test
+    public void snapshot_RecordedValues_SplitByProviderAndOutcome() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(MailStage.READ, "sendgrid", true, i * 1000000L);
+        }
+        metrics.record(MailStage.READ, "sendgrid", false, 5000000L);
+        metrics.record(MailStage.VALIDATION, "unknown", true, 1000L);
+
+        List<StageSnapshot> snapshots = metrics.snapshot();
+
+        assertEquals(3, snapshots.size());
+        StageSnapshot read = snapshots.get(1);
+        assertEquals(MailStage.VALIDATION, snapshots.get(0).getStage());
+        assertEquals(StageMetrics.NO_PROVIDER, snapshots.get(0).getProvider());
+        assertEquals(MailStage.READ, read.getStage());
+        assertEquals("sendgrid", read.getProvider());
+        assertTrue(read.isSuccess());
+        assertEquals(100, read.getCount());
+        // Two significant digits, the values are in microseconds
+        assertEquals(50000, read.getP50(), 500);
+        assertEquals(99000, read.getP99(), 1000);
+        assertEquals(1, snapshots.get(2).getCount());
+    }
+
+    /**
+     * The totals keep growing across snapshots
+     */
+    @Test
+    public void snapshot_CalledTwice_Cumulative() {
+        metrics.onExchange("mailgun", true, 0, 1000, 2000);
+        metrics.snapshot();
+        metrics.onExchange("mailgun", true, 3000, 1000, 2000);
+
+        List<StageSnapshot> snapshots = metrics.snapshot();
+
+        assertEquals(3, snapshots.size());
+        assertEquals(MailStage.CONNECT, snapshots.get(0).getStage());
+        assertEquals(1, snapshots.get(0).getCount());
+        assertEquals(2, snapshots.get(1).getCount());
+    }
+
+    /**
+     * Recording stays enabled in production, so it must not allocate once the recorders are warm
+     */
+    @Test
+    public void record_Warm_DoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // Long enough for the recording path to be compiled again when earlier tests compiled it with another profile
+        for (int i = 0; i < 1000000; i++) {
+            metrics.record(MailStage.WRITE, "mailgun", (i & 1) == 0, i * 1000L);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            metrics.record(MailStage.WRITE, "mailgun", (i & 1) == 0, i * 1000L);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Leaves room for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mail.outbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Pending entries and their payloads survive a restart, acknowledged ones don't
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void open_AfterClose_RecoversPendingEntries() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            log.append(bytes("first"));
+            long second = log.append(bytes("second"));
+            log.append(bytes("third"));
+            assertTrue(log.ack(second));
+            assertFalse(log.ack(second));
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            List<OutboxEntry> pending = log.pending();
+
+            assertEquals(2, pending.size());
+            assertEquals("first", string(pending.get(0).getPayload()));
+            assertEquals("third", string(pending.get(1).getPayload()));
+            assertEquals(4L, log.append(bytes("fourth")));
+        }
+    }
+
+    /**
+     * A copy of the segments taken while the log is still open (like after a crash) can be recovered
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void open_CrashWithoutClose_RecoversPendingEntries() throws Exception {
+        Path directory = folder.newFolder("live").toPath();
+        Path crashed = folder.newFolder("crashed").toPath();
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 100; i++) {
+                long id = log.append(bytes("email-" + i));
+                if (i % 2 == 0) {
+                    log.ack(id);
+                }
+            }
+            copySegments(directory, crashed);
+        }
+
+        try (OutboxLog log = OutboxLog.open(crashed, SEGMENT_SIZE, false)) {
+            List<OutboxEntry> pending = log.pending();
+
+            assertEquals(50, pending.size());
+            assertEquals("email-1", string(pending.get(0).getPayload()));
+            assertEquals("email-99", string(pending.get(49).getPayload()));
+        }
+    }
+
+    /**
+     * A record torn by a crash is dropped and the log keeps working from the last valid record
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void open_TornRecord_DropsItAndAppendsAfterLastValidRecord() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            log.append(bytes("complete"));
+            log.append(bytes("torn"));
+        }
+
+        // Flip a byte in the payload of the second record so its checksum doesn't match anymore
+        int secondPayload = 2 * 17 + "complete".length();
+        try (RandomAccessFile file = new RandomAccessFile(segments(directory).get(0).toFile(), "rw")) {
+            file.seek(secondPayload);
+            file.write('X');
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            assertEquals(1, log.getPendingCount());
+            log.append(bytes("after"));
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE, false)) {
+            List<OutboxEntry> pending = log.pending();
+
+            assertEquals(2, pending.size());
+            assertEquals("complete", string(pending.get(0).getPayload()));
+            assertEquals("after", string(pending.get(1).getPayload()));
+        }
+    }
+
+    /**
+     * Segments are deleted once all their entries have been acknowledged
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void ack_AllEntries_CompactsSegments() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (OutboxLog log = OutboxLog.open(directory, 256, false)) {
+            long[] ids = new long[50];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = log.append(new byte[40]);
+            }
+            assertTrue(log.getSegmentCount() > 5);
+
+            for (long id : ids) {
+                log.ack(id);
+            }
+
+            assertEquals(0, log.getPendingCount());
+            assertEquals(1, log.getSegmentCount());
+            assertEquals(1, segments(directory).size());
+        }
+
+        try (OutboxLog log = OutboxLog.open(directory, 256, false)) {
+            assertEquals(0, log.getPendingCount());
+        }
+    }
+
+    /**
+     * A payload bigger than a segment is refused
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void append_PayloadBiggerThanSegment_Refused() throws Exception {
+        try (OutboxLog log = OutboxLog.open(folder.getRoot().toPath(), 256, false)) {
+            log.append(new byte[256]);
+        }
+    }
+
+    static void copySegments(Path from, Path to) throws Exception {
+        for (Path segment : segments(from)) {
+            Files.copy(segment, to.resolve(segment.getFileName()));
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(OutboxSegment::isSegment).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.mail.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mail.config.OutboxConfiguration;
+import com.mail.config.TransportConfiguration;
+import com.mail.dto.MailMessageDto;
+import com.mail.support.StubMailProvider;
+import com.mail.transport.PooledMailTransport;
+import com.mail.transport.TransportRequest;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxReplayerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxReplayerTest.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OutboxConfiguration config;
+    private MailOutbox outbox;
+
+    @After
+    public void tearDown() throws Exception {
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Emails left in the outbox by a crashed process are all replayed against the provider on the next start
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void replayDue_AfterCrash_DeliversEverythingToStubProvider() throws Exception {
+        int emails = 2000;
+        Path live = folder.newFolder("live").toPath();
+        Path crashed = folder.newFolder("crashed").toPath();
+
+        MailOutbox crashing = newOutbox(live, 20);
+        for (int i = 0; i < emails; i++) {
+            crashing.add(message(i));
+        }
+        OutboxLogTest.copySegments(live, crashed);
+        crashing.close();
+
+        outbox = newOutbox(crashed, 20);
+        assertEquals(emails, outbox.getPendingCount());
+
+        try (StubMailProvider provider = new StubMailProvider()) {
+            PooledMailTransport transport = new PooledMailTransport(transportConfig());
+            OutboxReplayer replayer = new OutboxReplayer(outbox, dto -> transport.send(
+                    new TransportRequest.Builder("stub", provider.getUrl())
+                            .header("Content-Type", "application/json")
+                            .body(objectMapper.writeValueAsBytes(dto))
+                            .build()).getStatusCode() < 400, config);
+
+            long start = System.nanoTime();
+            int delivered = replayer.replayDue(System.currentTimeMillis());
+            long elapsedNanos = System.nanoTime() - start;
+            transport.close();
+
+            double perSecond = delivered * 1_000_000_000d / elapsedNanos;
+            logger.info(String.format("Replayed %d emails in %d ms - %.0f messages/sec", delivered, elapsedNanos / 1_000_000, perSecond));
+
+            assertEquals(emails, delivered);
+            assertEquals(emails, provider.getRequests());
+            assertEquals(0, outbox.getPendingCount());
+            assertEquals(1, outbox.getSegmentCount());
+            assertTrue("Replay is too slow - " + perSecond + " messages/sec", perSecond > 100);
+        }
+    }
+
+    /**
+     * A failing email waits twice as long after every attempt and is dropped after the maximum attempts
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void replayDue_ProviderDown_BacksOffExponentially() throws Exception {
+        outbox = newOutbox(folder.getRoot().toPath(), 3);
+        outbox.add(message(1));
+        AtomicInteger attempts = new AtomicInteger();
+        OutboxReplayer replayer = new OutboxReplayer(outbox, dto -> {
+            attempts.incrementAndGet();
+            return false;
+        }, config);
+
+        replayer.replayDue(0);
+        assertEquals(1, attempts.get());
+
+        replayer.replayDue(999);
+        assertEquals(1, attempts.get());
+        replayer.replayDue(1000);
+        assertEquals(2, attempts.get());
+
+        replayer.replayDue(2999);
+        assertEquals(2, attempts.get());
+        replayer.replayDue(3000);
+        assertEquals(3, attempts.get());
+
+        // The third attempt was the last one
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    /**
+     * In-flight emails are only replayed once they've been released
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void replayDue_InFlight_SkippedUntilReleased() throws Exception {
+        outbox = newOutbox(folder.getRoot().toPath(), 3);
+        long id = outbox.addInFlight(message(1));
+        OutboxReplayer replayer = new OutboxReplayer(outbox, dto -> true, config);
+
+        assertEquals(0, replayer.replayDue(0));
+
+        outbox.release(id);
+        assertEquals(1, replayer.replayDue(0));
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    private MailOutbox newOutbox(Path directory, int maxAttempts) {
+        config = new OutboxConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", true);
+        ReflectionTestUtils.setField(config, "directory", directory.toString());
+        ReflectionTestUtils.setField(config, "segmentSizeBytes", 64 * 1024);
+        ReflectionTestUtils.setField(config, "initialBackoffMs", 1000L);
+        ReflectionTestUtils.setField(config, "maxBackoffMs", 60000L);
+        ReflectionTestUtils.setField(config, "maxAttempts", maxAttempts);
+
+        MailOutbox mailOutbox = new MailOutbox(config);
+        mailOutbox.open();
+        return mailOutbox;
+    }
+
+    private TransportConfiguration transportConfig() {
+        TransportConfiguration config = new TransportConfiguration();
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 5000);
+        ReflectionTestUtils.setField(config, "idleTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(config, "poolWaitTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "maxConnectionsPerProvider", 4);
+        return config;
+    }
+
+    private MailMessageDto message(int i) {
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("whoami@example.org");
+        dto.setTo(new String[]{"user" + i + "@example.org"});
+        dto.setSubject("Outbox " + i);
+        dto.setText("This email has been re-attempted from the outbox");
+        return dto;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.mail.provider;
+
+import com.mail.dto.MailMessageDto;
+import com.mail.request.MailGunRequest;
+import com.mail.request.SendGridRequest;
+import com.mail.support.TestConfigurations;
+import com.mail.transport.TransportBody;
+import com.mail.transport.TransportRequest;
+import com.mail.transport.TransportResponse;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProviderRegistryTest {
+
+    /**
+     * Without mail.providers the SendGrid and MailGun property files are registered
+     */
+    @Test
+    public void new_NoProviders_PropertyFiles() {
+        ProviderRegistry registry = newRegistry(new MockEnvironment());
+
+        assertArrayEquals(new String[]{"sendgrid", "mailgun"}, registry.getNames());
+        assertEquals("http://localhost/sendgrid", registry.get("sendgrid").getUrl());
+        assertEquals(ProviderType.MAILGUN, registry.get("mailgun").getSettings().getType());
+        assertEquals("api", registry.get("mailgun").getSettings().getUser());
+    }
+
+    /**
+     * Another account of the same provider gets its own url and key and the defaults of its type
+     */
+    @Test
+    public void new_SecondAccount_RegisteredInOrder() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("mail.provider.sendgrid-eu.type", "sendgrid")
+                .withProperty("mail.provider.sendgrid-eu.url", "http://localhost/eu")
+                .withProperty("mail.provider.sendgrid-eu.key", "SG.eu");
+
+        ProviderRegistry registry = newRegistry(environment, "sendgrid", " sendgrid-eu", "mailgun");
+
+        assertArrayEquals(new String[]{"sendgrid", "sendgrid-eu", "mailgun"}, registry.getNames());
+        ProviderSettings settings = registry.get("sendgrid-eu").getSettings();
+        assertEquals(ProviderType.SENDGRID, settings.getType());
+        assertEquals("SG.eu", settings.getKey());
+        assertEquals("POST", settings.getRequestMethod());
+        assertEquals("application/json", settings.getContentType());
+        assertEquals("SG.test", registry.get("sendgrid").getSettings().getKey());
+    }
+
+    /**
+     * A provider without its properties or with an unknown type stops the startup
+     */
+    @Test
+    public void new_MisconfiguredProvider_Fails() {
+        try {
+            newRegistry(new MockEnvironment(), "sendgrid", "postmark");
+            fail("The registry should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("mail.provider.postmark.url"));
+        }
+
+        try {
+            newRegistry(new MockEnvironment()
+                    .withProperty("mail.provider.postmark.type", "postmark")
+                    .withProperty("mail.provider.postmark.url", "http://localhost/postmark"), "postmark");
+            fail("The registry should have failed");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown provider type - postmark", e.getMessage());
+        }
+    }
+
+    /**
+     * A request goes to the url it has been resolved to and is in the format of the type of its provider
+     */
+    @Test
+    public void buildTransportRequest_ResolvedUrl_OwnUrlAndHeaders() throws Exception {
+        ProviderRegistry registry = newRegistry(new MockEnvironment());
+        MailProvider sendGrid = registry.get("sendgrid");
+        MailProvider mailGun = registry.get("mailgun");
+
+        TransportRequest request = sendGrid.buildTransportRequest("http://localhost/moved", TransportBody.of(new byte[0]), null, "Bearer SG.test");
+        assertEquals("http://localhost/moved", request.getUrl());
+        assertEquals("application/json", request.getHeaders().get("Accept"));
+        assertEquals("Bearer SG.test", request.getHeaders().get("Authorization"));
+
+        request = mailGun.buildTransportRequest(mailGun.getUrl(), TransportBody.of(new byte[0]), null, "Basic key");
+        assertEquals("http://localhost/mailgun", request.getUrl());
+        assertEquals("application/x-www-form-urlencoded", request.getHeaders().get("Content-Type"));
+        assertFalse(request.getHeaders().containsKey("Accept"));
+
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("from@example.org");
+        dto.setTo(new String[]{"to@example.org"});
+        dto.setSubject("Hello");
+        dto.setText("Hello");
+        assertTrue(sendGrid.buildMailRequest(dto, Collections.emptyList(), Collections.emptyMap()) instanceof SendGridRequest);
+        MailGunRequest batch = (MailGunRequest) mailGun.buildBatchRequest(Arrays.asList(dto, dto), Arrays.asList(0, 1));
+        assertEquals(1, batch.getRecipientVariables().size());
+    }
+
+    /**
+     * SendGrid gives its message id in a header and MailGun in the body, a body without an id doesn't fail the send
+     */
+    @Test
+    public void parseMessageId_ProviderResponses_Parsed() {
+        ProviderRegistry registry = newRegistry(new MockEnvironment());
+        MailProvider sendGrid = registry.get("sendgrid");
+        MailProvider mailGun = registry.get("mailgun");
+
+        assertEquals("14c5d75ce93.dfd.64b469", sendGrid.parseMessageId(
+                new TransportResponse(202, Collections.singletonMap("x-message-id", "14c5d75ce93.dfd.64b469"), null)));
+        assertNull(sendGrid.parseMessageId(new TransportResponse(202, Collections.emptyMap(), null)));
+
+        byte[] body = "{\"message\":\"Queued. Thank you.\",\"details\":{\"id\":1},\"id\":\"<20261017.1@mg.example.org>\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("<20261017.1@mg.example.org>", mailGun.parseMessageId(new TransportResponse(200, Collections.emptyMap(), body)));
+        assertNull(mailGun.parseMessageId(new TransportResponse(200, Collections.emptyMap(), "Queued".getBytes(StandardCharsets.UTF_8))));
+        assertNull(mailGun.parseMessageId(new TransportResponse(200, Collections.emptyMap(), "{\"id\":".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static ProviderRegistry newRegistry(MockEnvironment environment, String... names) {
+        return new ProviderRegistry(TestConfigurations.providers(names), environment,
+                TestConfigurations.sendGrid("http://localhost/sendgrid"), TestConfigurations.mailGun("http://localhost/mailgun"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.mail.provider;
+
+import com.mail.support.MutableClock;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResolvedEndpointCacheTest {
+
+    private static final String URL = "https://api.sendgrid.com/v3/mail/send";
+
+    private final MutableClock clock = new MutableClock(1000000L);
+    private final ResolvedEndpointCache cache = new ResolvedEndpointCache(TestConfigurations.redirect(), clock, "sendgrid", "mailgun");
+
+    /**
+     * A permanent redirect is used until its TTL is over, then the configured url is asked again
+     */
+    @Test
+    public void resolve_PermanentRedirect_CachedUntilExpired() {
+        assertEquals("https://eu.sendgrid.com/v3/mail/send", cache.onRedirect("sendgrid", URL, 308, "https://eu.sendgrid.com/v3/mail/send", null));
+
+        assertEquals("https://eu.sendgrid.com/v3/mail/send", cache.resolve("sendgrid", URL));
+        assertEquals("https://api.mailgun.net/v3/messages", cache.resolve("mailgun", "https://api.mailgun.net/v3/messages"));
+        clock.advance(3600000);
+        assertEquals(URL, cache.resolve("sendgrid", URL));
+
+        assertEquals(Long.valueOf(1), cache.getHits().get("sendgrid"));
+        assertEquals(1, cache.getExpired("sendgrid"));
+        assertEquals(1, cache.getRedirects("sendgrid"));
+    }
+
+    /**
+     * A temporary redirect is only cached for the max-age it has been sent with, no-store isn't cached at all
+     */
+    @Test
+    public void resolve_CacheControl_OverridesTtl() {
+        cache.onRedirect("sendgrid", URL, 307, "https://eu.sendgrid.com/v3/mail/send", "private, max-age=60");
+        clock.advance(59000);
+        assertEquals("https://eu.sendgrid.com/v3/mail/send", cache.resolve("sendgrid", URL));
+        clock.advance(1000);
+        assertEquals(URL, cache.resolve("sendgrid", URL));
+
+        cache.onRedirect("sendgrid", URL, 302, "https://eu.sendgrid.com/v3/mail/send", null);
+        cache.onRedirect("sendgrid", URL, 301, "https://eu.sendgrid.com/v3/mail/send", "no-store");
+        assertEquals(URL, cache.resolve("sendgrid", URL));
+    }
+
+    /**
+     * A relative Location is resolved against the url of the request, an invalid one can't be followed
+     */
+    @Test
+    public void onRedirect_RelativeOrInvalidLocation_Resolved() {
+        assertEquals("https://api.sendgrid.com/v4/mail/send", cache.onRedirect("sendgrid", URL, 301, "/v4/mail/send", null));
+        assertNull(cache.onRedirect("sendgrid", URL, 301, "http://bad host/", null));
+        assertNull(cache.onRedirect("sendgrid", URL, 301, null, null));
+        assertEquals("https://api.sendgrid.com/v4/mail/send", cache.resolve("sendgrid", URL));
+    }
+
+    /**
+     * 307 and 308 are followed like 301 and 302, a 303 isn't a redirect of the request
+     */
+    @Test
+    public void isRedirect_StatusCodes() {
+        assertTrue(ResolvedEndpointCache.isRedirect(301));
+        assertTrue(ResolvedEndpointCache.isRedirect(302));
+        assertTrue(ResolvedEndpointCache.isRedirect(307));
+        assertTrue(ResolvedEndpointCache.isRedirect(308));
+        assertFalse(ResolvedEndpointCache.isRedirect(303));
+        assertFalse(ResolvedEndpointCache.isRedirect(202));
+    }
+}
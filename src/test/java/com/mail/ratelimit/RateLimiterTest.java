@@ -0,0 +1,126 @@
+package com.mail.ratelimit;
+
+import com.mail.support.MutableClock;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    /**
+     * A sender can send its burst at once, then one email per interval, the other senders aren't affected
+     */
+    @Test
+    public void tryAcquire_SenderOverLimit_RetryAfterNextToken() {
+        MutableClock clock = new MutableClock(0);
+        RateLimiter limiter = new RateLimiter(TestConfigurations.rateLimit(2, 3), clock);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("client", "Sender@example.org"));
+        }
+        assertEquals(500, limiter.tryAcquire("client", "sender@example.org"));
+        assertEquals(0, limiter.tryAcquire("client", "other@example.org"));
+
+        clock.advance(499);
+        assertEquals(1, limiter.tryAcquire("client", "sender@example.org"));
+        clock.advance(1);
+        assertEquals(0, limiter.tryAcquire("client", "sender@example.org"));
+        assertEquals(2, limiter.getRejected());
+    }
+
+    /**
+     * A batch rejected for one of its senders doesn't take any token from the others
+     */
+    @Test
+    public void tryAcquire_BatchRejected_TokensGivenBack() {
+        RateLimiter limiter = new RateLimiter(TestConfigurations.rateLimit(1, 2), new MutableClock(0));
+
+        assertEquals(0, limiter.tryAcquire("client", "busy@example.org"));
+        assertEquals(0, limiter.tryAcquire("client", "busy@example.org"));
+        assertTrue(limiter.tryAcquire("client", Arrays.asList("quiet@example.org", "busy@example.org")) > 0);
+
+        assertEquals(0, limiter.tryAcquire("client", Arrays.asList("quiet@example.org", "quiet@example.org")));
+    }
+
+    /**
+     * A batch larger than the burst needs a full bucket and is charged every one of its messages, the sender waits until
+     * they have all been added back
+     */
+    @Test
+    public void tryAcquire_BatchLargerThanBurst_ChargedInFull() {
+        MutableClock clock = new MutableClock(0);
+        RateLimiter limiter = new RateLimiter(TestConfigurations.rateLimit(10, 20), clock);
+
+        assertEquals(0, limiter.tryAcquire("client", Collections.nCopies(1000, "sender@example.org")));
+        // 980 emails beyond the burst at 10 a second, plus the next one
+        assertEquals(98100, limiter.tryAcquire("client", "sender@example.org"));
+
+        clock.advance(98100);
+        assertEquals(0, limiter.tryAcquire("client", "sender@example.org"));
+        assertTrue(limiter.tryAcquire("client", Collections.nCopies(1000, "sender@example.org")) > 0);
+    }
+
+    @Test
+    public void tryAcquireProvider_SendRate() {
+        MutableClock clock = new MutableClock(0);
+        RateLimiter limiter = new RateLimiter(TestConfigurations.rateLimit(0, 0, "sendgrid:10"), clock);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquireProvider("sendgrid"));
+        }
+        assertFalse(limiter.tryAcquireProvider("sendgrid"));
+        assertTrue(limiter.tryAcquireProvider("mailgun"));
+
+        clock.advance(100);
+        assertTrue(limiter.tryAcquireProvider("sendgrid"));
+        assertFalse(limiter.tryAcquireProvider("sendgrid"));
+        assertEquals(2, limiter.getProviderRejected("sendgrid"));
+
+        // A call given back can be taken again
+        limiter.releaseProvider("sendgrid");
+        limiter.releaseProvider("mailgun");
+        assertTrue(limiter.tryAcquireProvider("sendgrid"));
+        assertFalse(limiter.tryAcquireProvider("sendgrid"));
+    }
+
+    /**
+     * The threads racing on a bucket get exactly the tokens it holds
+     */
+    @Test
+    public void tryAcquire_Concurrent_ExactlyTheBurstAdmitted() throws Exception {
+        TokenBucket bucket = new TokenBucket(1, 1000);
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(0, 1) == 0) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1000, admitted.get());
+    }
+}
@@ -0,0 +1,37 @@
+package com.mail.request;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class FormEncoderTest {
+
+    private static final String VALUE = "Hi there, 100% *sure* ~ a+b=c & d/e?f #1 été € 😀 lone \ud800 end\r\n";
+
+    /**
+     * The streamed fields are byte for byte what URLEncoder produces
+     */
+    @Test
+    public void field_SpecialCharacters_SameAsUrlEncoder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FormEncoder(out, new byte[8192]).field("text", VALUE).field("to", "a@example.org").finish();
+
+        String expected = "text=" + URLEncoder.encode(VALUE, "UTF-8") + "&to=" + URLEncoder.encode("a@example.org", "UTF-8");
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A buffer smaller than the value is handed to the stream whenever it fills up without splitting an escape
+     */
+    @Test
+    public void field_SmallBuffer_SameAsUrlEncoder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FormEncoder(out, new byte[4]).field("text", VALUE).finish();
+
+        assertEquals("text=" + URLEncoder.encode(VALUE, "UTF-8"), new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
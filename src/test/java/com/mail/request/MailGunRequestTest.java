@@ -0,0 +1,107 @@
+package com.mail.request;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MailGunRequestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Recipient variables are sent as a JSON form field so MailGun sends a separate copy to each recipient
+     */
+    @Test
+    public void getData_RecipientVariables_SentAsJson() throws Exception {
+        Map<String, Map<String, String>> variables = new LinkedHashMap<>();
+        variables.put("a@example.org", Collections.singletonMap("index", "0"));
+        variables.put("b@example.org", Collections.singletonMap("index", "1"));
+
+        String data = new MailGunRequest.Builder("sender@example.org", new String[]{"a@example.org", "b@example.org"}, "Hello", "Text")
+                .recipientVariables(variables)
+                .build()
+                .getData();
+
+        String decoded = URLDecoder.decode(data, StandardCharsets.UTF_8.name());
+        assertTrue(decoded.contains("&to=a@example.org&to=b@example.org"));
+        assertTrue(decoded.endsWith("&recipient-variables={\"a@example.org\":{\"index\":\"0\"},\"b@example.org\":{\"index\":\"1\"}}"));
+    }
+
+    /**
+     * A plain message does not carry the batch field
+     */
+    @Test
+    public void getData_NoRecipientVariables_NoBatchField() throws Exception {
+        String data = new MailGunRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .build()
+                .getData();
+
+        assertFalse(data.contains("recipient-variables"));
+    }
+
+    /**
+     * A header of the email is sent as an h: prefixed field
+     */
+    @Test
+    public void getData_Header_PrefixedField() throws Exception {
+        String data = new MailGunRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .header("X-Hedge-Id", "42")
+                .build()
+                .getData();
+
+        assertTrue(URLDecoder.decode(data, StandardCharsets.UTF_8.name()).endsWith("&h:X-Hedge-Id=42"));
+    }
+
+    /**
+     * Streaming the body gives the same bytes as building it in memory
+     */
+    @Test
+    public void writeTo_SameAsGetBody() throws Exception {
+        MailGunRequest request = new MailGunRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Grüße", "Text & more")
+                .bcc(new String[]{"b@example.org"})
+                .build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.writeTo(out);
+
+        assertArrayEquals(request.getBody(), out.toByteArray());
+    }
+
+    /**
+     * With attachments the request switches to multipart/form-data, the fields become parts and the files are copied as they are
+     */
+    @Test
+    public void writeTo_Attachments_Multipart() throws Exception {
+        Path file = folder.newFile("logo.png").toPath();
+        Files.write(file, new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+
+        MailGunRequest request = new MailGunRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Grüße", "Text")
+                .attachment(new Attachment("logo.png", "image/png", true, "logo.png", file))
+                .build();
+        String boundary = request.getContentType().substring("multipart/form-data; boundary=".length());
+
+        String body = new String(request.getBody(), StandardCharsets.ISO_8859_1);
+
+        assertEquals("--" + boundary + "\r\nContent-Disposition: form-data; name=\"from\"\r\n\r\nsender@example.org\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"to\"\r\n\r\na@example.org\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"subject\"\r\n\r\n" + new String("Grüße".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1) + "\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"text\"\r\n\r\nText\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"inline\"; filename=\"logo.png\"\r\nContent-Type: image/png\r\n\r\n\u0089PNG\r\n"
+                + "--" + boundary + "--\r\n", body);
+    }
+}
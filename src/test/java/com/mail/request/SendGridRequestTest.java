@@ -0,0 +1,132 @@
+package com.mail.request;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendGridRequestTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Every added personalization becomes its own entry next to the one built from the main recipients
+     */
+    @Test
+    public void getData_Personalizations_OnePerRecipientSet() throws Exception {
+        SendGridRequest request = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .type("text/plain")
+                .personalization(new String[]{"b@example.org"}, new String[]{"c@example.org"}, null)
+                .personalization(new String[]{"d@example.org"}, null, null)
+                .build();
+
+        JsonNode personalizations = objectMapper.readTree(request.getData()).get("personalizations");
+
+        assertEquals(3, personalizations.size());
+        assertEquals("a@example.org", personalizations.get(0).get("to").get(0).get("email").asText());
+        assertEquals("c@example.org", personalizations.get(1).get("cc").get(0).get("email").asText());
+        assertEquals("d@example.org", personalizations.get(2).get("to").get(0).get("email").asText());
+        assertEquals("Hello", personalizations.get(2).get("subject").asText());
+    }
+
+    /**
+     * The headers of the email are sent as the headers object, which is left out when there are none
+     */
+    @Test
+    public void getData_Header_HeadersObject() throws Exception {
+        SendGridRequest request = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .header("X-Hedge-Id", "42")
+                .build();
+
+        assertEquals("42", objectMapper.readTree(request.getData()).get("headers").get("X-Hedge-Id").asText());
+        assertNull(objectMapper.readTree(new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .build().getData()).get("headers"));
+    }
+
+    /**
+     * Empty recipient lists are left out of the payload and the text is encoded in UTF-8
+     */
+    @Test
+    public void getBody_EmptyCcAndUnicodeText_Utf8WithoutEmptyFields() throws Exception {
+        SendGridRequest request = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Grüße", "Привет \"quoted\"")
+                .cc(new String[0])
+                .type("text/plain")
+                .build();
+
+        String body = new String(request.getBody(), StandardCharsets.UTF_8);
+
+        assertEquals("{\"personalizations\":[{\"to\":[{\"email\":\"a@example.org\"}],\"subject\":\"Grüße\"}],"
+                + "\"from\":{\"email\":\"sender@example.org\"},"
+                + "\"content\":[{\"type\":\"text/plain\",\"value\":\"Привет \\\"quoted\\\"\"}]}", body);
+    }
+
+    /**
+     * The thread buffer is reused, every call still returns its own copy
+     */
+    @Test
+    public void getBody_CalledTwice_IndependentCopies() throws Exception {
+        byte[] first = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "First", "Text").build().getBody();
+        byte[] second = new SendGridRequest.Builder("sender@example.org", new String[]{"b@example.org"}, "Second", "Text").build().getBody();
+
+        assertTrue(new String(first, StandardCharsets.UTF_8).contains("First"));
+        assertTrue(new String(second, StandardCharsets.UTF_8).contains("Second"));
+    }
+
+    /**
+     * Without extra personalizations the payload is the same single personalization as before
+     */
+    @Test
+    public void getData_NoPersonalizations_SinglePersonalization() throws Exception {
+        SendGridRequest request = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .type("text/plain")
+                .build();
+
+        JsonNode envelope = objectMapper.readTree(request.getData());
+
+        assertEquals(1, envelope.get("personalizations").size());
+        assertTrue(request.getPersonalizations().isEmpty());
+    }
+
+    /**
+     * The attachment is base64 encoded from the file into the attachments array, inline files carry their content id
+     */
+    @Test
+    public void writeTo_Attachments_Base64FromFile() throws Exception {
+        byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        Path file = folder.newFile("report.bin").toPath();
+        Files.write(file, content);
+
+        SendGridRequest request = new SendGridRequest.Builder("sender@example.org", new String[]{"a@example.org"}, "Hello", "Text")
+                .type("text/html")
+                .attachment(new Attachment("report.bin", "application/octet-stream", false, null, file))
+                .attachment(new Attachment("logo.png", "image/png", true, "logo", file))
+                .build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.writeTo(out);
+        JsonNode attachments = objectMapper.readTree(out.toByteArray()).get("attachments");
+
+        assertEquals(2, attachments.size());
+        assertEquals("report.bin", attachments.get(0).get("filename").asText());
+        assertEquals("attachment", attachments.get(0).get("disposition").asText());
+        assertEquals(Base64.getEncoder().encodeToString(content), attachments.get(0).get("content").asText());
+        assertEquals("inline", attachments.get(1).get("disposition").asText());
+        assertEquals("logo", attachments.get(1).get("content_id").asText());
+    }
+}
@@ -0,0 +1,115 @@
+package com.mail.retry;
+
+import com.mail.config.RetryConfiguration;
+import com.mail.support.MutableClock;
+import com.mail.support.RecordingRetryScheduler;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.function.DoubleSupplier;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetryPolicyTest {
+
+    private final MutableClock clock = new MutableClock(1500000000000L);
+
+    /**
+     * Every wait is a random time between the base delay and three times the previous wait, capped at the max delay
+     */
+    @Test
+    public void nextDelayMs_DecorrelatedJitter_GrowsUpToMaxDelay() {
+        RetryConfiguration config = TestConfigurations.retry(true);
+        ReflectionTestUtils.setField(config, "maxAttempts", 5);
+        ReflectionTestUtils.setField(config, "budgetMinPerSecond", 10.0);
+        RetryPolicy.Backoff backoff = policy(config, () -> 1).newBackoff();
+
+        assertEquals(300, backoff.nextDelayMs(-1));
+        assertEquals(900, backoff.nextDelayMs(-1));
+        assertEquals(2000, backoff.nextDelayMs(-1));
+        assertEquals(2000, backoff.nextDelayMs(-1));
+        assertEquals(-1, backoff.nextDelayMs(-1));
+        assertEquals(5, backoff.getAttempts());
+
+        RetryPolicy.Backoff lowest = policy(config, () -> 0).newBackoff();
+        assertEquals(100, lowest.nextDelayMs(-1));
+        assertEquals(100, lowest.nextDelayMs(-1));
+    }
+
+    /**
+     * The Retry-After of the provider is waited out in full, a longer one than allowed isn't retried
+     */
+    @Test
+    public void nextDelayMs_RetryAfter_WaitedOut() {
+        RetryPolicy policy = policy(TestConfigurations.retry(true), () -> 0);
+
+        assertEquals(3000, policy.newBackoff().nextDelayMs(3000));
+        assertEquals(-1, policy.newBackoff().nextDelayMs(60000));
+        assertEquals(1, policy.getRetryAfterTooLong());
+    }
+
+    /**
+     * Without successful sends only the reserve of the budget is left, the retries stop until it refills
+     */
+    @Test
+    public void nextDelayMs_BudgetUsed_NotRetried() {
+        RetryPolicy policy = policy(TestConfigurations.retry(true), () -> 0);
+
+        assertEquals(100, policy.newBackoff().nextDelayMs(-1));
+        assertEquals(-1, policy.newBackoff().nextDelayMs(-1));
+        assertEquals(1, policy.getExhausted());
+
+        clock.advance(1000);
+        assertEquals(100, policy.newBackoff().nextDelayMs(-1));
+
+        // Ten successes pay for a retry at a ratio of 0.1
+        for (int i = 0; i < 10; i++) {
+            policy.onSuccess();
+        }
+        assertEquals(1, policy.getBudgetBalance());
+        assertEquals(100, policy.newBackoff().nextDelayMs(-1));
+        assertEquals(-1, policy.newBackoff().nextDelayMs(-1));
+        assertEquals(3, policy.getRetries());
+    }
+
+    /**
+     * A disabled policy never retries
+     */
+    @Test
+    public void nextDelayMs_Disabled_NotRetried() {
+        assertEquals(-1, policy(TestConfigurations.retry(false), () -> 0).newBackoff().nextDelayMs(-1));
+    }
+
+    /**
+     * Retry-After is either seconds or an HTTP date
+     */
+    @Test
+    public void parseRetryAfter_SecondsOrDate_Milliseconds() {
+        RetryPolicy policy = policy(TestConfigurations.retry(true), () -> 0);
+
+        assertEquals(120000, policy.parseRetryAfter("120"));
+        // 2017-07-14T02:40:30Z, 30 seconds after the clock
+        assertEquals(30000, policy.parseRetryAfter("Fri, 14 Jul 2017 02:40:30 GMT"));
+        assertEquals(0, policy.parseRetryAfter("Fri, 14 Jul 2017 02:00:00 GMT"));
+        assertEquals(-1, policy.parseRetryAfter("soon"));
+        assertEquals(-1, policy.parseRetryAfter(null));
+    }
+
+    /**
+     * Throttling, timeouts and server errors are transient, the other client errors are permanent
+     */
+    @Test
+    public void of_StatusCodes_Classified() {
+        assertEquals(ResponseClass.ACCEPTED, ResponseClass.of(202));
+        assertEquals(ResponseClass.TRANSIENT, ResponseClass.of(429));
+        assertEquals(ResponseClass.TRANSIENT, ResponseClass.of(408));
+        assertEquals(ResponseClass.TRANSIENT, ResponseClass.of(503));
+        assertEquals(ResponseClass.PERMANENT, ResponseClass.of(400));
+        assertEquals(ResponseClass.PERMANENT, ResponseClass.of(401));
+    }
+
+    private RetryPolicy policy(RetryConfiguration config, DoubleSupplier jitter) {
+        return new RetryPolicy(config, new RecordingRetryScheduler(clock), clock, jitter);
+    }
+}
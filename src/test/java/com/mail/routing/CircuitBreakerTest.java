@@ -0,0 +1,137 @@
+package com.mail.routing;
+
+import com.mail.support.MutableClock;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final MutableClock clock = new MutableClock(1000000L);
+    private final CircuitBreaker breaker = new CircuitBreaker("sendgrid", TestConfigurations.circuitBreaker(), clock);
+
+    /**
+     * The breaker stays closed until the minimum number of requests is reached, then opens on the failure rate
+     */
+    @Test
+    public void onFailure_ThresholdReached_Opens() {
+        call(false);
+        call(true);
+        call(false);
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+
+        call(true);
+        assertEquals(CircuitState.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejected());
+        assertEquals(1, breaker.getTransitions());
+    }
+
+    /**
+     * Slow calls open the breaker even if the provider accepted them
+     */
+    @Test
+    public void onSuccess_SlowCalls_Opens() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onSuccess(6000);
+        }
+
+        assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+
+    /**
+     * Outcomes older than the rolling window don't count anymore
+     */
+    @Test
+    public void onFailure_OutsideWindow_Forgotten() {
+        call(true);
+        call(true);
+        call(true);
+        clock.advance(10000);
+
+        call(true);
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getRequests());
+    }
+
+    /**
+     * After the open duration only the trial requests go through and enough successes close the breaker
+     */
+    @Test
+    public void tryAcquire_HalfOpenTrialsSucceed_Closes() {
+        open();
+        clock.advance(1000);
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess(10);
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(10);
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRequests());
+    }
+
+    /**
+     * A cancelled trial frees its permit even if rejected requests came in meanwhile, the next request takes it and
+     * its success closes the breaker
+     */
+    @Test
+    public void onCancelled_RejectedCallerRaced_TrialFreed() {
+        open();
+        clock.advance(1000);
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onCancelled();
+        breaker.onSuccess(10);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess(10);
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+    }
+
+    /**
+     * A failed trial opens the breaker for another period
+     */
+    @Test
+    public void tryAcquire_HalfOpenTrialFails_OpensAgain() {
+        open();
+        clock.advance(1000);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure(10);
+        assertEquals(CircuitState.OPEN, breaker.getState());
+
+        clock.advance(999);
+        assertFalse(breaker.isCallPermitted());
+        clock.advance(1);
+        assertTrue(breaker.isCallPermitted());
+        assertEquals(3, breaker.getTransitions());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+
+    private void call(boolean fail) {
+        assertTrue(breaker.tryAcquire());
+        if (fail) {
+            breaker.onFailure(10);
+        } else {
+            breaker.onSuccess(10);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.mail.routing;
+
+import com.mail.config.HedgeConfiguration;
+import com.mail.support.TestConfigurations;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ScheduledFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgePolicyTest {
+
+    private HedgePolicy policy;
+
+    @After
+    public void tearDown() {
+        if (policy != null) {
+            policy.stop();
+        }
+    }
+
+    /**
+     * The initial delay is used until a window is complete, then the percentile of the window replaces it
+     */
+    @Test
+    public void recordLatency_WindowComplete_PercentileDelay() {
+        HedgeConfiguration config = TestConfigurations.hedge(true);
+        ReflectionTestUtils.setField(config, "windowSize", 100);
+        policy = new HedgePolicy(config, "sendgrid", "mailgun");
+
+        for (int i = 1; i < 100; i++) {
+            policy.recordLatency("sendgrid", i * 10);
+        }
+        assertEquals(1000, policy.getDelayMs("sendgrid"));
+
+        policy.recordLatency("sendgrid", 1000);
+        assertEquals(950, policy.getDelayMs("sendgrid"), 10);
+        assertEquals(1000, policy.getDelayMs("mailgun"));
+    }
+
+    /**
+     * A fast provider doesn't bring the delay under the minimum
+     */
+    @Test
+    public void recordLatency_FastProvider_MinDelay() {
+        HedgeConfiguration config = TestConfigurations.hedge(true);
+        ReflectionTestUtils.setField(config, "windowSize", 10);
+        policy = new HedgePolicy(config, "sendgrid");
+
+        for (int i = 0; i < 10; i++) {
+            policy.recordLatency("sendgrid", 2);
+        }
+
+        assertEquals(50, policy.getDelayMs("sendgrid"));
+    }
+
+    /**
+     * Every send adds budget-percent of a hedge, the sends beyond the budget are not hedged
+     */
+    @Test
+    public void tryAcquire_BudgetUsed_Exhausted() {
+        policy = new HedgePolicy(TestConfigurations.hedge(true), "sendgrid");
+
+        for (int i = 0; i < 40; i++) {
+            schedule();
+        }
+        assertTrue(policy.tryAcquire());
+        assertTrue(policy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+
+        policy.release();
+        assertTrue(policy.tryAcquire());
+        assertEquals(2, policy.getHedges());
+        assertEquals(1, policy.getExhausted());
+        assertEquals(40, policy.getSends());
+    }
+
+    /**
+     * A quiet period doesn't save up more than max-burst hedges
+     */
+    @Test
+    public void tryAcquire_IdlePeriod_CappedAtMaxBurst() {
+        HedgeConfiguration config = TestConfigurations.hedge(true);
+        ReflectionTestUtils.setField(config, "maxBurst", 2);
+        policy = new HedgePolicy(config, "sendgrid");
+
+        for (int i = 0; i < 1000; i++) {
+            schedule();
+        }
+
+        assertTrue(policy.tryAcquire());
+        assertTrue(policy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+    }
+
+    /**
+     * The win rate is the share of the hedges that answered first
+     */
+    @Test
+    public void getWinRate_HedgesAnswered_ShareOfWins() {
+        policy = new HedgePolicy(TestConfigurations.hedge(true), "sendgrid");
+        assertEquals(0, policy.getWinRate(), 0.001);
+
+        for (int i = 0; i < 80; i++) {
+            schedule();
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(policy.tryAcquire());
+        }
+        policy.onHedgeWin();
+
+        assertEquals(0.25, policy.getWinRate(), 0.001);
+    }
+
+    private void schedule() {
+        ScheduledFuture<?> timer = policy.schedule("sendgrid", () -> {
+        });
+        timer.cancel(false);
+    }
+}
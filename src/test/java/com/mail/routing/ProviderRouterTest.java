@@ -0,0 +1,145 @@
+package com.mail.routing;
+
+import com.mail.health.ProviderHealth;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ProviderSettings;
+import com.mail.provider.ProviderType;
+import com.mail.provider.SendGridMailProvider;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderRouterTest {
+
+    private final ProviderRegistry providers = new ProviderRegistry(TestConfigurations.sendGrid("http://localhost/sendgrid"),
+            TestConfigurations.mailGun("http://localhost/mailgun"));
+    // The monitor is never started, so the providers stay healthy until a probe result is recorded
+    private final ProviderHealthMonitor healthMonitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), providers);
+    private final CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(),
+            Clock.systemUTC(), "sendgrid", "mailgun");
+
+    /**
+     * Priority always goes to the first healthy provider and keeps the others as fallbacks
+     */
+    @Test
+    public void route_Priority_FirstHealthyProvider() {
+        ProviderRouter router = newRouter(RoutingStrategy.PRIORITY);
+
+        assertEquals(Arrays.asList("sendgrid", "mailgun"), router.route().getCandidates());
+
+        markUnhealthy("sendgrid");
+        RoutingDecision decision = router.route();
+        assertEquals("mailgun", decision.getProvider());
+        assertEquals(1, decision.getCandidates().size());
+
+        markUnhealthy("mailgun");
+        assertNull(router.route());
+    }
+
+    /**
+     * A provider with an open circuit breaker is skipped even though it is healthy
+     */
+    @Test
+    public void route_OpenBreaker_ProviderSkipped() {
+        ProviderRouter router = newRouter(RoutingStrategy.PRIORITY);
+
+        CircuitBreaker breaker = circuitBreakers.get("sendgrid");
+        for (int i = 0; i < 4; i++) {
+            breaker.tryAcquire();
+            breaker.onFailure(10);
+        }
+
+        assertEquals(Arrays.asList("mailgun"), router.route().getCandidates());
+    }
+
+    /**
+     * Weighted routing spreads the requests in proportion to the weights
+     */
+    @Test
+    public void route_Weighted_FollowsWeights() {
+        ProviderRouter router = newRouter(RoutingStrategy.WEIGHTED, "sendgrid:3", "mailgun:1");
+
+        int sendGrid = 0;
+        for (int i = 0; i < 10000; i++) {
+            if ("sendgrid".equals(router.route().getProvider())) {
+                sendGrid++;
+            }
+        }
+
+        assertTrue("sendgrid got " + sendGrid, sendGrid > 7000 && sendGrid < 8000);
+    }
+
+    /**
+     * A provider with a zero weight only gets requests when it is the last healthy one
+     */
+    @Test
+    public void route_WeightedZeroWeight_OnlyAsFallback() {
+        ProviderRouter router = newRouter(RoutingStrategy.WEIGHTED, "sendgrid:0", "mailgun:1");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Arrays.asList("mailgun", "sendgrid"), router.route().getCandidates());
+        }
+    }
+
+    /**
+     * Least latency picks the provider with the lowest moving average, unmeasured providers go first
+     */
+    @Test
+    public void route_LeastLatency_LowestAverage() {
+        ProviderRouter router = newRouter(RoutingStrategy.LEAST_LATENCY);
+
+        router.recordLatency("sendgrid", 120);
+        assertEquals("mailgun", router.route().getProvider());
+
+        router.recordLatency("mailgun", 200);
+        assertEquals("sendgrid", router.route().getProvider());
+
+        // 200 -> 110 -> 65 with a smoothing of 0.5
+        router.recordLatency("mailgun", 20);
+        router.recordLatency("mailgun", 20);
+        assertEquals(65, router.getLatency("mailgun"), 0.001);
+        assertEquals("mailgun", router.route().getProvider());
+    }
+
+    /**
+     * Every registered account is routed, the ones missing from the priority come after the listed ones
+     */
+    @Test
+    public void route_SecondAccount_WeightedAcrossAccounts() {
+        ProviderRegistry accounts = new ProviderRegistry(providers.get("sendgrid"), new SendGridMailProvider(
+                new ProviderSettings.Builder("sendgrid-eu", ProviderType.SENDGRID, "http://localhost/eu").build()), providers.get("mailgun"));
+        ProviderHealthMonitor monitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), accounts);
+        CircuitBreakerRegistry breakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(), Clock.systemUTC(), accounts.getNames());
+
+        ProviderRouter router = new ProviderRouter(TestConfigurations.routing(RoutingStrategy.PRIORITY), monitor, breakers, accounts);
+        assertEquals(Arrays.asList("sendgrid", "mailgun", "sendgrid-eu"), router.route().getCandidates());
+
+        router = new ProviderRouter(TestConfigurations.routing(RoutingStrategy.WEIGHTED, "sendgrid:1", "sendgrid-eu:1", "mailgun:0"), monitor, breakers, accounts);
+        int eu = 0;
+        for (int i = 0; i < 10000; i++) {
+            if ("sendgrid-eu".equals(router.route().getProvider())) {
+                eu++;
+            }
+        }
+        assertTrue("sendgrid-eu got " + eu, eu > 4500 && eu < 5500);
+    }
+
+    private ProviderRouter newRouter(RoutingStrategy strategy, String... weights) {
+        return new ProviderRouter(TestConfigurations.routing(strategy, weights), healthMonitor, circuitBreakers, providers);
+    }
+
+    private void markUnhealthy(String provider) {
+        for (ProviderHealth health : healthMonitor.getProviders()) {
+            if (health.getProvider().equals(provider)) {
+                health.record(false, System.currentTimeMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mail.services;
+
+import com.mail.dto.MailMessageDto;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchPlannerTest {
+
+    /**
+     * Messages that only differ in their recipients go out in one SendGrid call, chunked at the provider limit
+     */
+    @Test
+    public void plan_SendGridSameContent_ChunksAtLimit() {
+        List<MailMessageDto> messages = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            messages.add(message("Hello", "user" + i + "@example.org"));
+        }
+
+        List<List<Integer>> calls = BatchPlanner.plan(messages, 1000, false);
+
+        assertEquals(3, calls.size());
+        assertEquals(1000, calls.get(0).size());
+        assertEquals(1000, calls.get(1).size());
+        assertEquals(500, calls.get(2).size());
+        assertEquals(Integer.valueOf(2499), calls.get(2).get(499));
+    }
+
+    /**
+     * Different content can not share an envelope, the calls keep the order of their first message
+     */
+    @Test
+    public void plan_DifferentContent_SeparateCalls() {
+        List<MailMessageDto> messages = Arrays.asList(
+                message("Hello", "a@example.org"),
+                message("Bye", "b@example.org"),
+                message("Hello", "c@example.org"));
+
+        List<List<Integer>> calls = BatchPlanner.plan(messages, 1000, false);
+
+        assertEquals(2, calls.size());
+        assertEquals(Arrays.asList(0, 2), calls.get(0));
+        assertEquals(Arrays.asList(1), calls.get(1));
+    }
+
+    /**
+     * SendGrid counts every recipient of a personalization towards the limit
+     */
+    @Test
+    public void plan_SendGridManyRecipients_CountsAllRecipients() {
+        MailMessageDto big = message("Hello", "a@example.org");
+        big.setCc(new String[]{"b@example.org", "c@example.org"});
+
+        List<List<Integer>> calls = BatchPlanner.plan(Arrays.asList(big, message("Hello", "d@example.org"), big), 4, false);
+
+        assertEquals(2, calls.size());
+        assertEquals(Arrays.asList(0, 1), calls.get(0));
+        assertEquals(Arrays.asList(2), calls.get(1));
+    }
+
+    /**
+     * MailGun batches only single recipient messages and never the same recipient twice in one call
+     */
+    @Test
+    public void plan_MailGun_SingleRecipientOnly() {
+        MailMessageDto withCc = message("Hello", "a@example.org");
+        withCc.setCc(new String[]{"b@example.org"});
+        List<MailMessageDto> messages = Arrays.asList(
+                message("Hello", "a@example.org"),
+                withCc,
+                message("Hello", "c@example.org"),
+                message("Hello", "a@example.org"));
+
+        List<List<Integer>> calls = BatchPlanner.plan(messages, 1000, true);
+
+        assertEquals(3, calls.size());
+        assertEquals(Arrays.asList(0, 2), calls.get(0));
+        assertEquals(Arrays.asList(1), calls.get(1));
+        assertEquals(Arrays.asList(3), calls.get(2));
+    }
+
+    private MailMessageDto message(String subject, String to) {
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("sender@example.org");
+        dto.setTo(new String[]{to});
+        dto.setSubject(subject);
+        dto.setText("Text");
+        return dto;
+    }
+}
@@ -0,0 +1,148 @@
+package com.mail.services;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.auth.ProviderCredentials;
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.OutboxConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.metrics.StageMetrics;
+import com.mail.outbox.MailOutbox;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.HedgePolicy;
+import com.mail.routing.ProviderRouter;
+import com.mail.routing.RoutingStrategy;
+import com.mail.support.StubMailProvider;
+import com.mail.support.TestConfigurations;
+import com.mail.template.TemplateEngine;
+import com.mail.transport.PooledMailTransport;
+import com.mail.validation.EmailAddressValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EmailServiceConcurrencyTest {
+
+    private static final int SENDERS = 16;
+    private static final int EMAILS_PER_SENDER = 200;
+
+    private StubMailProvider sendGrid;
+    private StubMailProvider mailGun;
+    private PooledMailTransport transport;
+    private final Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        sendGrid = new StubMailProvider(8);
+        mailGun = new StubMailProvider(8);
+        transport = new PooledMailTransport(TestConfigurations.transport());
+
+        // Each provider must only ever receive its own payload format with the matching headers
+        sendGrid.setInspector(request -> {
+            if (!"application/json".equals(request.getContentType()) || !request.getBodyAsString().startsWith("{")
+                    || !request.getAuthorization().startsWith("Bearer ")) {
+                mismatches.add("sendgrid got " + request.getContentType() + " " + request.getBodyAsString());
+            }
+        });
+        mailGun.setInspector(request -> {
+            if (!"application/x-www-form-urlencoded".equals(request.getContentType()) || !request.getBodyAsString().startsWith("from=")
+                    || !request.getAuthorization().startsWith("Basic ")) {
+                mismatches.add("mailgun got " + request.getContentType() + " " + request.getBodyAsString());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        sendGrid.close();
+        mailGun.close();
+    }
+
+    /**
+     * Many parallel senders spread over both providers, every request has to carry the payload of the provider it was sent to
+     */
+    @Test
+    public void sendEmail_ParallelSenders_PayloadMatchesProvider() throws Exception {
+        EmailServiceImpl service = newService(RoutingStrategy.WEIGHTED);
+        ExecutorService executor = Executors.newFixedThreadPool(SENDERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int s = 0; s < SENDERS; s++) {
+            int sender = s;
+            results.add(executor.submit(() -> {
+                start.await();
+                int sent = 0;
+                for (int i = 0; i < EMAILS_PER_SENDER; i++) {
+                    EmailResponseDto response = service.sendEmail(message(sender, i));
+                    if (response.getStatus() == DeliveryStatus.SENT) {
+                        sent++;
+                    }
+                }
+                return sent;
+            }));
+        }
+
+        start.countDown();
+        int sent = 0;
+        for (Future<Integer> result : results) {
+            sent += result.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(mismatches.toString(), mismatches.isEmpty());
+        assertEquals(SENDERS * EMAILS_PER_SENDER, sent);
+        assertEquals(SENDERS * EMAILS_PER_SENDER, sendGrid.getRequests() + mailGun.getRequests());
+        assertTrue(sendGrid.getRequests() > 0 && mailGun.getRequests() > 0);
+    }
+
+    private EmailServiceImpl newService(RoutingStrategy strategy) {
+        SendGridHttpConfiguration sendGridConfig = TestConfigurations.sendGrid(sendGrid.getUrl());
+        MailGunHttpConfiguration mailGunConfig = TestConfigurations.mailGun(mailGun.getUrl());
+        ProviderRegistry providers = new ProviderRegistry(sendGridConfig, mailGunConfig);
+        ProviderHealthMonitor healthMonitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), providers);
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(), Clock.systemUTC(), "sendgrid", "mailgun");
+        ProviderRouter router = new ProviderRouter(TestConfigurations.routing(strategy, "sendgrid:1", "mailgun:1"), healthMonitor, circuitBreakers, providers);
+        OutboxConfiguration outboxConfig = TestConfigurations.disabledOutbox();
+
+        return new EmailServiceImpl(providers, router, circuitBreakers, transport, new MailOutbox(outboxConfig), TestConfigurations.batch(), new StageMetrics("sendgrid", "mailgun"), TestConfigurations.transport(),
+                new AttachmentStore(TestConfigurations.attachment(System.getProperty("java.io.tmpdir"))),
+                new TemplateEngine(TestConfigurations.template("classpath:templates/"), new DefaultResourceLoader()), new EmailAddressValidator(1000, 60000, Clock.systemUTC()),
+                TestConfigurations.validation(), new RateLimiter(TestConfigurations.rateLimit(0, 0)),
+                new ProviderCredentials(TestConfigurations.credentials(""), providers),
+                new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)),
+                new ResolvedEndpointCache(TestConfigurations.redirect(), providers));
+    }
+
+    private MailMessageDto message(int sender, int i) {
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("sender" + sender + "@example.org");
+        dto.setTo(new String[]{"user" + i + "@example.org"});
+        dto.setSubject("Hello " + i);
+        dto.setText("Email " + i + " of sender " + sender);
+        return dto;
+    }
+}
@@ -0,0 +1,733 @@
+package com.mail.services;
+
+import com.mail.attachment.AttachmentStore;
+import com.mail.auth.ProviderCredentials;
+import com.mail.config.HedgeConfiguration;
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.OutboxConfiguration;
+import com.mail.config.RetryConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import com.mail.dto.AttachmentDto;
+import com.mail.dto.BatchEmailResponseDto;
+import com.mail.dto.BatchMailMessageDto;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.dto.MailMessageDto;
+import com.mail.health.ProviderHealthMonitor;
+import com.mail.metrics.MailStage;
+import com.mail.metrics.StageMetrics;
+import com.mail.metrics.StageSnapshot;
+import com.mail.outbox.MailOutbox;
+import com.mail.provider.ProviderRegistry;
+import com.mail.provider.ResolvedEndpointCache;
+import com.mail.ratelimit.RateLimiter;
+import com.mail.retry.RetryPolicy;
+import com.mail.routing.CircuitBreakerRegistry;
+import com.mail.routing.CircuitState;
+import com.mail.routing.HedgePolicy;
+import com.mail.routing.ProviderRouter;
+import com.mail.routing.RoutingStrategy;
+import com.mail.support.MutableClock;
+import com.mail.support.RecordingRetryScheduler;
+import com.mail.support.StubMailProvider;
+import com.mail.support.TestConfigurations;
+import com.mail.template.TemplateEngine;
+import com.mail.transport.PooledMailTransport;
+import com.mail.validation.EmailAddressValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EmailServiceImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubMailProvider sendGrid;
+    private StubMailProvider mailGun;
+    private PooledMailTransport transport;
+    private CircuitBreakerRegistry circuitBreakers;
+    private StageMetrics stageMetrics;
+    private RateLimiter rateLimiter;
+    private ProviderRegistry providers;
+    private ProviderRouter router;
+    private ResolvedEndpointCache endpoints;
+    private EmailServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        sendGrid = new StubMailProvider();
+        mailGun = new StubMailProvider();
+        stageMetrics = new StageMetrics("sendgrid", "mailgun");
+        transport = new PooledMailTransport(TestConfigurations.transport(), stageMetrics);
+
+        SendGridHttpConfiguration sendGridConfig = TestConfigurations.sendGrid(sendGrid.getUrl());
+        MailGunHttpConfiguration mailGunConfig = TestConfigurations.mailGun(mailGun.getUrl());
+        providers = new ProviderRegistry(sendGridConfig, mailGunConfig);
+        ProviderHealthMonitor healthMonitor = new ProviderHealthMonitor(TestConfigurations.healthCheck(), providers);
+        circuitBreakers = new CircuitBreakerRegistry(TestConfigurations.circuitBreaker(), Clock.systemUTC(), "sendgrid", "mailgun");
+        router = new ProviderRouter(TestConfigurations.routing(RoutingStrategy.PRIORITY), healthMonitor, circuitBreakers, providers);
+        // The clock doesn't move, SendGrid can take 1000 calls in total
+        rateLimiter = new RateLimiter(TestConfigurations.rateLimit(0, 0, "sendgrid:1000"), new MutableClock(0));
+        endpoints = new ResolvedEndpointCache(TestConfigurations.redirect(), providers);
+
+        service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)));
+    }
+
+    private EmailServiceImpl newService(HedgePolicy hedgePolicy, RetryPolicy retryPolicy) {
+        return newService(hedgePolicy, retryPolicy, new MailOutbox(TestConfigurations.disabledOutbox()));
+    }
+
+    private EmailServiceImpl newService(HedgePolicy hedgePolicy, RetryPolicy retryPolicy, MailOutbox mailOutbox) {
+        return new EmailServiceImpl(providers, router, circuitBreakers, transport,
+                mailOutbox, TestConfigurations.batch(), stageMetrics, TestConfigurations.transport(),
+                new AttachmentStore(TestConfigurations.attachment(folder.getRoot().getPath())),
+                new TemplateEngine(TestConfigurations.template("classpath:templates/"), new DefaultResourceLoader()), new EmailAddressValidator(1000, 60000, Clock.systemUTC()),
+                TestConfigurations.validation(), rateLimiter,
+                new ProviderCredentials(TestConfigurations.credentials(""), providers), hedgePolicy, retryPolicy, endpoints);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        sendGrid.close();
+        mailGun.close();
+    }
+
+    /**
+     * A provider failing with server errors is failed over straight away and skipped once its breaker opens, the calls
+     * refused by the breaker don't count against the send rate of the provider
+     */
+    @Test
+    public void sendEmail_ProviderServerErrors_FailsOverAndOpensBreaker() throws Exception {
+        sendGrid.setStatus(503);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(DeliveryStatus.SENT, service.sendEmail(message(i)).getStatus());
+        }
+
+        assertEquals(4, sendGrid.getRequests());
+        assertEquals(10, mailGun.getRequests());
+        assertEquals(CircuitState.OPEN, circuitBreakers.get("sendgrid").getState());
+
+        int quota = 0;
+        while (rateLimiter.tryAcquireProvider("sendgrid")) {
+            quota++;
+        }
+        assertEquals(1000 - 4, quota);
+    }
+
+    /**
+     * The response names the provider that took the email and the id it gave it, a header of SendGrid or the body of MailGun
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_Sent_ProviderMessageId() throws Exception {
+        EmailResponseDto response = service.sendEmail(message(0));
+        assertEquals("sendgrid", response.getProvider());
+        assertEquals("stub-1", response.getProviderMessageId());
+
+        sendGrid.setStatus(400);
+        response = service.sendEmail(message(1));
+        assertEquals(DeliveryStatus.REJECTED, response.getStatus());
+        assertEquals("sendgrid", response.getProvider());
+        assertNull(response.getProviderMessageId());
+
+        sendGrid.setStatus(503);
+        response = service.sendEmailAsync(message(2)).get(5, TimeUnit.SECONDS);
+        assertEquals("mailgun", response.getProvider());
+        assertEquals("<stub@localhost>", response.getProviderMessageId());
+    }
+
+    /**
+     * A provider that reached its send rate is skipped without being called
+     */
+    @Test
+    public void sendEmail_ProviderSendRateReached_FailsOver() throws Exception {
+        while (rateLimiter.tryAcquireProvider("sendgrid")) {
+            // Uses up the quota of SendGrid
+        }
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(message(0)).getStatus());
+        assertEquals(0, sendGrid.getRequests());
+        assertEquals(1, mailGun.getRequests());
+        assertEquals(2, rateLimiter.getProviderRejected("sendgrid"));
+    }
+
+    /**
+     * A rejected email is a client error, it is neither failed over nor counted against the provider
+     */
+    @Test
+    public void sendEmail_ProviderRejects_NoFailover() throws Exception {
+        sendGrid.setStatus(400);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(DeliveryStatus.REJECTED, service.sendEmail(message(i)).getStatus());
+        }
+
+        assertEquals(10, sendGrid.getRequests());
+        assertEquals(0, mailGun.getRequests());
+        assertEquals(CircuitState.CLOSED, circuitBreakers.get("sendgrid").getState());
+    }
+
+    /**
+     * A rejected email isn't put into the outbox, the provider would refuse it on every replay. An email no provider
+     * could take is.
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_ProviderRejects_NotQueued() throws Exception {
+        MailOutbox mailOutbox = new MailOutbox(TestConfigurations.outbox(folder.newFolder("outbox").getPath()));
+        mailOutbox.open();
+        try {
+            service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)), mailOutbox);
+
+            sendGrid.setStatus(400);
+            assertEquals(DeliveryStatus.REJECTED, service.sendEmail(message(0)).getStatus());
+            BatchEmailResponseDto batch = service.sendBatch(Arrays.asList(message(1), message(2)));
+            assertEquals(DeliveryStatus.REJECTED, batch.getResults()[0].getStatus());
+            assertEquals(DeliveryStatus.REJECTED, batch.getResults()[1].getStatus());
+            assertEquals(0, mailOutbox.getPendingCount());
+
+            sendGrid.setStatus(503);
+            mailGun.setStatus(500);
+            assertEquals(DeliveryStatus.QUEUED, service.sendEmail(message(3)).getStatus());
+            assertEquals(1, mailOutbox.getPendingCount());
+        } finally {
+            mailOutbox.close();
+        }
+    }
+
+    /**
+     * Throttled by both providers, the route is retried once the Retry-After of the last provider has passed
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_ProvidersThrottle_RetriedAfterRetryAfter() throws Exception {
+        RecordingRetryScheduler scheduler = new RecordingRetryScheduler(new MutableClock(0));
+        service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers),
+                new RetryPolicy(TestConfigurations.retry(true), scheduler, new MutableClock(0), () -> 0));
+        sendGrid.setStatus(429);
+        mailGun.setStatus(429);
+        mailGun.setResponseHeader("Retry-After", "1");
+        sendGrid.setInspector(request -> {
+            if (sendGrid.getRequests() > 1) {
+                sendGrid.setStatus(202);
+            }
+        });
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(message(0)).getStatus());
+        assertEquals(2, sendGrid.getRequests());
+        assertEquals(1, mailGun.getRequests());
+        assertEquals(Collections.singletonList(1000L), scheduler.getDelays());
+        // Throttling isn't a failure of the provider
+        assertEquals(0, circuitBreakers.get("sendgrid").getFailureRate(), 0.001);
+    }
+
+    /**
+     * Server errors are retried with a growing backoff until the attempts run out, a rejection isn't retried at all
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmailAsync_ServerErrors_RetriedUntilMaxAttempts() throws Exception {
+        RecordingRetryScheduler scheduler = new RecordingRetryScheduler(new MutableClock(0));
+        RetryConfiguration config = TestConfigurations.retry(true);
+        ReflectionTestUtils.setField(config, "budgetMinPerSecond", 10.0);
+        RetryPolicy retryPolicy = new RetryPolicy(config, scheduler, new MutableClock(0), () -> 1);
+        service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers), retryPolicy);
+        sendGrid.setStatus(503);
+        mailGun.setStatus(500);
+
+        assertEquals(DeliveryStatus.FAILED, service.sendEmailAsync(message(0)).get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(3, sendGrid.getRequests());
+        assertEquals(3, mailGun.getRequests());
+        assertEquals(Arrays.asList(300L, 900L), scheduler.getDelays());
+        assertEquals(2, retryPolicy.getRetries());
+
+        sendGrid.setStatus(400);
+        assertEquals(DeliveryStatus.REJECTED, service.sendEmailAsync(message(1)).get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(4, sendGrid.getRequests());
+        assertEquals(3, mailGun.getRequests());
+        assertEquals(2, retryPolicy.getRetries());
+    }
+
+    /**
+     * The first request of each provider already carries its credentials, there's no challenge round trip
+     */
+    @Test
+    public void sendEmail_FirstRequest_Authorized() throws Exception {
+        List<String> authorizations = new CopyOnWriteArrayList<>();
+        sendGrid.setStatus(503);
+        sendGrid.setInspector(request -> authorizations.add(request.getAuthorization()));
+        mailGun.setInspector(request -> authorizations.add(request.getAuthorization()));
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(message(0)).getStatus());
+        assertEquals(Arrays.asList("Bearer SG.test", "Basic " + Base64.getEncoder().encodeToString("api:key-test".getBytes(StandardCharsets.UTF_8))),
+                authorizations);
+    }
+
+    /**
+     * Every stage of a send is timed against the provider it ran for
+     */
+    @Test
+    public void sendEmail_Sent_StagesRecorded() throws Exception {
+        service.sendEmail(message(0));
+        service.sendEmail(message(1));
+
+        Map<String, Long> counts = new HashMap<>();
+        for (StageSnapshot snapshot : stageMetrics.snapshot()) {
+            counts.put(snapshot.getStage() + " " + snapshot.getProvider() + " " + snapshot.isSuccess(), snapshot.getCount());
+        }
+
+        assertEquals(Long.valueOf(2), counts.get("VALIDATION none true"));
+        assertEquals(Long.valueOf(2), counts.get("ROUTING none true"));
+        assertEquals(Long.valueOf(2), counts.get("PAYLOAD sendgrid true"));
+        assertEquals(Long.valueOf(1), counts.get("CONNECT sendgrid true"));
+        assertEquals(Long.valueOf(2), counts.get("WRITE sendgrid true"));
+        assertEquals(Long.valueOf(2), counts.get("READ sendgrid true"));
+        assertEquals(Long.valueOf(2), counts.get("TOTAL sendgrid true"));
+        assertFalse(counts.containsKey("REDIRECT sendgrid true"));
+    }
+
+    /**
+     * A batch fails over to the next candidate like a single email, the messages refused by the first provider are
+     * planned again for the next one
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendBatch_ProviderServerError_FailsOver() throws Exception {
+        sendGrid.setStatus(503);
+
+        List<MailMessageDto> messages = Arrays.asList(message(0), message(1), message(2));
+        for (MailMessageDto dto : messages) {
+            dto.setText("Hello");
+        }
+
+        BatchEmailResponseDto batch = service.sendBatch(messages);
+
+        for (EmailResponseDto result : batch.getResults()) {
+            assertEquals(DeliveryStatus.SENT, result.getStatus());
+            assertEquals("mailgun", result.getProvider());
+        }
+        // A single envelope for SendGrid and a single call with the recipient variables for MailGun
+        assertEquals(1, sendGrid.getRequests());
+        assertEquals(1, mailGun.getRequests());
+        assertEquals(2, batch.getProviderCalls());
+
+        Map<String, Long> counts = new HashMap<>();
+        for (StageSnapshot snapshot : stageMetrics.snapshot()) {
+            counts.put(snapshot.getStage() + " " + snapshot.getProvider() + " " + snapshot.isSuccess(), snapshot.getCount());
+        }
+        assertEquals(Long.valueOf(1), counts.get("ROUTING none true"));
+        assertEquals(Long.valueOf(1), counts.get("TOTAL mailgun true"));
+    }
+
+    /**
+     * The messages of a batch no provider could take are retried along a new route like a single email
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendBatch_ServerErrors_RetriedUntilMaxAttempts() throws Exception {
+        RecordingRetryScheduler scheduler = new RecordingRetryScheduler(new MutableClock(0));
+        RetryConfiguration config = TestConfigurations.retry(true);
+        ReflectionTestUtils.setField(config, "budgetMinPerSecond", 10.0);
+        RetryPolicy retryPolicy = new RetryPolicy(config, scheduler, new MutableClock(0), () -> 1);
+        service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers), retryPolicy);
+        sendGrid.setStatus(503);
+        mailGun.setStatus(500);
+
+        BatchEmailResponseDto batch = service.sendBatch(Collections.singletonList(message(0)));
+
+        assertEquals(DeliveryStatus.FAILED, batch.getResults()[0].getStatus());
+        assertEquals(3, sendGrid.getRequests());
+        assertEquals(3, mailGun.getRequests());
+        assertEquals(Arrays.asList(300L, 900L), scheduler.getDelays());
+        assertEquals(6, batch.getProviderCalls());
+    }
+
+    /**
+     * A provider over its send rate is skipped for the whole batch
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendBatch_ProviderSendRateReached_FailsOver() throws Exception {
+        while (rateLimiter.tryAcquireProvider("sendgrid")) {
+            // Uses up the quota of SendGrid
+        }
+
+        BatchEmailResponseDto batch = service.sendBatch(Arrays.asList(message(0), message(1)));
+
+        assertEquals(DeliveryStatus.SENT, batch.getResults()[0].getStatus());
+        assertEquals(DeliveryStatus.SENT, batch.getResults()[1].getStatus());
+        assertEquals(0, sendGrid.getRequests());
+        assertEquals(2, mailGun.getRequests());
+        assertEquals(2, batch.getProviderCalls());
+    }
+
+    /**
+     * A permanent redirect is cached, the next email goes straight to the new url and the redirected request carries
+     * the body that has already been encoded
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_PermanentRedirect_Cached() throws Exception {
+        try (StubMailProvider moved = new StubMailProvider()) {
+            List<String> bodies = new CopyOnWriteArrayList<>();
+            sendGrid.setStatus(308);
+            sendGrid.setResponseHeader("Location", moved.getUrl());
+            sendGrid.setInspector(request -> bodies.add(request.getBodyAsString()));
+            moved.setInspector(request -> bodies.add(request.getBodyAsString()));
+
+            assertEquals(DeliveryStatus.SENT, service.sendEmail(message(0)).getStatus());
+            assertEquals(DeliveryStatus.SENT, service.sendEmailAsync(message(1)).get(5, TimeUnit.SECONDS).getStatus());
+
+            assertEquals(1, sendGrid.getRequests());
+            assertEquals(2, moved.getRequests());
+            assertEquals(bodies.get(0), bodies.get(1));
+            assertEquals(Long.valueOf(1), endpoints.getHits().get("sendgrid"));
+            assertEquals(1, endpoints.getRedirects("sendgrid"));
+        }
+    }
+
+    /**
+     * A temporary redirect is followed for the request only, the next email asks the configured url again
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmailAsync_TemporaryRedirect_NotCached() throws Exception {
+        try (StubMailProvider moved = new StubMailProvider()) {
+            sendGrid.setStatus(307);
+            sendGrid.setResponseHeader("Location", moved.getUrl());
+
+            for (int i = 0; i < 2; i++) {
+                assertEquals(DeliveryStatus.SENT, service.sendEmailAsync(message(i)).get(5, TimeUnit.SECONDS).getStatus());
+            }
+
+            assertEquals(2, sendGrid.getRequests());
+            assertEquals(2, moved.getRequests());
+            assertEquals(0, mailGun.getRequests());
+            assertEquals(Long.valueOf(0), endpoints.getHits().get("sendgrid"));
+        }
+    }
+
+    /**
+     * The non-blocking send fails over like the blocking one, the response completes once MailGun has answered
+     */
+    @Test
+    public void sendEmailAsync_ProviderServerErrors_FailsOver() throws Exception {
+        sendGrid.setStatus(503);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(DeliveryStatus.SENT, service.sendEmailAsync(message(i)).get(5, TimeUnit.SECONDS).getStatus());
+        }
+
+        assertEquals(4, sendGrid.getRequests());
+        assertEquals(10, mailGun.getRequests());
+        assertEquals(CircuitState.OPEN, circuitBreakers.get("sendgrid").getState());
+    }
+
+    /**
+     * Every provider failing completes the non-blocking send with a FAILED response
+     */
+    @Test
+    public void sendEmailAsync_AllProvidersFail_Failed() throws Exception {
+        sendGrid.setStatus(500);
+        mailGun.setStatus(502);
+
+        assertEquals(DeliveryStatus.FAILED, service.sendEmailAsync(message(0)).get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(1, sendGrid.getRequests());
+        assertEquals(1, mailGun.getRequests());
+    }
+
+    /**
+     * Every provider failing ends with a FAILED response
+     */
+    @Test
+    public void sendEmail_AllProvidersFail_Failed() throws Exception {
+        sendGrid.setStatus(500);
+        mailGun.setStatus(502);
+
+        assertEquals(DeliveryStatus.FAILED, service.sendEmail(message(0)).getStatus());
+        assertEquals(1, sendGrid.getRequests());
+        assertEquals(1, mailGun.getRequests());
+    }
+
+    /**
+     * A text above the stream threshold is encoded while it is sent instead of being built in memory first
+     */
+    @Test
+    public void sendEmail_LargeText_StreamedToProvider() throws Exception {
+        sendGrid.setStatus(503);
+        AtomicReference<String> received = new AtomicReference<>();
+        mailGun.setInspector(request -> received.set(request.getBodyAsString()));
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300000) {
+            text.append("Grüße & bonjour = 100% ").append(text.length()).append('\n');
+        }
+        MailMessageDto dto = message(0);
+        dto.setText(text.toString());
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(dto).getStatus());
+        assertEquals(text.toString(), URLDecoder.decode(received.get().split("&text=")[1], "UTF-8"));
+        for (StageSnapshot snapshot : stageMetrics.snapshot()) {
+            assertFalse(snapshot.getStage() == MailStage.PAYLOAD);
+        }
+    }
+
+    /**
+     * Attachments go to MailGun as multipart file parts and the spool file is deleted once the email is sent
+     */
+    @Test
+    public void sendEmail_Attachment_StreamedAsMultipartAndReleased() throws Exception {
+        sendGrid.setStatus(503);
+        AtomicReference<StubMailProvider.Request> received = new AtomicReference<>();
+        mailGun.setInspector(received::set);
+
+        Path file = folder.getRoot().toPath().resolve("attachment-1.bin");
+        Files.write(file, "invoice content".getBytes(StandardCharsets.UTF_8));
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setFilename("invoice.txt");
+        attachment.setContentType("text/plain");
+        attachment.setPath(file.toString());
+        MailMessageDto dto = message(0);
+        dto.setAttachments(new AttachmentDto[]{attachment});
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(dto).getStatus());
+        assertTrue(received.get().getContentType().startsWith("multipart/form-data; boundary="));
+        assertTrue(received.get().getBodyAsString().contains("name=\"attachment\"; filename=\"invoice.txt\"\r\nContent-Type: text/plain\r\n\r\ninvoice content\r\n"));
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * An email larger than an outbox segment can't be queued, it is returned as FAILED and its attachments are released
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_LargerThanOutboxSegment_FailedAndReleased() throws Exception {
+        OutboxConfiguration config = TestConfigurations.outbox(folder.newFolder("outbox").getPath());
+        ReflectionTestUtils.setField(config, "segmentSizeBytes", 1024);
+        MailOutbox mailOutbox = new MailOutbox(config);
+        mailOutbox.open();
+        try {
+            service = newService(new HedgePolicy(TestConfigurations.hedge(false), providers), new RetryPolicy(TestConfigurations.retry(false)), mailOutbox);
+            sendGrid.setStatus(503);
+            mailGun.setStatus(500);
+
+            Path file = folder.getRoot().toPath().resolve("attachment-3.bin");
+            Files.write(file, "invoice content".getBytes(StandardCharsets.UTF_8));
+            AttachmentDto attachment = new AttachmentDto();
+            attachment.setFilename("invoice.txt");
+            attachment.setContentType("text/plain");
+            attachment.setPath(file.toString());
+            MailMessageDto dto = message(0);
+            dto.setText(String.join("", Collections.nCopies(2048, "x")));
+            dto.setAttachments(new AttachmentDto[]{attachment});
+
+            assertEquals(DeliveryStatus.FAILED, service.sendEmail(dto).getStatus());
+            assertEquals(0, mailOutbox.getPendingCount());
+            assertFalse(Files.exists(file));
+        } finally {
+            mailOutbox.close();
+        }
+    }
+
+    /**
+     * A message with a template id is sent with the text rendered from the template
+     */
+    @Test
+    public void sendEmail_Template_TextRenderedOnServer() throws Exception {
+        AtomicReference<String> received = new AtomicReference<>();
+        sendGrid.setInspector(request -> received.set(request.getBodyAsString()));
+        MailMessageDto dto = message(0);
+        dto.setText(null);
+        dto.setTemplateId("welcome");
+        dto.getVariables().put("name", "Shruti");
+        dto.getVariables().put("product", "Email");
+        dto.getVariables().put("email", "user0@example.org");
+
+        assertEquals(DeliveryStatus.SENT, service.sendEmail(dto).getStatus());
+        assertTrue(received.get().contains("Hi Shruti,"));
+        assertTrue(received.get().contains("Your account user0@example.org is ready to use."));
+        assertEquals(Collections.singletonList("Unknown template - missing"), validateTemplate("missing"));
+    }
+
+    /**
+     * The shared message of a batch keeps its template, every recipient gets the text rendered from it
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendBatch_SharedTemplate_TextRenderedForEveryRecipient() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        sendGrid.setInspector(request -> received.add(request.getBodyAsString()));
+        MailMessageDto shared = message(0);
+        shared.setText(null);
+        shared.setTemplateId("welcome");
+        shared.getVariables().put("name", "Shruti");
+        shared.getVariables().put("product", "Email");
+        BatchMailMessageDto batch = new BatchMailMessageDto();
+        batch.setMessage(shared);
+        batch.setRecipients(new String[]{"user1@example.org", "user2@example.org"});
+
+        List<MailMessageDto> messages = batch.toMessages();
+        messages.get(0).getVariables().put("email", "user1@example.org");
+        assertNull(messages.get(1).getVariables().get("email"));
+
+        for (EmailResponseDto result : service.sendBatch(messages).getResults()) {
+            assertEquals(DeliveryStatus.SENT, result.getStatus());
+        }
+        String body = String.join("", received);
+        assertTrue(body.contains("Hi Shruti,"));
+        assertTrue(body.contains("Your account user1@example.org is ready to use."));
+        assertFalse(body.contains("{{"));
+    }
+
+    /**
+     * The same recipient with a different domain case is a duplicate and a field can't go over the configured maximum
+     */
+    @Test
+    public void validate_Recipients_DuplicatesAndCount() {
+        MailMessageDto dto = message(0);
+        dto.setCc(new String[]{"user0@EXAMPLE.org"});
+        assertEquals(Collections.singletonList("Email address in to, cc and bcc should be unique - user0@EXAMPLE.org"), service.validate(dto));
+
+        dto = message(0);
+        String[] bcc = new String[11];
+        for (int i = 0; i < bcc.length; i++) {
+            bcc[i] = "bcc" + i + "@example.org";
+        }
+        dto.setBcc(bcc);
+        assertEquals(Collections.singletonList("'bcc' can not contain more than 10 recipients"), service.validate(dto));
+    }
+
+    /**
+     * A primary that stalls past the hedge delay is raced by the next provider, the first answer is returned and both
+     * copies carry the same hedge id
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_PrimaryStalls_HedgeWins() throws Exception {
+        HedgeConfiguration config = TestConfigurations.hedge(true);
+        ReflectionTestUtils.setField(config, "initialDelayMs", 100L);
+        ReflectionTestUtils.setField(config, "budgetPercent", 100.0);
+        HedgePolicy hedgePolicy = new HedgePolicy(config, providers);
+        service = newService(hedgePolicy, new RetryPolicy(TestConfigurations.retry(false)));
+
+        List<String> hedgeIds = new CopyOnWriteArrayList<>();
+        sendGrid.setInspector(request -> {
+            hedgeIds.add(request.getBodyAsString().replaceAll("(?s).*\"X-Hedge-Id\":\"([^\"]+)\".*", "$1"));
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        mailGun.setInspector(request -> hedgeIds.add(request.getBodyAsString().replaceAll(".*h%3AX-Hedge-Id=([^&]+).*", "$1")));
+
+        try {
+            long start = System.nanoTime();
+            assertEquals(DeliveryStatus.SENT, service.sendEmail(message(0)).getStatus());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+
+            assertEquals(1, mailGun.getRequests());
+            assertEquals(1, hedgePolicy.getHedges());
+            assertEquals(1.0, hedgePolicy.getWinRate(), 0.001);
+            assertEquals(2, hedgeIds.size());
+            assertEquals(hedgeIds.get(0), hedgeIds.get(1));
+            // The cancelled request isn't a failure of SendGrid
+            assertEquals(0, circuitBreakers.get("sendgrid").getFailureRate(), 0.001);
+        } finally {
+            hedgePolicy.stop();
+        }
+    }
+
+    /**
+     * An email with attachments is streamed over the blocking client and never hedged, even past the hedge delay
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendEmail_AttachmentPrimaryStalls_NotHedged() throws Exception {
+        HedgeConfiguration config = TestConfigurations.hedge(true);
+        ReflectionTestUtils.setField(config, "initialDelayMs", 100L);
+        ReflectionTestUtils.setField(config, "budgetPercent", 100.0);
+        HedgePolicy hedgePolicy = new HedgePolicy(config, providers);
+        service = newService(hedgePolicy, new RetryPolicy(TestConfigurations.retry(false)));
+        sendGrid.setInspector(request -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Path file = folder.getRoot().toPath().resolve("attachment-2.bin");
+        Files.write(file, "invoice content".getBytes(StandardCharsets.UTF_8));
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setFilename("invoice.txt");
+        attachment.setContentType("text/plain");
+        attachment.setPath(file.toString());
+        MailMessageDto dto = message(0);
+        dto.setAttachments(new AttachmentDto[]{attachment});
+
+        try {
+            assertEquals(DeliveryStatus.SENT, service.sendEmail(dto).getStatus());
+            assertEquals(1, sendGrid.getRequests());
+            assertEquals(0, mailGun.getRequests());
+            assertEquals(0, hedgePolicy.getHedges());
+        } finally {
+            hedgePolicy.stop();
+        }
+    }
+
+    private List<String> validateTemplate(String templateId) {
+        MailMessageDto dto = message(0);
+        dto.setTemplateId(templateId);
+        return service.validate(dto);
+    }
+
+    private MailMessageDto message(int i) {
+        MailMessageDto dto = new MailMessageDto();
+        dto.setFrom("sender@example.org");
+        dto.setTo(new String[]{"user" + i + "@example.org"});
+        dto.setSubject("Hello");
+        dto.setText("Email " + i);
+        return dto;
+    }
+}
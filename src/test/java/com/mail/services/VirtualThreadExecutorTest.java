@@ -0,0 +1,61 @@
+package com.mail.services;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadExecutorTest {
+
+    /**
+     * A disabled executor leaves the sends on the request thread
+     */
+    @Test
+    public void submit_Disabled_Rejected() {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(false);
+
+        assertFalse(executor.isEnabled());
+        try {
+            executor.submit(() -> "sent");
+            fail("The task should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * On Java 21 the task runs on a virtual thread and its exception completes the future
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void submit_Java21_RunsOnVirtualThread() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(true);
+        assumeTrue(executor.isEnabled());
+        try {
+            CompletableFuture<Boolean> virtual = executor.submit(() -> (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()));
+            assertTrue(virtual.get(5, TimeUnit.SECONDS));
+            assertTrue(executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS).startsWith("mail-send-"));
+
+            try {
+                executor.submit(() -> {
+                    throw new IOException("provider down");
+                }).get(5, TimeUnit.SECONDS);
+                fail("The future should have failed");
+            } catch (ExecutionException e) {
+                assertEquals("provider down", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.mail.support;
+
+import com.mail.retry.RetryScheduler;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Completes every delay straight away and moves the clock forward by it instead, the retries of a test run
+ * deterministically and the delays they asked for can be checked
+ */
+public class RecordingRetryScheduler implements RetryScheduler {
+
+    private final MutableClock clock;
+    private final List<Long> delays = new CopyOnWriteArrayList<>();
+
+    public RecordingRetryScheduler(MutableClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public CompletableFuture<Void> delay(long delayMs) {
+        delays.add(delayMs);
+        clock.advance(delayMs);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public List<Long> getDelays() {
+        return delays;
+    }
+}
@@ -0,0 +1,135 @@
+package com.mail.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.util.StreamUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A local HTTP server standing in for a mail provider, it accepts every request with the configured status
+ */
+public class StubMailProvider implements Closeable {
+
+    static {
+        // Without it every keep-alive response waits for the delayed ack of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 202;
+    private volatile String responseBody = "{\"id\":\"<stub@localhost>\",\"message\":\"Queued. Thank you.\"}";
+    private final Map<String, String> responseHeaders = new ConcurrentHashMap<>();
+    private volatile Consumer<Request> inspector = request -> {
+    };
+
+    public StubMailProvider() throws IOException {
+        this(4);
+    }
+
+    public StubMailProvider(int threads) throws IOException {
+        executor = Executors.newFixedThreadPool(threads);
+        // Every thread can hold a connection, the backlog has to take a burst of them at once
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), Math.max(128, threads));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v3/mail/send";
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public void setResponseBody(String responseBody) {
+        this.responseBody = responseBody;
+    }
+
+    public void setResponseHeader(String name, String value) {
+        responseHeaders.put(name, value);
+    }
+
+    /**
+     * @param inspector Called with every request before the response is sent
+     */
+    public void setInspector(Consumer<Request> inspector) {
+        this.inspector = inspector;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = StreamUtils.copyToByteArray(exchange.getRequestBody());
+        requests.incrementAndGet();
+        inspector.accept(new Request(exchange.getRequestMethod(), exchange.getRequestHeaders().getFirst("Content-Type"),
+                exchange.getRequestHeaders().getFirst("Authorization"), body));
+
+        byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Message-Id", "stub-" + requests.get());
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+        }
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+    public static class Request {
+        private final String method;
+        private final String contentType;
+        private final String authorization;
+        private final byte[] body;
+
+        Request(String method, String contentType, String authorization, byte[] body) {
+            this.method = method;
+            this.contentType = contentType;
+            this.authorization = authorization;
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getAuthorization() {
+            return authorization;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+}
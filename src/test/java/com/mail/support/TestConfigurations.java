@@ -0,0 +1,246 @@
+package com.mail.support;
+
+import com.mail.config.AttachmentConfiguration;
+import com.mail.config.BatchConfiguration;
+import com.mail.config.CircuitBreakerConfiguration;
+import com.mail.config.CredentialsConfiguration;
+import com.mail.config.HealthCheckConfiguration;
+import com.mail.config.HedgeConfiguration;
+import com.mail.config.IdempotencyConfiguration;
+import com.mail.config.MailGunHttpConfiguration;
+import com.mail.config.OutboxConfiguration;
+import com.mail.config.ProvidersConfiguration;
+import com.mail.config.RateLimitConfiguration;
+import com.mail.config.RedirectConfiguration;
+import com.mail.config.RetryConfiguration;
+import com.mail.config.RoutingConfiguration;
+import com.mail.config.SendGridHttpConfiguration;
+import com.mail.config.TemplateConfiguration;
+import com.mail.config.TrackingConfiguration;
+import com.mail.config.TransportConfiguration;
+import com.mail.config.ValidationConfiguration;
+import com.mail.routing.RoutingStrategy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Builds the configurations without a Spring context, the values are the defaults of application.properties
+ */
+public final class TestConfigurations {
+
+    private TestConfigurations() {
+    }
+
+    public static SendGridHttpConfiguration sendGrid(String url) {
+        SendGridHttpConfiguration config = new SendGridHttpConfiguration();
+        ReflectionTestUtils.setField(config, "provider", "sendgrid");
+        ReflectionTestUtils.setField(config, "url", url);
+        ReflectionTestUtils.setField(config, "requestMethod", "POST");
+        ReflectionTestUtils.setField(config, "key", "SG.test");
+        ReflectionTestUtils.setField(config, "contentType", "application/json");
+        ReflectionTestUtils.setField(config, "acceptType", "application/json");
+        return config;
+    }
+
+    public static MailGunHttpConfiguration mailGun(String url) {
+        MailGunHttpConfiguration config = new MailGunHttpConfiguration();
+        ReflectionTestUtils.setField(config, "provider", "mailgun");
+        ReflectionTestUtils.setField(config, "url", url);
+        ReflectionTestUtils.setField(config, "requestMethod", "POST");
+        ReflectionTestUtils.setField(config, "key", "key-test");
+        ReflectionTestUtils.setField(config, "contentType", "application/x-www-form-urlencoded");
+        ReflectionTestUtils.setField(config, "acceptType", "application/json");
+        return config;
+    }
+
+    public static HealthCheckConfiguration healthCheck() {
+        HealthCheckConfiguration config = new HealthCheckConfiguration();
+        ReflectionTestUtils.setField(config, "intervalMs", 5000L);
+        ReflectionTestUtils.setField(config, "jitterMs", 1000L);
+        ReflectionTestUtils.setField(config, "timeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "healthyThreshold", 1);
+        ReflectionTestUtils.setField(config, "unhealthyThreshold", 1);
+        return config;
+    }
+
+    public static AttachmentConfiguration attachment(String spoolDirectory) {
+        AttachmentConfiguration config = new AttachmentConfiguration();
+        ReflectionTestUtils.setField(config, "spoolDirectory", spoolDirectory);
+        ReflectionTestUtils.setField(config, "maxCount", 3);
+        ReflectionTestUtils.setField(config, "maxSizeBytes", 1048576L);
+        return config;
+    }
+
+    public static TransportConfiguration transport() {
+        TransportConfiguration config = new TransportConfiguration();
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 5000);
+        ReflectionTestUtils.setField(config, "idleTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(config, "poolWaitTimeoutMs", 5000);
+        ReflectionTestUtils.setField(config, "maxConnectionsPerProvider", 20);
+        ReflectionTestUtils.setField(config, "streamThresholdBytes", 262144);
+        ReflectionTestUtils.setField(config, "nonBlocking", false);
+        ReflectionTestUtils.setField(config, "ioThreads", 2);
+        ReflectionTestUtils.setField(config, "maxInFlight", 10000);
+        ReflectionTestUtils.setField(config, "virtualThreads", false);
+        return config;
+    }
+
+    public static RoutingConfiguration routing(RoutingStrategy strategy, String... weights) {
+        RoutingConfiguration config = new RoutingConfiguration();
+        ReflectionTestUtils.setField(config, "strategy", strategy);
+        ReflectionTestUtils.setField(config, "priority", new String[]{"sendgrid", "mailgun"});
+        ReflectionTestUtils.setField(config, "weights", weights);
+        ReflectionTestUtils.setField(config, "latencySmoothing", 0.5);
+        return config;
+    }
+
+    /**
+     * @return Breaker that opens after 4 requests with half of them failed and half-opens after a second
+     */
+    public static CircuitBreakerConfiguration circuitBreaker() {
+        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        ReflectionTestUtils.setField(config, "windowMs", 10000L);
+        ReflectionTestUtils.setField(config, "buckets", 10);
+        ReflectionTestUtils.setField(config, "minimumRequests", 4);
+        ReflectionTestUtils.setField(config, "failureRateThreshold", 50);
+        ReflectionTestUtils.setField(config, "slowCallMs", 5000L);
+        ReflectionTestUtils.setField(config, "slowCallRateThreshold", 80);
+        ReflectionTestUtils.setField(config, "openDurationMs", 1000L);
+        ReflectionTestUtils.setField(config, "halfOpenTrials", 2);
+        return config;
+    }
+
+    public static BatchConfiguration batch() {
+        BatchConfiguration config = new BatchConfiguration();
+        ReflectionTestUtils.setField(config, "maxMessages", 10000);
+        ReflectionTestUtils.setField(config, "maxRecipientsPerCall", 1000);
+        return config;
+    }
+
+    public static TemplateConfiguration template(String location) {
+        TemplateConfiguration config = new TemplateConfiguration();
+        ReflectionTestUtils.setField(config, "location", location);
+        ReflectionTestUtils.setField(config, "cacheSize", 2);
+        return config;
+    }
+
+    public static ValidationConfiguration validation() {
+        ValidationConfiguration config = new ValidationConfiguration();
+        ReflectionTestUtils.setField(config, "cacheSize", 500000);
+        ReflectionTestUtils.setField(config, "cacheTtlMs", 3600000L);
+        ReflectionTestUtils.setField(config, "maxRecipientsPerField", 10);
+        ReflectionTestUtils.setField(config, "lowercaseLocalPart", false);
+        ReflectionTestUtils.setField(config, "stripPlusTag", false);
+        return config;
+    }
+
+    /**
+     * @param senderPerSecond Send rate of a sender, 0 to turn the sender limit off
+     * @param senderBurst     Emails a sender can send at once
+     * @return Rate limits without any client or provider limit
+     */
+    public static RateLimitConfiguration rateLimit(double senderPerSecond, int senderBurst, String... providerPerSecond) {
+        RateLimitConfiguration config = new RateLimitConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", true);
+        ReflectionTestUtils.setField(config, "clientHeader", "X-Api-Client");
+        ReflectionTestUtils.setField(config, "clientPerSecond", 0.0);
+        ReflectionTestUtils.setField(config, "clientBurst", 0);
+        ReflectionTestUtils.setField(config, "senderPerSecond", senderPerSecond);
+        ReflectionTestUtils.setField(config, "senderBurst", senderBurst);
+        ReflectionTestUtils.setField(config, "providerPerSecond", providerPerSecond);
+        ReflectionTestUtils.setField(config, "maxKeys", 100000);
+        return config;
+    }
+
+    /**
+     * @param file File of the records, null to keep them in memory only
+     * @return Store of 10 keys kept for a minute
+     */
+    public static ProvidersConfiguration providers(String... names) {
+        ProvidersConfiguration config = new ProvidersConfiguration();
+        ReflectionTestUtils.setField(config, "names", names);
+        return config;
+    }
+
+    public static HedgeConfiguration hedge(boolean enabled) {
+        HedgeConfiguration config = new HedgeConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", enabled);
+        ReflectionTestUtils.setField(config, "percentile", 95.0);
+        ReflectionTestUtils.setField(config, "windowSize", 200);
+        ReflectionTestUtils.setField(config, "initialDelayMs", 1000L);
+        ReflectionTestUtils.setField(config, "minDelayMs", 50L);
+        ReflectionTestUtils.setField(config, "budgetPercent", 5.0);
+        ReflectionTestUtils.setField(config, "maxBurst", 10);
+        return config;
+    }
+
+    public static RedirectConfiguration redirect() {
+        RedirectConfiguration config = new RedirectConfiguration();
+        ReflectionTestUtils.setField(config, "permanentTtlMs", 3600000L);
+        ReflectionTestUtils.setField(config, "temporaryTtlMs", 0L);
+        return config;
+    }
+
+    public static TrackingConfiguration tracking(boolean enabled) {
+        TrackingConfiguration config = new TrackingConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", enabled);
+        ReflectionTestUtils.setField(config, "maxEntries", 1000);
+        ReflectionTestUtils.setField(config, "averageIdBytes", 64);
+        return config;
+    }
+
+    public static RetryConfiguration retry(boolean enabled) {
+        RetryConfiguration config = new RetryConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", enabled);
+        ReflectionTestUtils.setField(config, "maxAttempts", 3);
+        ReflectionTestUtils.setField(config, "baseDelayMs", 100L);
+        ReflectionTestUtils.setField(config, "maxDelayMs", 2000L);
+        ReflectionTestUtils.setField(config, "maxRetryAfterMs", 5000L);
+        ReflectionTestUtils.setField(config, "budgetRatio", 0.1);
+        ReflectionTestUtils.setField(config, "budgetMinPerSecond", 1.0);
+        ReflectionTestUtils.setField(config, "budgetMaxBurst", 20);
+        return config;
+    }
+
+    public static CredentialsConfiguration credentials(String file) {
+        CredentialsConfiguration config = new CredentialsConfiguration();
+        ReflectionTestUtils.setField(config, "file", file);
+        ReflectionTestUtils.setField(config, "watch", true);
+        return config;
+    }
+
+    public static IdempotencyConfiguration idempotency(String file) {
+        IdempotencyConfiguration config = new IdempotencyConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", true);
+        ReflectionTestUtils.setField(config, "header", "Idempotency-Key");
+        ReflectionTestUtils.setField(config, "hashContent", false);
+        ReflectionTestUtils.setField(config, "maxEntries", 10);
+        ReflectionTestUtils.setField(config, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(config, "file", file);
+        return config;
+    }
+
+    /**
+     * @return Outbox configuration that keeps the outbox closed, failed emails are returned as FAILED
+     */
+    public static OutboxConfiguration disabledOutbox() {
+        OutboxConfiguration config = new OutboxConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", false);
+        return config;
+    }
+
+    /**
+     * @param directory Directory of the outbox segments
+     * @return Outbox configuration that puts the failed emails into the outbox, returned as QUEUED
+     */
+    public static OutboxConfiguration outbox(String directory) {
+        OutboxConfiguration config = new OutboxConfiguration();
+        ReflectionTestUtils.setField(config, "enabled", true);
+        ReflectionTestUtils.setField(config, "directory", directory);
+        ReflectionTestUtils.setField(config, "segmentSizeBytes", 64 * 1024);
+        ReflectionTestUtils.setField(config, "initialBackoffMs", 1000L);
+        ReflectionTestUtils.setField(config, "maxBackoffMs", 60000L);
+        ReflectionTestUtils.setField(config, "maxAttempts", 20);
+        return config;
+    }
+}
@@ -0,0 +1,116 @@
+package com.mail.template;
+
+import com.mail.dto.MailMessageDto;
+import com.mail.support.TestConfigurations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TemplateEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        File location = folder.newFolder("templates");
+        write(location, "welcome.html", "<p>Hi {{ name }}, welcome to {{product}}!</p>");
+        write(location, "receipt.txt", "Order {{order}} - {{missing}}{{ unclosed");
+        write(location, "reset.txt", "Reset {{link}}");
+        engine = new TemplateEngine(TestConfigurations.template(location.toURI().toString()), new DefaultResourceLoader());
+    }
+
+    /**
+     * The variables are put in place of their names, an html template sets the type of the message
+     */
+    @Test
+    public void apply_HtmlTemplate_TextRendered() throws Exception {
+        MailMessageDto dto = new MailMessageDto();
+        dto.setTemplateId("welcome");
+        Map<String, String> variables = new HashMap<>();
+        variables.put("name", "Shruti");
+        variables.put("product", "Mail & Co");
+        dto.setVariables(variables);
+
+        engine.apply(dto);
+
+        assertEquals("<p>Hi Shruti, welcome to Mail &amp; Co!</p>", dto.getText());
+        assertEquals("text/html", dto.getType());
+        assertNull(dto.getTemplateId());
+    }
+
+    /**
+     * The values put into an html template are escaped, the ones put into a text template are kept as they are
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void render_MarkupInVariables_EscapedInHtmlOnly() throws Exception {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("name", "<script>alert('hi')</script>");
+        variables.put("product", "\"Mail\"");
+        variables.put("link", "<a href=\"x\">");
+
+        assertEquals("<p>Hi &lt;script&gt;alert(&#39;hi&#39;)&lt;/script&gt;, welcome to &quot;Mail&quot;!</p>",
+                engine.render(engine.get("welcome"), variables));
+        assertEquals("Reset <a href=\"x\">", engine.render(engine.get("reset"), variables));
+    }
+
+    /**
+     * A missing variable renders as nothing and an unclosed variable is kept as text
+     */
+    @Test
+    public void render_MissingAndUnclosedVariables() throws Exception {
+        CompiledTemplate template = engine.get("receipt");
+
+        assertEquals("Order 42 - {{ unclosed", engine.render(template, Collections.singletonMap("order", "42")));
+        assertEquals("text/plain", template.getType());
+    }
+
+    /**
+     * The least recently used template is evicted once the cache is full
+     */
+    @Test
+    public void get_CacheFull_LeastRecentlyUsedEvicted() throws Exception {
+        engine.get("welcome");
+        engine.get("receipt");
+        engine.get("welcome");
+        engine.get("reset");
+        engine.get("welcome");
+
+        assertEquals(2, engine.getCacheSize());
+        assertEquals(1, engine.getEvictions());
+        assertEquals(2, engine.getHits());
+        assertEquals(3, engine.getMisses());
+    }
+
+    /**
+     * Unknown ids and ids that aren't plain names are not found
+     */
+    @Test
+    public void exists_UnknownOrInvalidId_False() {
+        assertTrue(engine.exists("reset"));
+        assertFalse(engine.exists("unknown"));
+        assertFalse(engine.exists("../templates/reset"));
+    }
+
+    private static void write(File directory, String name, String content) throws Exception {
+        Files.write(new File(directory, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,240 @@
+package com.mail.tracking;
+
+import com.mail.config.TrackingConfiguration;
+import com.mail.dto.BatchEmailResponseDto;
+import com.mail.dto.DeliveryStatus;
+import com.mail.dto.EmailResponseDto;
+import com.mail.support.TestConfigurations;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryTrackerTest {
+
+    /**
+     * A tracked email gets an id under which its provider, message id and status can be found again
+     */
+    @Test
+    public void track_Sent_FoundById() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid", "mailgun");
+
+        EmailResponseDto response = tracker.track(sent("mailgun", "<20261017.1@mg.example.org>", 42));
+        assertNotNull(response.getId());
+
+        EmailResponseDto tracked = tracker.get(response.getId());
+        assertEquals(response.getId(), tracked.getId());
+        assertEquals(DeliveryStatus.SENT, tracked.getStatus());
+        assertEquals(42, tracked.getTimestamp());
+        assertEquals("mailgun", tracked.getProvider());
+        assertEquals("<20261017.1@mg.example.org>", tracked.getProviderMessageId());
+        assertEquals(1, tracker.size());
+
+        assertNull(tracker.get(UUID.randomUUID().toString()));
+        assertNull(tracker.get("unknown"));
+        assertNull(tracker.get(new UUID(0, 0).toString()));
+    }
+
+    /**
+     * A later status replaces the earlier one in place, the message id is kept if the update doesn't carry one
+     */
+    @Test
+    public void put_Updated_StatusReplaced() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid", "mailgun");
+        UUID id = UUID.randomUUID();
+
+        tracker.put(id, new EmailResponseDto(DeliveryStatus.SENDING, null, 1));
+        assertNull(tracker.get(id.toString()).getProvider());
+
+        tracker.put(id, sent("sendgrid", "14c5d75ce93.dfd.64b469", 2));
+        tracker.put(id, new EmailResponseDto(DeliveryStatus.FAILED, null, 3));
+
+        EmailResponseDto tracked = tracker.get(id.toString());
+        assertEquals(DeliveryStatus.FAILED, tracked.getStatus());
+        assertEquals(3, tracked.getTimestamp());
+        assertEquals("sendgrid", tracked.getProvider());
+        assertEquals("14c5d75ce93.dfd.64b469", tracked.getProviderMessageId());
+        assertEquals(1, tracker.size());
+    }
+
+    /**
+     * Once a generation is full the oldest statuses are forgotten, the tracker never holds more than its capacity
+     */
+    @Test
+    public void put_GenerationsFull_OldestForgotten() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid");
+        assertEquals(1000, tracker.getCapacity());
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            ids.add(tracker.track(sent("sendgrid", "message-" + i, i)).getId());
+        }
+
+        assertEquals(1000, tracker.size());
+        assertNull(tracker.get(ids.get(0)));
+        assertNull(tracker.get(ids.get(499)));
+        assertEquals("message-500", tracker.get(ids.get(500)).getProviderMessageId());
+        assertEquals("message-1499", tracker.get(ids.get(1499)).getProviderMessageId());
+    }
+
+    /**
+     * The generations dropped by the rotations come back as cleared spares, nothing of an older generation shows up again
+     */
+    @Test
+    public void put_ManyRotations_SpareReusedCleared() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid");
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add(tracker.track(sent("sendgrid", "message-" + i, i)).getId());
+        }
+        long allocated = tracker.getAllocatedBytes();
+        for (int i = 5000; i < 10000; i++) {
+            ids.add(tracker.track(sent("sendgrid", "message-" + i, i)).getId());
+        }
+
+        assertEquals(1000, tracker.size());
+        // The spare is reused, the rotations don't allocate anymore
+        assertEquals(allocated, tracker.getAllocatedBytes());
+        for (int i = 0; i < 9000; i++) {
+            assertNull(tracker.get(ids.get(i)));
+        }
+        for (int i = 9000; i < 10000; i++) {
+            assertEquals("message-" + i, tracker.get(ids.get(i)).getProviderMessageId());
+        }
+    }
+
+    /**
+     * Message ids longer than the average still fit, the generation is rotated once its arena runs out
+     */
+    @Test
+    public void put_LongMessageIds_ArenaRotated() {
+        TrackingConfiguration config = TestConfigurations.tracking(true);
+        ReflectionTestUtils.setField(config, "maxEntries", 4);
+        ReflectionTestUtils.setField(config, "averageIdBytes", 16);
+        DeliveryTracker tracker = new DeliveryTracker(config, "mailgun");
+
+        // 27 bytes each, the arena of a generation only holds 32
+        String first = tracker.track(sent("mailgun", "<0123456789@mg.example.org>", 1)).getId();
+        String second = tracker.track(sent("mailgun", "<9876543210@mg.example.org>", 2)).getId();
+        assertEquals("<0123456789@mg.example.org>", tracker.get(first).getProviderMessageId());
+        String third = tracker.track(sent("mailgun", "<5555555555@mg.example.org>", 3)).getId();
+
+        assertNull(tracker.get(first));
+        assertEquals("<9876543210@mg.example.org>", tracker.get(second).getProviderMessageId());
+        assertEquals("<5555555555@mg.example.org>", tracker.get(third).getProviderMessageId());
+
+        // Longer than a whole arena, the status is kept without its message id
+        String fourth = tracker.track(sent("mailgun", "<0123456789012345678901234567890123456789@mg.example.org>", 4)).getId();
+        assertEquals(DeliveryStatus.SENT, tracker.get(fourth).getStatus());
+        assertNull(tracker.get(fourth).getProviderMessageId());
+    }
+
+    /**
+     * A large capacity costs nothing up front, the tables and the arenas double as the statuses come in and keep them
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void put_LargeCapacity_GrownLazily() throws Exception {
+        TrackingConfiguration config = TestConfigurations.tracking(true);
+        ReflectionTestUtils.setField(config, "maxEntries", 1000000);
+        DeliveryTracker tracker = new DeliveryTracker(config, "sendgrid");
+        assertEquals(1000000, tracker.getCapacity());
+        long initial = tracker.getAllocatedBytes();
+        assertTrue(initial + " bytes allocated up front", initial < 256 * 1024);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            ids.add(tracker.track(sent("sendgrid", "message-" + i, i)).getId());
+        }
+
+        assertTrue(tracker.getAllocatedBytes() > initial);
+        assertEquals(10000, tracker.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals("message-" + i, tracker.get(ids.get(i)).getProviderMessageId());
+        }
+    }
+
+    /**
+     * Lookups from many threads see every status put by the others, the tables grow underneath them
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void put_ConcurrentLookups_AllFound() throws Exception {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        String id = tracker.track(sent("sendgrid", thread + "-" + i, i)).getId();
+                        assertEquals(thread + "-" + i, tracker.get(id).getProviderMessageId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(400, tracker.size());
+    }
+
+    /**
+     * The messages of a batch sent in the same provider call share their response but get an id each
+     */
+    @Test
+    public void track_Batch_IdPerMessage() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(true), "sendgrid");
+        EmailResponseDto shared = sent("sendgrid", "14c5d75ce93.dfd.64b469", 1);
+        BatchEmailResponseDto batch = new BatchEmailResponseDto(2, 1, new EmailResponseDto[]{shared, shared});
+
+        assertSame(batch, tracker.track(batch));
+
+        EmailResponseDto[] results = batch.getResults();
+        assertNotEquals(results[0].getId(), results[1].getId());
+        assertEquals("14c5d75ce93.dfd.64b469", tracker.get(results[1].getId()).getProviderMessageId());
+        assertNull(shared.getId());
+    }
+
+    /**
+     * A disabled tracker leaves the responses without an id and allocates nothing
+     */
+    @Test
+    public void track_Disabled_NoId() {
+        DeliveryTracker tracker = new DeliveryTracker(TestConfigurations.tracking(false), "sendgrid");
+
+        EmailResponseDto response = tracker.track(sent("sendgrid", "14c5d75ce93.dfd.64b469", 1));
+
+        assertNull(response.getId());
+        assertEquals(0, tracker.size());
+        assertEquals(0, tracker.getCapacity());
+        assertEquals(0, tracker.getAllocatedBytes());
+    }
+
+    private static EmailResponseDto sent(String provider, String providerMessageId, long timestamp) {
+        EmailResponseDto response = new EmailResponseDto(DeliveryStatus.SENT, "Yayy, Your email has been sent!!", timestamp);
+        response.setProvider(provider);
+        response.setProviderMessageId(providerMessageId);
+        return response;
+    }
+}
@@ -0,0 +1,151 @@
+package com.mail.transport;
+
+import com.mail.config.TransportConfiguration;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PooledMailTransportTest {
+
+    private HttpServer server;
+    private Set<Integer> clientPorts;
+    private PooledMailTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        clientPorts = ConcurrentHashMap.newKeySet();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] request = StreamUtils.copyToByteArray(exchange.getRequestBody());
+            exchange.getResponseHeaders().add("X-Message-Id", "abc");
+            exchange.sendResponseHeaders(202, request.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(request);
+            }
+        });
+        server.start();
+
+        TransportConfiguration config = new TransportConfiguration();
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "idleTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(config, "poolWaitTimeoutMs", 1000);
+        ReflectionTestUtils.setField(config, "maxConnectionsPerProvider", 2);
+        ReflectionTestUtils.setField(config, "ioThreads", 1);
+        transport = new PooledMailTransport(config);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        server.stop(0);
+    }
+
+    /**
+     * Sequential sends to the same provider should reuse one keep-alive connection
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void send_Sequential_ReusesConnection() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            TransportResponse response = transport.send(request("{\"n\":" + i + "}"));
+
+            assertEquals(202, response.getStatusCode());
+            assertEquals("{\"n\":" + i + "}", response.getBodyAsString());
+        }
+
+        List<TransportPoolMetrics> metrics = transport.getPoolMetrics();
+        assertEquals(1, metrics.size());
+        assertEquals(20, metrics.get(0).getRequests());
+        assertEquals(1, metrics.get(0).getConnectionsOpened());
+        assertEquals(1, metrics.get(0).getAvailable());
+        assertEquals(0, metrics.get(0).getLeased());
+        assertEquals(1, clientPorts.size());
+    }
+
+    /**
+     * Response headers are exposed case insensitive and the body is fully read
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void send_ResponseHeaders_CaseInsensitive() throws Exception {
+        TransportResponse response = transport.send(request("{}"));
+
+        assertEquals("abc", response.getHeader("x-message-id"));
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), response.getBody());
+    }
+
+    /**
+     * The non-blocking send completes with the same response as the blocking one
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendAsync_Concurrent_AllCompleted() throws Exception {
+        List<CompletableFuture<TransportResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(transport.sendAsync(request("{\"n\":" + i + "}")));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            TransportResponse response = responses.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(202, response.getStatusCode());
+            assertEquals("abc", response.getHeader("x-message-id"));
+            assertEquals("{\"n\":" + i + "}", response.getBodyAsString());
+        }
+        // The sends share the connections of the pool
+        assertTrue(clientPorts.size() <= 2);
+    }
+
+    /**
+     * A body of unknown length is never handed to the event loop, it is streamed into the connection on the calling thread
+     *
+     * @throws Exception If an exception occurs
+     */
+    @Test
+    public void sendAsync_ChunkedBody_StreamedOnCallingThread() throws Exception {
+        List<Thread> writers = new ArrayList<>();
+        TransportRequest request = new TransportRequest.Builder("sendgrid", "http://localhost:" + server.getAddress().getPort() + "/v3/mail/send")
+                .header("Content-Type", "application/json")
+                .body(TransportBody.chunked(out -> {
+                    writers.add(Thread.currentThread());
+                    out.write("{\"chunked\":true}".getBytes(StandardCharsets.UTF_8));
+                }))
+                .build();
+
+        TransportResponse response = transport.sendAsync(request).get(5, TimeUnit.SECONDS);
+
+        assertEquals(202, response.getStatusCode());
+        assertEquals("{\"chunked\":true}", response.getBodyAsString());
+        assertEquals(1, writers.size());
+        assertEquals(Thread.currentThread(), writers.get(0));
+    }
+
+    private TransportRequest request(String body) {
+        return new TransportRequest.Builder("sendgrid", "http://localhost:" + server.getAddress().getPort() + "/v3/mail/send")
+                .header("Content-Type", "application/json")
+                .body(body.getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.mail.validation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DuplicateRecipientsTest {
+
+    @Test
+    public void find_DomainCase_SameRecipient() {
+        DuplicateRecipients duplicates = new DuplicateRecipients(false, false);
+
+        assertEquals(Collections.singletonList("foo@x.COM"), duplicates.find(new String[]{"foo@X.com"}, new String[]{"foo@x.COM"}, new String[0]));
+        assertEquals(Collections.emptyList(), duplicates.find(new String[]{"Foo@x.com", "foo@x.com"}, new String[0], new String[0]));
+    }
+
+    @Test
+    public void find_LowercaseLocalPart_SameRecipient() {
+        DuplicateRecipients duplicates = new DuplicateRecipients(true, false);
+
+        assertEquals(Collections.singletonList("foo@x.com"), duplicates.find(new String[]{"Foo@X.com"}, new String[0], new String[]{"foo@x.com"}));
+        assertEquals(Collections.emptyList(), duplicates.find(new String[]{"foo+a@x.com", "foo@x.com"}, new String[0], new String[0]));
+    }
+
+    @Test
+    public void find_StripPlusTag_SameRecipient() {
+        DuplicateRecipients duplicates = new DuplicateRecipients(false, true);
+
+        assertEquals(Arrays.asList("foo@x.com", "bar+b@x.com"),
+                duplicates.find(new String[]{"foo+news@x.com", "bar@x.com"}, new String[]{"foo@x.com"}, new String[]{"bar+b@x.com"}));
+        // The tag only belongs to the local part
+        assertEquals(Collections.emptyList(), duplicates.find(new String[]{"foo@x+y.com", "foo@x.com"}, new String[0], new String[0]));
+    }
+
+    /**
+     * A recipient repeated several times is reported once, addresses without a domain and nulls don't break the search
+     */
+    @Test
+    public void find_RepeatedRecipient_ReportedOnce() {
+        DuplicateRecipients duplicates = new DuplicateRecipients(false, false);
+
+        assertEquals(Arrays.asList("a@x.com", "nodomain"),
+                duplicates.find(new String[]{"a@x.com", null, "nodomain", "a@x.com"}, new String[]{"a@x.com", "nodomain@"}, new String[]{"nodomain", "A@x.com"}));
+    }
+
+    /**
+     * A large list of recipients, every one of them twice apart from the last
+     */
+    @Test
+    public void find_LargeList_EveryDuplicateFound() {
+        DuplicateRecipients duplicates = new DuplicateRecipients(true, false);
+        String[] to = new String[50000];
+        String[] bcc = new String[49999];
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < to.length; i++) {
+            to[i] = "user" + i + "@example.org";
+            if (i < bcc.length) {
+                bcc[i] = "USER" + i + "@Example.org";
+                expected.add(bcc[i]);
+            }
+        }
+
+        assertEquals(expected, duplicates.find(to, new String[0], bcc));
+    }
+}
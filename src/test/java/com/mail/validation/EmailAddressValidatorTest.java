@@ -0,0 +1,123 @@
+package com.mail.validation;
+
+import com.mail.support.MutableClock;
+import org.apache.commons.validator.routines.EmailValidator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EmailAddressValidatorTest {
+
+    private static final String[] LOCAL_PARTS = {"user", "first.last", "o'brien", "a+tag", "x", "_", "a..b", ".lead", "trail.", "we\"ird",
+            "back\\slash", "\"quoted user\"", "sp ace", "tab\t", "dash-ed", "pct%20", "josé", "a@b", "(comment)", "semi;colon",
+            "0123456789012345678901234567890123456789012345678901234567890123", "!#$%&*+/=?^`{|}~"};
+    private static final String[] DOMAINS = {"example.org", "EXAMPLE.COM", "mail.example.co.uk", "localhost", "example", "example.invalidtld",
+            "ex-ample.org", "-example.org", "example-.org", "exa_mple.org", "123.com", "example.123", "[192.168.0.1]", "[300.1.1.1]",
+            "[IPv6:::1]", "xn--bcher-kva.example", "bücher.de", "example.org.", ".example.org", "example..org", "a.b", "example.xn--p1ai",
+            "example.c0m", "e.museum", "sub.example.travel", "example.org ", "example.org\n",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa.org"};
+    private static final String ALPHABET = "abcXYZ019.-_@'\"\\ ()[]<>,;:!#$%&*+/=?^`{|}~\té";
+
+    /**
+     * Every address of a large generated corpus gets the same verdict as Commons Validator
+     */
+    @Test
+    public void check_GeneratedCorpus_SameAsEmailValidator() {
+        EmailAddressValidator validator = new EmailAddressValidator(1000, 60000, new MutableClock(0));
+        EmailValidator reference = EmailValidator.getInstance();
+        List<String> mismatches = new ArrayList<>();
+        int valid = 0;
+
+        for (String address : corpus()) {
+            boolean expected = reference.isValid(address);
+            if (validator.check(address) != expected) {
+                mismatches.add(address);
+            }
+            if (expected) {
+                valid++;
+            }
+        }
+
+        assertTrue(mismatches.toString(), mismatches.isEmpty());
+        assertTrue("The corpus should have plenty of valid addresses, got " + valid, valid > 10000);
+    }
+
+    /**
+     * A repeated address is answered from the cache until its verdict outlives the time to live
+     */
+    @Test
+    public void isValid_RepeatedAddress_CachedUntilExpired() {
+        MutableClock clock = new MutableClock(0);
+        EmailAddressValidator validator = new EmailAddressValidator(1000, 1000, clock);
+
+        assertTrue(validator.isValid("user@example.org"));
+        assertFalse(validator.isValid("user@example"));
+        assertTrue(validator.isValid("user@example.org"));
+        assertEquals(1, validator.getHits());
+
+        clock.advance(600);
+        assertTrue(validator.isValid("user@example.org"));
+        assertEquals(2, validator.getHits());
+
+        clock.advance(600);
+        assertTrue(validator.isValid("user@example.org"));
+        assertEquals(2, validator.getHits());
+    }
+
+    /**
+     * The cache never grows past its maximum size
+     */
+    @Test
+    public void isValid_ManyAddresses_CacheBounded() {
+        EmailAddressValidator validator = new EmailAddressValidator(100, 60000, new MutableClock(0));
+
+        for (int i = 0; i < 1000; i++) {
+            validator.isValid("user" + i + "@example.org");
+        }
+
+        assertTrue("Cache size " + validator.getCacheSize(), validator.getCacheSize() <= 100);
+    }
+
+    private static List<String> corpus() {
+        List<String> corpus = new ArrayList<>();
+        for (String local : LOCAL_PARTS) {
+            for (String domain : DOMAINS) {
+                corpus.add(local + "@" + domain);
+            }
+        }
+
+        // Random mutations of valid addresses, mostly one or two characters away from a valid one
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder address = new StringBuilder(LOCAL_PARTS[random.nextInt(4)] + i % 97 + "@" + DOMAINS[random.nextInt(3)]);
+            int mutations = random.nextInt(3);
+            for (int m = 0; m < mutations; m++) {
+                int position = random.nextInt(address.length() + 1);
+                char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        address.insert(position, c);
+                        break;
+                    case 1:
+                        if (position < address.length()) {
+                            address.setCharAt(position, c);
+                        }
+                        break;
+                    default:
+                        if (position < address.length()) {
+                            address.deleteCharAt(position);
+                        }
+                }
+            }
+            corpus.add(address.toString());
+        }
+
+        return corpus;
+    }
+}